@@ -57,7 +57,7 @@ public class BasePlugin implements Plugin {
      * The enabled-state of this plugin.
      * 
      */
-    private boolean enabled;
+    private volatile boolean enabled;
 
     /**
      * {@inheritDoc}
@@ -120,9 +120,59 @@ public interface PluginManager {
 
     // ~ Defaults ~
 
+    /**
+     * Gets a {@link ServiceHandle handle} to the implementation of the given
+     * <code>definition</code>. The handle always returns the current
+     * implementation, even if it is defined or revoked afterwards.
+     *
+     * <p>
+     * The default implementation invokes {@link #get(Class)} on every access.
+     * Implementations are encouraged to provide cheaper handles.
+     * </p>
+     *
+     * @param <T>
+     *            The type of the definition interface.
+     * @param definition
+     *            The definition interface.
+     * @return The handle.
+     */
+    default <T> ServiceHandle<T> getHandle(final Class<T> definition) {
+        if (definition == null) {
+            throw new IllegalArgumentException("Definition must not be null!");
+        }
+
+        return new ServiceHandle<T>() {
+            /**
+             * {@inheritDoc}
+             *
+             * @see com.dmken.oss.yapf.ServiceHandle#getDefinition()
+             */
+            @Override
+            public Class<T> getDefinition() {
+                return definition;
+            }
+
+            /**
+             * {@inheritDoc}
+             *
+             * @see com.dmken.oss.yapf.ServiceHandle#get()
+             */
+            @Override
+            public T get() throws MissingImplementationException {
+                return PluginManager.this.get(definition);
+            }
+        };
+    }
+
     /**
      * Disables all plugins.
      *
+     * <p>
+     * The default implementation disables the plugins sequentially in no
+     * particular order. Implementations are encouraged to disable dependents
+     * before their dependencies.
+     * </p>
+     *
      */
     default void disableAll() {
         this.getPlugins().forEach(this::disable);
@@ -131,6 +181,12 @@ public interface PluginManager {
     /**
      * Enables all plugins.
      *
+     * <p>
+     * The default implementation enables the plugins sequentially in no
+     * particular order. Implementations are encouraged to enable dependencies
+     * before their dependents.
+     * </p>
+     *
      */
     default void enableAll() {
         this.getPlugins().forEach(this::enable);
@@ -0,0 +1,72 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf;
+
+import java.util.Optional;
+
+import com.dmken.oss.yapf.exception.MissingImplementationException;
+
+/**
+ * A handle to the implementation of a definition. The handle is resolved once
+ * (see {@link PluginManager#getHandle(Class)}) and always returns the current
+ * implementation afterwards. That is, it observes implementations being
+ * defined and revoked.
+ *
+ * <p>
+ * Handles should be kept and reused (e.g. in a field) instead of invoking
+ * {@link PluginManager#get(Class)} repeatedly on hot paths.
+ * </p>
+ *
+ * @param <T>
+ *            The type of the definition interface.
+ */
+public interface ServiceHandle<T> {
+    /**
+     *
+     * @return The definition interface.
+     */
+    Class<T> getDefinition();
+
+    /**
+     * Gets the current implementation.
+     *
+     * @return The current implementation.
+     * @throws MissingImplementationException
+     *             If there is no implementation currently or its plugin is
+     *             disabled.
+     */
+    T get() throws MissingImplementationException;
+
+    // ~ Defaults ~
+
+    /**
+     * Gets the current implementation, if any.
+     *
+     * @return The current implementation or an empty {@link Optional} if there
+     *         is none.
+     */
+    default Optional<T> getIfAvailable() {
+        try {
+            return Optional.of(this.get());
+        } catch (final MissingImplementationException dummy) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.cache;
+
+/**
+ * An immutable snapshot of the statistics of a {@link Cacheable cacheable}
+ * method (see {@link ResultCache#getStatistics()}).
+ *
+ */
+public final class CacheStatistics {
+    /**
+     * The name of the method.
+     *
+     */
+    private final String name;
+    /**
+     * The signature of the method.
+     *
+     */
+    private final String signature;
+    /**
+     * The number of cache hits.
+     *
+     */
+    private final long hits;
+    /**
+     * The number of cache misses.
+     *
+     */
+    private final long misses;
+    /**
+     * The number of evicted results.
+     *
+     */
+    private final long evictions;
+
+    /**
+     * Constructor of CacheStatistics.
+     *
+     * @param name
+     *            {@link #name}.
+     * @param signature
+     *            {@link #signature}.
+     * @param hits
+     *            {@link #hits}.
+     * @param misses
+     *            {@link #misses}.
+     * @param evictions
+     *            {@link #evictions}.
+     */
+    CacheStatistics(final String name, final String signature, final long hits, final long misses, final long evictions) {
+        this.name = name;
+        this.signature = signature;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     *
+     * @return {@link #name}.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     *
+     * @return {@link #signature}.
+     */
+    public String getSignature() {
+        return this.signature;
+    }
+
+    /**
+     *
+     * @return {@link #hits}.
+     */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /**
+     *
+     * @return {@link #misses}.
+     */
+    public long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     *
+     * @return {@link #evictions}.
+     */
+    public long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     *
+     * @return The ratio of hits to all lookups. <code>0</code> if there were
+     *         no lookups.
+     */
+    public double getHitRatio() {
+        final long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : (double) this.hits / lookups;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return this.signature + "={hits=" + this.hits + ", misses=" + this.misses + ", evictions=" + this.evictions + "}";
+    }
+}
@@ -0,0 +1,64 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.cache;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marks a method of a definition interface as cacheable. The results of
+ * cacheable methods only depend on their arguments (e.g. pure lookups), so
+ * they are cached per implementation by the plugin manager (see
+ * {@link ResultCache}).
+ *
+ * <p>
+ * The arguments are compared using {@link java.util.Arrays#deepEquals(Object[], Object[])},
+ * so they should be immutable. Exceptions are never cached.
+ * </p>
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable {
+    /**
+     *
+     * @return The maximum number of cached results. If exceeded, the least
+     *         recently used result is evicted.
+     */
+    int maximumSize() default 1_000;
+
+    /**
+     *
+     * @return The time after which a cached result expires (relative to when
+     *         it was cached). Not positive if results should never expire.
+     */
+    long expireAfterWrite() default 0;
+
+    /**
+     *
+     * @return The unit of {@link #expireAfterWrite()}.
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+}
@@ -0,0 +1,139 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.cache;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The configuration and the statistics of a {@link Cacheable cacheable}
+ * method. Shared by all caches of the method.
+ *
+ */
+final class CachedMethod {
+    /**
+     * The method.
+     *
+     */
+    private final Method method;
+    /**
+     * The maximum number of cached results.
+     *
+     */
+    private final int maximumSize;
+    /**
+     * The time after which a cached result expires in nanoseconds. Not
+     * positive if results never expire.
+     *
+     */
+    private final long expireAfterWriteNanos;
+    /**
+     * The number of cache hits.
+     *
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * The number of cache misses.
+     *
+     */
+    private final LongAdder misses = new LongAdder();
+    /**
+     * The number of evicted results (either because the cache was full or
+     * because they expired).
+     *
+     */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor of CachedMethod.
+     *
+     * @param method
+     *            {@link #method}.
+     * @param cacheable
+     *            The annotation of the method.
+     */
+    CachedMethod(final Method method, final Cacheable cacheable) {
+        if (cacheable.maximumSize() <= 0) {
+            throw new IllegalArgumentException("Maximum size of <" + method + "> must be positive!");
+        }
+
+        this.method = method;
+        this.maximumSize = cacheable.maximumSize();
+        this.expireAfterWriteNanos = cacheable.expireAfterWrite() <= 0 ? 0
+                : cacheable.unit().toNanos(cacheable.expireAfterWrite());
+    }
+
+    /**
+     * Records a cache hit.
+     *
+     */
+    void hit() {
+        this.hits.increment();
+    }
+
+    /**
+     * Records a cache miss.
+     *
+     */
+    void miss() {
+        this.misses.increment();
+    }
+
+    /**
+     * Records an eviction.
+     *
+     */
+    void evicted() {
+        this.evictions.increment();
+    }
+
+    /**
+     *
+     * @return A snapshot of the statistics of this method.
+     */
+    CacheStatistics getStatistics() {
+        return new CacheStatistics(this.method.getName(), this.method.toString(), this.hits.sum(), this.misses.sum(),
+                this.evictions.sum());
+    }
+
+    /**
+     *
+     * @return {@link #method}.
+     */
+    Method getMethod() {
+        return this.method;
+    }
+
+    /**
+     *
+     * @return {@link #maximumSize}.
+     */
+    int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     *
+     * @return {@link #expireAfterWriteNanos}.
+     */
+    long getExpireAfterWriteNanos() {
+        return this.expireAfterWriteNanos;
+    }
+}
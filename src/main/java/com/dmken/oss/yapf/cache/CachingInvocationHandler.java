@@ -0,0 +1,332 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@link InvocationHandler} of the interceptors of the proxies created by
+ * {@link ResultCache#wrap(Object)}. Holds the cached results of a single
+ * implementation. Only the cacheable methods are forwarded to it.
+ *
+ */
+final class CachingInvocationHandler implements InvocationHandler {
+    /**
+     * The key of invocations without arguments.
+     *
+     */
+    private static final Object NO_ARGUMENTS = new Object();
+    /**
+     * Placeholder for cached <code>null</code> results.
+     *
+     */
+    private static final Object NULL = new Object();
+
+    /**
+     * The implementation.
+     *
+     */
+    private final Object implementation;
+    /**
+     * The caches of the cacheable methods.
+     *
+     */
+    private final Map<Method, MethodCache> caches = new HashMap<>();
+
+    /**
+     * Constructor of CachingInvocationHandler.
+     *
+     * @param implementation
+     *            {@link #implementation}.
+     * @param cachedMethods
+     *            The cacheable methods.
+     */
+    CachingInvocationHandler(final Object implementation, final Iterable<CachedMethod> cachedMethods) {
+        this.implementation = implementation;
+        for (final CachedMethod cachedMethod : cachedMethods) {
+            this.caches.put(cachedMethod.getMethod(), new MethodCache(cachedMethod));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+     *      java.lang.reflect.Method, java.lang.Object[])
+     */
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached[" + this.implementation + "]";
+                default:
+                    return this.invokeImplementation(method, args);
+            }
+        }
+
+        final MethodCache cache = this.caches.get(method);
+        if (cache == null) {
+            return this.invokeImplementation(method, args);
+        }
+
+        final Object key = args == null || args.length == 0 ? CachingInvocationHandler.NO_ARGUMENTS : new ArgumentsKey(args);
+        final Object cached = cache.get(key);
+        if (cached != null) {
+            return cached == CachingInvocationHandler.NULL ? null : cached;
+        }
+        // Concurrent misses may invoke the implementation multiple times,
+        // which is fine for idempotent methods.
+        final Object result = this.invokeImplementation(method, args);
+        cache.put(key, result == null ? CachingInvocationHandler.NULL : result);
+        return result;
+    }
+
+    /**
+     * Removes all cached results.
+     *
+     */
+    void invalidate() {
+        for (final MethodCache cache : this.caches.values()) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Invokes the given method on the implementation.
+     *
+     * @param method
+     *            The method to invoke.
+     * @param args
+     *            The arguments.
+     * @return The result.
+     * @throws Throwable
+     *             If the method throws an exception.
+     */
+    private Object invokeImplementation(final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(this.implementation, args);
+        } catch (final InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * The bounded, least recently used cache of a single method.
+     *
+     */
+    private static final class MethodCache {
+        /**
+         * The method.
+         *
+         */
+        private final CachedMethod method;
+        /**
+         * The cached entries in access order. Guarded by the lock of this
+         * cache.
+         *
+         */
+        private final LinkedHashMap<Object, Entry> entries;
+
+        /**
+         * Constructor of MethodCache.
+         *
+         * @param method
+         *            {@link #method}.
+         */
+        private MethodCache(final CachedMethod method) {
+            this.method = method;
+            this.entries = new LinkedHashMap<>(16, 0.75F, true);
+        }
+
+        /**
+         * Gets the cached result of the given key.
+         *
+         * @param key
+         *            The key.
+         * @return The cached result. <code>null</code> if there is none.
+         */
+        private Object get(final Object key) {
+            final Entry entry;
+            synchronized (this) {
+                entry = this.entries.get(key);
+                if (entry != null && entry.isExpired(System.nanoTime())) {
+                    this.entries.remove(key);
+                    this.method.evicted();
+                    this.method.miss();
+                    return null;
+                }
+            }
+            if (entry == null) {
+                this.method.miss();
+                return null;
+            }
+            this.method.hit();
+            return entry.value;
+        }
+
+        /**
+         * Caches the given result.
+         *
+         * @param key
+         *            The key.
+         * @param value
+         *            The result.
+         */
+        private void put(final Object key, final Object value) {
+            final long expireAfterWrite = this.method.getExpireAfterWriteNanos();
+            final long now = System.nanoTime();
+            final Entry entry = new Entry(value, expireAfterWrite <= 0 ? 0 : now + expireAfterWrite, expireAfterWrite > 0);
+            synchronized (this) {
+                this.entries.put(key, entry);
+                if (this.entries.size() > this.method.getMaximumSize()) {
+                    // Evict the least recently used entry.
+                    final Iterator<Entry> iterator = this.entries.values().iterator();
+                    iterator.next();
+                    iterator.remove();
+                    this.method.evicted();
+                }
+            }
+        }
+
+        /**
+         * Removes all entries.
+         *
+         */
+        private synchronized void clear() {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * A cached result.
+     *
+     */
+    private static final class Entry {
+        /**
+         * The result.
+         *
+         */
+        private final Object value;
+        /**
+         * The value of {@link System#nanoTime()} when the result expires.
+         *
+         */
+        private final long expiresAt;
+        /**
+         * Whether the result expires at all.
+         *
+         */
+        private final boolean expires;
+
+        /**
+         * Constructor of Entry.
+         *
+         * @param value
+         *            {@link #value}.
+         * @param expiresAt
+         *            {@link #expiresAt}.
+         * @param expires
+         *            {@link #expires}.
+         */
+        private Entry(final Object value, final long expiresAt, final boolean expires) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.expires = expires;
+        }
+
+        /**
+         *
+         * @param now
+         *            The current value of {@link System#nanoTime()}.
+         * @return Whether the result is expired.
+         */
+        private boolean isExpired(final long now) {
+            return this.expires && now - this.expiresAt >= 0;
+        }
+    }
+
+    /**
+     * The key of an invocation with arguments. The arguments are compared
+     * deeply (see {@link Arrays#deepEquals(Object[], Object[])}).
+     *
+     */
+    private static final class ArgumentsKey {
+        /**
+         * The arguments.
+         *
+         */
+        private final Object[] args;
+        /**
+         * The cached hash code of {@link #args}.
+         *
+         */
+        private final int hashCode;
+
+        /**
+         * Constructor of ArgumentsKey.
+         *
+         * @param args
+         *            {@link #args}.
+         */
+        private ArgumentsKey(final Object[] args) {
+            this.args = args.clone();
+            this.hashCode = Arrays.deepHashCode(this.args);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ArgumentsKey)) {
+                return false;
+            }
+            final ArgumentsKey other = (ArgumentsKey) obj;
+            return this.hashCode == other.hashCode && Arrays.deepEquals(this.args, other.args);
+        }
+    }
+}
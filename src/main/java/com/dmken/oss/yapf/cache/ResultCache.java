@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.dmken.oss.yapf.proxy.InterceptingForwardingProxy;
+import com.dmken.oss.yapf.proxy.ProxyFactory;
+
+/**
+ * Caches the results of the {@link Cacheable cacheable} methods of a
+ * definition interface.
+ *
+ * <p>
+ * {@link #wrap(Object) Wrapping} an implementation creates a proxy with its own
+ * bounded caches, so the cached results are bound to that implementation and
+ * are dropped together with the proxy (or {@link #invalidate(Object)
+ * explicitly}). The statistics are kept per method across all
+ * implementations.
+ * </p>
+ *
+ * <p>
+ * The proxy is generated per definition (see
+ * {@link ProxyFactory#newInterceptingProxySupplier(Class, java.util.Collection)}).
+ * Only the cacheable methods go through the cache, all other methods are
+ * invoked on the implementation directly.
+ * </p>
+ *
+ * <p>
+ * This is thread safe.
+ * </p>
+ *
+ */
+public final class ResultCache {
+    /**
+     * The definition interface.
+     *
+     */
+    private final Class<?> definition;
+    /**
+     * The cacheable methods of the definition.
+     *
+     */
+    private final List<CachedMethod> cachedMethods;
+    /**
+     * Creates the caching proxies.
+     *
+     */
+    private final Supplier<InterceptingForwardingProxy> proxies;
+
+    /**
+     * Constructor of ResultCache.
+     *
+     * @param definition
+     *            {@link #definition}. Must be a public interface with at least
+     *            one {@link Cacheable cacheable} method.
+     */
+    public ResultCache(final Class<?> definition) {
+        if (!ResultCache.isCacheable(definition)) {
+            throw new IllegalArgumentException("Definition must be a public interface with cacheable methods!");
+        }
+
+        this.definition = definition;
+        final Map<String, CachedMethod> methods = new LinkedHashMap<>();
+        for (final Method method : definition.getMethods()) {
+            final Cacheable cacheable = method.getAnnotation(Cacheable.class);
+            if (cacheable != null && method.getReturnType() != void.class) {
+                methods.putIfAbsent(method.toString(), new CachedMethod(method, cacheable));
+            }
+        }
+        this.cachedMethods = Collections.unmodifiableList(new ArrayList<>(methods.values()));
+        final List<Method> intercepted = new ArrayList<>(this.cachedMethods.size());
+        for (final CachedMethod cachedMethod : this.cachedMethods) {
+            intercepted.add(cachedMethod.getMethod());
+        }
+        this.proxies = ProxyFactory.newInterceptingProxySupplier(definition, intercepted);
+    }
+
+    /**
+     * Checks whether the given definition has {@link Cacheable cacheable}
+     * methods that can be cached.
+     *
+     * @param definition
+     *            The definition interface.
+     * @return Whether the given definition is a public interface with at
+     *         least one cacheable (non-void) method.
+     */
+    public static boolean isCacheable(final Class<?> definition) {
+        if (definition == null || !definition.isInterface() || !Modifier.isPublic(definition.getModifiers())) {
+            return false;
+        }
+        for (final Method method : definition.getMethods()) {
+            if (method.isAnnotationPresent(Cacheable.class) && method.getReturnType() != void.class) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wraps the given implementation in a caching proxy.
+     *
+     * @param implementation
+     *            The implementation. Must implement the definition.
+     * @return The caching proxy. It implements the definition.
+     */
+    public Object wrap(final Object implementation) {
+        if (!this.definition.isInstance(implementation)) {
+            throw new IllegalArgumentException("Implementation must implement the definition!");
+        }
+
+        final InterceptingForwardingProxy proxy = this.proxies.get();
+        proxy.setTarget(implementation);
+        proxy.setInterceptor(Proxy.newProxyInstance(this.definition.getClassLoader(), new Class<?>[] { this.definition },
+                new CachingInvocationHandler(implementation, this.cachedMethods)));
+        return proxy;
+    }
+
+    /**
+     * Removes all cached results of the given caching proxy.
+     *
+     * @param wrapped
+     *            The caching proxy (see {@link #wrap(Object)}). Other objects
+     *            are ignored.
+     */
+    public static void invalidate(final Object wrapped) {
+        if (!(wrapped instanceof InterceptingForwardingProxy)) {
+            return;
+        }
+        final Object interceptor = ((InterceptingForwardingProxy) wrapped).getInterceptor();
+        if (interceptor != null && Proxy.isProxyClass(interceptor.getClass())) {
+            final InvocationHandler handler = Proxy.getInvocationHandler(interceptor);
+            if (handler instanceof CachingInvocationHandler) {
+                ((CachingInvocationHandler) handler).invalidate();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return {@link #definition}.
+     */
+    public Class<?> getDefinition() {
+        return this.definition;
+    }
+
+    /**
+     * Creates a snapshot of the statistics of all cacheable methods.
+     *
+     * @return The statistics.
+     */
+    public List<CacheStatistics> getStatistics() {
+        final List<CacheStatistics> result = new ArrayList<>(this.cachedMethods.size());
+        for (final CachedMethod cachedMethod : this.cachedMethods) {
+            result.add(cachedMethod.getStatistics());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Gets a snapshot of the statistics of the given method.
+     *
+     * @param name
+     *            The name of the method.
+     * @return The statistics of the method. <code>null</code> if there is no
+     *         such cacheable method. If the method is overloaded, the
+     *         statistics of the first overload are returned.
+     */
+    public CacheStatistics getStatistics(final String name) {
+        for (final CachedMethod cachedMethod : this.cachedMethods) {
+            if (cachedMethod.getMethod().getName().equals(name)) {
+                return cachedMethod.getStatistics();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ResultCache[" + this.definition.getName() + ", " + this.getStatistics() + "]";
+    }
+}
@@ -19,21 +19,37 @@
  */
 package com.dmken.oss.yapf.event;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
  * Abstract implementation of {@link Cancelable} implementing the cancel
  * functionality.
  *
+ * <p>
+ * The cancellation is stored as a flag; the list of messages is only
+ * allocated once the event is cancelled, so an event that is not cancelled
+ * does not allocate anything besides itself. Events that are fired very
+ * frequently can be reused (e.g. pooled) by calling {@link #reset()} before
+ * firing them again. Cancelable events are always dispatched synchronously
+ * (see {@link EventBus#fire(Event)}), so an event may be reset as soon as
+ * firing it returned.
+ * </p>
+ *
  */
 public abstract class AbstractCancelableEvent extends AbstractEvent implements Cancelable {
     /**
-     * The reasons why the event was cancelled.
+     * Whether the event was cancelled.
      *
      */
-    private final List<String> cancelMessages = new LinkedList<>();
+    private boolean cancelled;
+    /**
+     * The reasons why the event was cancelled. <code>null</code> until the
+     * event is cancelled for the first time.
+     *
+     */
+    private List<String> cancelMessages;
 
     /**
      * {@inheritDoc}
@@ -42,7 +58,7 @@ public abstract class AbstractCancelableEvent extends AbstractEvent implements C
      */
     @Override
     public boolean isCancelled() {
-        return !this.cancelMessages.isEmpty();
+        return this.cancelled;
     }
 
     /**
@@ -52,6 +68,9 @@ public abstract class AbstractCancelableEvent extends AbstractEvent implements C
      */
     @Override
     public List<String> getCancelMessages() {
+        if (this.cancelMessages == null) {
+            return Collections.emptyList();
+        }
         return Collections.unmodifiableList(this.cancelMessages);
     }
 
@@ -62,6 +81,22 @@ public abstract class AbstractCancelableEvent extends AbstractEvent implements C
      */
     @Override
     public void cancel(final String message) {
+        if (this.cancelMessages == null) {
+            this.cancelMessages = new ArrayList<>(2);
+        }
         this.cancelMessages.add(message);
+        this.cancelled = true;
+    }
+
+    /**
+     * Resets the cancellation of this event so it can be fired again. The list
+     * of messages is kept (empty) to be reused.
+     *
+     */
+    public void reset() {
+        this.cancelled = false;
+        if (this.cancelMessages != null) {
+            this.cancelMessages.clear();
+        }
     }
 }
@@ -0,0 +1,569 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.event.EventBus.Subscription;
+
+/**
+ * Dispatches events asynchronously using a preallocated ring buffer with a
+ * single writer and multiple consumers.
+ *
+ * <p>
+ * Publishing threads are serialized, so at any time only one thread writes
+ * to the ring buffer. Each consumer thread reads every slot in order and
+ * passes the event to the listeners assigned to it. Every listener is
+ * assigned to exactly one consumer, so a listener receives the events in the
+ * order they were published while different listeners are served in
+ * parallel. A slot is cleared and reused once all consumers have passed it;
+ * what happens if the ring buffer is full is defined by the
+ * {@link OverflowPolicy}.
+ * </p>
+ *
+ * <p>
+ * A consumer never waits for the ring buffer as it would wait for itself.
+ * Events fired by listeners while the ring buffer is full are queued behind
+ * the ring buffer and moved into it as soon as slots become available, which
+ * keeps the order for every listener.
+ * </p>
+ *
+ * <p>
+ * The slots are allocated once, so publishing an event does not allocate
+ * anything as long as the ring buffer is not full. Use
+ * {@link EventBus#setAsyncDispatcher(AsyncEventDispatcher)} to enable the
+ * dispatcher.
+ * </p>
+ *
+ */
+public class AsyncEventDispatcher implements AutoCloseable {
+    /**
+     * The logger.
+     *
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncEventDispatcher.class);
+    /**
+     * The maximum time a blocked publisher waits before checking the ring
+     * buffer again (in milliseconds).
+     *
+     */
+    private static final long BLOCK_WAIT_MILLIS = 1;
+
+    /**
+     * The slots of the ring buffer. The length is a power of two.
+     *
+     */
+    private final Slot[] slots;
+    /**
+     * The mask to map a sequence to the index of a slot.
+     *
+     */
+    private final int mask;
+    /**
+     * The consumers.
+     *
+     */
+    private final Consumer[] consumers;
+    /**
+     * What to do if the ring buffer is full.
+     *
+     */
+    private final OverflowPolicy overflowPolicy;
+    /**
+     * The number of dropped events.
+     *
+     */
+    private final LongAdder droppedCount = new LongAdder();
+    /**
+     * The events fired by consumers while the ring buffer was full, in the
+     * order they were published. Guarded by the lock of this dispatcher.
+     *
+     */
+    private final Deque<Slot> overflow = new ArrayDeque<>();
+    /**
+     * Whether {@link #overflow} contains any events.
+     *
+     */
+    private volatile boolean overflowing;
+    /**
+     * The sequence of the last published event. <code>-1</code> if no event
+     * was published yet.
+     *
+     */
+    private volatile long cursor = -1;
+    /**
+     * Whether this dispatcher was closed.
+     *
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor of AsyncEventDispatcher.
+     *
+     * <p>
+     * Starts the consumer threads (daemon threads named
+     * <code>yapf-event-&lt;n&gt;</code>).
+     * </p>
+     *
+     * @param capacity
+     *            The number of slots of the ring buffer. Rounded up to the
+     *            next power of two.
+     * @param consumerCount
+     *            The number of consumer threads.
+     * @param overflowPolicy
+     *            {@link #overflowPolicy}.
+     */
+    public AsyncEventDispatcher(final int capacity, final int consumerCount, final OverflowPolicy overflowPolicy) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30!");
+        }
+        if (consumerCount < 1) {
+            throw new IllegalArgumentException("ConsumerCount must be positive!");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("OverflowPolicy must not be null!");
+        }
+
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            this.slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+
+        this.consumers = new Consumer[consumerCount];
+        for (int i = 0; i < consumerCount; i++) {
+            this.consumers[i] = new Consumer(i);
+        }
+        for (final Consumer consumer : this.consumers) {
+            consumer.thread.start();
+        }
+    }
+
+    /**
+     * Publishes the given event to be passed to the given subscriptions.
+     *
+     * @param event
+     *            The event.
+     * @param subscriptions
+     *            The subscriptions to pass the event to.
+     * @return Whether the event was handled (published or dropped). If
+     *         <code>false</code>, the caller has to dispatch the event
+     *         synchronously.
+     */
+    synchronized boolean publish(final Event event, final Subscription[] subscriptions) {
+        if (this.closed) {
+            return false;
+        }
+
+        this.flushOverflow();
+        if (!this.overflowing && this.hasCapacity()) {
+            this.append(event, subscriptions);
+            return true;
+        }
+
+        switch (this.overflowPolicy) {
+            case DROP:
+                this.droppedCount.increment();
+                AsyncEventDispatcher.LOGGER.debug("Ring buffer is full, dropped event {}.", event);
+                return true;
+            case BLOCK:
+                if (this.isConsumerThread()) {
+                    // A consumer waiting for itself would never wake up.
+                    final Slot pending = new Slot();
+                    pending.event = event;
+                    pending.subscriptions = subscriptions;
+                    this.overflow.add(pending);
+                    this.overflowing = true;
+                    return true;
+                }
+                return this.awaitCapacity(event, subscriptions);
+            default:
+                throw new IllegalStateException("Unknown overflow policy " + this.overflowPolicy + "!");
+        }
+    }
+
+    /**
+     * Closes this dispatcher. Events published before are still dispatched;
+     * this method waits until all consumers have finished. Afterwards,
+     * {@link #publish(Event, Subscription[])} rejects all events so that they
+     * are dispatched synchronously.
+     *
+     * <p>
+     * If the current thread is interrupted while waiting, this method returns
+     * early with the interrupt flag set and the consumers finish in the
+     * background.
+     * </p>
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.closed = true;
+        }
+
+        for (final Consumer consumer : this.consumers) {
+            LockSupport.unpark(consumer.thread);
+        }
+        try {
+            for (final Consumer consumer : this.consumers) {
+                if (consumer.thread != Thread.currentThread()) {
+                    consumer.thread.join();
+                }
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            AsyncEventDispatcher.LOGGER.warn("Interrupted while waiting for the event consumers to finish.");
+        }
+    }
+
+    /**
+     *
+     * @return The number of slots of the ring buffer.
+     */
+    public int getCapacity() {
+        return this.slots.length;
+    }
+
+    /**
+     *
+     * @return The number of consumer threads.
+     */
+    public int getConsumerCount() {
+        return this.consumers.length;
+    }
+
+    /**
+     *
+     * @return {@link #overflowPolicy}.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    /**
+     *
+     * @return The number of published events that were not yet dispatched by
+     *         all consumers.
+     */
+    public int getQueueDepth() {
+        final int overflowSize;
+        synchronized (this) {
+            overflowSize = this.overflow.size();
+        }
+        final long cursor = this.cursor;
+        return (int) Math.max(0, cursor - this.getMinimumSequence()) + overflowSize;
+    }
+
+    /**
+     *
+     * @return The number of events dropped because the ring buffer was full.
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.sum();
+    }
+
+    /**
+     *
+     * @return {@link #closed}.
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Waits until the ring buffer has a free slot and publishes the given
+     * event. The lock of this dispatcher is released while waiting, so
+     * listeners are able to fire events in the meantime.
+     *
+     * @param event
+     *            The event.
+     * @param subscriptions
+     *            The subscriptions to pass the event to.
+     * @return Whether the event was published. If <code>false</code>, the
+     *         dispatcher was closed or a consumer died while waiting and the
+     *         caller has to dispatch the event synchronously.
+     */
+    private synchronized boolean awaitCapacity(final Event event, final Subscription[] subscriptions) {
+        boolean interrupted = false;
+        try {
+            while (this.overflowing || !this.hasCapacity()) {
+                if (this.closed) {
+                    return false;
+                }
+                if (this.isConsumerDead()) {
+                    AsyncEventDispatcher.LOGGER.error("An event consumer died, dispatching event {} synchronously.", event);
+                    return false;
+                }
+                try {
+                    this.wait(AsyncEventDispatcher.BLOCK_WAIT_MILLIS);
+                } catch (final InterruptedException ex) {
+                    // Keep waiting as giving up would break the order.
+                    interrupted = true;
+                }
+                this.flushOverflow();
+            }
+            this.append(event, subscriptions);
+            return true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Moves as many events from the {@link #overflow} into the ring buffer as
+     * there are free slots.
+     *
+     */
+    private synchronized void flushOverflow() {
+        while (this.overflowing && this.hasCapacity()) {
+            final Slot pending = this.overflow.poll();
+            this.append(pending.event, pending.subscriptions);
+            this.overflowing = !this.overflow.isEmpty();
+        }
+    }
+
+    /**
+     * Writes the given event into the next slot, advances the {@link #cursor}
+     * and wakes up all waiting consumers. The ring buffer must have a free
+     * slot and the lock of this dispatcher must be held.
+     *
+     * @param event
+     *            The event.
+     * @param subscriptions
+     *            The subscriptions to pass the event to.
+     */
+    private void append(final Event event, final Subscription[] subscriptions) {
+        final long next = this.cursor + 1;
+        final Slot slot = this.slots[(int) next & this.mask];
+        slot.event = event;
+        slot.subscriptions = subscriptions;
+        slot.remaining = this.consumers.length;
+        this.cursor = next;
+
+        for (final Consumer consumer : this.consumers) {
+            if (consumer.waiting) {
+                LockSupport.unpark(consumer.thread);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return Whether the ring buffer has a free slot.
+     */
+    private boolean hasCapacity() {
+        return this.cursor + 1 - this.slots.length <= this.getMinimumSequence();
+    }
+
+    /**
+     *
+     * @return The sequence of the last event all consumers have dispatched.
+     */
+    private long getMinimumSequence() {
+        long minimum = Long.MAX_VALUE;
+        for (final Consumer consumer : this.consumers) {
+            minimum = Math.min(minimum, consumer.sequence);
+        }
+        return minimum;
+    }
+
+    /**
+     *
+     * @return Whether the current thread is one of the consumer threads.
+     */
+    private boolean isConsumerThread() {
+        final Thread current = Thread.currentThread();
+        for (final Consumer consumer : this.consumers) {
+            if (consumer.thread == current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @return Whether any of the consumer threads has terminated.
+     */
+    private boolean isConsumerDead() {
+        for (final Consumer consumer : this.consumers) {
+            if (!consumer.thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A slot of the ring buffer. Written by the publishing thread before the
+     * {@link AsyncEventDispatcher#cursor} is advanced and cleared by the last
+     * consumer passing it.
+     *
+     */
+    private static final class Slot {
+        /**
+         * Updates {@link #remaining}.
+         *
+         */
+        private static final AtomicIntegerFieldUpdater<Slot> REMAINING = AtomicIntegerFieldUpdater.newUpdater(Slot.class,
+                "remaining");
+
+        /**
+         * The event.
+         *
+         */
+        private Event event;
+        /**
+         * The subscriptions to pass the event to.
+         *
+         */
+        private Subscription[] subscriptions;
+        /**
+         * The number of consumers that have not yet passed this slot.
+         *
+         */
+        private volatile int remaining;
+    }
+
+    /**
+     * A consumer reading the ring buffer on its own thread.
+     *
+     */
+    private final class Consumer implements Runnable {
+        /**
+         * The index of this consumer. The consumer dispatches to all
+         * subscriptions whose ID modulo the number of consumers equals the
+         * index.
+         *
+         */
+        private final int index;
+        /**
+         * The thread of this consumer.
+         *
+         */
+        private final Thread thread;
+        /**
+         * The sequence of the last dispatched event.
+         *
+         */
+        private volatile long sequence = -1;
+        /**
+         * Whether this consumer is waiting for new events.
+         *
+         */
+        private volatile boolean waiting;
+
+        /**
+         * Constructor of Consumer.
+         *
+         * @param index
+         *            {@link #index}.
+         */
+        private Consumer(final int index) {
+            this.index = index;
+            this.thread = new Thread(this, "yapf-event-" + (index + 1));
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            final AsyncEventDispatcher outer = AsyncEventDispatcher.this;
+            final int consumerCount = outer.consumers.length;
+            long next = this.sequence + 1;
+            while (true) {
+                final long available = outer.cursor;
+                if (next > available) {
+                    if (outer.closed && !outer.overflowing) {
+                        // The cursor is not advanced once closed and the
+                        // overflow is empty; re-check it to not miss a
+                        // concurrent last event.
+                        if (next > outer.cursor) {
+                            break;
+                        }
+                        continue;
+                    }
+                    // Publishing advances the cursor before checking the
+                    // flag, so either the re-check sees the new event or the
+                    // publisher unparks this consumer.
+                    this.waiting = true;
+                    if (next > outer.cursor && (!outer.closed || outer.overflowing)) {
+                        LockSupport.park(outer);
+                    }
+                    this.waiting = false;
+                    continue;
+                }
+
+                for (; next <= available; next++) {
+                    final Slot slot = outer.slots[(int) next & outer.mask];
+                    final Event event = slot.event;
+                    for (final Subscription subscription : slot.subscriptions) {
+                        if (subscription.getId() % consumerCount == this.index) {
+                            this.dispatch(subscription, event);
+                        }
+                    }
+                    if (consumerCount == 1 || Slot.REMAINING.decrementAndGet(slot) == 0) {
+                        // Do not pin the event until the slot is reused.
+                        slot.event = null;
+                        slot.subscriptions = null;
+                    }
+                    this.sequence = next;
+
+                    if (outer.overflowing) {
+                        outer.flushOverflow();
+                    }
+                }
+            }
+            AsyncEventDispatcher.LOGGER.debug("Event consumer {} stopped.", this.thread.getName());
+        }
+
+        /**
+         * Passes the given event to the given subscription. Errors thrown by
+         * the listener are logged so that they do not kill the consumer
+         * thread.
+         *
+         * @param subscription
+         *            The subscription.
+         * @param event
+         *            The event.
+         */
+        private void dispatch(final Subscription subscription, final Event event) {
+            try {
+                subscription.dispatch(event);
+            } catch (final Throwable ex) {
+                AsyncEventDispatcher.LOGGER.error("Listener failed to handle event {} on {}.", event, this.thread.getName(), ex);
+            }
+        }
+    }
+}
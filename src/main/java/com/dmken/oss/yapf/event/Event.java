@@ -25,8 +25,11 @@ import com.dmken.oss.yapf.util.EventUtil;
  * Represents an event that can be fired using {@link EventUtil#fire(Event)}.
  * 
  * <p>
- * How the firing works depends on the environment the code is running in (e.g.
- * in a Spring environment, the event is published as an application event).
+ * The event is dispatched to the listeners registered on the event bus it is
+ * fired on ({@link EventUtil#fire(Event)} uses the
+ * {@link EventBus#getDefault() default event bus}, the plugin loader and the
+ * plugin manager use their own). In a Spring environment, the events of the
+ * event bus bean are also published as application events.
  * </p>
  *
  */
@@ -0,0 +1,636 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.Plugin;
+
+/**
+ * An in-process event bus dispatching {@link Event events} to typed
+ * {@link EventListener listeners}.
+ *
+ * <p>
+ * A listener registered for an event type receives all events of that type
+ * and its subtypes, in the order the listeners were registered. The listeners
+ * of each event class are collected into a dispatch table (an array) once and
+ * reused until the listeners change, so firing an event does not allocate
+ * anything per listener. Registering and unregistering listeners copies the
+ * listeners and clears the dispatch tables, so they do not retain removed
+ * listeners (e.g. of unloaded plugins).
+ * </p>
+ *
+ * <p>
+ * Listeners may be owned by a plugin. They are removed when their plugin is
+ * disabled or unloaded (see {@link #unregisterAll(Plugin)}). The
+ * {@link Listen listener methods} of a plugin main class are registered when
+ * the plugin is enabled (see {@link #registerAnnotated(Plugin, Object)}).
+ * </p>
+ *
+ * <p>
+ * An exception thrown by a listener is logged and does not prevent the other
+ * listeners from receiving the event. Listeners registered using
+ * {@link #registerPropagating(Class, EventListener)} (e.g. the
+ * {@link com.dmken.oss.yapf.spring.SpringEventBridge Spring bridge}) are the
+ * exception: If they fail while the event is dispatched synchronously, the
+ * exception is rethrown by {@link #fire(Event)} once all listeners received
+ * the event, so the firing operation is aborted.
+ * </p>
+ *
+ * <p>
+ * By default, events are dispatched synchronously on the firing thread. An
+ * {@link AsyncEventDispatcher} can be set to move the listeners off the
+ * firing thread (see {@link #setAsyncDispatcher(AsyncEventDispatcher)}).
+ * </p>
+ *
+ */
+public class EventBus {
+    /**
+     * The logger.
+     *
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventBus.class);
+    /**
+     * Empty array of subscriptions.
+     *
+     */
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+    /**
+     * The default event bus used by YAPF (see
+     * {@link com.dmken.oss.yapf.util.EventUtil}).
+     *
+     */
+    private static final EventBus DEFAULT = new EventBus();
+
+    /**
+     * All subscriptions in registration order. Replaced whenever the
+     * listeners change (only while holding the lock of this bus), so the
+     * array also identifies the version of the listeners.
+     *
+     */
+    private volatile Subscription[] subscriptions = EventBus.NO_SUBSCRIPTIONS;
+    /**
+     * The dispatch tables per event class. A class value does not prevent the
+     * event classes (e.g. of plugins) from being unloaded.
+     *
+     */
+    private final ClassValue<DispatchTable> tables = new ClassValue<DispatchTable>() {
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.ClassValue#computeValue(java.lang.Class)
+         */
+        @Override
+        protected DispatchTable computeValue(final Class<?> eventClass) {
+            final DispatchTable table = new DispatchTable(eventClass);
+            synchronized (EventBus.this.tableReferences) {
+                EventBus.this.tableReferences.add(new WeakReference<>(table));
+            }
+            return table;
+        }
+    };
+    /**
+     * The dispatch tables (weakly referenced, so they can be collected
+     * together with their event classes) to clear when the listeners change.
+     * Guarded by itself.
+     *
+     */
+    private final List<WeakReference<DispatchTable>> tableReferences = new ArrayList<>();
+    /**
+     * The dispatcher delivering non-cancelable events asynchronously.
+     * <code>null</code> if all events are dispatched synchronously.
+     *
+     */
+    private volatile AsyncEventDispatcher asyncDispatcher;
+    /**
+     * The ID of the next subscription (only accessed while holding the lock of
+     * this bus).
+     *
+     */
+    private int nextSubscriptionId;
+
+    /**
+     *
+     * @return The default event bus used by YAPF.
+     */
+    public static EventBus getDefault() {
+        return EventBus.DEFAULT;
+    }
+
+    /**
+     * Registers the given listener for all events of the given type (including
+     * subtypes). The listener is not owned by any plugin.
+     *
+     * @param <E>
+     *            The type of the events.
+     * @param eventType
+     *            The type of the events.
+     * @param listener
+     *            The listener.
+     */
+    public <E extends Event> void register(final Class<E> eventType, final EventListener<? super E> listener) {
+        this.register(null, eventType, listener);
+    }
+
+    /**
+     * Registers the given listener for all events of the given type (including
+     * subtypes). The listener is removed when the given plugin is disabled.
+     *
+     * @param <E>
+     *            The type of the events.
+     * @param owner
+     *            The plugin owning the listener. May be <code>null</code>.
+     * @param eventType
+     *            The type of the events.
+     * @param listener
+     *            The listener.
+     */
+    public <E extends Event> void register(final Plugin owner, final Class<E> eventType,
+            final EventListener<? super E> listener) {
+        this.register(owner, eventType, listener, false);
+    }
+
+    /**
+     * Registers the given listener for all events of the given type (including
+     * subtypes). Unlike {@link #register(Class, EventListener)}, an exception
+     * thrown by the listener while an event is dispatched synchronously is
+     * rethrown by {@link #fire(Event)} (after all listeners received the
+     * event). If the event is dispatched asynchronously, the exception is
+     * logged. The listener is not owned by any plugin.
+     *
+     * @param <E>
+     *            The type of the events.
+     * @param eventType
+     *            The type of the events.
+     * @param listener
+     *            The listener.
+     */
+    public <E extends Event> void registerPropagating(final Class<E> eventType, final EventListener<? super E> listener) {
+        this.register(null, eventType, listener, true);
+    }
+
+    /**
+     * Registers the given listener for all events of the given type (including
+     * subtypes).
+     *
+     * @param <E>
+     *            The type of the events.
+     * @param owner
+     *            The plugin owning the listener. May be <code>null</code>.
+     * @param eventType
+     *            The type of the events.
+     * @param listener
+     *            The listener.
+     * @param propagating
+     *            Whether exceptions thrown by the listener are propagated to
+     *            the caller of {@link #fire(Event)}.
+     */
+    private <E extends Event> void register(final Plugin owner, final Class<E> eventType, final EventListener<? super E> listener,
+            final boolean propagating) {
+        if (eventType == null) {
+            throw new IllegalArgumentException("EventType must not be null!");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null!");
+        }
+
+        synchronized (this) {
+            final Subscription[] subscriptions = this.subscriptions;
+            final Subscription[] result = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            result[subscriptions.length] = new Subscription(this.nextSubscriptionId++, owner, eventType, listener, propagating);
+            this.setSubscriptions(result);
+        }
+
+        EventBus.LOGGER.debug("Registered listener for <{}> owned by {}.", eventType.getName(), owner);
+    }
+
+    /**
+     * Registers all {@link Listen listener methods} of the given object. The
+     * listener methods are found and compiled once per class (see
+     * {@link ListenerMethods}).
+     *
+     * @param owner
+     *            The plugin owning the listeners. May be <code>null</code>.
+     * @param target
+     *            The object declaring the listener methods.
+     * @return The number of registered listener methods.
+     * @throws IllegalArgumentException
+     *             If the class of the object declares an invalid listener
+     *             method.
+     */
+    public int registerAnnotated(final Plugin owner, final Object target) {
+        if (target == null) {
+            throw new IllegalArgumentException("Target must not be null!");
+        }
+
+        final ListenerMethods listenerMethods = ListenerMethods.of(target.getClass());
+        if (!listenerMethods.isValid()) {
+            throw new IllegalArgumentException(listenerMethods.getError());
+        }
+        final ListenerMethods.ListenerMethod[] methods = listenerMethods.getMethods();
+        if (methods.length == 0) {
+            return 0;
+        }
+
+        synchronized (this) {
+            final Subscription[] subscriptions = this.subscriptions;
+            final Subscription[] result = Arrays.copyOf(subscriptions, subscriptions.length + methods.length);
+            for (int i = 0; i < methods.length; i++) {
+                result[subscriptions.length + i] = new Subscription(this.nextSubscriptionId++, owner,
+                        methods[i].getEventType(), methods[i].bind(target), false);
+            }
+            this.setSubscriptions(result);
+        }
+
+        EventBus.LOGGER.debug("Registered {} listener methods of {} owned by {}.", methods.length, target, owner);
+        return methods.length;
+    }
+
+    /**
+     * Unregisters the given listener from all event types.
+     *
+     * @param listener
+     *            The listener to unregister.
+     * @return Whether the listener was registered.
+     */
+    public boolean unregister(final EventListener<?> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener must not be null!");
+        }
+
+        return this.unregisterIf(subscription -> subscription.listener == listener) > 0;
+    }
+
+    /**
+     * Unregisters all {@link Listen listener methods} of the given object
+     * (see {@link #registerAnnotated(Plugin, Object)}).
+     *
+     * @param target
+     *            The object declaring the listener methods.
+     * @return The number of unregistered listener methods.
+     */
+    public int unregisterAnnotated(final Object target) {
+        if (target == null) {
+            throw new IllegalArgumentException("Target must not be null!");
+        }
+
+        return this.unregisterIf(subscription -> subscription.listener instanceof ListenerMethods.AnnotatedListener
+                && ((ListenerMethods.AnnotatedListener) subscription.listener).getTarget() == target);
+    }
+
+    /**
+     * Unregisters all listeners owned by the given plugin.
+     *
+     * @param owner
+     *            The plugin.
+     * @return The number of unregistered listeners.
+     */
+    public int unregisterAll(final Plugin owner) {
+        if (owner == null) {
+            throw new IllegalArgumentException("Owner must not be null!");
+        }
+
+        return this.unregisterIf(subscription -> subscription.owner == owner);
+    }
+
+    /**
+     * Fires the given event, that is invokes all listeners registered for the
+     * class of the event or any of its supertypes.
+     *
+     * @param event
+     *            The event to fire.
+     * @throws RuntimeException
+     *             If a listener registered using
+     *             {@link #registerPropagating(Class, EventListener)} failed to
+     *             handle the synchronously dispatched event. Further failures
+     *             are added as suppressed exceptions.
+     */
+    public void fire(final Event event) {
+        if (event == null) {
+            throw new IllegalArgumentException("Event must not be null!");
+        }
+
+        EventBus.LOGGER.trace("Firing event {}.", event);
+
+        final Subscription[] subscriptions = this.tables.get(event.getClass()).getSubscriptions(this.subscriptions);
+        if (subscriptions.length == 0) {
+            return;
+        }
+
+        final AsyncEventDispatcher async = this.asyncDispatcher;
+        if (async != null && !(event instanceof Cancelable) && async.publish(event, subscriptions)) {
+            return;
+        }
+        RuntimeException failure = null;
+        for (final Subscription subscription : subscriptions) {
+            try {
+                subscription.dispatch(event, true);
+            } catch (final RuntimeException ex) {
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     *
+     * @return The number of registered listeners (per event type).
+     */
+    public int getListenerCount() {
+        return this.subscriptions.length;
+    }
+
+    /**
+     *
+     * @return {@link #asyncDispatcher}.
+     */
+    public AsyncEventDispatcher getAsyncDispatcher() {
+        return this.asyncDispatcher;
+    }
+
+    /**
+     * Sets the dispatcher delivering events asynchronously. Once set, all
+     * events that are not {@link Cancelable} are handed to the dispatcher and
+     * {@link #fire(Event)} returns without waiting for the listeners.
+     * Cancelable events are always dispatched synchronously as the caller has
+     * to check whether they were cancelled.
+     *
+     * <p>
+     * The previous dispatcher (if any) is not closed.
+     * </p>
+     *
+     * @param asyncDispatcher
+     *            The dispatcher to use. <code>null</code> to dispatch all
+     *            events synchronously.
+     */
+    public void setAsyncDispatcher(final AsyncEventDispatcher asyncDispatcher) {
+        this.asyncDispatcher = asyncDispatcher;
+    }
+
+    /**
+     * Unregisters all subscriptions matching the given filter.
+     *
+     * @param filter
+     *            The filter.
+     * @return The number of unregistered subscriptions.
+     */
+    private synchronized int unregisterIf(final Predicate<Subscription> filter) {
+        final Subscription[] subscriptions = this.subscriptions;
+        final List<Subscription> result = new ArrayList<>(subscriptions.length);
+        for (final Subscription subscription : subscriptions) {
+            if (!filter.test(subscription)) {
+                result.add(subscription);
+            }
+        }
+
+        final int removed = subscriptions.length - result.size();
+        if (removed > 0) {
+            this.setSubscriptions(result.toArray(EventBus.NO_SUBSCRIPTIONS));
+        }
+        return removed;
+    }
+
+    /**
+     * Replaces the subscriptions and clears all dispatch tables. Must only be
+     * invoked while holding the lock of this bus.
+     *
+     * @param result
+     *            The new subscriptions.
+     */
+    private void setSubscriptions(final Subscription[] result) {
+        this.subscriptions = result;
+        synchronized (this.tableReferences) {
+            final Iterator<WeakReference<DispatchTable>> iterator = this.tableReferences.iterator();
+            while (iterator.hasNext()) {
+                final DispatchTable table = iterator.next().get();
+                if (table == null) {
+                    iterator.remove();
+                } else {
+                    table.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * The subscriptions receiving the events of a single event class, computed
+     * lazily from the subscriptions of the bus.
+     *
+     */
+    private static final class DispatchTable {
+        /**
+         * The event class.
+         *
+         */
+        private final Class<?> eventClass;
+        /**
+         * The current dispatch table. <code>null</code> if it was not
+         * computed yet or was cleared.
+         *
+         */
+        private volatile Entry entry;
+
+        /**
+         * Constructor of DispatchTable.
+         *
+         * @param eventClass
+         *            {@link #eventClass}.
+         */
+        private DispatchTable(final Class<?> eventClass) {
+            this.eventClass = eventClass;
+        }
+
+        /**
+         * Gets the subscriptions receiving events of the event class.
+         *
+         * @param all
+         *            All subscriptions of the bus.
+         * @return The subscriptions in registration order.
+         */
+        private Subscription[] getSubscriptions(final Subscription[] all) {
+            Entry current = this.entry;
+            if (current == null || current.all != all) {
+                final List<Subscription> matching = new ArrayList<>();
+                for (final Subscription subscription : all) {
+                    if (subscription.eventType.isAssignableFrom(this.eventClass)) {
+                        matching.add(subscription);
+                    }
+                }
+                current = new Entry(all, matching.toArray(EventBus.NO_SUBSCRIPTIONS));
+                this.entry = current;
+            }
+            return current.matching;
+        }
+
+        /**
+         * Clears the dispatch table, so it does not retain removed
+         * subscriptions.
+         *
+         */
+        private void clear() {
+            this.entry = null;
+        }
+
+        /**
+         * A dispatch table and the subscriptions it was computed from.
+         *
+         */
+        private static final class Entry {
+            /**
+             * All subscriptions of the bus when the table was computed.
+             *
+             */
+            private final Subscription[] all;
+            /**
+             * The subscriptions receiving events of the event class.
+             *
+             */
+            private final Subscription[] matching;
+
+            /**
+             * Constructor of Entry.
+             *
+             * @param all
+             *            {@link #all}.
+             * @param matching
+             *            {@link #matching}.
+             */
+            private Entry(final Subscription[] all, final Subscription[] matching) {
+                this.all = all;
+                this.matching = matching;
+            }
+        }
+    }
+
+    /**
+     * The registration of a listener.
+     *
+     */
+    static final class Subscription {
+        /**
+         * The ID of the subscription. Unique per bus and increasing in the
+         * order of registration.
+         *
+         */
+        private final int id;
+        /**
+         * The plugin owning the listener. May be <code>null</code>.
+         *
+         */
+        private final Plugin owner;
+        /**
+         * The type of the events the listener receives.
+         *
+         */
+        private final Class<?> eventType;
+        /**
+         * The listener. Only receives events of {@link #eventType}.
+         *
+         */
+        private final EventListener<Event> listener;
+        /**
+         * Whether exceptions thrown by the {@link #listener} are propagated
+         * when dispatching synchronously.
+         *
+         */
+        private final boolean propagating;
+
+        /**
+         * Constructor of Subscription.
+         *
+         * @param id
+         *            {@link #id}.
+         * @param owner
+         *            {@link #owner}.
+         * @param eventType
+         *            {@link #eventType}.
+         * @param listener
+         *            {@link #listener}.
+         * @param propagating
+         *            {@link #propagating}.
+         */
+        // Only events of the event type are dispatched to the listener.
+        @SuppressWarnings("unchecked")
+        private Subscription(final int id, final Plugin owner, final Class<?> eventType, final EventListener<?> listener,
+                final boolean propagating) {
+            this.id = id;
+            this.owner = owner;
+            this.eventType = eventType;
+            this.listener = (EventListener<Event>) listener;
+            this.propagating = propagating;
+        }
+
+        /**
+         * Passes the given event to the listener. An exception thrown by the
+         * listener is logged.
+         *
+         * @param event
+         *            The event.
+         */
+        void dispatch(final Event event) {
+            this.dispatch(event, false);
+        }
+
+        /**
+         * Passes the given event to the listener. An exception thrown by the
+         * listener is logged unless it is rethrown.
+         *
+         * @param event
+         *            The event.
+         * @param synchronous
+         *            Whether the event is dispatched synchronously, i.e.
+         *            whether to rethrow the exceptions of a
+         *            {@link #propagating} listener.
+         */
+        void dispatch(final Event event, final boolean synchronous) {
+            try {
+                this.listener.onEvent(event);
+            } catch (final RuntimeException ex) {
+                if (synchronous && this.propagating) {
+                    throw ex;
+                }
+                EventBus.LOGGER.warn("Listener for <{}> owned by {} failed to handle event {}.", this.eventType.getName(),
+                        this.owner, event, ex);
+            }
+        }
+
+        /**
+         *
+         * @return {@link #id}.
+         */
+        int getId() {
+            return this.id;
+        }
+    }
+}
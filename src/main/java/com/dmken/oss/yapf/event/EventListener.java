@@ -0,0 +1,38 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+/**
+ * A listener for events of a specific type (see
+ * {@link EventBus#register(Class, EventListener)}).
+ *
+ * @param <E>
+ *            The type of the events.
+ */
+@FunctionalInterface
+public interface EventListener<E extends Event> {
+    /**
+     * Invoked when an event is fired.
+     *
+     * @param event
+     *            The fired event.
+     */
+    void onEvent(E event);
+}
@@ -0,0 +1,54 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method as an event listener. The method must not be static and must
+ * have exactly one parameter whose type is an {@link Event} type, e.g.:
+ *
+ * <pre>
+ * &#64;Listen
+ * void on(final PostPluginLoadEvent event) {
+ *     // ...
+ * }
+ * </pre>
+ *
+ * <p>
+ * The listener methods of a plugin main class are registered on the event bus
+ * of its plugin manager (see
+ * {@link com.dmken.oss.yapf.manager.SimplePluginManager#getEventBus()}) when
+ * the plugin is enabled and removed when it is disabled. Other objects can be
+ * registered using
+ * {@link EventBus#registerAnnotated(com.dmken.oss.yapf.Plugin, Object)}.
+ * </p>
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Listen {
+    // Marker annotation.
+}
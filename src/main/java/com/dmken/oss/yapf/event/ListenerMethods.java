@@ -0,0 +1,323 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The {@link Listen listener methods} of a class. The class is scanned once
+ * and each listener method is compiled into a {@link MethodHandle}, so
+ * dispatching an event neither uses reflection nor allocates anything.
+ *
+ * <p>
+ * The listener methods are cached per class (see {@link #of(Class)}). The
+ * cache does not prevent the class (and its class loader) from being garbage
+ * collected.
+ * </p>
+ *
+ */
+public final class ListenerMethods {
+    /**
+     * The type of the listener handles (target, event).
+     *
+     */
+    private static final MethodType LISTENER_TYPE = MethodType.methodType(void.class, Object.class, Event.class);
+    /**
+     * Empty array of listener methods.
+     *
+     */
+    private static final ListenerMethod[] NO_METHODS = new ListenerMethod[0];
+    /**
+     * The cached listener methods.
+     *
+     */
+    private static final ClassValue<ListenerMethods> LISTENER_METHODS = new ClassValue<ListenerMethods>() {
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.ClassValue#computeValue(java.lang.Class)
+         */
+        @Override
+        protected ListenerMethods computeValue(final Class<?> type) {
+            return ListenerMethods.create(type);
+        }
+    };
+
+    /**
+     * The listener methods. Empty if the class is invalid.
+     *
+     */
+    private final ListenerMethod[] methods;
+    /**
+     * The reason why the class is invalid. <code>null</code> if it is valid.
+     *
+     */
+    private final String error;
+
+    /**
+     * Constructor of ListenerMethods.
+     *
+     * @param methods
+     *            {@link #methods}.
+     * @param error
+     *            {@link #error}.
+     */
+    private ListenerMethods(final ListenerMethod[] methods, final String error) {
+        this.methods = methods;
+        this.error = error;
+    }
+
+    /**
+     * Gets the (cached) listener methods of the given class.
+     *
+     * @param clazz
+     *            The class.
+     * @return The listener methods. Check {@link #isValid()} whether all
+     *         annotated methods are valid listener methods.
+     */
+    public static ListenerMethods of(final Class<?> clazz) {
+        if (clazz == null) {
+            throw new IllegalArgumentException("Class must not be null!");
+        }
+
+        return ListenerMethods.LISTENER_METHODS.get(clazz);
+    }
+
+    /**
+     *
+     * @return Whether all annotated methods are valid listener methods.
+     */
+    public boolean isValid() {
+        return this.error == null;
+    }
+
+    /**
+     *
+     * @return {@link #error}.
+     */
+    public String getError() {
+        return this.error;
+    }
+
+    /**
+     *
+     * @return The number of listener methods.
+     */
+    public int getCount() {
+        return this.methods.length;
+    }
+
+    /**
+     *
+     * @return {@link #methods}.
+     */
+    ListenerMethod[] getMethods() {
+        return this.methods;
+    }
+
+    /**
+     * Scans the given class (including its superclasses) for listener methods
+     * and compiles them.
+     *
+     * @param clazz
+     *            The class.
+     * @return The listener methods (invalid ones if an annotated method is
+     *         not a valid listener method).
+     */
+    private static ListenerMethods create(final Class<?> clazz) {
+        final List<Method> annotated = new ArrayList<>();
+        final Set<String> signatures = new HashSet<>();
+        for (Class<?> type = clazz; type != null && type != Object.class; type = type.getSuperclass()) {
+            final List<Method> declared = new ArrayList<>();
+            for (final Method method : type.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(Listen.class)) {
+                    declared.add(method);
+                }
+            }
+            // The order of declared methods is unspecified.
+            declared.sort(Comparator.comparing(Method::getName).thenComparing(Method::toString));
+            for (final Method method : declared) {
+                final String methodName = type.getName() + "#" + method.getName();
+                if (Modifier.isStatic(method.getModifiers())) {
+                    return ListenerMethods.invalid("Listener method " + methodName + " must not be static!");
+                }
+                if (method.getParameterCount() != 1 || !Event.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                    return ListenerMethods.invalid(
+                            "Listener method " + methodName + " must have exactly one parameter of an event type!");
+                }
+                // Overridden listener methods are only registered once.
+                if (signatures.add(method.getName() + "(" + method.getParameterTypes()[0].getName() + ")")) {
+                    annotated.add(method);
+                }
+            }
+        }
+
+        final ListenerMethod[] methods = new ListenerMethod[annotated.size()];
+        for (int i = 0; i < methods.length; i++) {
+            final Method method = annotated.get(i);
+            if (!method.isAccessible()) {
+                // Neither the class nor the method have to be public.
+                method.setAccessible(true);
+            }
+            final MethodHandle handle;
+            try {
+                handle = MethodHandles.lookup().unreflect(method).asType(ListenerMethods.LISTENER_TYPE);
+            } catch (final IllegalAccessException ex) {
+                return ListenerMethods.invalid("Failed to access listener method " + method + "!");
+            }
+            methods[i] = new ListenerMethod(method.getParameterTypes()[0].asSubclass(Event.class), handle);
+        }
+        return new ListenerMethods(methods.length == 0 ? ListenerMethods.NO_METHODS : methods, null);
+    }
+
+    /**
+     * Creates invalid listener methods.
+     *
+     * @param error
+     *            {@link #error}.
+     * @return The listener methods.
+     */
+    private static ListenerMethods invalid(final String error) {
+        return new ListenerMethods(ListenerMethods.NO_METHODS, error);
+    }
+
+    /**
+     * A compiled listener method.
+     *
+     */
+    static final class ListenerMethod {
+        /**
+         * The type of the events the method receives.
+         *
+         */
+        private final Class<? extends Event> eventType;
+        /**
+         * The handle of type {@link ListenerMethods#LISTENER_TYPE}.
+         *
+         */
+        private final MethodHandle handle;
+
+        /**
+         * Constructor of ListenerMethod.
+         *
+         * @param eventType
+         *            {@link #eventType}.
+         * @param handle
+         *            {@link #handle}.
+         */
+        private ListenerMethod(final Class<? extends Event> eventType, final MethodHandle handle) {
+            this.eventType = eventType;
+            this.handle = handle;
+        }
+
+        /**
+         *
+         * @return {@link #eventType}.
+         */
+        Class<? extends Event> getEventType() {
+            return this.eventType;
+        }
+
+        /**
+         * Binds this method to the given target.
+         *
+         * @param target
+         *            The object declaring the method.
+         * @return The listener invoking this method on the target.
+         */
+        AnnotatedListener bind(final Object target) {
+            return new AnnotatedListener(target, this.handle);
+        }
+    }
+
+    /**
+     * A listener invoking a listener method on its target.
+     *
+     */
+    static final class AnnotatedListener implements EventListener<Event> {
+        /**
+         * The object declaring the listener method.
+         *
+         */
+        private final Object target;
+        /**
+         * The handle of type {@link ListenerMethods#LISTENER_TYPE}.
+         *
+         */
+        private final MethodHandle handle;
+
+        /**
+         * Constructor of AnnotatedListener.
+         *
+         * @param target
+         *            {@link #target}.
+         * @param handle
+         *            {@link #handle}.
+         */
+        private AnnotatedListener(final Object target, final MethodHandle handle) {
+            this.target = target;
+            this.handle = handle;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see com.dmken.oss.yapf.event.EventListener#onEvent(com.dmken.oss.yapf.event.Event)
+         */
+        @Override
+        public void onEvent(final Event event) {
+            try {
+                this.handle.invokeExact(this.target, event);
+            } catch (final RuntimeException | Error ex) {
+                throw ex;
+            } catch (final Throwable cause) {
+                throw new UndeclaredThrowableException(cause);
+            }
+        }
+
+        /**
+         *
+         * @return {@link #target}.
+         */
+        Object getTarget() {
+            return this.target;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "AnnotatedListener[" + this.target.getClass().getName() + "]";
+        }
+    }
+}
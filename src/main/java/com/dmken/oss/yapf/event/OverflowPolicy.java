@@ -0,0 +1,41 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+/**
+ * What an {@link AsyncEventDispatcher} does with an event if its ring buffer
+ * is full.
+ *
+ */
+public enum OverflowPolicy {
+    /**
+     * The firing thread waits until a slot becomes available (backpressure).
+     * Events fired by listeners on a consumer thread are queued behind the
+     * ring buffer instead as the consumer would wait for itself.
+     *
+     */
+    BLOCK,
+    /**
+     * The event is dropped and counted (see
+     * {@link AsyncEventDispatcher#getDroppedCount()}).
+     *
+     */
+    DROP;
+}
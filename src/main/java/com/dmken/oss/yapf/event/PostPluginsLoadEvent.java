@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+import java.util.List;
+import java.util.Map;
+
+import com.dmken.oss.yapf.Plugin;
+import com.dmken.oss.yapf.PluginMeta;
+
+/**
+ * Fired once after multiple plugins were loaded in bulk (instead of a
+ * {@link PostPluginLoadEvent} per plugin).
+ *
+ */
+public class PostPluginsLoadEvent extends AbstractEvent {
+    /**
+     * The plugins that were loaded.
+     *
+     */
+    private final List<Plugin> plugins;
+    /**
+     * The plugins that failed to load (including cancelled ones) and the
+     * reasons.
+     *
+     */
+    private final Map<PluginMeta, Exception> errors;
+
+    /**
+     * Constructor of PostPluginsLoadEvent.
+     *
+     * @param plugins
+     *            {@link #plugins}.
+     * @param errors
+     *            {@link #errors}.
+     */
+    public PostPluginsLoadEvent(final List<Plugin> plugins, final Map<PluginMeta, Exception> errors) {
+        this.plugins = plugins;
+        this.errors = errors;
+    }
+
+    /**
+     *
+     * @return {@link #plugins}.
+     */
+    public List<Plugin> getPlugins() {
+        return this.plugins;
+    }
+
+    /**
+     *
+     * @return {@link #errors}.
+     */
+    public Map<PluginMeta, Exception> getErrors() {
+        return this.errors;
+    }
+}
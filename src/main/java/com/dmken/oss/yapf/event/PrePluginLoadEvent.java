@@ -29,8 +29,8 @@ import com.dmken.oss.yapf.meta.UnmodifiablePluginMeta;
  */
 public class PrePluginLoadEvent extends AbstractCancelableEvent {
     /**
-     * The metadata of the plugin to be loaded.
-     * 
+     * The metadata of the plugin to be loaded. Unmodifiable.
+     *
      */
     private final PluginMeta pluginMeta;
 
@@ -38,10 +38,12 @@ public class PrePluginLoadEvent extends AbstractCancelableEvent {
      * Constructor of PrePluginLoadEvent.
      *
      * @param pluginMeta
-     *            {@link #pluginMeta}.
+     *            {@link #pluginMeta}. Wrapped into an
+     *            {@link UnmodifiablePluginMeta} unless it already is one.
      */
     public PrePluginLoadEvent(final PluginMeta pluginMeta) {
-        this.pluginMeta = pluginMeta;
+        this.pluginMeta = pluginMeta == null || pluginMeta instanceof UnmodifiablePluginMeta ? pluginMeta
+                : new UnmodifiablePluginMeta(pluginMeta);
     }
 
     /**
@@ -49,6 +51,6 @@ public class PrePluginLoadEvent extends AbstractCancelableEvent {
      * @return {@link #pluginMeta}.
      */
     public PluginMeta getPluginMeta() {
-        return new UnmodifiablePluginMeta(this.pluginMeta);
+        return this.pluginMeta;
     }
 }
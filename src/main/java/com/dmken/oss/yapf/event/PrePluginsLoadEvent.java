@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dmken.oss.yapf.PluginMeta;
+import com.dmken.oss.yapf.meta.UnmodifiablePluginMeta;
+
+/**
+ * Fired once right before multiple plugins are loaded in bulk (instead of a
+ * {@link PrePluginLoadEvent} per plugin). Single plugins can be cancelled
+ * using {@link #cancel(PluginMeta, String)}; cancelling the event itself
+ * (see {@link #cancel(String)}) cancels all plugins.
+ *
+ * <p>
+ * Plugins that depend on a cancelled plugin are not loaded either.
+ * </p>
+ *
+ */
+public class PrePluginsLoadEvent extends AbstractCancelableEvent {
+    /**
+     * The metadata of the plugins to be loaded. Unmodifiable.
+     *
+     */
+    private final List<PluginMeta> pluginMetas;
+    /**
+     * The reasons why single plugins were cancelled. <code>null</code> until
+     * the first plugin is cancelled.
+     *
+     */
+    private Map<PluginMeta, List<String>> cancelledPlugins;
+
+    /**
+     * Constructor of PrePluginsLoadEvent.
+     *
+     * @param pluginMetas
+     *            {@link #pluginMetas}. Each meta is wrapped into an
+     *            {@link UnmodifiablePluginMeta} unless it already is one.
+     */
+    public PrePluginsLoadEvent(final Collection<? extends PluginMeta> pluginMetas) {
+        if (pluginMetas == null) {
+            throw new IllegalArgumentException("PluginMetas must not be null!");
+        }
+
+        final List<PluginMeta> metas = new ArrayList<>(pluginMetas.size());
+        for (final PluginMeta pluginMeta : pluginMetas) {
+            metas.add(pluginMeta instanceof UnmodifiablePluginMeta ? pluginMeta : new UnmodifiablePluginMeta(pluginMeta));
+        }
+        this.pluginMetas = Collections.unmodifiableList(metas);
+    }
+
+    /**
+     *
+     * @return {@link #pluginMetas}.
+     */
+    public List<PluginMeta> getPluginMetas() {
+        return this.pluginMetas;
+    }
+
+    /**
+     * Cancels the loading of the given plugin and appends the given message to
+     * the reasons of the cancelation.
+     *
+     * @param pluginMeta
+     *            The metadata of the plugin. Must be one of
+     *            {@link #getPluginMetas()}.
+     * @param message
+     *            The reason why the plugin was cancelled.
+     */
+    public void cancel(final PluginMeta pluginMeta, final String message) {
+        if (!this.pluginMetas.contains(pluginMeta)) {
+            throw new IllegalArgumentException("PluginMeta must be one of the plugins to be loaded!");
+        }
+
+        if (this.cancelledPlugins == null) {
+            this.cancelledPlugins = new LinkedHashMap<>();
+        }
+        this.cancelledPlugins.computeIfAbsent(pluginMeta, dummy -> new ArrayList<>(2)).add(message);
+    }
+
+    /**
+     * Checks whether the loading of the given plugin was cancelled (either
+     * the plugin itself or this event).
+     *
+     * @param pluginMeta
+     *            The metadata of the plugin.
+     * @return Whether the plugin was cancelled.
+     */
+    public boolean isCancelled(final PluginMeta pluginMeta) {
+        return this.isCancelled() || this.cancelledPlugins != null && this.cancelledPlugins.containsKey(pluginMeta);
+    }
+
+    /**
+     * Gets the reasons why the loading of the given plugin was cancelled
+     * (including the reasons why this event was cancelled).
+     *
+     * @param pluginMeta
+     *            The metadata of the plugin.
+     * @return All reasons why the plugin was cancelled.
+     */
+    public List<String> getCancelMessages(final PluginMeta pluginMeta) {
+        final List<String> pluginMessages = this.cancelledPlugins == null ? null : this.cancelledPlugins.get(pluginMeta);
+        if (pluginMessages == null) {
+            return this.getCancelMessages();
+        }
+        if (!this.isCancelled()) {
+            return Collections.unmodifiableList(pluginMessages);
+        }
+        final List<String> messages = new ArrayList<>(this.getCancelMessages());
+        messages.addAll(pluginMessages);
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Also resets the cancellation of single plugins.
+     * </p>
+     *
+     * @see com.dmken.oss.yapf.event.AbstractCancelableEvent#reset()
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        this.cancelledPlugins = null;
+    }
+}
@@ -0,0 +1,219 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects class loaders that are not garbage collected after their plugin
+ * was unloaded (see {@link PluginLoader#unloadPlugin(com.dmken.oss.yapf.Plugin)}).
+ *
+ * <p>
+ * Every {@link #track(String, ClassLoader) tracked} class loader is
+ * registered with a {@link PhantomReference}. Once the class loader is
+ * collected, the reference is enqueued and the class loader is no longer
+ * pending. Class loaders that are still pending after a
+ * {@link #awaitCollection(long, TimeUnit) garbage collection} are leaked,
+ * that is something still references them (or one of their classes).
+ * </p>
+ *
+ * <p>
+ * This is thread safe.
+ * </p>
+ *
+ */
+public class ClassLoaderLeakDetector {
+    /**
+     * The queue the references of collected class loaders are enqueued in.
+     *
+     */
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<>();
+    /**
+     * The references of the pending class loaders. The references have to be
+     * kept reachable, otherwise they are never enqueued.
+     *
+     */
+    private final Set<TrackedReference> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts tracking the given class loader.
+     *
+     * @param name
+     *            The name describing the class loader (e.g. the plugin name).
+     * @param classLoader
+     *            The class loader that is expected to be garbage collected
+     *            soon.
+     */
+    public void track(final String name, final ClassLoader classLoader) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name must not be null!");
+        }
+        if (classLoader == null) {
+            throw new IllegalArgumentException("ClassLoader must not be null!");
+        }
+
+        this.pending.add(new TrackedReference(name, classLoader, this.queue));
+    }
+
+    /**
+     * Removes all collected class loaders from the pending class loaders.
+     *
+     * @return The names of the class loaders that were collected since the
+     *         last invocation.
+     */
+    public List<String> expunge() {
+        final List<String> result = new ArrayList<>();
+        Reference<? extends ClassLoader> reference;
+        while ((reference = this.queue.poll()) != null) {
+            final String name = this.collected(reference);
+            if (name != null) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Waits for the pending class loaders to be garbage collected. This
+     * requests garbage collections (see {@link System#gc()}) until all pending
+     * class loaders are collected or the timeout elapses.
+     *
+     * @param timeout
+     *            The maximum time to wait.
+     * @param unit
+     *            The unit of <code>timeout</code>.
+     * @return The names of the class loaders that are still pending (that is
+     *         leaked). Empty if all class loaders were collected.
+     * @throws InterruptedException
+     *             If the current thread is interrupted while waiting.
+     */
+    public List<String> awaitCollection(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        this.expunge();
+        while (!this.pending.isEmpty()) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                break;
+            }
+
+            System.gc();
+            // Wait a little for the reference handler to enqueue the
+            // references.
+            final Reference<? extends ClassLoader> reference = this.queue.remove(Math.min(remaining, 100));
+            if (reference != null) {
+                this.collected(reference);
+                this.expunge();
+            }
+        }
+        return this.getPending();
+    }
+
+    /**
+     *
+     * @return The names of the class loaders that were not collected yet.
+     */
+    public List<String> getPending() {
+        final List<String> result = new ArrayList<>();
+        for (final TrackedReference reference : this.pending) {
+            result.add(reference.name);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Gets the pending class loader with the given name, if it is still
+     * reachable. Used for finding what retains the class loader.
+     *
+     * @param name
+     *            The name of the class loader.
+     * @return The class loaders with the given name that are still reachable.
+     */
+    List<ClassLoader> getPendingClassLoaders(final String name) {
+        final List<ClassLoader> result = new ArrayList<>();
+        for (final TrackedReference reference : this.pending) {
+            final ClassLoader classLoader = reference.diagnostic.get();
+            if (reference.name.equals(name) && classLoader != null) {
+                result.add(classLoader);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Handles the reference of a collected class loader.
+     *
+     * @param reference
+     *            The enqueued reference.
+     * @return The name of the collected class loader. <code>null</code> if
+     *         the reference was not pending.
+     */
+    private String collected(final Reference<? extends ClassLoader> reference) {
+        if (reference instanceof TrackedReference && this.pending.remove(reference)) {
+            return ((TrackedReference) reference).name;
+        }
+        return null;
+    }
+
+    /**
+     * The phantom reference of a tracked class loader.
+     *
+     */
+    private static final class TrackedReference extends PhantomReference<ClassLoader> {
+        /**
+         * The name describing the class loader.
+         *
+         */
+        private final String name;
+        /**
+         * A weak reference to the class loader. As weak references are
+         * cleared before phantom references are enqueued, this does not delay
+         * the collection but allows inspecting leaked class loaders.
+         *
+         */
+        private final WeakReference<ClassLoader> diagnostic;
+
+        /**
+         * Constructor of TrackedReference.
+         *
+         * @param name
+         *            {@link #name}.
+         * @param classLoader
+         *            The class loader.
+         * @param queue
+         *            The queue to enqueue this reference in.
+         */
+        private TrackedReference(final String name, final ClassLoader classLoader, final ReferenceQueue<ClassLoader> queue) {
+            super(classLoader, queue);
+
+            this.name = name;
+            this.diagnostic = new WeakReference<>(classLoader);
+        }
+    }
+}
@@ -19,22 +19,86 @@
  */
 package com.dmken.oss.yapf.loader;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A simple class loader delegating its load calls to the plugin-specific class
  * loaders. This might be reworked if proxies are implemented.
  *
+ * <p>
+ * To avoid probing every registered class loader, the class loaders are
+ * indexed by the packages they contain. Resolving a class is therefore a
+ * single map lookup followed by probing the (usually one) class loader owning
+ * the package of the class.
+ * </p>
+ *
+ * <p>
+ * Classes that no specification class loader contains are remembered in a
+ * {@link NegativeLookupCache} shared by all plugin class loaders. The cache is
+ * invalidated whenever a class loader is added.
+ * </p>
+ *
+ * <p>
+ * Plugin class loaders do not delegate to this class loader by default. The
+ * package index and the shared cache are only consulted by plugin class
+ * loaders whose resolution chain contains the opt-in
+ * {@link ResolutionStage#GLOBAL} and by classes loaded through this class
+ * loader directly.
+ * </p>
+ *
+ * <p>
+ * This class loader is parallel capable.
+ * </p>
+ *
  */
 public class DelegatingPluginClassLoader extends ClassLoader {
+    /**
+     * The logger.
+     *
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DelegatingPluginClassLoader.class);
+
+    /**
+     * Empty array of class loaders.
+     *
+     */
+    private static final PluginClassLoader[] NO_CLASS_LOADERS = new PluginClassLoader[0];
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
     /**
      * The class loaders responsible for one plugin each (the key is the plugin
      * name).
      *
      */
-    private final Map<String, PluginClassLoader> classLoaders = new HashMap<>();
+    private final Map<String, PluginClassLoader> classLoaders = new ConcurrentHashMap<>();
+    /**
+     * The class loaders containing classes of a package (the key is the
+     * package name). Usually, this is exactly one class loader. The arrays are
+     * never modified but replaced (copy on write).
+     *
+     */
+    private final Map<String, PluginClassLoader[]> packageIndex = new ConcurrentHashMap<>();
+    /**
+     * The class loaders whose packages could not be determined. These are
+     * probed if the package index does not contain the class.
+     *
+     */
+    private volatile PluginClassLoader[] unindexedClassLoaders = DelegatingPluginClassLoader.NO_CLASS_LOADERS;
+    /**
+     * The names of the classes no class loader contains.
+     *
+     */
+    private final NegativeLookupCache negativeLookupCache;
 
     /**
      * Constructor of DelegatingPluginClassLoader.
@@ -43,7 +107,25 @@ public class DelegatingPluginClassLoader extends ClassLoader {
      *            The parent class loader.
      */
     public DelegatingPluginClassLoader(final ClassLoader parent) {
+        this(parent, new NegativeLookupCache(NegativeLookupCache.DEFAULT_MAXIMUM_SIZE));
+    }
+
+    /**
+     * Constructor of DelegatingPluginClassLoader.
+     *
+     * @param parent
+     *            The parent class loader.
+     * @param negativeLookupCache
+     *            {@link #negativeLookupCache}.
+     */
+    public DelegatingPluginClassLoader(final ClassLoader parent, final NegativeLookupCache negativeLookupCache) {
         super(parent);
+
+        if (negativeLookupCache == null) {
+            throw new IllegalArgumentException("NegativeLookupCache must not be null!");
+        }
+
+        this.negativeLookupCache = negativeLookupCache;
     }
 
     /**
@@ -53,16 +135,47 @@ public class DelegatingPluginClassLoader extends ClassLoader {
      */
     @Override
     protected Class<?> findClass(final String name) throws ClassNotFoundException {
-        Class<?> clazz = null;
-        for (final Iterator<PluginClassLoader> it = this.classLoaders.values().iterator(); clazz == null && it.hasNext();) {
-            clazz = it.next().findClass(name, false).orElse(null);
+        final Class<?> clazz = this.findSharedClass(name);
+        if (clazz == null) {
+            return super.findClass(name);
         }
+        return clazz;
+    }
+
+    /**
+     * Finds the class with the given name in the registered class loaders.
+     * Unlike {@link #findClass(String)}, this does not throw an exception if
+     * the class is missing.
+     *
+     * @param name
+     *            The full qualified name of the class to find.
+     * @return The found class or <code>null</code> if no class loader
+     *         contains the class.
+     */
+    Class<?> findSharedClass(final String name) {
+        if (this.negativeLookupCache.isMissing(name)) {
+            return null;
+        }
+
+        final long generation = this.negativeLookupCache.getGeneration();
+        Class<?> clazz = this.findClass(name, this.packageIndex.get(PluginClassLoader.getPackageName(name)));
         if (clazz == null) {
-            clazz = super.findClass(name);
+            clazz = this.findClass(name, this.unindexedClassLoaders);
+        }
+        if (clazz == null) {
+            this.negativeLookupCache.addMissing(name, generation);
         }
         return clazz;
     }
 
+    /**
+     *
+     * @return {@link #negativeLookupCache}.
+     */
+    public NegativeLookupCache getNegativeLookupCache() {
+        return this.negativeLookupCache;
+    }
+
     /**
      * Adds the given plugin class loader responsible for the given plugin name
      * to the list of probable class loaders.
@@ -72,8 +185,32 @@ public class DelegatingPluginClassLoader extends ClassLoader {
      * @param classLoader
      *            The class loader.
      */
-    void addClassLoader(final String pluginName, final PluginClassLoader classLoader) {
-        this.classLoaders.put(pluginName, classLoader);
+    synchronized void addClassLoader(final String pluginName, final PluginClassLoader classLoader) {
+        final PluginClassLoader previous = this.classLoaders.put(pluginName, classLoader);
+        if (previous != null) {
+            this.unindex(previous);
+        }
+
+        final Set<String> packageNames;
+        try {
+            packageNames = classLoader.getPackageNames();
+        } catch (final IOException ex) {
+            DelegatingPluginClassLoader.LOGGER.warn("Failed to index packages of <{}>. Falling back to probing it for every class.",
+                    pluginName, ex);
+
+            this.unindexedClassLoaders = DelegatingPluginClassLoader.append(this.unindexedClassLoaders, classLoader);
+            this.negativeLookupCache.invalidate();
+            return;
+        }
+        for (final String packageName : packageNames) {
+            this.packageIndex.merge(packageName, new PluginClassLoader[] { classLoader },
+                    (current, added) -> DelegatingPluginClassLoader.append(current, classLoader));
+        }
+        // Invalidate after indexing so no lookup started before can miss the
+        // new classes and populate the cache afterwards.
+        this.negativeLookupCache.invalidate();
+
+        DelegatingPluginClassLoader.LOGGER.debug("Indexed {} packages of <{}>.", packageNames.size(), pluginName);
     }
 
     /**
@@ -82,7 +219,99 @@ public class DelegatingPluginClassLoader extends ClassLoader {
      * @param pluginName
      *            The name of the plugin to remove the class loader for.
      */
-    void removeClassLoader(final String pluginName) {
-        this.classLoaders.remove(pluginName);
+    synchronized void removeClassLoader(final String pluginName) {
+        final PluginClassLoader classLoader = this.classLoaders.remove(pluginName);
+        if (classLoader != null) {
+            this.unindex(classLoader);
+        }
+    }
+
+    /**
+     * Removes the given class loader if it is (still) responsible for the
+     * given plugin.
+     *
+     * @param pluginName
+     *            The name of the plugin to remove the class loader for.
+     * @param classLoader
+     *            The class loader to remove.
+     */
+    synchronized void removeClassLoader(final String pluginName, final PluginClassLoader classLoader) {
+        if (this.classLoaders.remove(pluginName, classLoader)) {
+            this.unindex(classLoader);
+        }
+    }
+
+    /**
+     * Probes the given class loaders for the class with the given name.
+     *
+     * @param name
+     *            The full qualified name of the class to find.
+     * @param candidates
+     *            The class loaders to probe. May be <code>null</code>.
+     * @return The found class or <code>null</code> if none of the class
+     *         loaders contains the class.
+     */
+    private Class<?> findClass(final String name, final PluginClassLoader[] candidates) {
+        if (candidates == null) {
+            return null;
+        }
+        for (final PluginClassLoader candidate : candidates) {
+            final Class<?> clazz = candidate.findClass(name, false).orElse(null);
+            if (clazz != null) {
+                return clazz;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the given class loader from the package index.
+     *
+     * @param classLoader
+     *            The class loader to remove.
+     */
+    private void unindex(final PluginClassLoader classLoader) {
+        this.unindexedClassLoaders = DelegatingPluginClassLoader.remove(this.unindexedClassLoaders, classLoader);
+        final Set<String> packageNames;
+        try {
+            packageNames = classLoader.getPackageNames();
+        } catch (final IOException dummy) {
+            // Was never indexed.
+            return;
+        }
+        for (final String packageName : packageNames) {
+            this.packageIndex.computeIfPresent(packageName, (key, current) -> {
+                final PluginClassLoader[] result = DelegatingPluginClassLoader.remove(current, classLoader);
+                return result.length == 0 ? null : result;
+            });
+        }
+    }
+
+    /**
+     * Creates a copy of the given array with the given class loader appended.
+     *
+     * @param classLoaders
+     *            The array.
+     * @param classLoader
+     *            The class loader to append.
+     * @return The new array.
+     */
+    private static PluginClassLoader[] append(final PluginClassLoader[] classLoaders, final PluginClassLoader classLoader) {
+        final PluginClassLoader[] result = Arrays.copyOf(classLoaders, classLoaders.length + 1);
+        result[classLoaders.length] = classLoader;
+        return result;
+    }
+
+    /**
+     * Creates a copy of the given array without the given class loader.
+     *
+     * @param classLoaders
+     *            The array.
+     * @param classLoader
+     *            The class loader to remove.
+     * @return The new array.
+     */
+    private static PluginClassLoader[] remove(final PluginClassLoader[] classLoaders, final PluginClassLoader classLoader) {
+        return Arrays.stream(classLoaders).filter(candidate -> candidate != classLoader).toArray(PluginClassLoader[]::new);
     }
 }
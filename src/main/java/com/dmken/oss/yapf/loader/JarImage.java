@@ -0,0 +1,283 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * An in-memory image of the classes of a JAR file (see
+ * {@link JarImageMode}).
+ *
+ * <p>
+ * The JAR file is read once in a single sequential pass (without opening a
+ * {@link java.util.zip.ZipFile}). The bytes of all classes are stored back to
+ * back in one buffer, either on the heap or off-heap (direct), and are indexed
+ * by the class name. Resources are not part of the image.
+ * </p>
+ *
+ * <p>
+ * Signed JARs have no image: The classes are not verified while reading, so
+ * they would be defined without their signers.
+ * </p>
+ *
+ * <p>
+ * The image is immutable and thread safe.
+ * </p>
+ *
+ */
+final class JarImage {
+    /**
+     * The file extension of class files.
+     *
+     */
+    private static final String CLASS_EXTENSION = ".class";
+    /**
+     * The initial capacity of the buffer used while reading.
+     *
+     */
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    /**
+     * The directory containing the manifest and the signature files.
+     *
+     */
+    private static final String META_INF = "META-INF/";
+    /**
+     * The file extension of signature files.
+     *
+     */
+    private static final String SIGNATURE_EXTENSION = ".SF";
+
+    /**
+     * The bytes of all classes.
+     *
+     */
+    private final ByteBuffer data;
+    /**
+     * The location of the bytes of each class in {@link #data}: The offset is
+     * stored in the upper and the length in the lower 32 bits.
+     *
+     */
+    private final Map<String, Long> index;
+    /**
+     * The manifest of the JAR file. <code>null</code> if there is none.
+     *
+     */
+    private final Manifest manifest;
+    /**
+     * The names of the packages containing classes.
+     *
+     */
+    private final Set<String> packageNames;
+
+    /**
+     * Constructor of JarImage.
+     *
+     * @param data
+     *            {@link #data}.
+     * @param index
+     *            {@link #index}.
+     * @param manifest
+     *            {@link #manifest}.
+     */
+    private JarImage(final ByteBuffer data, final Map<String, Long> index, final Manifest manifest) {
+        this.data = data;
+        this.index = index;
+        this.manifest = manifest;
+
+        final Set<String> names = new HashSet<>();
+        for (final String className : index.keySet()) {
+            names.add(PluginClassLoader.getPackageName(className));
+        }
+        this.packageNames = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Reads the image of the given JAR file.
+     *
+     * @param file
+     *            The JAR file.
+     * @param direct
+     *            Whether to store the class bytes off-heap.
+     * @return The image. <code>null</code> if the JAR is signed.
+     * @throws IOException
+     *             If the file can not be read or is not a JAR file.
+     */
+    static JarImage read(final Path file, final boolean direct) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("File must not be null!");
+        }
+
+        byte[] buffer = new byte[JarImage.INITIAL_CAPACITY];
+        int size = 0;
+        final Map<String, Long> index = new HashMap<>();
+        Manifest manifest;
+        try (final JarInputStream stream = new JarInputStream(new BufferedInputStream(Files.newInputStream(file)), false)) {
+            manifest = stream.getManifest();
+            for (ZipEntry entry = stream.getNextEntry(); entry != null; entry = stream.getNextEntry()) {
+                final String name = entry.getName();
+                if (JarImage.isSignatureFile(name)) {
+                    return null;
+                }
+                final boolean isClass = name.endsWith(JarImage.CLASS_EXTENSION);
+                if (entry.isDirectory() || !isClass && !(manifest == null && JarFile.MANIFEST_NAME.equalsIgnoreCase(name))) {
+                    continue;
+                }
+
+                final int offset = size;
+                if (entry.getSize() > buffer.length - size) {
+                    buffer = Arrays.copyOf(buffer, JarImage.grow(buffer.length, size + (int) entry.getSize()));
+                }
+                for (int read = stream.read(buffer, size, buffer.length - size); read >= 0; read = stream.read(buffer, size,
+                        buffer.length - size)) {
+                    size += read;
+                    if (size == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, JarImage.grow(buffer.length, size + 1));
+                    }
+                }
+
+                if (isClass) {
+                    final String className = name.substring(0, name.length() - JarImage.CLASS_EXTENSION.length()).replace('/',
+                            '.');
+                    index.put(className, (long) offset << 32 | size - offset);
+                } else {
+                    // The manifest is not the first entry, so JarInputStream
+                    // did not pick it up.
+                    manifest = new Manifest(new ByteArrayInputStream(buffer, offset, size - offset));
+                    size = offset;
+                }
+            }
+        }
+
+        final ByteBuffer data;
+        if (direct) {
+            data = ByteBuffer.allocateDirect(size);
+            data.put(buffer, 0, size);
+            data.clear();
+        } else {
+            data = ByteBuffer.wrap(Arrays.copyOf(buffer, size));
+        }
+        return new JarImage(data, index, manifest);
+    }
+
+    /**
+     * Checks whether the given entry is a signature file, i.e. whether the JAR
+     * is signed.
+     *
+     * @param name
+     *            The entry name.
+     * @return Whether the entry is a signature file.
+     */
+    private static boolean isSignatureFile(final String name) {
+        final String upperName = name.toUpperCase(Locale.ROOT);
+        return upperName.startsWith(JarImage.META_INF) && upperName.indexOf('/', JarImage.META_INF.length()) < 0
+                && upperName.endsWith(JarImage.SIGNATURE_EXTENSION);
+    }
+
+    /**
+     * Computes the new capacity of the read buffer.
+     *
+     * @param capacity
+     *            The current capacity.
+     * @param required
+     *            The required capacity.
+     * @return The new capacity.
+     */
+    private static int grow(final int capacity, final int required) {
+        return Math.max(capacity * 2, required);
+    }
+
+    /**
+     * Gets the bytes of the given class.
+     *
+     * @param className
+     *            The full qualified class name.
+     * @return A new buffer (sharing the content of the image) whose remaining
+     *         bytes are the class bytes. <code>null</code> if the image does
+     *         not contain the class. The buffer must not be modified.
+     */
+    ByteBuffer getClassBytes(final String className) {
+        final Long location = this.index.get(className);
+        if (location == null) {
+            return null;
+        }
+
+        final int offset = (int) (location >>> 32);
+        final int length = (int) (long) location;
+        final ByteBuffer result = this.data.duplicate();
+        result.limit(offset + length).position(offset);
+        return result;
+    }
+
+    /**
+     *
+     * @return {@link #manifest}.
+     */
+    Manifest getManifest() {
+        return this.manifest;
+    }
+
+    /**
+     *
+     * @return {@link #packageNames}.
+     */
+    Set<String> getPackageNames() {
+        return this.packageNames;
+    }
+
+    /**
+     *
+     * @return The number of classes in the image.
+     */
+    int getClassCount() {
+        return this.index.size();
+    }
+
+    /**
+     *
+     * @return The size of the class bytes in bytes.
+     */
+    int getSize() {
+        return this.data.capacity();
+    }
+
+    /**
+     *
+     * @return Whether the class bytes are stored off-heap.
+     */
+    boolean isDirect() {
+        return this.data.isDirect();
+    }
+}
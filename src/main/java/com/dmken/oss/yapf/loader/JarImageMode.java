@@ -0,0 +1,59 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+/**
+ * How a {@link PluginClassLoader} reads the classes of the plugin JAR.
+ *
+ * <p>
+ * By default, the classes are read through the {@link java.util.zip.ZipFile}
+ * of the {@link java.net.URLClassLoader}, which serializes the reads of all
+ * threads and inflates every class on demand. With an image, the JAR is read
+ * once in a single sequential pass when the plugin is loaded and the classes
+ * are defined from the in-memory {@link JarImage image}. This trades memory
+ * for lower class loading latency and contention (e.g. during a parallel
+ * startup). Resources are always read from the JAR.
+ * </p>
+ *
+ * <p>
+ * Signed JARs are always read from the JAR regardless of the mode (as with
+ * {@link #NONE}), so their classes are verified and carry their signers. The
+ * image is read without verification and could not provide them.
+ * </p>
+ *
+ */
+public enum JarImageMode {
+    /**
+     * The classes are read from the JAR on demand (no image).
+     *
+     */
+    NONE,
+    /**
+     * The classes are read into an image on the heap.
+     *
+     */
+    HEAP,
+    /**
+     * The classes are read into an image off-heap (direct memory). Classes
+     * are defined from the direct memory without copying.
+     *
+     */
+    DIRECT;
+}
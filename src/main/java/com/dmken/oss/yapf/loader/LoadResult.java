@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.dmken.oss.yapf.Plugin;
+import com.dmken.oss.yapf.PluginMeta;
+
+/**
+ * The result of {@link PluginLoader#loadPlugins(Collection) loading multiple
+ * plugins}. Contains all loaded plugins and an error for every plugin that
+ * could not be loaded.
+ *
+ */
+public class LoadResult {
+    /**
+     * The loaded plugins (in the order they were loaded, that is dependencies
+     * before their dependents).
+     *
+     */
+    private final List<Plugin> plugins;
+    /**
+     * The errors that occurred per plugin.
+     *
+     */
+    private final Map<PluginMeta, Exception> errors;
+
+    /**
+     * Constructor of LoadResult.
+     *
+     * @param plugins
+     *            {@link #plugins}.
+     * @param errors
+     *            {@link #errors}.
+     */
+    LoadResult(final List<Plugin> plugins, final Map<PluginMeta, Exception> errors) {
+        this.plugins = Collections.unmodifiableList(plugins);
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     *
+     * @return {@link #plugins}.
+     */
+    public List<Plugin> getPlugins() {
+        return this.plugins;
+    }
+
+    /**
+     *
+     * @return {@link #errors}.
+     */
+    public Map<PluginMeta, Exception> getErrors() {
+        return this.errors;
+    }
+
+    /**
+     *
+     * @return Whether all plugins were loaded successfully.
+     */
+    public boolean isSuccessful() {
+        return this.errors.isEmpty();
+    }
+}
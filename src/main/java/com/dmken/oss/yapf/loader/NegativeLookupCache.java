@@ -0,0 +1,226 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of class names that are known to be missing. This is used to
+ * answer repeated lookups of missing (e.g. optional) classes without probing
+ * all class loaders again.
+ *
+ * <p>
+ * If the cache is full, the oldest entries are evicted first. Every change of
+ * the set of available classes (e.g. adding a specification class loader)
+ * must {@link #invalidate() invalidate} the cache. Lookups that started before
+ * an invalidation do not populate the cache (see {@link #getGeneration()}).
+ * </p>
+ *
+ */
+public class NegativeLookupCache {
+    /**
+     * The default maximum number of cached class names.
+     *
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    /**
+     * The maximum number of cached class names.
+     *
+     */
+    private final int maximumSize;
+    /**
+     * The cached class names (mapped to the generation they were added in).
+     *
+     */
+    private final Map<String, Long> missingClasses = new ConcurrentHashMap<>();
+    /**
+     * The cached class names in insertion order (for evicting the oldest
+     * entries).
+     *
+     */
+    private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+    /**
+     * The current generation. Incremented on every invalidation.
+     *
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * The number of lookups answered by the cache.
+     *
+     */
+    private final LongAdder hits = new LongAdder();
+    /**
+     * The number of lookups not answered by the cache.
+     *
+     */
+    private final LongAdder misses = new LongAdder();
+    /**
+     * The number of evicted class names.
+     *
+     */
+    private final LongAdder evictions = new LongAdder();
+    /**
+     * The number of invalidations.
+     *
+     */
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Constructor of NegativeLookupCache.
+     *
+     * @param maximumSize
+     *            {@link #maximumSize}. Must be positive.
+     */
+    public NegativeLookupCache(final int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive!");
+        }
+
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Checks whether the class with the given name is known to be missing.
+     * This is counted as a hit or as a miss.
+     *
+     * @param className
+     *            The full qualified name of the class.
+     * @return Whether the class is known to be missing.
+     */
+    public boolean isMissing(final String className) {
+        if (this.missingClasses.containsKey(className)) {
+            this.hits.increment();
+            return true;
+        }
+        this.misses.increment();
+        return false;
+    }
+
+    /**
+     * Gets the current generation. This has to be captured before a lookup
+     * is started and passed to {@link #addMissing(String, long)} afterwards.
+     *
+     * @return The current generation.
+     */
+    public long getGeneration() {
+        return this.generation.get();
+    }
+
+    /**
+     * Adds the given class name as missing, if the cache was not invalidated
+     * since the given generation.
+     *
+     * @param className
+     *            The full qualified name of the missing class.
+     * @param lookupGeneration
+     *            The {@link #getGeneration() generation} captured before the
+     *            lookup was started.
+     */
+    public void addMissing(final String className, final long lookupGeneration) {
+        if (this.generation.get() != lookupGeneration) {
+            return;
+        }
+        if (this.missingClasses.putIfAbsent(className, lookupGeneration) != null) {
+            return;
+        }
+        this.insertionOrder.add(className);
+        if (this.generation.get() != lookupGeneration) {
+            // Invalidated concurrently.
+            this.missingClasses.remove(className, lookupGeneration);
+            return;
+        }
+
+        while (this.missingClasses.size() > this.maximumSize) {
+            final String eldest = this.insertionOrder.poll();
+            if (eldest == null) {
+                break;
+            }
+            if (this.missingClasses.remove(eldest) != null) {
+                this.evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Invalidates (that is clears) the cache.
+     *
+     */
+    public void invalidate() {
+        this.generation.incrementAndGet();
+        this.missingClasses.clear();
+        this.insertionOrder.clear();
+        this.invalidations.increment();
+    }
+
+    /**
+     *
+     * @return The number of cached class names.
+     */
+    public int size() {
+        return this.missingClasses.size();
+    }
+
+    /**
+     *
+     * @return {@link #maximumSize}.
+     */
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     *
+     * @return The number of lookups answered by the cache.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     *
+     * @return The number of lookups not answered by the cache.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     *
+     * @return The number of evicted class names.
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     *
+     * @return The number of invalidations.
+     */
+    public long getInvalidations() {
+        return this.invalidations.sum();
+    }
+}
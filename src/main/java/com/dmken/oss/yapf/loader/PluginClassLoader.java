@@ -19,11 +19,29 @@
  */
 package com.dmken.oss.yapf.loader;
 
+import java.io.IOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +50,18 @@ import org.slf4j.LoggerFactory;
  * This is a special {@link URLClassLoader class loader} for loading plugins.
  * This includes class loading across multiple plugin class loaders.
  *
+ * <p>
+ * This class loader is parallel capable. Classes are defined while holding the
+ * {@link #getClassLoadingLock(String) lock of the class name} only, so no class
+ * is ever defined twice.
+ * </p>
+ *
+ * <p>
+ * If the class loader is created with a {@link JarImage JAR image}, the
+ * classes are defined from the image instead of being read from the JAR (see
+ * {@link JarImageMode}).
+ * </p>
+ *
  */
 public class PluginClassLoader extends URLClassLoader {
     /**
@@ -40,15 +70,111 @@ public class PluginClassLoader extends URLClassLoader {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(PluginClassLoader.class);
 
+    /**
+     * The file extension of class files.
+     *
+     */
+    private static final String CLASS_EXTENSION = ".class";
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    /**
+     * The resolution chain used when searching locally only (see
+     * {@link #findClass(String, boolean)}).
+     *
+     */
+    private static final ResolutionStage[] LOCAL_RESOLUTION_CHAIN = { ResolutionStage.CACHE, ResolutionStage.LOCAL };
+    /**
+     * The resolution chain used for classes of the {@link #JAVA_PACKAGE_PREFIX
+     * java packages}. These can not be defined by any other class loader than
+     * the platform class loader anyway.
+     *
+     */
+    private static final ResolutionStage[] PLATFORM_RESOLUTION_CHAIN = { ResolutionStage.PLATFORM };
+    /**
+     * The prefix of the names of classes that are always loaded by the
+     * platform.
+     *
+     */
+    private static final String JAVA_PACKAGE_PREFIX = "java.";
+    /**
+     * Empty array of class loaders.
+     *
+     */
+    private static final PluginClassLoader[] NO_CLASS_LOADERS = new PluginClassLoader[0];
+
     /**
      * Class cache to prevent potential redefinitions of classes which causes a
      * {@link LinkageError}.
      * 
      */
-    private final Map<String, Class<?>> classCache = new HashMap<>();
+    private final Map<String, Class<?>> classCache = new ConcurrentHashMap<>();
+    /**
+     * The names of the packages containing classes in the plugin JAR. Lazily
+     * computed by {@link #getPackageNames()}.
+     *
+     */
+    private volatile Set<String> packageNames;
+    /**
+     * The stages to pass through when resolving a class (in that order).
+     *
+     */
+    private final ResolutionStage[] resolutionChain;
+    /**
+     * The statistics to record the lookups of each stage to.
+     *
+     */
+    private final ResolutionStatistics resolutionStatistics;
+    /**
+     * The class loaders of the declared dependencies (probed by
+     * {@link ResolutionStage#DEPENDENCIES}).
+     *
+     */
+    private volatile PluginClassLoader[] dependencyClassLoaders = PluginClassLoader.NO_CLASS_LOADERS;
+    /**
+     * The image of the classes of the plugin JAR. <code>null</code> if the
+     * classes are read from the JAR (or the class loader is closed).
+     *
+     */
+    private volatile JarImage image;
+    /**
+     * Whether this class loader was closed.
+     *
+     */
+    private volatile boolean closed;
+    /**
+     * The code source of the classes defined from {@link #image}.
+     *
+     */
+    private final CodeSource codeSource;
+    /**
+     * The names of the classes missing from all stages of the
+     * {@link #resolutionChain}. Per class loader as a class missing for one
+     * plugin may be provided by the JAR or the dependencies of another.
+     *
+     */
+    private final NegativeLookupCache negativeLookupCache = new NegativeLookupCache(NegativeLookupCache.DEFAULT_MAXIMUM_SIZE);
+    /**
+     * The {@link NegativeLookupCache#getGeneration() generation} of the
+     * negative lookup cache of the parent {@link #negativeLookupCache} is valid
+     * for. Only relevant if the {@link #resolutionChain} contains
+     * {@link ResolutionStage#GLOBAL}, as the shared classes change if a
+     * specification is added.
+     *
+     */
+    private volatile long sharedGeneration;
+    /**
+     * Whether the {@link #resolutionChain} contains
+     * {@link ResolutionStage#GLOBAL}.
+     *
+     */
+    private final boolean globalStage;
 
     /**
-     * Constructor of PluginClassLoader.
+     * Constructor of PluginClassLoader. Uses the
+     * {@link ResolutionStage#DEFAULT_CHAIN default resolution chain}.
      * 
      * @param url
      *            The URL to load classes from.
@@ -56,11 +182,86 @@ public class PluginClassLoader extends URLClassLoader {
      *            The parent class loader.
      */
     public PluginClassLoader(final URL url, final DelegatingPluginClassLoader parent) {
+        this(url, parent, ResolutionStage.DEFAULT_CHAIN, new ResolutionStatistics());
+    }
+
+    /**
+     * Constructor of PluginClassLoader.
+     * 
+     * @param url
+     *            The URL to load classes from.
+     * @param parent
+     *            The parent class loader.
+     * @param resolutionChain
+     *            {@link #resolutionChain}. Must not be empty and must not
+     *            contain duplicates.
+     * @param resolutionStatistics
+     *            {@link #resolutionStatistics}.
+     */
+    public PluginClassLoader(final URL url, final DelegatingPluginClassLoader parent, final List<ResolutionStage> resolutionChain,
+            final ResolutionStatistics resolutionStatistics) {
+        this(url, parent, resolutionChain, resolutionStatistics, null);
+    }
+
+    /**
+     * Constructor of PluginClassLoader.
+     *
+     * @param url
+     *            The URL to load classes from.
+     * @param parent
+     *            The parent class loader.
+     * @param resolutionChain
+     *            {@link #resolutionChain}. Must not be empty and must not
+     *            contain duplicates.
+     * @param resolutionStatistics
+     *            {@link #resolutionStatistics}.
+     * @param image
+     *            {@link #image}. If <code>null</code>, the classes are read
+     *            from the JAR.
+     */
+    PluginClassLoader(final URL url, final DelegatingPluginClassLoader parent, final List<ResolutionStage> resolutionChain,
+            final ResolutionStatistics resolutionStatistics, final JarImage image) {
         super(new URL[] { url }, parent);
 
+        if (resolutionStatistics == null) {
+            throw new IllegalArgumentException("ResolutionStatistics must not be null!");
+        }
+
+        this.resolutionChain = PluginClassLoader.validateResolutionChain(resolutionChain).toArray(new ResolutionStage[0]);
+        this.globalStage = resolutionChain.contains(ResolutionStage.GLOBAL);
+        this.sharedGeneration = parent.getNegativeLookupCache().getGeneration();
+        this.resolutionStatistics = resolutionStatistics;
+        this.image = image;
+        this.codeSource = new CodeSource(url, (CodeSigner[]) null);
+
         PluginClassLoader.LOGGER.trace("Creating new PluginClassLoader for <{}>.", url.toString());
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Unlike the default implementation, this does not delegate to the parent
+     * first but passes through the {@link #resolutionChain}. The parent
+     * ({@link DelegatingPluginClassLoader}) would search all specification
+     * plugins, which is only done if the chain contains
+     * {@link ResolutionStage#GLOBAL}. The {@link ResolutionStage#DEFAULT_CHAIN
+     * default chain} probes the platform (including the yapf API) before the
+     * plugin JAR, so the delegation stays parent-first with respect to the
+     * platform.
+     * </p>
+     *
+     * @see java.lang.ClassLoader#loadClass(java.lang.String, boolean)
+     */
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+        final Class<?> result = this.findClass(name);
+        if (resolve) {
+            this.resolveClass(result);
+        }
+        return result;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -73,9 +274,17 @@ public class PluginClassLoader extends URLClassLoader {
 
     /**
      * Finds the class with the given name and loads it. If <code>global</code>
-     * is set to <code>true</code>, the class loaders of other plugins are
-     * probed to load the class too. This is done for class usage across
-     * plugins.
+     * is set to <code>true</code>, the class is resolved using the
+     * {@link #resolutionChain} (including other plugins). This is done for
+     * class usage across plugins. Otherwise, only the cache and the plugin JAR
+     * are probed. Classes of the <code>java</code> packages are always loaded
+     * from the platform.
+     *
+     * <p>
+     * Global lookups of classes missing from all stages are cached (see
+     * {@link NegativeLookupCache}), so repeated lookups of missing (e.g.
+     * optional) classes do not probe the stages again.
+     * </p>
      *
      * @param name
      *            The full qualified name of the class to find.
@@ -94,46 +303,344 @@ public class PluginClassLoader extends URLClassLoader {
             PluginClassLoader.LOGGER.debug("Searching for class <{}>.", name);
         }
 
-        PluginClassLoader.LOGGER.trace("Probing class cache <{}>.", name);
-        Class<?> result = this.classCache.get(name);
-        if (result == null) {
-            PluginClassLoader.LOGGER.trace("Not found! Probing classpath <{}>.", name);
-            try {
-                result = super.findClass(name);
-            } catch (final ClassNotFoundException dummy) {
-                // Class not found. Ignore.
+        long generation = 0;
+        if (global) {
+            if (this.isKnownMissing(name)) {
+                PluginClassLoader.LOGGER.debug("Class not found (cached): {}", name);
+
+                return Optional.empty();
             }
+            generation = this.negativeLookupCache.getGeneration();
         }
-        if (global) {
-            PluginClassLoader.LOGGER.trace("Not found! Probing parent class loader <{}>.", name);
 
-            try {
-                result = this.getCastedParent().findClass(name);
-            } catch (final ClassNotFoundException dummy) {
-                // Class not found. Ignore.
+        final ResolutionStage[] chain;
+        if (!global) {
+            chain = PluginClassLoader.LOCAL_RESOLUTION_CHAIN;
+        } else if (name.startsWith(PluginClassLoader.JAVA_PACKAGE_PREFIX)) {
+            chain = PluginClassLoader.PLATFORM_RESOLUTION_CHAIN;
+        } else {
+            chain = this.resolutionChain;
+        }
+
+        Class<?> result = null;
+        for (final ResolutionStage stage : chain) {
+            PluginClassLoader.LOGGER.trace("Probing stage {} <{}>.", stage, name);
+
+            final long start = System.nanoTime();
+            result = this.findClass(name, stage);
+            this.resolutionStatistics.record(stage, result != null, System.nanoTime() - start);
+
+            if (result != null) {
+                if (stage != ResolutionStage.CACHE) {
+                    final Class<?> cached = this.classCache.putIfAbsent(name, result);
+                    if (cached != null) {
+                        result = cached;
+                    }
+                }
+                break;
             }
         }
+
         if (result == null) {
-            PluginClassLoader.LOGGER.trace("Not found! Probing forName(...) with current class loader <{}>.", name);
+            if (global) {
+                this.negativeLookupCache.addMissing(name, generation);
+            }
+            PluginClassLoader.LOGGER.debug("Class not found: {}", name);
+        } else {
+            PluginClassLoader.LOGGER.debug("Class found: {}", name);
+        }
 
+        return Optional.ofNullable(result);
+    }
+
+    /**
+     * Checks whether the class with the given name is known to be missing
+     * from all stages. Invalidates the {@link #negativeLookupCache} first if
+     * the shared classes changed.
+     *
+     * @param name
+     *            The full qualified name of the class.
+     * @return Whether the class is known to be missing.
+     */
+    private boolean isKnownMissing(final String name) {
+        if (this.globalStage) {
+            final long shared = this.getCastedParent().getNegativeLookupCache().getGeneration();
+            if (shared != this.sharedGeneration) {
+                this.negativeLookupCache.invalidate();
+                this.sharedGeneration = shared;
+            }
+        }
+        return this.negativeLookupCache.isMissing(name);
+    }
+
+    /**
+     * Probes the given resolution stage for the class with the given name.
+     *
+     * @param name
+     *            The full qualified name of the class to find.
+     * @param stage
+     *            The stage to probe.
+     * @return The found class or <code>null</code> if the stage does not
+     *         provide the class.
+     */
+    private Class<?> findClass(final String name, final ResolutionStage stage) {
+        switch (stage) {
+            case CACHE:
+                return this.classCache.get(name);
+            case LOCAL:
+                return this.findLocalClass(name);
+            case DEPENDENCIES:
+                for (final PluginClassLoader dependencyClassLoader : this.dependencyClassLoaders) {
+                    final Class<?> result = dependencyClassLoader.findClass(name, false).orElse(null);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+                return null;
+            case GLOBAL:
+                return this.getCastedParent().findSharedClass(name);
+            case PLATFORM:
+                try {
+                    return Class.forName(name, false, this.getCastedParent().getParent());
+                } catch (final ClassNotFoundException dummy) {
+                    // Class not found. Ignore.
+                    return null;
+                }
+            default:
+                throw new IllegalStateException("Unknown resolution stage: " + stage);
+        }
+    }
+
+    /**
+     * Finds the class with the given name in the plugin JAR and defines it, if
+     * it was not defined yet.
+     *
+     * @param name
+     *            The full qualified name of the class to find.
+     * @return The found class or <code>null</code> if the JAR does not contain
+     *         the class.
+     */
+    private Class<?> findLocalClass(final String name) {
+        synchronized (this.getClassLoadingLock(name)) {
+            // Another thread might have defined the class in the meantime.
+            Class<?> result = this.findLoadedClass(name);
+            if (result == null) {
+                final JarImage currentImage = this.image;
+                if (currentImage != null) {
+                    result = this.defineImageClass(name, currentImage);
+                } else {
+                    try {
+                        result = super.findClass(name);
+                    } catch (final ClassNotFoundException dummy) {
+                        // Class not found. Ignore.
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Defines the class with the given name from the given image (including
+     * its package, like {@link URLClassLoader} does). Must only be invoked
+     * while holding the {@link #getClassLoadingLock(String) lock of the class
+     * name}.
+     *
+     * @param name
+     *            The full qualified name of the class to define.
+     * @param currentImage
+     *            The image to define the class from.
+     * @return The defined class or <code>null</code> if the image does not
+     *         contain the class.
+     */
+    private Class<?> defineImageClass(final String name, final JarImage currentImage) {
+        final ByteBuffer bytes = currentImage.getClassBytes(name);
+        if (bytes == null) {
+            return null;
+        }
+
+        final String packageName = PluginClassLoader.getPackageName(name);
+        if (!packageName.isEmpty() && this.getPackage(packageName) == null) {
+            final Manifest manifest = currentImage.getManifest();
             try {
-                result = Class.forName(name, false, this);
-            } catch (final ClassNotFoundException dummy) {
-                // Class not found. Ignore.
+                if (manifest == null) {
+                    this.definePackage(packageName, null, null, null, null, null, null, null);
+                } else {
+                    this.definePackage(packageName, manifest, this.codeSource.getLocation());
+                }
+            } catch (final IllegalArgumentException dummy) {
+                // Defined by another thread in the meantime.
             }
         }
+        return this.defineClass(name, bytes, this.codeSource);
+    }
 
-        if (result != null) {
-            this.classCache.put(name, result);
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * This also drops the {@link #image}.
+     * </p>
+     *
+     * @see java.net.URLClassLoader#close()
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.image = null;
+        super.close();
+    }
+
+    /**
+     *
+     * @return {@link #closed}.
+     */
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Sets the class loaders of the declared dependencies.
+     *
+     * @param dependencyClassLoaders
+     *            The class loaders of the declared dependencies. They are
+     *            probed in the given order.
+     */
+    void setDependencyClassLoaders(final Collection<PluginClassLoader> dependencyClassLoaders) {
+        if (dependencyClassLoaders == null) {
+            throw new IllegalArgumentException("DependencyClassLoaders must not be null!");
         }
 
+        this.dependencyClassLoaders = dependencyClassLoaders.toArray(PluginClassLoader.NO_CLASS_LOADERS);
+        // Invalidate after setting so no lookup started before can populate
+        // the cache with classes provided by the dependencies.
+        this.negativeLookupCache.invalidate();
+    }
+
+    /**
+     * Evicts the classes defined by the given class loader from the
+     * {@link #classCache}, so this class loader does not retain the given one
+     * after it was released. Evicted classes are resolved again on the next
+     * lookup.
+     *
+     * @param classLoader
+     *            The class loader whose classes to evict.
+     * @return The number of evicted classes.
+     */
+    int evictClasses(final ClassLoader classLoader) {
+        int evicted = 0;
+        final Iterator<Class<?>> iterator = this.classCache.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getClassLoader() == classLoader) {
+                iterator.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     *
+     * @return The class loaders of the declared dependencies.
+     */
+    List<PluginClassLoader> getDependencyClassLoaders() {
+        return Collections.unmodifiableList(Arrays.asList(this.dependencyClassLoaders));
+    }
+
+    /**
+     *
+     * @return {@link #negativeLookupCache}.
+     */
+    NegativeLookupCache getNegativeLookupCache() {
+        return this.negativeLookupCache;
+    }
+
+    /**
+     *
+     * @return {@link #image}.
+     */
+    JarImage getImage() {
+        return this.image;
+    }
+
+    /**
+     *
+     * @return {@link #resolutionStatistics}.
+     */
+    public ResolutionStatistics getResolutionStatistics() {
+        return this.resolutionStatistics;
+    }
+
+    /**
+     * Validates the given resolution chain.
+     *
+     * @param resolutionChain
+     *            The resolution chain to validate.
+     * @return The given resolution chain.
+     * @throws IllegalArgumentException
+     *             If the resolution chain is <code>null</code>, empty or
+     *             contains <code>null</code> or duplicate stages.
+     */
+    static List<ResolutionStage> validateResolutionChain(final List<ResolutionStage> resolutionChain) {
+        if (resolutionChain == null || resolutionChain.isEmpty()) {
+            throw new IllegalArgumentException("ResolutionChain must not be null or empty!");
+        }
+        if (resolutionChain.contains(null)) {
+            throw new IllegalArgumentException("ResolutionChain must not contain null!");
+        }
+        if (EnumSet.copyOf(resolutionChain).size() != resolutionChain.size()) {
+            throw new IllegalArgumentException("ResolutionChain must not contain duplicates!");
+        }
+        return resolutionChain;
+    }
+
+    /**
+     * Gets the names of all packages containing classes in the plugin JAR.
+     * The JAR is read the first time this is invoked only.
+     *
+     * @return The package names (the default package is represented by an
+     *         empty string).
+     * @throws IOException
+     *             If the JAR can not be read.
+     */
+    Set<String> getPackageNames() throws IOException {
+        final JarImage currentImage = this.image;
+        if (currentImage != null) {
+            return currentImage.getPackageNames();
+        }
+
+        Set<String> result = this.packageNames;
         if (result == null) {
-            PluginClassLoader.LOGGER.debug("Class for found: {}", name);
-        } else {
-            PluginClassLoader.LOGGER.debug("Class found: {}", name);
+            result = new HashSet<>();
+            for (final URL url : this.getURLs()) {
+                try (final JarFile jar = new JarFile(Paths.get(url.toURI()).toFile())) {
+                    for (final Enumeration<JarEntry> it = jar.entries(); it.hasMoreElements();) {
+                        final String entryName = it.nextElement().getName();
+                        if (entryName.endsWith(PluginClassLoader.CLASS_EXTENSION)) {
+                            final int index = entryName.lastIndexOf('/');
+                            result.add(index < 0 ? "" : entryName.substring(0, index).replace('/', '.'));
+                        }
+                    }
+                } catch (final URISyntaxException | IllegalArgumentException cause) {
+                    throw new IOException("Not a local file: " + url, cause);
+                }
+            }
+            result = Collections.unmodifiableSet(result);
+            this.packageNames = result;
         }
+        return result;
+    }
 
-        return Optional.ofNullable(result);
+    /**
+     * Extracts the package name of the given full qualified class name.
+     *
+     * @param className
+     *            The full qualified class name.
+     * @return The package name (an empty string for the default package).
+     */
+    static String getPackageName(final String className) {
+        final int index = className.lastIndexOf('.');
+        return index < 0 ? "" : className.substring(0, index);
     }
 
     /**
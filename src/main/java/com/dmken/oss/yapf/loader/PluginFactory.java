@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+
+import com.dmken.oss.yapf.Plugin;
+import com.dmken.oss.yapf.meta.exception.MalformedPluginMetaException;
+
+/**
+ * Creates instances of a plugin main class. The main class is validated once
+ * when the factory is created and the instances are created through a
+ * {@link MethodHandle} afterwards (which is way cheaper than reflective
+ * constructor invocations).
+ *
+ * <p>
+ * The factories are cached per main class (see {@link #of(Class)}). The cache
+ * does not prevent the main class (and its class loader) from being garbage
+ * collected.
+ * </p>
+ *
+ */
+public final class PluginFactory {
+    /**
+     * The type of the constructor handles.
+     *
+     */
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Plugin.class);
+    /**
+     * The cached factories.
+     *
+     */
+    private static final ClassValue<PluginFactory> FACTORIES = new ClassValue<PluginFactory>() {
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.ClassValue#computeValue(java.lang.Class)
+         */
+        @Override
+        protected PluginFactory computeValue(final Class<?> type) {
+            return PluginFactory.create(type);
+        }
+    };
+
+    /**
+     * The main class. <code>null</code> if it is invalid.
+     *
+     */
+    private final Class<? extends Plugin> pluginClass;
+    /**
+     * The constructor handle of type {@link #CONSTRUCTOR_TYPE}.
+     * <code>null</code> if the main class is invalid.
+     *
+     */
+    private final MethodHandle constructor;
+    /**
+     * The reason why the main class is invalid. <code>null</code> if it is
+     * valid.
+     *
+     */
+    private final String error;
+    /**
+     * The cause of {@link #error}. May be <code>null</code>.
+     *
+     */
+    private final Throwable errorCause;
+
+    /**
+     * Constructor of PluginFactory.
+     *
+     * @param pluginClass
+     *            {@link #pluginClass}.
+     * @param constructor
+     *            {@link #constructor}.
+     * @param error
+     *            {@link #error}.
+     * @param errorCause
+     *            {@link #errorCause}.
+     */
+    private PluginFactory(final Class<? extends Plugin> pluginClass, final MethodHandle constructor, final String error,
+            final Throwable errorCause) {
+        this.pluginClass = pluginClass;
+        this.constructor = constructor;
+        this.error = error;
+        this.errorCause = errorCause;
+    }
+
+    /**
+     * Gets the (cached) factory for the given main class.
+     *
+     * @param clazz
+     *            The main class.
+     * @return The factory. Check {@link #isValid()} whether the main class is
+     *         valid.
+     */
+    public static PluginFactory of(final Class<?> clazz) {
+        if (clazz == null) {
+            throw new IllegalArgumentException("Class must not be null!");
+        }
+
+        return PluginFactory.FACTORIES.get(clazz);
+    }
+
+    /**
+     * Creates a new instance of the main class.
+     *
+     * @param pluginName
+     *            The name of the plugin (used for error messages).
+     * @return The created plugin.
+     * @throws MalformedPluginMetaException
+     *             If the main class is invalid or the constructor threw an
+     *             exception.
+     */
+    public Plugin newInstance(final String pluginName) throws MalformedPluginMetaException {
+        if (this.constructor == null) {
+            if (this.errorCause == null) {
+                throw new MalformedPluginMetaException(pluginName, this.error);
+            }
+            throw new MalformedPluginMetaException(pluginName, this.error, this.errorCause);
+        }
+
+        try {
+            return (Plugin) this.constructor.invokeExact();
+        } catch (final VirtualMachineError ex) {
+            throw ex;
+        } catch (final Throwable cause) {
+            throw new MalformedPluginMetaException(pluginName, "Constructor of main class threw an exception!", cause);
+        }
+    }
+
+    /**
+     *
+     * @return Whether the main class is valid.
+     */
+    public boolean isValid() {
+        return this.constructor != null;
+    }
+
+    /**
+     *
+     * @return {@link #pluginClass}.
+     */
+    public Class<? extends Plugin> getPluginClass() {
+        return this.pluginClass;
+    }
+
+    /**
+     * Validates the given main class and creates a factory for it.
+     *
+     * @param clazz
+     *            The main class.
+     * @return The factory (an invalid one if the main class is invalid).
+     */
+    private static PluginFactory create(final Class<?> clazz) {
+        if (!Plugin.class.isAssignableFrom(clazz)) {
+            return PluginFactory.invalid("Main class is not a subclass of Plugin!", null);
+        }
+        final Class<? extends Plugin> pluginClass = clazz.asSubclass(Plugin.class);
+        if (pluginClass.isInterface() || Modifier.isAbstract(pluginClass.getModifiers())) {
+            return PluginFactory.invalid("Main class must be a regular class (not an interface or abstract)!", null);
+        }
+        final Constructor<? extends Plugin> ctor;
+        try {
+            ctor = pluginClass.getConstructor();
+        } catch (final NoSuchMethodException cause) {
+            return PluginFactory.invalid("Main class does not have a default constructor!", cause);
+        }
+        if (!Modifier.isPublic(ctor.getModifiers())) {
+            return PluginFactory.invalid("Constructor of main class is not visible!", null);
+        }
+        if (!ctor.isAccessible()) {
+            // The main class itself may not be public.
+            ctor.setAccessible(true);
+        }
+        final MethodHandle constructor;
+        try {
+            constructor = MethodHandles.lookup().unreflectConstructor(ctor).asType(PluginFactory.CONSTRUCTOR_TYPE);
+        } catch (final IllegalAccessException cause) {
+            return PluginFactory.invalid("Failed to access constructor of main class!", cause);
+        }
+        return new PluginFactory(pluginClass, constructor, null, null);
+    }
+
+    /**
+     * Creates an invalid factory.
+     *
+     * @param error
+     *            {@link #error}.
+     * @param errorCause
+     *            {@link #errorCause}.
+     * @return The factory.
+     */
+    private static PluginFactory invalid(final String error, final Throwable errorCause) {
+        return new PluginFactory(null, null, error, errorCause);
+    }
+}
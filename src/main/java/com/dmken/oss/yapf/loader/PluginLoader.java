@@ -20,30 +20,57 @@
 package com.dmken.oss.yapf.loader;
 
 import java.io.IOException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.jar.JarFile;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.Manifest;
+import java.util.zip.ZipException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.dmken.oss.yapf.BasePlugin;
 import com.dmken.oss.yapf.Plugin;
 import com.dmken.oss.yapf.PluginConfig;
+import com.dmken.oss.yapf.PluginManager;
 import com.dmken.oss.yapf.PluginMeta;
 import com.dmken.oss.yapf.PluginType;
 import com.dmken.oss.yapf.Version;
 import com.dmken.oss.yapf.config.ManifestPluginConfig;
+import com.dmken.oss.yapf.event.EventBus;
+import com.dmken.oss.yapf.event.ListenerMethods;
 import com.dmken.oss.yapf.event.PostPluginLoadEvent;
+import com.dmken.oss.yapf.event.PostPluginsLoadEvent;
 import com.dmken.oss.yapf.event.PrePluginLoadEvent;
+import com.dmken.oss.yapf.event.PrePluginsLoadEvent;
+import com.dmken.oss.yapf.meta.PluginDependencyGraph;
 import com.dmken.oss.yapf.meta.SimplePluginMeta;
 import com.dmken.oss.yapf.meta.UnmodifiablePluginMeta;
 import com.dmken.oss.yapf.meta.exception.MalformedPluginMetaException;
-import com.dmken.oss.yapf.util.FileUtil;
-import com.dmken.oss.yapf.util.EventUtil;
+import com.dmken.oss.yapf.meta.exception.UnresolvableDependencyException;
+import com.dmken.oss.yapf.util.ConcurrencyUtil;
+import com.dmken.oss.yapf.util.JarManifestReader;
 
 /**
  * The {@link PluginLoader plugin loader} is a service for loading plugins. That
@@ -101,12 +128,210 @@ public class PluginLoader {
      */
     private static final String META_AUTHORS = "authors";
 
+    /**
+     * The file extension of plugin files.
+     *
+     */
+    private static final String PLUGIN_EXTENSION = ".jar";
+
     /**
      * The parent class loader delegating class loading to the actual plugin
      * class loaders.
      * 
      */
     private final DelegatingPluginClassLoader parentClassLoader = new DelegatingPluginClassLoader(Plugin.class.getClassLoader());
+    /**
+     * The maximum number of threads used for bulk operations (e.g.
+     * {@link #scanDirectory(Path)}).
+     *
+     */
+    private final int parallelism;
+    /**
+     * The stages the class loaders of plugins loaded afterwards pass through
+     * when resolving classes.
+     *
+     */
+    private volatile List<ResolutionStage> resolutionChain = ResolutionStage.DEFAULT_CHAIN;
+    /**
+     * How the class loaders of plugins loaded afterwards read the classes of
+     * the plugin JAR.
+     *
+     */
+    private volatile JarImageMode jarImageMode = JarImageMode.NONE;
+    /**
+     * Whether {@link #loadPlugins(Collection)} fires a single
+     * {@link PrePluginsLoadEvent} and {@link PostPluginsLoadEvent} instead of
+     * the events per plugin.
+     *
+     */
+    private volatile boolean bulkEvents;
+    /**
+     * The statistics about the class resolution of all plugins.
+     *
+     */
+    private final ResolutionStatistics resolutionStatistics = new ResolutionStatistics();
+    /**
+     * The class loaders of all loaded plugins (the key is created by
+     * {@link #key(String, PluginType)}). Used for resolving the class loaders
+     * of the dependencies of plugins.
+     *
+     */
+    private final Map<String, PluginClassLoader> pluginClassLoaders = new ConcurrentHashMap<>();
+    /**
+     * Tracks the class loaders of unloaded plugins until they are garbage
+     * collected.
+     *
+     */
+    private final ClassLoaderLeakDetector leakDetector = new ClassLoaderLeakDetector();
+    /**
+     * The event bus to fire the events on and to unregister the listeners of
+     * unloaded plugins from.
+     *
+     */
+    private final EventBus eventBus;
+
+    /**
+     * Constructor of PluginLoader. Uses as many threads for bulk operations as
+     * processors are available.
+     *
+     */
+    public PluginLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor of PluginLoader.
+     *
+     * @param parallelism
+     *            {@link #parallelism}. Must be positive.
+     */
+    public PluginLoader(final int parallelism) {
+        this(parallelism, EventBus.getDefault());
+    }
+
+    /**
+     * Constructor of PluginLoader.
+     *
+     * @param parallelism
+     *            {@link #parallelism}. Must be positive.
+     * @param eventBus
+     *            {@link #eventBus}.
+     */
+    public PluginLoader(final int parallelism, final EventBus eventBus) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive!");
+        }
+        if (eventBus == null) {
+            throw new IllegalArgumentException("EventBus must not be null!");
+        }
+
+        this.parallelism = parallelism;
+        this.eventBus = eventBus;
+    }
+
+    /**
+     * Scans the given directory for plugin files (that is JAR files) and
+     * extracts the {@link PluginMeta} of every file concurrently (see
+     * {@link #extractPluginMeta(Path)}).
+     *
+     * <p>
+     * A file with invalid metadata does not fail the whole scan but is
+     * reported in {@link ScanResult#getErrors()}.
+     * </p>
+     *
+     * @param directory
+     *            The directory to scan. Sub directories are not scanned.
+     * @return The {@link ScanResult result} containing all valid metas and the
+     *         errors per file.
+     * @throws IOException
+     *             If the directory can not be listed.
+     */
+    public ScanResult scanDirectory(final Path directory) throws IOException {
+        return this.scanDirectory(directory, null);
+    }
+
+    /**
+     * Scans the given directory for plugin files like
+     * {@link #scanDirectory(Path)} but serves the metadata of unchanged files
+     * from the given {@link PluginMetaCatalog catalog}. Afterwards, the catalog
+     * is updated with the extracted metadata, stale entries are dropped and the
+     * catalog is saved.
+     *
+     * @param directory
+     *            The directory to scan. Sub directories are not scanned.
+     * @param catalog
+     *            The (already loaded) catalog to use. If <code>null</code>, no
+     *            catalog is used.
+     * @return The {@link ScanResult result} containing all valid metas and the
+     *         errors per file.
+     * @throws IOException
+     *             If the directory can not be listed.
+     */
+    public ScanResult scanDirectory(final Path directory, final PluginMetaCatalog catalog) throws IOException {
+        if (directory == null || !Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("Directory must be an existing directory!");
+        }
+
+        final List<Path> files = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path file : stream) {
+                if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(PluginLoader.PLUGIN_EXTENSION)
+                        && Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(null);
+
+        PluginLoader.LOGGER.debug("Scanning {} plugin files in <{}>.", files.size(), directory);
+
+        final List<PluginMeta> pluginMetas = new ArrayList<>(files.size());
+        final Map<Path, Exception> errors = new LinkedHashMap<>();
+        if (files.isEmpty()) {
+            return new ScanResult(pluginMetas, errors);
+        }
+
+        final ExecutorService executor = ConcurrencyUtil.newExecutor("yapf-scanner", Math.min(this.parallelism, files.size()));
+        try {
+            final List<Future<PluginMeta>> futures = new ArrayList<>(files.size());
+            for (final Path file : files) {
+                futures.add(executor.submit(() -> this.extractPluginMeta(file, catalog)));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    pluginMetas.add(futures.get(i).get());
+                } catch (final ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    PluginLoader.LOGGER.debug("Failed to extract plugin meta of <{}>.", files.get(i), cause);
+
+                    errors.put(files.get(i), (Exception) cause);
+                }
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while scanning <" + directory + ">!");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (catalog != null) {
+            catalog.retain(files);
+            try {
+                catalog.save();
+            } catch (final IOException ex) {
+                PluginLoader.LOGGER.warn("Failed to save plugin meta catalog!", ex);
+            }
+        }
+
+        PluginLoader.LOGGER.info("Scanned <{}>: Found {} plugins, {} files are invalid.", directory, pluginMetas.size(),
+                errors.size());
+
+        return new ScanResult(pluginMetas, errors);
+    }
 
     /**
      * Extracts the {@link PluginMeta} from the {@link Manifest JAR manifest} or
@@ -122,51 +347,205 @@ public class PluginLoader {
      *             attributes).
      */
     public PluginMeta extractPluginMeta(final Path file) throws IOException, MalformedPluginMetaException {
-        if (!FileUtil.isJarFile(file)) {
+        if (file == null || !Files.isRegularFile(file)) {
             throw new IllegalArgumentException("File must be a JAR file!");
         }
 
-        try (final JarFile jar = new JarFile(file.toFile())) {
-            final PluginConfig metaConfig = new ManifestPluginConfig(jar.getManifest(), PluginLoader.MANIFEST_NAME);
+        // Validates the JAR file and reads the manifest in one pass.
+        final Manifest manifest;
+        try {
+            manifest = JarManifestReader.readManifest(file).orElse(null);
+        } catch (final ZipException cause) {
+            throw new IllegalArgumentException("File must be a JAR file!", cause);
+        }
 
-            // Required properties.
-            final String rawName = metaConfig.getString(PluginLoader.META_NAME);
-            final String rawVersion = metaConfig.getString(PluginLoader.META_VERSION);
-            final String main = metaConfig.getString(PluginLoader.META_MAIN);
+        final PluginConfig metaConfig = new ManifestPluginConfig(manifest, PluginLoader.MANIFEST_NAME);
 
-            if (rawName == null) {
-                throw new MalformedPluginMetaException(String.valueOf(file), "Missing name attribute!");
-            }
-            if (rawVersion == null) {
-                throw new MalformedPluginMetaException(String.valueOf(file), "Missing version attributes!");
+        // Required properties.
+        final String rawName = metaConfig.getString(PluginLoader.META_NAME);
+        final String rawVersion = metaConfig.getString(PluginLoader.META_VERSION);
+        final String main = metaConfig.getString(PluginLoader.META_MAIN);
+
+        if (rawName == null) {
+            throw new MalformedPluginMetaException(String.valueOf(file), "Missing name attribute!");
+        }
+        if (rawVersion == null) {
+            throw new MalformedPluginMetaException(String.valueOf(file), "Missing version attributes!");
+        }
+        if (main == null) {
+            throw new MalformedPluginMetaException(String.valueOf(file), "Missing main class attributes!");
+        }
+
+        // Parsed required properties.
+        final PluginType pluginType = PluginType.parsePluginName(rawName);
+        final String name = pluginType.extractPluginName(rawName);
+        final Version version = new Version(rawVersion);
+
+        // Optional properties.
+        final String displayName = metaConfig.getString(PluginLoader.META_DISPLAY_NAME, name);
+        final String[] dependencies = metaConfig.getStrings(PluginLoader.META_DEPENDENCIES);
+        final String[] optionalDependencies = metaConfig.getStrings(PluginLoader.META_OPTIONAL_DEPENDENCIES);
+        final String[] authors = metaConfig.getStrings(PluginLoader.META_AUTHORS, (String[]) null);
+
+        final SimplePluginMeta pluginMeta = new SimplePluginMeta();
+        pluginMeta.setLocation(file.toUri().toURL());
+        pluginMeta.setName(name);
+        pluginMeta.setVersion(version);
+        pluginMeta.setMain(main);
+        pluginMeta.setDisplayName(displayName);
+        pluginMeta.setDependencies(dependencies);
+        pluginMeta.setOptionalDependencies(optionalDependencies);
+        pluginMeta.setAuthors(authors);
+        pluginMeta.setPluginType(pluginType);
+        return new UnmodifiablePluginMeta(pluginMeta);
+    }
+
+    /**
+     * Gets the {@link PluginMeta} of the given file from the given catalog or
+     * extracts it if it is not catalogued (see
+     * {@link #extractPluginMeta(Path)}).
+     *
+     * @param file
+     *            The JAR file to get the plugin meta of.
+     * @param catalog
+     *            The catalog to use. If <code>null</code>, the meta is always
+     *            extracted.
+     * @return The plugin meta.
+     * @throws IOException
+     *             If any I/O error occurs.
+     * @throws MalformedPluginMetaException
+     *             If the metadata is invalid.
+     */
+    private PluginMeta extractPluginMeta(final Path file, final PluginMetaCatalog catalog)
+            throws IOException, MalformedPluginMetaException {
+        if (catalog == null) {
+            return this.extractPluginMeta(file);
+        }
+
+        final Optional<PluginMeta> catalogued = catalog.get(file);
+        if (catalogued.isPresent()) {
+            return catalogued.get();
+        }
+        // Read before extracting, so a file replaced in between is not
+        // catalogued with the meta of the previous file.
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final PluginMeta meta = this.extractPluginMeta(file);
+        catalog.put(file, attributes, meta);
+        return meta;
+    }
+
+    /**
+     * Loads all plugins described by the given {@link PluginMeta metadata}
+     * (see {@link #loadPlugin(PluginMeta)}).
+     *
+     * <p>
+     * The {@link PluginDependencyGraph dependency graph} of the plugins is
+     * built up front and the plugins are loaded in topological waves: All
+     * plugins of a wave are loaded concurrently once all plugins they depend
+     * on are loaded. If a plugin fails to load, all plugins that require it
+     * are not loaded either.
+     * </p>
+     *
+     * <p>
+     * If {@link #isBulkEvents() bulk events} are enabled, a single
+     * {@link PrePluginsLoadEvent} is fired before any plugin is loaded (which
+     * may cancel single plugins) and a single {@link PostPluginsLoadEvent}
+     * after all plugins were loaded. Otherwise, the events are fired per
+     * plugin.
+     * </p>
+     *
+     * @param metas
+     *            The {@link PluginMeta metadata} about the plugins to load.
+     * @return The {@link LoadResult result} containing all loaded plugins and
+     *         the errors per plugin.
+     * @throws UnresolvableDependencyException
+     *             If a required dependency is missing or the dependencies
+     *             contain a cycle. No plugin is loaded in this case.
+     * @throws MalformedPluginMetaException
+     *             If a plugin is contained twice. No plugin is loaded in this
+     *             case.
+     */
+    public LoadResult loadPlugins(final Collection<? extends PluginMeta> metas) throws MalformedPluginMetaException {
+        final PluginDependencyGraph graph = PluginDependencyGraph.build(metas);
+
+        final List<Plugin> plugins = new ArrayList<>(metas.size());
+        final Map<PluginMeta, Exception> errors = new LinkedHashMap<>();
+        if (metas.isEmpty()) {
+            return new LoadResult(plugins, errors);
+        }
+
+        final boolean bulk = this.bulkEvents;
+        if (bulk) {
+            final List<PluginMeta> ordered = new ArrayList<>(metas);
+            final PrePluginsLoadEvent preEvent = new PrePluginsLoadEvent(ordered);
+            this.eventBus.fire(preEvent);
+            for (int i = 0; i < ordered.size(); i++) {
+                final PluginMeta meta = ordered.get(i);
+                final PluginMeta exposed = preEvent.getPluginMetas().get(i);
+                if (preEvent.isCancelled(exposed)) {
+                    errors.put(meta, new MalformedPluginMetaException(PluginDependencyGraph.describe(meta),
+                            "Plugin loading was cancelled by an event listener! " + preEvent.getCancelMessages(exposed)));
+                }
             }
-            if (main == null) {
-                throw new MalformedPluginMetaException(String.valueOf(file), "Missing main class attributes!");
+        }
+
+        int maxWaveSize = 0;
+        for (final List<PluginMeta> wave : graph.getWaves()) {
+            maxWaveSize = Math.max(maxWaveSize, wave.size());
+        }
+        final ExecutorService executor = ConcurrencyUtil.newExecutor("yapf-loader", Math.min(this.parallelism, maxWaveSize));
+        try {
+            for (final List<PluginMeta> wave : graph.getWaves()) {
+                final Map<PluginMeta, Future<Plugin>> futures = new LinkedHashMap<>();
+                for (final PluginMeta meta : wave) {
+                    if (errors.containsKey(meta)) {
+                        // Cancelled.
+                        continue;
+                    }
+                    final Optional<PluginMeta> failedDependency = graph.getRequiredDependencies(meta).stream()
+                            .filter(errors::containsKey).findFirst();
+                    if (failedDependency.isPresent()) {
+                        errors.put(meta, new UnresolvableDependencyException(PluginDependencyGraph.describe(meta),
+                                "Dependency <" + PluginDependencyGraph.describe(failedDependency.get()) + "> failed to load!"));
+                    } else {
+                        futures.put(meta, executor.submit(() -> this.loadPlugin(meta, !bulk)));
+                    }
+                }
+                for (final Map.Entry<PluginMeta, Future<Plugin>> entry : futures.entrySet()) {
+                    try {
+                        plugins.add(entry.getValue().get());
+                    } catch (final ExecutionException ex) {
+                        final String name = PluginDependencyGraph.describe(entry.getKey());
+                        final Throwable cause = ex.getCause();
+                        PluginLoader.LOGGER.warn("Failed to load plugin <{}>.", name, cause);
+
+                        if (cause instanceof Exception) {
+                            errors.put(entry.getKey(), (Exception) cause);
+                        } else if (cause instanceof LinkageError) {
+                            // A broken plugin must not break the other ones.
+                            errors.put(entry.getKey(), new MalformedPluginMetaException(name, "Failed to link plugin!", cause));
+                        } else {
+                            throw (Error) cause;
+                        }
+                    }
+                }
             }
+        } catch (final InterruptedException cause) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted while loading plugins!", cause);
+        } finally {
+            executor.shutdownNow();
+        }
 
-            // Parsed required properties.
-            final PluginType pluginType = PluginType.parsePluginName(rawName);
-            final String name = pluginType.extractPluginName(rawName);
-            final Version version = new Version(rawVersion);
-
-            // Optional properties.
-            final String displayName = metaConfig.getString(PluginLoader.META_DISPLAY_NAME, name);
-            final String[] dependencies = metaConfig.getStrings(PluginLoader.META_DEPENDENCIES);
-            final String[] optionalDependencies = metaConfig.getStrings(PluginLoader.META_OPTIONAL_DEPENDENCIES);
-            final String[] authors = metaConfig.getStrings(PluginLoader.META_AUTHORS, (String[]) null);
-
-            final SimplePluginMeta pluginMeta = new SimplePluginMeta();
-            pluginMeta.setLocation(file.toUri().toURL());
-            pluginMeta.setName(name);
-            pluginMeta.setVersion(version);
-            pluginMeta.setMain(main);
-            pluginMeta.setDisplayName(displayName);
-            pluginMeta.setDependencies(dependencies);
-            pluginMeta.setOptionalDependencies(optionalDependencies);
-            pluginMeta.setAuthors(authors);
-            pluginMeta.setPluginType(pluginType);
-            return new UnmodifiablePluginMeta(pluginMeta);
+        PluginLoader.LOGGER.info("Loaded {} plugins in {} waves, {} plugins failed to load.", plugins.size(),
+                graph.getWaves().size(), errors.size());
+
+        final LoadResult result = new LoadResult(plugins, errors);
+        if (bulk) {
+            this.eventBus.fire(new PostPluginsLoadEvent(result.getPlugins(), result.getErrors()));
         }
+        return result;
     }
 
     /**
@@ -188,9 +567,27 @@ public class PluginLoader {
      *             If the plugin meta is malformed (including if the main class
      *             does not exist, is an interface, etc.).
      */
-    // Class loader is not closed.
-    @SuppressWarnings("resource")
     public Plugin loadPlugin(final PluginMeta meta) throws MalformedPluginMetaException {
+        return this.loadPlugin(meta, true);
+    }
+
+    /**
+     * Loads the plugin described by the given {@link PluginMeta metadata}
+     * (see {@link #loadPlugin(PluginMeta)}).
+     *
+     * @param meta
+     *            The {@link PluginMeta metadata} about the plugin to load.
+     * @param fireEvents
+     *            Whether to fire the {@link PrePluginLoadEvent} and
+     *            {@link PostPluginLoadEvent}.
+     * @return The loaded plugin.
+     * @throws MalformedPluginMetaException
+     *             If the plugin meta is malformed (including if the main class
+     *             does not exist, is an interface, etc.).
+     */
+    // Class loader is closed by unloadPlugin(...).
+    @SuppressWarnings("resource")
+    private Plugin loadPlugin(final PluginMeta meta, final boolean fireEvents) throws MalformedPluginMetaException {
         if (!PluginMeta.isValid(meta)) {
             throw new IllegalArgumentException("Meta must be valid!");
         }
@@ -202,72 +599,509 @@ public class PluginLoader {
 
         PluginLoader.LOGGER.debug("Starting loading of <{}>.", name);
 
-        final PrePluginLoadEvent preEvent = new PrePluginLoadEvent(meta);
-        EventUtil.fire(preEvent);
-        if (preEvent.isCancelled()) {
-            throw new MalformedPluginMetaException(name,
-                    "Plugin loading was cancelled by an event listener! " + preEvent.getCancelMessages());
-        }
-
-        final PluginClassLoader classLoader = new PluginClassLoader(location, this.parentClassLoader);
-        final Class<?> clazz;
-        // The compile is not intelligent enough to see that this code block is
-        // never to be executed.
-        // But it must be there in order to calm the compile as "classLoader" is
-        // not closed (what we do not want).
-        if (Boolean.FALSE) {
-            // Should never, ever get here.
+        if (fireEvents) {
+            final PrePluginLoadEvent preEvent = new PrePluginLoadEvent(meta);
+            this.eventBus.fire(preEvent);
+            if (preEvent.isCancelled()) {
+                throw new MalformedPluginMetaException(name,
+                        "Plugin loading was cancelled by an event listener! " + preEvent.getCancelMessages());
+            }
+        }
+
+        final JarImage image;
+        try {
+            image = this.readJarImage(location);
+        } catch (final IOException cause) {
+            throw new MalformedPluginMetaException(name, "Failed to read plugin file!", cause);
+        }
+        final PluginClassLoader classLoader = new PluginClassLoader(location, this.parentClassLoader, this.resolutionChain,
+                this.resolutionStatistics, image);
+        final Plugin plugin;
+        boolean loaded = false;
+        try {
+            classLoader.setDependencyClassLoaders(this.resolveDependencyClassLoaders(meta));
+            final Class<?> clazz = classLoader.findClass(main, false)
+                    .orElseThrow(() -> new MalformedPluginMetaException(name, "Main class does not exist!"));
+            final ListenerMethods listenerMethods = ListenerMethods.of(clazz);
+            if (!listenerMethods.isValid()) {
+                throw new MalformedPluginMetaException(name, listenerMethods.getError());
+            }
+            plugin = PluginFactory.of(clazz).newInstance(name);
+            if (plugin instanceof BasePlugin) {
+                ((BasePlugin) plugin).setPluginMeta(meta);
+            }
+
+            if (meta.getPluginType() == PluginType.SPECIFICATION) {
+                // Only add class loader to share classes if plugin is a
+                // specification and providing model classes.
+                this.parentClassLoader.addClassLoader(name, classLoader);
+            }
+            this.pluginClassLoaders.put(PluginLoader.key(name, meta.getPluginType()), classLoader);
+
+            PluginLoader.LOGGER.info("Loaded {} plugin {}.", meta.getPluginType(), displayName);
+
+            // Tell plugin that it is loaded.
+            plugin.onLoad();
+            loaded = true;
+        } finally {
+            if (!loaded) {
+                this.discardClassLoader(meta, classLoader);
+            }
+        }
+
+        if (fireEvents) {
+            this.eventBus.fire(new PostPluginLoadEvent(plugin));
+        }
+
+        return plugin;
+    }
+
+    /**
+     * Unloads the given plugin:
+     * <ol>
+     * <li>The plugin is disabled (if it has a {@link PluginManager}).</li>
+     * <li>{@link Plugin#onUnload()} is invoked.</li>
+     * <li>All implementations defined by the plugin are revoked and its event
+     * listeners are unregistered.</li>
+     * <li>The class loader of the plugin is released (see
+     * {@link #releaseClassLoader(Plugin)}; if the plugin was loaded again in
+     * the meantime, only the class loader of the given instance is released)
+     * and tracked until it is
+     * garbage collected (see {@link #checkForLeaks(long, TimeUnit)}).</li>
+     * </ol>
+     *
+     * <p>
+     * <b> NOTE: The caller has to drop all references to the plugin (e.g. by
+     * removing it from its plugin manager), otherwise the class loader can not
+     * be garbage collected. </b>
+     * </p>
+     *
+     * <p>
+     * The class loader is released even if disabling or unloading the plugin
+     * fails; the failure is rethrown afterwards.
+     * </p>
+     *
+     * @param plugin
+     *            The plugin to unload.
+     * @return Whether the class loader of the plugin was released.
+     *         <code>false</code> if the plugin was not loaded by this loader
+     *         (or unloaded already).
+     */
+    public boolean unloadPlugin(final Plugin plugin) {
+        if (plugin == null) {
+            throw new IllegalArgumentException("Plugin must not be null!");
+        }
+        final PluginMeta meta = plugin.getPluginMeta();
+        if (meta == null) {
+            throw new IllegalArgumentException("Plugin meta must be initialized!");
+        }
+
+        final String name = PluginDependencyGraph.describe(meta);
+        final PluginClassLoader classLoader = this.getClassLoader(plugin);
+        final PluginManager pluginManager = plugin.getPluginManager();
+        boolean released = false;
+        try {
+            if (pluginManager != null) {
+                pluginManager.disable(plugin);
+            }
+            try {
+                plugin.onUnload();
+            } finally {
+                if (pluginManager != null) {
+                    pluginManager.revokeImplementations(plugin);
+                }
+                this.eventBus.unregisterAll(plugin);
+            }
+        } finally {
+            // Even if the plugin failed to disable or unload, its class loader
+            // must not stay registered (or open).
+            if (classLoader != null && this.releaseClassLoader(meta, classLoader)) {
+                this.leakDetector.track(name, classLoader);
+                released = true;
+            }
+        }
+        if (!released) {
+            return false;
+        }
+
+        PluginLoader.LOGGER.info("Unloaded {} plugin {}.", meta.getPluginType(), meta.getDisplayName());
+
+        return true;
+    }
+
+    /**
+     * Checks whether the class loaders of all unloaded plugins were garbage
+     * collected. This requests garbage collections until all class loaders are
+     * collected or the timeout elapses, so it should not be invoked on hot
+     * paths.
+     *
+     * <p>
+     * A warning is logged for every leaked class loader, naming the plugins
+     * whose class loaders still reference it (as a dependency, the classes
+     * cached from it are evicted on release). Other references (e.g. static
+     * fields, threads or caches outside of YAPF) can only be found using a
+     * heap dump.
+     * </p>
+     *
+     * @param timeout
+     *            The maximum time to wait for the class loaders to be
+     *            collected.
+     * @param unit
+     *            The unit of <code>timeout</code>.
+     * @return The names of the plugins whose class loaders were not collected.
+     *         Empty if there are no leaks.
+     * @throws InterruptedException
+     *             If the current thread is interrupted while waiting.
+     */
+    public List<String> checkForLeaks(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final List<String> leaked = this.leakDetector.awaitCollection(timeout, unit);
+        for (final String name : leaked) {
+            final List<String> retainers = new ArrayList<>();
+            for (final ClassLoader classLoader : this.leakDetector.getPendingClassLoaders(name)) {
+                for (final Map.Entry<String, PluginClassLoader> entry : this.pluginClassLoaders.entrySet()) {
+                    if (entry.getValue().getDependencyClassLoaders().contains(classLoader)) {
+                        retainers.add(entry.getKey().replace('\0', ':'));
+                    }
+                }
+            }
+            if (retainers.isEmpty()) {
+                PluginLoader.LOGGER.warn("Class loader of unloaded plugin <{}> was not garbage collected. It is retained by "
+                        + "references outside of the plugin loader (use a heap dump to find the GC roots).", name);
+            } else {
+                PluginLoader.LOGGER.warn("Class loader of unloaded plugin <{}> was not garbage collected. It is retained by "
+                        + "the class loaders of the dependent plugins {}.", name, retainers);
+            }
+        }
+        return leaked;
+    }
+
+    /**
+     *
+     * @return {@link #eventBus}.
+     */
+    public EventBus getEventBus() {
+        return this.eventBus;
+    }
+
+    /**
+     *
+     * @return {@link #leakDetector}.
+     */
+    public ClassLoaderLeakDetector getLeakDetector() {
+        return this.leakDetector;
+    }
+
+    /**
+     * Discards the given class loader of a plugin that failed to load: It is
+     * deregistered (if it was registered already) and closed.
+     *
+     * @param meta
+     *            The meta of the plugin.
+     * @param classLoader
+     *            The class loader to discard.
+     */
+    private void discardClassLoader(final PluginMeta meta, final PluginClassLoader classLoader) {
+        this.releaseClassLoader(meta, classLoader);
+
+        PluginLoader.LOGGER.debug("Discarded class loader of <{}> as it failed to load.", meta.getName());
+    }
+
+    /**
+     * Releases the class loader of the given plugin: It is removed from this
+     * loader (so it is neither shared nor visible to plugins loaded
+     * afterwards) and closed. Classes that were loaded already stay usable as
+     * long as they are referenced, but no further classes or resources can be
+     * loaded from the plugin file.
+     *
+     * <p>
+     * <b> NOTE: This does not notify the plugin! </b>
+     * </p>
+     *
+     * @param meta
+     *            The {@link PluginMeta metadata} about the plugin.
+     * @return Whether a class loader was released. <code>false</code> if the
+     *         plugin is not loaded (or was released already).
+     */
+    public boolean releaseClassLoader(final PluginMeta meta) {
+        if (meta == null) {
+            throw new IllegalArgumentException("Meta must not be null!");
+        }
+
+        final PluginClassLoader classLoader = this.pluginClassLoaders.get(PluginLoader.key(meta.getName(), meta.getPluginType()));
+        return classLoader != null && this.releaseClassLoader(meta, classLoader);
+    }
+
+    /**
+     * Releases the class loader of the given plugin instance (see
+     * {@link #releaseClassLoader(PluginMeta)}). Unlike the former, this
+     * releases the class loader that loaded the given instance even if the
+     * plugin was loaded again in the meantime (e.g. while reloading it), so
+     * the class loader of the new instance stays registered.
+     *
+     * <p>
+     * <b> NOTE: This does not notify the plugin! </b>
+     * </p>
+     *
+     * @param plugin
+     *            The plugin.
+     * @return Whether a class loader was released. <code>false</code> if the
+     *         plugin was not loaded by this loader (or was released already).
+     */
+    public boolean releaseClassLoader(final Plugin plugin) {
+        if (plugin == null) {
+            throw new IllegalArgumentException("Plugin must not be null!");
+        }
+        final PluginMeta meta = plugin.getPluginMeta();
+        if (meta == null) {
+            throw new IllegalArgumentException("Plugin meta must be initialized!");
+        }
+
+        final PluginClassLoader classLoader = this.getClassLoader(plugin);
+        return classLoader != null && this.releaseClassLoader(meta, classLoader);
+    }
+
+    /**
+     * Gets the class loader of the given plugin instance. The plugin of the
+     * same name may have been loaded again already (e.g. while reloading it),
+     * so this is the class loader of the plugin class rather than the
+     * registered one if possible.
+     *
+     * @param plugin
+     *            The plugin. Its meta must be initialized.
+     * @return The class loader. <code>null</code> if there is none.
+     */
+    private PluginClassLoader getClassLoader(final Plugin plugin) {
+        final ClassLoader classLoader = plugin.getClass().getClassLoader();
+        if (classLoader instanceof PluginClassLoader) {
+            return (PluginClassLoader) classLoader;
+        }
+        final PluginMeta meta = plugin.getPluginMeta();
+        return this.pluginClassLoaders.get(PluginLoader.key(meta.getName(), meta.getPluginType()));
+    }
+
+    /**
+     * Releases the given class loader of the given plugin: It is removed from
+     * this loader if it is (still) registered for the plugin and closed.
+     *
+     * @param meta
+     *            The {@link PluginMeta metadata} about the plugin.
+     * @param classLoader
+     *            The class loader to release.
+     * @return Whether the class loader was released. <code>false</code> if it
+     *         was closed already.
+     */
+    private boolean releaseClassLoader(final PluginMeta meta, final PluginClassLoader classLoader) {
+        this.pluginClassLoaders.remove(PluginLoader.key(meta.getName(), meta.getPluginType()), classLoader);
+        if (meta.getPluginType() == PluginType.SPECIFICATION) {
+            this.parentClassLoader.removeClassLoader(meta.getName(), classLoader);
+        }
+        // Synchronized so concurrent releases (e.g. a forced release while the
+        // plugin is unloaded) close and report the class loader only once.
+        synchronized (this.pluginClassLoaders) {
+            if (classLoader.isClosed()) {
+                return false;
+            }
+            this.evictClasses(classLoader);
             try {
                 classLoader.close();
             } catch (final IOException ex) {
-                assert false;
+                PluginLoader.LOGGER.warn("Failed to close class loader of <{}>.", meta.getName(), ex);
             }
         }
-        clazz = classLoader.findClass(main, false)
-                .orElseThrow(() -> new MalformedPluginMetaException(name, "Main class does not exist!"));
-        if (!Plugin.class.isAssignableFrom(clazz)) {
-            throw new MalformedPluginMetaException(name, "Main class is not a subclass of Plugin!");
+
+        PluginLoader.LOGGER.debug("Released class loader of <{}>.", meta.getName());
+
+        return true;
+    }
+
+    /**
+     * Evicts the classes of the given (released) class loader from the caches
+     * of the remaining class loaders, so these do not retain it.
+     *
+     * @param classLoader
+     *            The released class loader.
+     */
+    private void evictClasses(final PluginClassLoader classLoader) {
+        int evicted = 0;
+        for (final PluginClassLoader remaining : this.pluginClassLoaders.values()) {
+            evicted += remaining.evictClasses(classLoader);
         }
-        final Class<? extends Plugin> pluginClass = clazz.asSubclass(Plugin.class);
-        if (pluginClass.isInterface() || Modifier.isAbstract(pluginClass.getModifiers())) {
-            throw new MalformedPluginMetaException(name, "Main class must be a regular class (not an interface or abstract)!");
+
+        PluginLoader.LOGGER.trace("Evicted {} cached classes of a released class loader.", evicted);
+    }
+
+    /**
+     * Reads the image of the given plugin JAR according to the
+     * {@link #jarImageMode}.
+     *
+     * @param location
+     *            The location of the plugin JAR.
+     * @return The image or <code>null</code> if no image is used (including if
+     *         the JAR is signed).
+     * @throws IOException
+     *             If the JAR can not be read.
+     */
+    private JarImage readJarImage(final URL location) throws IOException {
+        final JarImageMode mode = this.jarImageMode;
+        if (mode == JarImageMode.NONE) {
+            return null;
         }
-        final Constructor<? extends Plugin> ctor;
+
+        final Path file;
         try {
-            ctor = pluginClass.getConstructor();
-        } catch (final NoSuchMethodException cause) {
-            throw new MalformedPluginMetaException(name, "Main class does not have a default constructor!", cause);
+            file = Paths.get(location.toURI());
+        } catch (final URISyntaxException | IllegalArgumentException cause) {
+            throw new IOException("Not a local file: " + location, cause);
         }
-        if (!Modifier.isPublic(ctor.getModifiers())) {
-            throw new MalformedPluginMetaException(name, "Constructor of main class is not visible!");
+        final JarImage image = JarImage.read(file, mode == JarImageMode.DIRECT);
+        if (image == null) {
+            PluginLoader.LOGGER.debug("Plugin file <{}> is signed, reading its classes from the JAR.", location);
         }
-        if (!ctor.isAccessible()) {
-            ctor.setAccessible(true);
+        return image;
+    }
+
+    /**
+     * Resolves the class loaders visible to the given plugin. These are the
+     * class loaders of the (required and optional) dependencies and the class
+     * loaders visible to them. See {@link PluginDependencyGraph} for how the
+     * dependencies are resolved.
+     *
+     * <p>
+     * <b> NOTE: The dependencies have to be loaded before. Dependencies that
+     * are not loaded are ignored. </b>
+     * </p>
+     *
+     * @param meta
+     *            The {@link PluginMeta metadata} about the plugin.
+     * @return The visible class loaders.
+     */
+    private List<PluginClassLoader> resolveDependencyClassLoaders(final PluginMeta meta) {
+        final Set<PluginClassLoader> result = new LinkedHashSet<>();
+        final List<String> dependencies = new ArrayList<>();
+        dependencies.addAll(Arrays.asList(meta.getDependencies()));
+        dependencies.addAll(Arrays.asList(meta.getOptionalDependencies()));
+        if (meta.getPluginType() == PluginType.IMPLEMENTATION) {
+            // Implementations implicitly depend on their specification.
+            dependencies.add(meta.getName() + PluginType.SPECIFICATION.getSuffixes()[0]);
         }
-        final Plugin plugin;
-        try {
-            plugin = ctor.newInstance();
-        } catch (final InstantiationException cause) {
-            throw new MalformedPluginMetaException(name, "Failed to create instance of plugin!", cause);
-        } catch (final IllegalAccessException cause) {
-            throw new MalformedPluginMetaException(name, "Failed to access constructor of main class!", cause);
-        } catch (final InvocationTargetException cause) {
-            throw new MalformedPluginMetaException(name, "Constructor of main class threw an exception!", cause);
+        final String self = PluginLoader.key(meta.getName(), meta.getPluginType());
+        for (final String dependency : dependencies) {
+            final PluginType type = PluginType.parsePluginName(dependency);
+            final String name = type.extractPluginName(dependency);
+            final PluginType[] types = type == PluginType.REGULAR ? PluginType.values() : new PluginType[] { type };
+            for (final PluginType candidate : types) {
+                final String key = PluginLoader.key(name, candidate);
+                final PluginClassLoader classLoader = this.pluginClassLoaders.get(key);
+                if (classLoader != null && !key.equals(self)) {
+                    result.add(classLoader);
+                    result.addAll(classLoader.getDependencyClassLoaders());
+                }
+            }
         }
 
-        if (meta.getPluginType() == PluginType.SPECIFICATION) {
-            // Only add class loader to share classes if plugin is a
-            // specification and providing model classes.
-            this.parentClassLoader.addClassLoader(name, classLoader);
-        }
+        PluginLoader.LOGGER.debug("Plugin <{}> can see the classes of {} other plugins.", PluginDependencyGraph.describe(meta),
+                result.size());
+
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Creates the key of the given plugin name and type for
+     * {@link #pluginClassLoaders}.
+     *
+     * @param name
+     *            The plugin name (without suffix).
+     * @param type
+     *            The plugin type.
+     * @return The key.
+     */
+    private static String key(final String name, final PluginType type) {
+        return name + '\0' + type.name();
+    }
+
+    /**
+     *
+     * @return {@link #resolutionChain}.
+     */
+    public List<ResolutionStage> getResolutionChain() {
+        return this.resolutionChain;
+    }
 
-        PluginLoader.LOGGER.info("Loaded {} plugin {}.", meta.getPluginType(), displayName);
+    /**
+     * Sets the stages the class loaders of plugins loaded afterwards pass
+     * through when resolving classes. Plugins already loaded are not affected.
+     *
+     * @param resolutionChain
+     *            {@link #resolutionChain}. Must not be empty and must not
+     *            contain duplicates.
+     */
+    public void setResolutionChain(final List<ResolutionStage> resolutionChain) {
+        this.resolutionChain = Collections
+                .unmodifiableList(new ArrayList<>(PluginClassLoader.validateResolutionChain(resolutionChain)));
+    }
 
-        // Tell plugin that it is loaded.
-        plugin.onLoad();
+    /**
+     *
+     * @return {@link #bulkEvents}.
+     */
+    public boolean isBulkEvents() {
+        return this.bulkEvents;
+    }
 
-        EventUtil.fire(new PostPluginLoadEvent(plugin));
+    /**
+     * Sets whether {@link #loadPlugins(Collection)} fires a single
+     * {@link PrePluginsLoadEvent} and {@link PostPluginsLoadEvent} instead of
+     * the events per plugin. {@link #loadPlugin(PluginMeta)} always fires the
+     * events per plugin.
+     *
+     * @param bulkEvents
+     *            {@link #bulkEvents}.
+     */
+    public void setBulkEvents(final boolean bulkEvents) {
+        this.bulkEvents = bulkEvents;
+    }
 
-        return plugin;
+    /**
+     *
+     * @return {@link #jarImageMode}.
+     */
+    public JarImageMode getJarImageMode() {
+        return this.jarImageMode;
+    }
+
+    /**
+     * Sets how the class loaders of plugins loaded afterwards read the classes
+     * of the plugin JAR. Plugins already loaded are not affected.
+     *
+     * @param jarImageMode
+     *            {@link #jarImageMode}.
+     */
+    public void setJarImageMode(final JarImageMode jarImageMode) {
+        if (jarImageMode == null) {
+            throw new IllegalArgumentException("JarImageMode must not be null!");
+        }
+
+        this.jarImageMode = jarImageMode;
+    }
+
+    /**
+     *
+     * @return {@link #resolutionStatistics}.
+     */
+    public ResolutionStatistics getResolutionStatistics() {
+        return this.resolutionStatistics;
+    }
+
+    /**
+     * Gets the cache of class names that no specification plugin contains.
+     * This is shared by all plugins loaded by this loader and may be used to
+     * monitor its efficiency (hits and misses). Only plugins whose resolution
+     * chain contains {@link ResolutionStage#GLOBAL} use it; in addition, each
+     * plugin class loader has its own cache for its whole chain.
+     *
+     * @return The {@link NegativeLookupCache}.
+     */
+    public NegativeLookupCache getNegativeLookupCache() {
+        return this.parentClassLoader.getNegativeLookupCache();
     }
 }
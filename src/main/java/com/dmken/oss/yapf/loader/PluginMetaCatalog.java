@@ -0,0 +1,575 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.PluginMeta;
+import com.dmken.oss.yapf.PluginType;
+import com.dmken.oss.yapf.Version;
+import com.dmken.oss.yapf.meta.SimplePluginMeta;
+import com.dmken.oss.yapf.meta.UnmodifiablePluginMeta;
+
+/**
+ * A persistent catalog of {@link PluginMeta plugin metas} keyed by the
+ * identity of the plugin file (that is its path, size, modification time and
+ * optionally a checksum of its content). This allows serving the metadata of
+ * unchanged plugin files without opening them at all.
+ *
+ * <p>
+ * The catalog is stored in a compact binary format. It is written atomically
+ * (to a temporary file that is moved afterwards) and if it is corrupt, it is
+ * discarded and all metadata is extracted again.
+ * </p>
+ *
+ * @see PluginLoader#scanDirectory(Path, PluginMetaCatalog)
+ */
+public class PluginMetaCatalog {
+    /**
+     * The logger.
+     *
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginMetaCatalog.class);
+
+    /**
+     * The magic number at the start of every catalog file (<code>YAPF</code>
+     * in ASCII).
+     *
+     */
+    private static final int MAGIC = 0x5941_5046;
+    /**
+     * The version of the catalog format. Has to be incremented on every
+     * incompatible change.
+     *
+     */
+    private static final int FORMAT_VERSION = 1;
+    /**
+     * The checksum value of entries that were recorded without checksum.
+     *
+     */
+    private static final long NO_CHECKSUM = -1L;
+    /**
+     * The size of the buffer used for computing checksums.
+     *
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * The maximum number of strings in a string array of an entry
+     * (dependencies, optional dependencies or authors). Larger counts only
+     * occur in corrupt catalogs.
+     *
+     */
+    private static final int MAX_STRING_COUNT = 64 * 1024;
+
+    /**
+     * The file the catalog is stored in.
+     *
+     */
+    private final Path file;
+    /**
+     * Whether to verify the content of the plugin files using a checksum in
+     * addition to their size and modification time.
+     *
+     */
+    private final boolean verifyContent;
+    /**
+     * The catalog entries (the key is the absolute, normalized path of the
+     * plugin file).
+     *
+     */
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Whether the catalog was modified since it was loaded or saved.
+     *
+     */
+    private volatile boolean modified;
+
+    /**
+     * Constructor of PluginMetaCatalog. Plugin files are identified by their
+     * path, size and modification time only.
+     *
+     * @param file
+     *            {@link #file}.
+     */
+    public PluginMetaCatalog(final Path file) {
+        this(file, false);
+    }
+
+    /**
+     * Constructor of PluginMetaCatalog.
+     *
+     * @param file
+     *            {@link #file}.
+     * @param verifyContent
+     *            {@link #verifyContent}.
+     */
+    public PluginMetaCatalog(final Path file, final boolean verifyContent) {
+        if (file == null) {
+            throw new IllegalArgumentException("File must not be null!");
+        }
+
+        this.file = file;
+        this.verifyContent = verifyContent;
+    }
+
+    /**
+     * Loads the catalog from {@link #file}, replacing all entries. If the file
+     * does not exist, the catalog is empty. If the file is corrupt, it is
+     * ignored and the catalog is empty.
+     *
+     */
+    public void load() {
+        this.entries.clear();
+        this.modified = false;
+
+        if (!Files.isRegularFile(this.file)) {
+            PluginMetaCatalog.LOGGER.debug("Catalog <{}> does not exist. Starting empty.", this.file);
+
+            return;
+        }
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+            // Every string takes at least the two bytes of its length, so no
+            // valid count exceeds half of the file size.
+            final long fileSize = Files.size(this.file);
+            final int maxStringCount = (int) Math.min(PluginMetaCatalog.MAX_STRING_COUNT, fileSize / 2);
+            if (in.readInt() != PluginMetaCatalog.MAGIC) {
+                throw new IOException("Not a plugin meta catalog!");
+            }
+            final int formatVersion = in.readInt();
+            if (formatVersion != PluginMetaCatalog.FORMAT_VERSION) {
+                throw new IOException("Unsupported catalog format version " + formatVersion + "!");
+            }
+            final int count = in.readInt();
+            if (count < 0 || count > fileSize) {
+                throw new IOException("Invalid entry count " + count + "!");
+            }
+            for (int i = 0; i < count; i++) {
+                final Entry entry = Entry.read(in, maxStringCount);
+                this.entries.put(entry.path, entry);
+            }
+        } catch (final IOException | RuntimeException ex) {
+            PluginMetaCatalog.LOGGER.warn("Catalog <{}> is corrupt. Ignoring it.", this.file, ex);
+
+            this.entries.clear();
+            this.modified = true;
+        }
+
+        PluginMetaCatalog.LOGGER.debug("Loaded {} entries from catalog <{}>.", this.entries.size(), this.file);
+    }
+
+    /**
+     * Saves the catalog atomically to {@link #file} if it was modified since it
+     * was loaded or saved the last time.
+     *
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    public void save() throws IOException {
+        if (!this.modified) {
+            return;
+        }
+        this.modified = false;
+
+        final Path directory = this.file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path tmpFile = Files.createTempFile(directory, this.file.getFileName().toString(), ".tmp");
+        try {
+            final Collection<Entry> snapshot = this.entries.values();
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                out.writeInt(PluginMetaCatalog.MAGIC);
+                out.writeInt(PluginMetaCatalog.FORMAT_VERSION);
+                out.writeInt(snapshot.size());
+                for (final Entry entry : snapshot) {
+                    entry.write(out);
+                }
+            }
+            try {
+                Files.move(tmpFile, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (final AtomicMoveNotSupportedException dummy) {
+                Files.move(tmpFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final IOException | RuntimeException ex) {
+            this.modified = true;
+            Files.deleteIfExists(tmpFile);
+
+            throw ex;
+        }
+
+        PluginMetaCatalog.LOGGER.debug("Saved {} entries to catalog <{}>.", this.entries.size(), this.file);
+    }
+
+    /**
+     * Gets the catalogued {@link PluginMeta} of the given plugin file if the
+     * file did not change since it was catalogued. If it did change, the entry
+     * is dropped.
+     *
+     * @param pluginFile
+     *            The plugin file.
+     * @return The catalogued plugin meta or an empty {@link Optional} if the
+     *         file is not catalogued or changed.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    public Optional<PluginMeta> get(final Path pluginFile) throws IOException {
+        final Path path = PluginMetaCatalog.normalize(pluginFile);
+        final Entry entry = this.entries.get(path);
+        if (entry == null) {
+            return Optional.empty();
+        }
+
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (final NoSuchFileException dummy) {
+            this.remove(path);
+
+            return Optional.empty();
+        }
+        if (entry.size != attributes.size() || entry.lastModified != attributes.lastModifiedTime().toMillis()
+                || entry.checksum != this.checksum(path)) {
+            PluginMetaCatalog.LOGGER.debug("Plugin file <{}> changed. Dropping catalog entry.", path);
+
+            this.remove(path);
+
+            return Optional.empty();
+        }
+        return Optional.of(entry.pluginMeta);
+    }
+
+    /**
+     * Catalogues the given {@link PluginMeta} for the given plugin file. The
+     * attributes of the file are read now, so the meta must have been
+     * extracted from the current file (see
+     * {@link #put(Path, BasicFileAttributes, PluginMeta)} otherwise).
+     *
+     * @param pluginFile
+     *            The plugin file the meta was extracted from.
+     * @param pluginMeta
+     *            The meta to catalogue. Must be
+     *            {@link PluginMeta#isValid(PluginMeta) valid}.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    public void put(final Path pluginFile, final PluginMeta pluginMeta) throws IOException {
+        this.put(pluginFile, Files.readAttributes(PluginMetaCatalog.normalize(pluginFile), BasicFileAttributes.class),
+                pluginMeta);
+    }
+
+    /**
+     * Catalogues the given {@link PluginMeta} for the given plugin file. If the
+     * file changed since the given attributes were read (i.e. the meta may
+     * have been extracted from another version of the file), nothing is
+     * catalogued.
+     *
+     * @param pluginFile
+     *            The plugin file the meta was extracted from.
+     * @param attributes
+     *            The attributes of the plugin file, read before the meta was
+     *            extracted.
+     * @param pluginMeta
+     *            The meta to catalogue. Must be
+     *            {@link PluginMeta#isValid(PluginMeta) valid}.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    public void put(final Path pluginFile, final BasicFileAttributes attributes, final PluginMeta pluginMeta)
+            throws IOException {
+        if (attributes == null) {
+            throw new IllegalArgumentException("Attributes must not be null!");
+        }
+        if (!PluginMeta.isValid(pluginMeta)) {
+            throw new IllegalArgumentException("Meta must be valid!");
+        }
+
+        final Path path = PluginMetaCatalog.normalize(pluginFile);
+        final long size = attributes.size();
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        final long checksum = this.checksum(path);
+        final BasicFileAttributes current = Files.readAttributes(path, BasicFileAttributes.class);
+        if (current.size() != size || current.lastModifiedTime().toMillis() != lastModified) {
+            PluginMetaCatalog.LOGGER.debug("Plugin file <{}> changed during extraction. Not cataloguing it.", path);
+
+            return;
+        }
+        this.entries.put(path, new Entry(path, size, lastModified, checksum, pluginMeta));
+        this.modified = true;
+    }
+
+    /**
+     * Drops all entries except the ones of the given plugin files.
+     *
+     * @param pluginFiles
+     *            The plugin files to retain.
+     */
+    public void retain(final Collection<Path> pluginFiles) {
+        final Set<Path> retained = new HashSet<>();
+        for (final Path pluginFile : pluginFiles) {
+            retained.add(PluginMetaCatalog.normalize(pluginFile));
+        }
+        if (this.entries.keySet().retainAll(retained)) {
+            this.modified = true;
+        }
+    }
+
+    /**
+     *
+     * @return The number of catalogued plugin files.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Removes the entry of the given (normalized) path.
+     *
+     * @param path
+     *            The path to remove the entry of.
+     */
+    private void remove(final Path path) {
+        if (this.entries.remove(path) != null) {
+            this.modified = true;
+        }
+    }
+
+    /**
+     * Computes the checksum of the given file if {@link #verifyContent} is
+     * set.
+     *
+     * @param path
+     *            The file to compute the checksum of.
+     * @return The checksum or {@link #NO_CHECKSUM} if the content is not
+     *         verified.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    private long checksum(final Path path) throws IOException {
+        if (!this.verifyContent) {
+            return PluginMetaCatalog.NO_CHECKSUM;
+        }
+
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[PluginMetaCatalog.BUFFER_SIZE];
+        try (final InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Normalizes the given path to be used as a key of {@link #entries}.
+     *
+     * @param path
+     *            The path to normalize.
+     * @return The absolute, normalized path.
+     */
+    private static Path normalize(final Path path) {
+        if (path == null) {
+            throw new IllegalArgumentException("Path must not be null!");
+        }
+
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * A single catalog entry.
+     *
+     */
+    private static final class Entry {
+        /**
+         * The absolute, normalized path of the plugin file.
+         *
+         */
+        private final Path path;
+        /**
+         * The size of the plugin file.
+         *
+         */
+        private final long size;
+        /**
+         * The modification time of the plugin file in milliseconds since the
+         * epoch.
+         *
+         */
+        private final long lastModified;
+        /**
+         * The checksum of the plugin file or
+         * {@link PluginMetaCatalog#NO_CHECKSUM}.
+         *
+         */
+        private final long checksum;
+        /**
+         * The catalogued meta.
+         *
+         */
+        private final PluginMeta pluginMeta;
+
+        /**
+         * Constructor of Entry.
+         *
+         * @param path
+         *            {@link #path}.
+         * @param size
+         *            {@link #size}.
+         * @param lastModified
+         *            {@link #lastModified}.
+         * @param checksum
+         *            {@link #checksum}.
+         * @param pluginMeta
+         *            {@link #pluginMeta}.
+         */
+        private Entry(final Path path, final long size, final long lastModified, final long checksum,
+                final PluginMeta pluginMeta) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+            this.pluginMeta = pluginMeta;
+        }
+
+        /**
+         * Reads an entry from the given stream.
+         *
+         * @param in
+         *            The stream to read from.
+         * @param maxStringCount
+         *            The maximum number of strings in a string array.
+         * @return The read entry.
+         * @throws IOException
+         *             If any I/O error occurs or the entry is corrupt.
+         */
+        private static Entry read(final DataInputStream in, final int maxStringCount) throws IOException {
+            final Path path = Paths.get(in.readUTF());
+            final long size = in.readLong();
+            final long lastModified = in.readLong();
+            final long checksum = in.readLong();
+
+            final SimplePluginMeta pluginMeta = new SimplePluginMeta();
+            pluginMeta.setLocation(path.toUri().toURL());
+            pluginMeta.setName(in.readUTF());
+            pluginMeta.setDisplayName(in.readUTF());
+            pluginMeta.setVersion(new Version(in.readInt(), in.readInt(), in.readInt()));
+            pluginMeta.setMain(in.readUTF());
+            pluginMeta.setPluginType(PluginType.values()[in.readByte()]);
+            pluginMeta.setDependencies(Entry.readStrings(in, maxStringCount));
+            pluginMeta.setOptionalDependencies(Entry.readStrings(in, maxStringCount));
+            pluginMeta.setAuthors(in.readBoolean() ? Entry.readStrings(in, maxStringCount) : null);
+            return new Entry(path, size, lastModified, checksum, new UnmodifiablePluginMeta(pluginMeta));
+        }
+
+        /**
+         * Writes this entry to the given stream.
+         *
+         * @param out
+         *            The stream to write to.
+         * @throws IOException
+         *             If any I/O error occurs.
+         */
+        private void write(final DataOutputStream out) throws IOException {
+            out.writeUTF(this.path.toString());
+            out.writeLong(this.size);
+            out.writeLong(this.lastModified);
+            out.writeLong(this.checksum);
+
+            final Version version = this.pluginMeta.getVersion();
+            out.writeUTF(this.pluginMeta.getName());
+            out.writeUTF(this.pluginMeta.getDisplayName());
+            out.writeInt(version.getMajor());
+            out.writeInt(version.getMinor());
+            out.writeInt(version.getBugfix());
+            out.writeUTF(this.pluginMeta.getMain());
+            out.writeByte(this.pluginMeta.getPluginType().ordinal());
+            Entry.writeStrings(out, this.pluginMeta.getDependencies());
+            Entry.writeStrings(out, this.pluginMeta.getOptionalDependencies());
+            final Optional<String[]> authors = this.pluginMeta.getAuthors();
+            out.writeBoolean(authors.isPresent());
+            if (authors.isPresent()) {
+                Entry.writeStrings(out, authors.get());
+            }
+        }
+
+        /**
+         * Reads a string array written by
+         * {@link #writeStrings(DataOutputStream, String[])}.
+         *
+         * @param in
+         *            The stream to read from.
+         * @param maxCount
+         *            The maximum number of strings.
+         * @return The read strings.
+         * @throws IOException
+         *             If any I/O error occurs or the number of strings is
+         *             negative or greater than <code>maxCount</code>.
+         */
+        private static String[] readStrings(final DataInputStream in, final int maxCount) throws IOException {
+            final int count = in.readInt();
+            if (count < 0 || count > maxCount) {
+                throw new IOException("Invalid string count " + count + "!");
+            }
+            final String[] result = new String[count];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = in.readUTF();
+            }
+            return result;
+        }
+
+        /**
+         * Writes the given string array.
+         *
+         * @param out
+         *            The stream to write to.
+         * @param strings
+         *            The strings to write.
+         * @throws IOException
+         *             If any I/O error occurs.
+         */
+        private static void writeStrings(final DataOutputStream out, final String[] strings) throws IOException {
+            out.writeInt(strings.length);
+            for (final String string : strings) {
+                out.writeUTF(string);
+            }
+        }
+    }
+}
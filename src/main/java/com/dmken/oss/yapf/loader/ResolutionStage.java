@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The stages a {@link PluginClassLoader} passes through when resolving a
+ * class. The stages are probed in the configured order and the resolution
+ * stops at the first stage that finds the class.
+ *
+ */
+public enum ResolutionStage {
+    /**
+     * The classes resolved earlier by the same class loader.
+     *
+     */
+    CACHE,
+    /**
+     * The classes contained in the plugin JAR.
+     *
+     */
+    LOCAL,
+    /**
+     * The classes contained in the JARs of the declared dependencies.
+     *
+     */
+    DEPENDENCIES,
+    /**
+     * The classes contained in any specification plugin. This is not part of
+     * the {@link #DEFAULT_CHAIN default chain} as plugins should only see the
+     * classes of their dependencies.
+     *
+     * <p>
+     * This is an opt-in (see {@link PluginLoader#setResolutionChain(List)}).
+     * It is the only stage that uses the package index and the shared
+     * {@link NegativeLookupCache} of the {@link DelegatingPluginClassLoader};
+     * with the default chain, neither is consulted.
+     * </p>
+     *
+     */
+    GLOBAL,
+    /**
+     * The classes of the platform, that is the class loader that loaded
+     * yapf (including the JRE classes).
+     *
+     */
+    PLATFORM;
+
+    /**
+     * The default resolution chain (all stages except {@link #GLOBAL}, the
+     * {@link #PLATFORM} probed right after the {@link #CACHE}). This is the
+     * usual parent-first delegation, so a plugin can not shadow classes of the
+     * platform by bundling them.
+     *
+     */
+    public static final List<ResolutionStage> DEFAULT_CHAIN = Collections.unmodifiableList(Arrays.asList(ResolutionStage.CACHE,
+            ResolutionStage.PLATFORM, ResolutionStage.LOCAL, ResolutionStage.DEPENDENCIES));
+}
@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about the {@link ResolutionStage resolution stages} of class
+ * loading. For every stage, the number of lookups, the number of hits (the
+ * class was found) and the time spent are recorded.
+ *
+ * <p>
+ * This is thread safe and may be shared across multiple class loaders.
+ * </p>
+ *
+ */
+public class ResolutionStatistics {
+    /**
+     * The number of lookups per stage (the index is the ordinal of the stage).
+     *
+     */
+    private final LongAdder[] lookups = ResolutionStatistics.newAdders();
+    /**
+     * The number of hits per stage (the index is the ordinal of the stage).
+     *
+     */
+    private final LongAdder[] hits = ResolutionStatistics.newAdders();
+    /**
+     * The time spent per stage in nanoseconds (the index is the ordinal of the
+     * stage).
+     *
+     */
+    private final LongAdder[] nanos = ResolutionStatistics.newAdders();
+
+    /**
+     * Records a lookup.
+     *
+     * @param stage
+     *            The stage that was probed.
+     * @param hit
+     *            Whether the stage found the class.
+     * @param duration
+     *            The time spent in nanoseconds.
+     */
+    void record(final ResolutionStage stage, final boolean hit, final long duration) {
+        final int index = stage.ordinal();
+        this.lookups[index].increment();
+        if (hit) {
+            this.hits[index].increment();
+        }
+        this.nanos[index].add(duration);
+    }
+
+    /**
+     *
+     * @param stage
+     *            The stage.
+     * @return The number of times the stage was probed.
+     */
+    public long getLookups(final ResolutionStage stage) {
+        return this.lookups[stage.ordinal()].sum();
+    }
+
+    /**
+     *
+     * @param stage
+     *            The stage.
+     * @return The number of times the stage found the class.
+     */
+    public long getHits(final ResolutionStage stage) {
+        return this.hits[stage.ordinal()].sum();
+    }
+
+    /**
+     *
+     * @param stage
+     *            The stage.
+     * @param unit
+     *            The time unit to return the time in.
+     * @return The time spent in the stage.
+     */
+    public long getTime(final ResolutionStage stage, final TimeUnit unit) {
+        return unit.convert(this.nanos[stage.ordinal()].sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("ResolutionStatistics[");
+        for (final ResolutionStage stage : ResolutionStage.values()) {
+            if (stage.ordinal() > 0) {
+                builder.append(", ");
+            }
+            builder.append(stage) //
+                    .append("={lookups=").append(this.getLookups(stage)) //
+                    .append(", hits=").append(this.getHits(stage)) //
+                    .append(", time=").append(this.getTime(stage, TimeUnit.MICROSECONDS)).append("us}");
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Creates an array with one adder per stage.
+     *
+     * @return The adders.
+     */
+    private static LongAdder[] newAdders() {
+        final LongAdder[] result = new LongAdder[ResolutionStage.values().length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,83 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.dmken.oss.yapf.PluginMeta;
+
+/**
+ * The result of {@link PluginLoader#scanDirectory(Path) scanning a plugin
+ * directory}. Contains all valid {@link PluginMeta plugin metas} and an error
+ * for every file whose metadata could not be extracted.
+ *
+ */
+public class ScanResult {
+    /**
+     * The extracted plugin metas (in the order of the file names).
+     *
+     */
+    private final List<PluginMeta> pluginMetas;
+    /**
+     * The errors that occurred per file (in the order of the file names).
+     *
+     */
+    private final Map<Path, Exception> errors;
+
+    /**
+     * Constructor of ScanResult.
+     *
+     * @param pluginMetas
+     *            {@link #pluginMetas}.
+     * @param errors
+     *            {@link #errors}.
+     */
+    ScanResult(final List<PluginMeta> pluginMetas, final Map<Path, Exception> errors) {
+        this.pluginMetas = Collections.unmodifiableList(pluginMetas);
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     *
+     * @return {@link #pluginMetas}.
+     */
+    public List<PluginMeta> getPluginMetas() {
+        return this.pluginMetas;
+    }
+
+    /**
+     *
+     * @return {@link #errors}.
+     */
+    public Map<Path, Exception> getErrors() {
+        return this.errors;
+    }
+
+    /**
+     *
+     * @return Whether the metadata of all files was extracted successfully.
+     */
+    public boolean isSuccessful() {
+        return this.errors.isEmpty();
+    }
+}
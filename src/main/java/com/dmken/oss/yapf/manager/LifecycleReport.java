@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.manager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.dmken.oss.yapf.Plugin;
+
+/**
+ * The report of enabling or disabling multiple plugins at once (see
+ * {@link SimplePluginManager#enableAll(long, TimeUnit)}). Contains the
+ * duration per plugin and an error for every plugin that failed, timed out or
+ * was skipped.
+ *
+ */
+public class LifecycleReport {
+    /**
+     * The durations per plugin in nanoseconds (in the order the plugins
+     * finished). Plugins that were skipped have no duration.
+     *
+     */
+    private final Map<Plugin, Long> durations;
+    /**
+     * The errors that occurred per plugin.
+     *
+     */
+    private final Map<Plugin, Exception> errors;
+    /**
+     * The plugins that exceeded their time budget.
+     *
+     */
+    private final List<Plugin> timedOut;
+    /**
+     * The total duration in nanoseconds.
+     *
+     */
+    private final long totalNanos;
+
+    /**
+     * Constructor of LifecycleReport.
+     *
+     * @param durations
+     *            {@link #durations}.
+     * @param errors
+     *            {@link #errors}.
+     * @param timedOut
+     *            {@link #timedOut}.
+     * @param totalNanos
+     *            {@link #totalNanos}.
+     */
+    LifecycleReport(final Map<Plugin, Long> durations, final Map<Plugin, Exception> errors, final List<Plugin> timedOut,
+            final long totalNanos) {
+        this.durations = Collections.unmodifiableMap(durations);
+        this.errors = Collections.unmodifiableMap(errors);
+        this.timedOut = Collections.unmodifiableList(timedOut);
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     *
+     * @param unit
+     *            The time unit to return the durations in.
+     * @return The durations per plugin (in the order the plugins finished).
+     */
+    public Map<Plugin, Long> getDurations(final TimeUnit unit) {
+        final Map<Plugin, Long> result = new LinkedHashMap<>();
+        for (final Map.Entry<Plugin, Long> entry : this.durations.entrySet()) {
+            result.put(entry.getKey(), unit.convert(entry.getValue(), TimeUnit.NANOSECONDS));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     *
+     * @param plugin
+     *            The plugin.
+     * @param unit
+     *            The time unit to return the duration in.
+     * @return The duration of the given plugin. <code>-1</code> if the plugin
+     *         was skipped or is not part of this report.
+     */
+    public long getDuration(final Plugin plugin, final TimeUnit unit) {
+        final Long duration = this.durations.get(plugin);
+        return duration == null ? -1 : unit.convert(duration, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     *
+     * @return {@link #errors}.
+     */
+    public Map<Plugin, Exception> getErrors() {
+        return this.errors;
+    }
+
+    /**
+     *
+     * @return {@link #timedOut}.
+     */
+    public List<Plugin> getTimedOut() {
+        return this.timedOut;
+    }
+
+    /**
+     *
+     * @param unit
+     *            The time unit to return the duration in.
+     * @return The total duration.
+     */
+    public long getTotalTime(final TimeUnit unit) {
+        return unit.convert(this.totalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     *
+     * @return Whether all plugins finished successfully.
+     */
+    public boolean isSuccess() {
+        return this.errors.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "LifecycleReport[durations=" + this.getDurations(TimeUnit.MILLISECONDS) + ", errors=" + this.errors.keySet()
+                + ", timedOut=" + this.timedOut + ", total=" + this.getTotalTime(TimeUnit.MILLISECONDS) + "ms]";
+    }
+}
@@ -0,0 +1,650 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.manager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.BasePlugin;
+import com.dmken.oss.yapf.Plugin;
+import com.dmken.oss.yapf.PluginMeta;
+import com.dmken.oss.yapf.loader.LoadResult;
+import com.dmken.oss.yapf.loader.PluginLoader;
+import com.dmken.oss.yapf.loader.ScanResult;
+import com.dmken.oss.yapf.meta.PluginDependencyGraph;
+import com.dmken.oss.yapf.meta.exception.MalformedPluginMetaException;
+import com.dmken.oss.yapf.util.ConcurrencyUtil;
+
+/**
+ * Watches a plugin directory and reloads the plugins whose JAR files are
+ * added, changed or removed (hot reload). The plugins of the directory are
+ * loaded by {@link #start()} and reloaded until the watcher is
+ * {@link #close() closed}.
+ *
+ * <p>
+ * Bursts of file system events (e.g. while a JAR is copied) are debounced: A
+ * reload starts once no event occurred for the debounce period. Only the
+ * plugins of the changed files and the plugins depending on them are
+ * reloaded, in dependency order, using
+ * {@link PluginLoader#extractPluginMeta(Path)} and
+ * {@link PluginLoader#loadPlugin(PluginMeta)}. Their implementations are
+ * swapped atomically (see
+ * {@link SimplePluginManager#swap(java.util.Collection, Runnable)}), so
+ * callers never see a missing implementation during a reload. The previous
+ * plugins are only unloaded (and their class loaders closed) after the swap,
+ * so their retained implementations stay usable until they are replaced.
+ * </p>
+ *
+ * <p>
+ * If the plugins would not be consistent after a change (e.g. a required
+ * dependency was removed or a dependency cycle was introduced), the change is
+ * rejected and the previous plugins keep running. Rejected changes are retried
+ * with the next change.
+ * </p>
+ *
+ */
+public class PluginDirectoryWatcher implements Closeable {
+    /**
+     * The logger.
+     *
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginDirectoryWatcher.class);
+    /**
+     * The default debounce period in milliseconds.
+     *
+     */
+    private static final long DEFAULT_DEBOUNCE = 500;
+    /**
+     * The file extension of plugin files.
+     *
+     */
+    private static final String PLUGIN_EXTENSION = ".jar";
+
+    /**
+     * The plugin loader to load the plugins with.
+     *
+     */
+    private final PluginLoader pluginLoader;
+    /**
+     * The plugin manager to add the plugins to.
+     *
+     */
+    private final SimplePluginManager pluginManager;
+    /**
+     * The watched directory (absolute and normalized).
+     *
+     */
+    private final Path directory;
+    /**
+     * The debounce period in nanoseconds.
+     *
+     */
+    private final long debounce;
+    /**
+     * The loaded plugins per file. Only written by the watching thread (and by
+     * {@link #start()} before it is started).
+     *
+     */
+    private final Map<Path, Plugin> plugins = new ConcurrentHashMap<>();
+    /**
+     * The files whose changes were rejected. They are retried with the next
+     * change. Only accessed by the watching thread (and by {@link #start()}
+     * before it is started).
+     *
+     */
+    private final Set<Path> rejected = new LinkedHashSet<>();
+    /**
+     * The watch service. <code>null</code> if the watcher was not started
+     * yet.
+     *
+     */
+    private WatchService watchService;
+    /**
+     * The executor running the watching thread. <code>null</code> if the
+     * watcher was not started yet.
+     *
+     */
+    private ExecutorService executor;
+    /**
+     * Whether this watcher was closed.
+     *
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor of PluginDirectoryWatcher. Uses a debounce period of 500
+     * milliseconds.
+     *
+     * @param pluginLoader
+     *            {@link #pluginLoader}.
+     * @param pluginManager
+     *            {@link #pluginManager}.
+     * @param directory
+     *            {@link #directory}. Must be an existing directory.
+     */
+    public PluginDirectoryWatcher(final PluginLoader pluginLoader, final SimplePluginManager pluginManager,
+            final Path directory) {
+        this(pluginLoader, pluginManager, directory, PluginDirectoryWatcher.DEFAULT_DEBOUNCE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructor of PluginDirectoryWatcher.
+     *
+     * @param pluginLoader
+     *            {@link #pluginLoader}.
+     * @param pluginManager
+     *            {@link #pluginManager}.
+     * @param directory
+     *            {@link #directory}. Must be an existing directory.
+     * @param debounce
+     *            {@link #debounce}. Must be positive.
+     * @param unit
+     *            The unit of <code>debounce</code>.
+     */
+    public PluginDirectoryWatcher(final PluginLoader pluginLoader, final SimplePluginManager pluginManager,
+            final Path directory, final long debounce, final TimeUnit unit) {
+        if (pluginLoader == null) {
+            throw new IllegalArgumentException("PluginLoader must not be null!");
+        }
+        if (pluginManager == null) {
+            throw new IllegalArgumentException("PluginManager must not be null!");
+        }
+        if (directory == null || !Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("Directory must be an existing directory!");
+        }
+        if (debounce <= 0) {
+            throw new IllegalArgumentException("Debounce must be positive!");
+        }
+
+        this.pluginLoader = pluginLoader;
+        this.pluginManager = pluginManager;
+        this.directory = directory.toAbsolutePath().normalize();
+        this.debounce = unit.toNanos(debounce);
+    }
+
+    /**
+     * Loads and enables all plugins of the directory and starts watching it.
+     * Plugins that fail to load are logged and skipped.
+     *
+     * @throws IOException
+     *             If the directory can not be watched or listed.
+     * @throws IllegalStateException
+     *             If the watcher was started already.
+     */
+    public synchronized void start() throws IOException {
+        if (this.watchService != null) {
+            throw new IllegalStateException("Watcher was already started!");
+        }
+
+        // Register before scanning, so no change is missed.
+        this.watchService = this.directory.getFileSystem().newWatchService();
+        this.directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+
+        final ScanResult scanResult = this.pluginLoader.scanDirectory(this.directory);
+        for (final Map.Entry<Path, Exception> entry : scanResult.getErrors().entrySet()) {
+            PluginDirectoryWatcher.LOGGER.warn("Skipped invalid plugin file <{}>.", entry.getKey(), entry.getValue());
+        }
+        try {
+            final LoadResult loadResult = this.pluginLoader.loadPlugins(scanResult.getPluginMetas());
+            for (final Plugin plugin : loadResult.getPlugins()) {
+                this.register(PluginDirectoryWatcher.fileOf(plugin.getPluginMeta()), plugin);
+            }
+            for (final Plugin plugin : loadResult.getPlugins()) {
+                this.enable(plugin);
+            }
+        } catch (final MalformedPluginMetaException ex) {
+            PluginDirectoryWatcher.LOGGER.error("Failed to load the plugins of <{}>, waiting for changes.", this.directory, ex);
+
+            for (final PluginMeta meta : scanResult.getPluginMetas()) {
+                this.rejected.add(PluginDirectoryWatcher.fileOf(meta));
+            }
+        }
+
+        this.executor = ConcurrencyUtil.newExecutor("yapf-watcher", 1);
+        this.executor.execute(this::watch);
+
+        PluginDirectoryWatcher.LOGGER.info("Watching <{}> for plugin changes.", this.directory);
+    }
+
+    /**
+     * Stops watching the directory and waits for a running reload to finish
+     * (at most for the {@link SimplePluginManager#getLifecycleTimeout(TimeUnit)
+     * lifecycle timeout}). The plugins are not unloaded (see
+     * {@link ShutdownCoordinator}).
+     *
+     * @throws IOException
+     *             If the watch service can not be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.watchService == null) {
+            return;
+        }
+
+        this.watchService.close();
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(this.pluginManager.getLifecycleTimeout(TimeUnit.NANOSECONDS),
+                    TimeUnit.NANOSECONDS)) {
+                PluginDirectoryWatcher.LOGGER.warn("Reload of plugins in <{}> did not finish in time.", this.directory);
+
+                this.executor.shutdownNow();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Watches the directory until this watcher is closed. Changed files are
+     * collected until no event occurred for the debounce period and are
+     * reloaded afterwards.
+     *
+     */
+    private void watch() {
+        final Set<Path> pending = new LinkedHashSet<>();
+        try {
+            while (!this.closed) {
+                final WatchKey key = pending.isEmpty() ? this.watchService.take()
+                        : this.watchService.poll(this.debounce, TimeUnit.NANOSECONDS);
+                if (key == null) {
+                    // The directory was quiet for the debounce period.
+                    try {
+                        this.reload(pending);
+                    } catch (final RuntimeException ex) {
+                        PluginDirectoryWatcher.LOGGER.error("Failed to reload plugins of {}.", pending, ex);
+                    }
+                    pending.clear();
+                    continue;
+                }
+
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost, so check all files.
+                        pending.addAll(this.plugins.keySet());
+                        pending.addAll(this.listPluginFiles());
+                    } else {
+                        final Path file = this.directory.resolve((Path) event.context());
+                        if (PluginDirectoryWatcher.isPluginFile(file)) {
+                            pending.add(file);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    PluginDirectoryWatcher.LOGGER.warn("Plugin directory <{}> is not accessible anymore, stopped watching.",
+                            this.directory);
+                    return;
+                }
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (final ClosedWatchServiceException ex) {
+            // Closed by close().
+        }
+    }
+
+    /**
+     * Reloads the plugins of the given changed files and all plugins depending
+     * on them.
+     *
+     * @param changedFiles
+     *            The added, changed or removed files.
+     */
+    private void reload(final Set<Path> changedFiles) {
+        final Set<Path> changed = new LinkedHashSet<>(this.rejected);
+        changed.addAll(changedFiles);
+        this.rejected.clear();
+
+        // Extract the metas of the added and changed files. Invalid files (e.g.
+        // files that are still being written) keep their previous plugin.
+        final Map<Path, PluginMeta> updated = new LinkedHashMap<>();
+        for (final Path file : new ArrayList<>(changed)) {
+            if (!Files.isRegularFile(file)) {
+                continue;
+            }
+            try {
+                updated.put(file, this.pluginLoader.extractPluginMeta(file));
+            } catch (final IOException | MalformedPluginMetaException | IllegalArgumentException ex) {
+                PluginDirectoryWatcher.LOGGER.warn("Skipped invalid plugin file <{}>.", file, ex);
+
+                changed.remove(file);
+            }
+        }
+        changed.removeIf(file -> !updated.containsKey(file) && !this.plugins.containsKey(file));
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        // Build the dependency graphs before and after the change.
+        final Map<PluginMeta, Path> currentFiles = new IdentityHashMap<>();
+        final Map<PluginMeta, Path> newFiles = new IdentityHashMap<>();
+        for (final Map.Entry<Path, Plugin> entry : this.plugins.entrySet()) {
+            final PluginMeta meta = entry.getValue().getPluginMeta();
+            currentFiles.put(meta, entry.getKey());
+            if (!changed.contains(entry.getKey())) {
+                newFiles.put(meta, entry.getKey());
+            }
+        }
+        for (final Map.Entry<Path, PluginMeta> entry : updated.entrySet()) {
+            newFiles.put(entry.getValue(), entry.getKey());
+        }
+        final PluginDependencyGraph currentGraph;
+        final PluginDependencyGraph newGraph;
+        try {
+            currentGraph = PluginDependencyGraph.build(currentFiles.keySet());
+            newGraph = PluginDependencyGraph.build(newFiles.keySet());
+        } catch (final MalformedPluginMetaException ex) {
+            PluginDirectoryWatcher.LOGGER.error("Rejected changes of {}, the previous plugins keep running.", changed, ex);
+
+            this.rejected.addAll(changed);
+            return;
+        }
+
+        // The changed plugins and all plugins depending on them are affected.
+        final Set<Path> affected = new LinkedHashSet<>(changed);
+        PluginDirectoryWatcher.collectDependents(currentGraph, currentFiles, affected);
+        PluginDirectoryWatcher.collectDependents(newGraph, newFiles, affected);
+
+        final List<Plugin> replaced = new ArrayList<>();
+        final List<List<PluginMeta>> currentWaves = currentGraph.getWaves();
+        for (int i = currentWaves.size() - 1; i >= 0; i--) {
+            for (final PluginMeta meta : currentWaves.get(i)) {
+                if (affected.contains(currentFiles.get(meta))) {
+                    replaced.add(this.plugins.get(currentFiles.get(meta)));
+                }
+            }
+        }
+        final List<PluginMeta> toLoad = new ArrayList<>();
+        for (final List<PluginMeta> wave : newGraph.getWaves()) {
+            for (final PluginMeta meta : wave) {
+                if (affected.contains(newFiles.get(meta))) {
+                    toLoad.add(meta);
+                }
+            }
+        }
+
+        PluginDirectoryWatcher.LOGGER.info("Reloading {} plugins after changes of {}.", affected.size(), changed);
+
+        final Set<PluginMeta> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.pluginManager.swap(replaced, () -> {
+            for (final Plugin plugin : replaced) {
+                this.retire(plugin);
+            }
+            for (final PluginMeta meta : toLoad) {
+                final Optional<PluginMeta> failedDependency = newGraph.getRequiredDependencies(meta).stream()
+                        .filter(failed::contains).findFirst();
+                if (failedDependency.isPresent()) {
+                    PluginDirectoryWatcher.LOGGER.warn("Skipped plugin <{}> as its dependency <{}> failed to load.",
+                            PluginDependencyGraph.describe(meta), PluginDependencyGraph.describe(failedDependency.get()));
+
+                    failed.add(meta);
+                } else if (!this.load(newFiles.get(meta), meta)) {
+                    failed.add(meta);
+                }
+            }
+        });
+        for (final Plugin plugin : replaced) {
+            this.unload(plugin);
+        }
+
+        PluginDirectoryWatcher.LOGGER.info("Reloaded {} plugins, {} plugins failed to load.", toLoad.size() - failed.size(),
+                failed.size());
+    }
+
+    /**
+     * Loads, registers and enables the plugin described by the given meta. If
+     * it fails to enable, it is unloaded again.
+     *
+     * @param file
+     *            The plugin file.
+     * @param meta
+     *            The plugin meta.
+     * @return Whether the plugin was loaded and enabled successfully.
+     */
+    private boolean load(final Path file, final PluginMeta meta) {
+        final Plugin plugin;
+        try {
+            plugin = this.pluginLoader.loadPlugin(meta);
+        } catch (final MalformedPluginMetaException | RuntimeException | LinkageError ex) {
+            PluginDirectoryWatcher.LOGGER.warn("Failed to load plugin <{}>.", PluginDependencyGraph.describe(meta), ex);
+            return false;
+        }
+        this.register(file, plugin);
+        if (!this.enable(plugin)) {
+            this.unload(plugin);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the given plugin to the plugin manager and remembers its file.
+     *
+     * @param file
+     *            The plugin file.
+     * @param plugin
+     *            The plugin.
+     */
+    private void register(final Path file, final Plugin plugin) {
+        if (plugin instanceof BasePlugin && plugin.getPluginManager() == null) {
+            ((BasePlugin) plugin).setPluginManager(this.pluginManager);
+        }
+        this.pluginManager.addPlugin(plugin);
+        this.plugins.put(file, plugin);
+    }
+
+    /**
+     * Enables the given plugin.
+     *
+     * @param plugin
+     *            The plugin.
+     * @return Whether the plugin was enabled successfully.
+     */
+    private boolean enable(final Plugin plugin) {
+        try {
+            this.pluginManager.enable(plugin);
+            return true;
+        } catch (final RuntimeException ex) {
+            PluginDirectoryWatcher.LOGGER.warn("Failed to enable plugin {}.", plugin, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Disables the given plugin and removes it from the plugin manager, but
+     * keeps it loaded. Used while reloading plugins: The class loader of the
+     * plugin stays open until it was {@link #unload(Plugin) unloaded} after
+     * the swap, so its retained implementations stay usable.
+     *
+     * @param plugin
+     *            The plugin.
+     */
+    private void retire(final Plugin plugin) {
+        try {
+            this.pluginManager.disable(plugin);
+        } catch (final RuntimeException ex) {
+            PluginDirectoryWatcher.LOGGER.warn("Failed to disable plugin {}.", plugin, ex);
+
+            plugin.setEnabled(false);
+        } finally {
+            this.pluginManager.removePlugin(plugin);
+            this.plugins.values().remove(plugin);
+        }
+    }
+
+    /**
+     * Disables, unloads and removes the given plugin. If the plugin fails to
+     * disable or unload, its class loader is released anyway.
+     *
+     * @param plugin
+     *            The plugin.
+     */
+    private void unload(final Plugin plugin) {
+        try {
+            this.pluginManager.disable(plugin);
+            this.pluginLoader.unloadPlugin(plugin);
+        } catch (final RuntimeException ex) {
+            PluginDirectoryWatcher.LOGGER.warn("Failed to unload plugin {}, releasing it forcibly.", plugin, ex);
+
+            plugin.setEnabled(false);
+            // The plugin may have been loaded again already, so release the
+            // class loader of this instance only.
+            this.pluginLoader.releaseClassLoader(plugin);
+        } finally {
+            this.pluginManager.removePlugin(plugin);
+            this.plugins.values().remove(plugin);
+        }
+    }
+
+    /**
+     * Lists the plugin files of the directory.
+     *
+     * @return The plugin files. Empty if the directory can not be listed.
+     */
+    private List<Path> listPluginFiles() {
+        final List<Path> files = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+            for (final Path file : stream) {
+                if (PluginDirectoryWatcher.isPluginFile(file)) {
+                    files.add(file);
+                }
+            }
+        } catch (final IOException ex) {
+            PluginDirectoryWatcher.LOGGER.warn("Failed to list plugin directory <{}>.", this.directory, ex);
+        }
+        return files;
+    }
+
+    /**
+     * Adds the files of all plugins (transitively) depending on the plugins of
+     * the given files to the given files.
+     *
+     * @param graph
+     *            The dependency graph.
+     * @param files
+     *            The files per plugin of the graph.
+     * @param affected
+     *            The files to extend.
+     */
+    private static void collectDependents(final PluginDependencyGraph graph, final Map<PluginMeta, Path> files,
+            final Set<Path> affected) {
+        final Deque<PluginMeta> queue = new ArrayDeque<>();
+        for (final PluginMeta meta : graph.getPluginMetas()) {
+            if (affected.contains(files.get(meta))) {
+                queue.add(meta);
+            }
+        }
+        while (!queue.isEmpty()) {
+            for (final PluginMeta dependent : graph.getDependents(queue.poll())) {
+                if (affected.add(files.get(dependent))) {
+                    queue.add(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given file is a plugin file (by its extension).
+     *
+     * @param file
+     *            The file.
+     * @return Whether the file is a plugin file.
+     */
+    private static boolean isPluginFile(final Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(PluginDirectoryWatcher.PLUGIN_EXTENSION);
+    }
+
+    /**
+     * Gets the file of the given plugin.
+     *
+     * @param meta
+     *            The plugin meta.
+     * @return The (absolute and normalized) file the plugin was loaded from.
+     */
+    private static Path fileOf(final PluginMeta meta) {
+        try {
+            return Paths.get(meta.getLocation().toURI()).toAbsolutePath().normalize();
+        } catch (final URISyntaxException cause) {
+            throw new IllegalStateException("Location of <" + meta.getName() + "> is not a file!", cause);
+        }
+    }
+
+    /**
+     *
+     * @return {@link #directory}.
+     */
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Gets the debounce period.
+     *
+     * @param unit
+     *            The unit to return the debounce period in.
+     * @return {@link #debounce}.
+     */
+    public long getDebounce(final TimeUnit unit) {
+        return unit.convert(this.debounce, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     *
+     * @return The currently loaded plugins per file.
+     */
+    public Map<Path, Plugin> getPlugins() {
+        return Collections.unmodifiableMap(this.plugins);
+    }
+}
@@ -0,0 +1,559 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.manager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.Plugin;
+import com.dmken.oss.yapf.PluginMeta;
+import com.dmken.oss.yapf.meta.PluginDependencyGraph;
+import com.dmken.oss.yapf.meta.exception.MalformedPluginMetaException;
+import com.dmken.oss.yapf.meta.exception.UnresolvableDependencyException;
+import com.dmken.oss.yapf.util.ConcurrencyUtil;
+
+/**
+ * Applies a lifecycle action (e.g. enabling) to multiple plugins
+ * concurrently, respecting their {@link PluginDependencyGraph dependencies}.
+ *
+ * <p>
+ * In forward order, a plugin is processed as soon as all of its dependencies
+ * are done (not waiting for a whole wave). If a plugin fails or times out,
+ * the plugins that require it are skipped. In reverse order, a plugin is
+ * processed as soon as all of its dependents are done, and failing plugins
+ * never block the others.
+ * </p>
+ *
+ * <p>
+ * Every plugin has a time budget starting when its action starts. In
+ * addition, all plugins can be bounded by a global deadline. Plugins that
+ * exceed their budget are interrupted and reported as timed out; their
+ * action may still be running afterwards. If such an action succeeds
+ * nevertheless, the {@link #rollback} is applied to the plugin, so it does
+ * not end up in the state that was reported as failed.
+ * </p>
+ *
+ * <p>
+ * The coordinator submits at most <code>parallelism</code> plugins at a time
+ * to an unbounded executor, so every submitted plugin starts immediately and
+ * the plugins waiting for a slot are bound by the global deadline only. A
+ * plugin that timed out does no longer occupy a slot, even if its action
+ * ignores the interrupt and keeps its thread.
+ * </p>
+ *
+ */
+final class PluginLifecycleExecutor {
+    /**
+     * The logger.
+     *
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginLifecycleExecutor.class);
+
+    /**
+     * The name of the action (e.g. <code>enable</code>) used for thread names
+     * and messages.
+     *
+     */
+    private final String actionName;
+    /**
+     * The action to apply to every plugin.
+     *
+     */
+    private final Consumer<Plugin> action;
+    /**
+     * The action undoing the {@link #action} if it succeeded after the plugin
+     * was reported as timed out. <code>null</code> if there is none.
+     *
+     */
+    private final Consumer<Plugin> rollback;
+    /**
+     * Whether to process the plugins in reverse dependency order (dependents
+     * before their dependencies).
+     *
+     */
+    private final boolean reverse;
+    /**
+     * The dependency graph of the plugins.
+     *
+     */
+    private final PluginDependencyGraph graph;
+    /**
+     * The plugins by their metas.
+     *
+     */
+    private final Map<PluginMeta, Plugin> plugins = new IdentityHashMap<>();
+
+    // Run state (only accessed by the coordinating thread).
+    /**
+     * The number of unfinished predecessors per plugin.
+     *
+     */
+    private final Map<PluginMeta, Integer> pending = new IdentityHashMap<>();
+    /**
+     * The plugins that are ready to be processed.
+     *
+     */
+    private final Deque<PluginMeta> ready = new ArrayDeque<>();
+    /**
+     * The submitted tasks.
+     *
+     */
+    private final Map<Future<Void>, Task> running = new HashMap<>();
+    /**
+     * The plugins that failed, timed out or were skipped.
+     *
+     */
+    private final Set<PluginMeta> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+    /**
+     * The durations per plugin in nanoseconds.
+     *
+     */
+    private final Map<Plugin, Long> durations = new LinkedHashMap<>();
+    /**
+     * The errors per plugin.
+     *
+     */
+    private final Map<Plugin, Exception> errors = new LinkedHashMap<>();
+    /**
+     * The plugins that exceeded their time budget.
+     *
+     */
+    private final List<Plugin> timedOut = new ArrayList<>();
+
+    /**
+     * Constructor of PluginLifecycleExecutor.
+     *
+     * @param plugins
+     *            The plugins to process. All of them must have a valid
+     *            {@link Plugin#getPluginMeta() meta}.
+     * @param actionName
+     *            {@link #actionName}.
+     * @param action
+     *            {@link #action}.
+     * @param reverse
+     *            {@link #reverse}.
+     * @throws IllegalStateException
+     *             If the dependencies of the plugins can not be resolved.
+     */
+    PluginLifecycleExecutor(final Collection<Plugin> plugins, final String actionName, final Consumer<Plugin> action,
+            final boolean reverse) {
+        this(plugins, actionName, action, null, reverse);
+    }
+
+    /**
+     * Constructor of PluginLifecycleExecutor.
+     *
+     * @param plugins
+     *            The plugins to process. All of them must have a valid
+     *            {@link Plugin#getPluginMeta() meta}.
+     * @param actionName
+     *            {@link #actionName}.
+     * @param action
+     *            {@link #action}.
+     * @param rollback
+     *            {@link #rollback}.
+     * @param reverse
+     *            {@link #reverse}.
+     * @throws IllegalStateException
+     *             If the dependencies of the plugins can not be resolved.
+     */
+    PluginLifecycleExecutor(final Collection<Plugin> plugins, final String actionName, final Consumer<Plugin> action,
+            final Consumer<Plugin> rollback, final boolean reverse) {
+        this.actionName = actionName;
+        this.action = action;
+        this.rollback = rollback;
+        this.reverse = reverse;
+
+        final List<PluginMeta> metas = new ArrayList<>(plugins.size());
+        for (final Plugin plugin : plugins) {
+            final PluginMeta meta = plugin.getPluginMeta();
+            metas.add(meta);
+            this.plugins.put(meta, plugin);
+        }
+        try {
+            this.graph = PluginDependencyGraph.build(metas);
+        } catch (final MalformedPluginMetaException cause) {
+            throw new IllegalStateException("Failed to resolve the dependencies of the plugins!", cause);
+        }
+    }
+
+    /**
+     * Applies the action to all plugins. This must only be invoked once.
+     *
+     * @param parallelism
+     *            The maximum number of threads. Must be positive.
+     * @param timeout
+     *            The time budget of every plugin. Must be positive.
+     * @param deadline
+     *            The global time budget of all plugins. Not positive if there
+     *            is none.
+     * @param unit
+     *            The unit of <code>timeout</code> and <code>deadline</code>.
+     * @return The report.
+     */
+    LifecycleReport run(final int parallelism, final long timeout, final long deadline, final TimeUnit unit) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive!");
+        }
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive!");
+        }
+
+        final long start = System.nanoTime();
+        final long timeoutNanos = unit.toNanos(timeout);
+        final long deadlineNanos = deadline <= 0 ? 0 : start + unit.toNanos(deadline);
+        for (final PluginMeta meta : this.graph.getPluginMetas()) {
+            final int predecessors = this.predecessors(meta).size();
+            this.pending.put(meta, predecessors);
+            if (predecessors == 0) {
+                this.ready.add(meta);
+            }
+        }
+
+        if (!this.plugins.isEmpty()) {
+            final ExecutorService executor = ConcurrencyUtil.newUnboundedExecutor("yapf-" + this.actionName);
+            try {
+                this.coordinate(new ExecutorCompletionService<>(executor), parallelism, timeoutNanos, deadlineNanos);
+            } catch (final InterruptedException cause) {
+                Thread.currentThread().interrupt();
+
+                throw new IllegalStateException("Interrupted while waiting for plugins to " + this.actionName + "!", cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        final LifecycleReport report = new LifecycleReport(this.durations, this.errors, this.timedOut, System.nanoTime() - start);
+        PluginLifecycleExecutor.LOGGER.info("Finished to {} {} plugins in {} ms, {} plugins failed, {} timed out.",
+                this.actionName, this.plugins.size(), report.getTotalTime(TimeUnit.MILLISECONDS), this.errors.size(),
+                this.timedOut.size());
+        return report;
+    }
+
+    /**
+     * Submits the ready plugins and waits for them until all plugins are
+     * done.
+     *
+     * @param completionService
+     *            The completion service to submit the tasks to. Must start
+     *            every task immediately.
+     * @param parallelism
+     *            The maximum number of running tasks (not counting timed out
+     *            tasks).
+     * @param timeoutNanos
+     *            The time budget of every plugin.
+     * @param deadlineNanos
+     *            The global deadline ({@link System#nanoTime()}).
+     *            <code>0</code> if there is none.
+     * @throws InterruptedException
+     *             If the current thread is interrupted.
+     */
+    private void coordinate(final CompletionService<Void> completionService, final int parallelism, final long timeoutNanos,
+            final long deadlineNanos) throws InterruptedException {
+        while (true) {
+            while (!this.ready.isEmpty() && this.running.size() < parallelism) {
+                final PluginMeta meta = this.ready.poll();
+                if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0) {
+                    this.timeOut(meta, null, 0);
+                } else {
+                    final Task task = new Task(meta);
+                    this.running.put(completionService.submit(task), task);
+                }
+            }
+            if (this.running.isEmpty()) {
+                return;
+            }
+
+            // Tasks that did not start yet (they are about to) can not expire
+            // before the timeout.
+            long now = System.nanoTime();
+            long wait = timeoutNanos;
+            if (deadlineNanos != 0) {
+                wait = Math.min(wait, deadlineNanos - now);
+            }
+            for (final Task task : this.running.values()) {
+                if (task.started) {
+                    wait = Math.min(wait, task.startNanos + timeoutNanos - now);
+                }
+            }
+
+            final Future<Void> future = completionService.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+            if (future != null) {
+                final Task task = this.running.remove(future);
+                if (task != null) {
+                    this.finish(task, future);
+                }
+                continue;
+            }
+
+            now = System.nanoTime();
+            final boolean deadlineExceeded = deadlineNanos != 0 && now - deadlineNanos >= 0;
+            final Iterator<Map.Entry<Future<Void>, Task>> iterator = this.running.entrySet().iterator();
+            final List<Map.Entry<Future<Void>, Task>> expired = new ArrayList<>();
+            while (iterator.hasNext()) {
+                final Map.Entry<Future<Void>, Task> entry = iterator.next();
+                final Task task = entry.getValue();
+                if (deadlineExceeded || task.started && now - task.startNanos >= timeoutNanos) {
+                    iterator.remove();
+                    expired.add(entry);
+                }
+            }
+            for (final Map.Entry<Future<Void>, Task> entry : expired) {
+                final Task task = entry.getValue();
+                if (task.expire()) {
+                    entry.getKey().cancel(true);
+                    this.timeOut(task.meta, task, now);
+                } else {
+                    // Finished just in time, the future is about to complete.
+                    this.running.put(entry.getKey(), task);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles the completion of the given task.
+     *
+     * @param task
+     *            The task.
+     * @param future
+     *            The (done) future of the task.
+     * @throws InterruptedException
+     *             Never.
+     */
+    private void finish(final Task task, final Future<Void> future) throws InterruptedException {
+        final Plugin plugin = this.plugins.get(task.meta);
+        this.durations.put(plugin, task.endNanos - task.startNanos);
+        try {
+            future.get();
+            this.complete(task.meta, true);
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof VirtualMachineError) {
+                throw (VirtualMachineError) cause;
+            }
+            PluginLifecycleExecutor.LOGGER.warn("Failed to {} plugin <{}>.", this.actionName, plugin, cause);
+
+            this.errors.put(plugin, cause instanceof Exception ? (Exception) cause
+                    : new IllegalStateException("Failed to " + this.actionName + " plugin!", cause));
+            this.complete(task.meta, false);
+        }
+    }
+
+    /**
+     * Marks the given plugin as timed out.
+     *
+     * @param meta
+     *            The plugin.
+     * @param task
+     *            The task of the plugin. <code>null</code> if it was not
+     *            submitted.
+     * @param now
+     *            The current value of {@link System#nanoTime()}.
+     */
+    private void timeOut(final PluginMeta meta, final Task task, final long now) {
+        final Plugin plugin = this.plugins.get(meta);
+        final boolean started = task != null && task.started;
+        PluginLifecycleExecutor.LOGGER.warn("Plugin <{}> exceeded its time budget to {} ({}).", plugin, this.actionName,
+                started ? "interrupted" : "not started");
+
+        if (started) {
+            this.durations.put(plugin, now - task.startNanos);
+        }
+        this.timedOut.add(plugin);
+        this.errors.put(plugin, new TimeoutException("Plugin exceeded its time budget to " + this.actionName + "!"));
+        this.complete(meta, false);
+    }
+
+    /**
+     * Marks the given plugin as done and enqueues the plugins that are ready
+     * afterwards.
+     *
+     * @param meta
+     *            The plugin.
+     * @param success
+     *            Whether the action succeeded.
+     */
+    private void complete(final PluginMeta meta, final boolean success) {
+        if (!success) {
+            this.failed.add(meta);
+        }
+
+        for (final PluginMeta successor : this.successors(meta)) {
+            final int predecessors = this.pending.get(successor) - 1;
+            this.pending.put(successor, predecessors);
+            if (predecessors > 0) {
+                continue;
+            }
+
+            final PluginMeta failedDependency = this.reverse ? null
+                    : this.graph.getRequiredDependencies(successor).stream().filter(this.failed::contains).findFirst()
+                            .orElse(null);
+            if (failedDependency == null) {
+                this.ready.add(successor);
+            } else {
+                this.errors.put(this.plugins.get(successor),
+                        new UnresolvableDependencyException(PluginDependencyGraph.describe(successor), "Dependency <"
+                                + PluginDependencyGraph.describe(failedDependency) + "> failed to " + this.actionName + "!"));
+                this.complete(successor, false);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param meta
+     *            The plugin.
+     * @return The plugins that have to be done before the given one.
+     */
+    private List<PluginMeta> predecessors(final PluginMeta meta) {
+        return this.reverse ? this.graph.getDependents(meta) : this.graph.getDependencies(meta);
+    }
+
+    /**
+     *
+     * @param meta
+     *            The plugin.
+     * @return The plugins that have to wait for the given one.
+     */
+    private List<PluginMeta> successors(final PluginMeta meta) {
+        return this.reverse ? this.graph.getDependencies(meta) : this.graph.getDependents(meta);
+    }
+
+    /**
+     * Applies the action to a single plugin and measures the duration.
+     *
+     */
+    private final class Task implements Callable<Void> {
+        /**
+         * The plugin.
+         *
+         */
+        private final PluginMeta meta;
+        /**
+         * Whether the action was started.
+         *
+         */
+        private volatile boolean started;
+        /**
+         * The value of {@link System#nanoTime()} when the action was started.
+         * Valid if {@link #started} is <code>true</code>.
+         *
+         */
+        private volatile long startNanos;
+        /**
+         * The value of {@link System#nanoTime()} when the action finished.
+         *
+         */
+        private volatile long endNanos;
+        /**
+         * Whether the action finished. Guarded by the task.
+         *
+         */
+        private boolean finished;
+        /**
+         * Whether the task was reported as timed out. Guarded by the task.
+         *
+         */
+        private boolean expired;
+
+        /**
+         * Constructor of Task.
+         *
+         * @param meta
+         *            {@link #meta}.
+         */
+        private Task(final PluginMeta meta) {
+            this.meta = meta;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.util.concurrent.Callable#call()
+         */
+        @Override
+        public Void call() {
+            this.startNanos = System.nanoTime();
+            this.started = true;
+            final Plugin plugin = PluginLifecycleExecutor.this.plugins.get(this.meta);
+            boolean success = false;
+            try {
+                PluginLifecycleExecutor.this.action.accept(plugin);
+                success = true;
+            } finally {
+                this.endNanos = System.nanoTime();
+                if (!this.finish() && success && PluginLifecycleExecutor.this.rollback != null) {
+                    PluginLifecycleExecutor.LOGGER.warn("Plugin <{}> finished to {} after its time budget, rolling back.", plugin,
+                            PluginLifecycleExecutor.this.actionName);
+
+                    PluginLifecycleExecutor.this.rollback.accept(plugin);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Marks this task as timed out unless it already finished.
+         *
+         * @return Whether the task was marked as timed out.
+         */
+        private synchronized boolean expire() {
+            if (this.finished) {
+                return false;
+            }
+            this.expired = true;
+            return true;
+        }
+
+        /**
+         * Marks this task as finished.
+         *
+         * @return Whether the task finished within its time budget (i.e. it
+         *         was not marked as timed out before).
+         */
+        private synchronized boolean finish() {
+            this.finished = true;
+            return !this.expired;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.Plugin;
+import com.dmken.oss.yapf.loader.PluginLoader;
+
+/**
+ * Shuts down all plugins of a {@link SimplePluginManager} within a global
+ * deadline.
+ *
+ * <p>
+ * The plugins are disabled and unloaded using
+ * {@link PluginLoader#unloadPlugin(Plugin)} concurrently in reverse
+ * dependency order, that is a plugin is shut down as soon as all plugins
+ * depending on it are shut down. Every plugin has a time budget (the
+ * {@link SimplePluginManager#getLifecycleTimeout(TimeUnit) lifecycle
+ * timeout}, bounded by the deadline). Plugins that fail or exceed
+ * their budget are released forcibly: Their implementations are revoked,
+ * they are marked as disabled and their class loaders are released (see
+ * {@link PluginLoader#releaseClassLoader(Plugin)}).
+ * The threads shutting down the plugins are daemon threads, so a hanging
+ * plugin does not prevent the JVM from exiting.
+ * </p>
+ *
+ */
+public class ShutdownCoordinator {
+    /**
+     * The logger.
+     *
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShutdownCoordinator.class);
+
+    /**
+     * The plugin manager managing the plugins to shut down.
+     *
+     */
+    private final SimplePluginManager pluginManager;
+    /**
+     * The plugin loader that loaded the plugins. May be <code>null</code> if
+     * the plugins were not loaded by a {@link PluginLoader}.
+     *
+     */
+    private final PluginLoader pluginLoader;
+
+    /**
+     * Constructor of ShutdownCoordinator.
+     *
+     * @param pluginManager
+     *            {@link #pluginManager}.
+     * @param pluginLoader
+     *            {@link #pluginLoader}.
+     */
+    public ShutdownCoordinator(final SimplePluginManager pluginManager, final PluginLoader pluginLoader) {
+        if (pluginManager == null) {
+            throw new IllegalArgumentException("PluginManager must not be null!");
+        }
+
+        this.pluginManager = pluginManager;
+        this.pluginLoader = pluginLoader;
+    }
+
+    /**
+     * Shuts down all plugins. All plugins are removed from the plugin manager
+     * afterwards, even if they failed or timed out.
+     *
+     * @param deadline
+     *            The time budget of the whole shutdown. Must be positive.
+     * @param unit
+     *            The unit of <code>deadline</code>.
+     * @return The report containing the duration per plugin, the errors and
+     *         the plugins that exceeded their budget.
+     */
+    public LifecycleReport shutdown(final long deadline, final TimeUnit unit) {
+        if (deadline <= 0) {
+            throw new IllegalArgumentException("Deadline must be positive!");
+        }
+
+        final List<Plugin> plugins = new ArrayList<>(this.pluginManager.getPlugins());
+        final long deadlineNanos = unit.toNanos(deadline);
+        final long timeoutNanos = Math.min(this.pluginManager.getLifecycleTimeout(TimeUnit.NANOSECONDS), deadlineNanos);
+        final LifecycleReport report = new PluginLifecycleExecutor(plugins, "shutdown", this::shutdown, true)
+                .run(this.pluginManager.getParallelism(), timeoutNanos, deadlineNanos, TimeUnit.NANOSECONDS);
+
+        for (final Plugin plugin : report.getErrors().keySet()) {
+            this.forceRelease(plugin);
+        }
+        for (final Plugin plugin : plugins) {
+            this.pluginManager.removePlugin(plugin);
+        }
+
+        if (!report.getTimedOut().isEmpty()) {
+            ShutdownCoordinator.LOGGER.warn("Plugins {} exceeded their shutdown budget and were released forcibly.",
+                    report.getTimedOut());
+        }
+        return report;
+    }
+
+    /**
+     * Shuts down the given plugin.
+     *
+     * @param plugin
+     *            The plugin to shut down.
+     */
+    private void shutdown(final Plugin plugin) {
+        this.pluginManager.disable(plugin);
+        if (this.pluginLoader == null) {
+            plugin.onUnload();
+        } else {
+            this.pluginLoader.unloadPlugin(plugin);
+        }
+    }
+
+    /**
+     * Forcibly releases the given plugin that failed to shut down or exceeded
+     * its budget (and may still be running).
+     *
+     * @param plugin
+     *            The plugin to release.
+     */
+    private void forceRelease(final Plugin plugin) {
+        this.pluginManager.revokeImplementations(plugin);
+        plugin.setEnabled(false);
+        if (this.pluginLoader != null) {
+            this.pluginLoader.releaseClassLoader(plugin);
+        }
+
+        ShutdownCoordinator.LOGGER.debug("Forcibly released plugin <{}>.", plugin);
+    }
+}
@@ -0,0 +1,1078 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.manager;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.Plugin;
+import com.dmken.oss.yapf.PluginManager;
+import com.dmken.oss.yapf.PluginMeta;
+import com.dmken.oss.yapf.PluginType;
+import com.dmken.oss.yapf.ServiceHandle;
+import com.dmken.oss.yapf.cache.Cacheable;
+import com.dmken.oss.yapf.cache.ResultCache;
+import com.dmken.oss.yapf.event.EventBus;
+import com.dmken.oss.yapf.exception.ImplementationConflictException;
+import com.dmken.oss.yapf.exception.MissingImplementationException;
+import com.dmken.oss.yapf.proxy.ForwardingProxy;
+import com.dmken.oss.yapf.proxy.ProxyFactory;
+import com.dmken.oss.yapf.proxy.ProxyMetrics;
+
+/**
+ * A simple, thread safe implementation of {@link PluginManager}.
+ *
+ * <p>
+ * The implementations are bound to their definitions using a
+ * {@link ClassValue}, so {@link #get(Class)} is a lock-free read of a volatile
+ * field. {@link #getHandle(Class) Handles} reference the binding directly and
+ * skip the lookup. Defining and revoking implementations is synchronized per
+ * definition. The definitions implemented by a plugin are tracked, so
+ * {@link #revokeImplementations(Plugin)} only touches the implementations of
+ * that plugin.
+ * </p>
+ *
+ * <p>
+ * Implementations of disabled plugins are never returned. Disabling a plugin
+ * revokes all of its implementations and unregisters its event listeners
+ * from the {@link #getEventBus() event bus} of this manager (the
+ * {@link EventBus#getDefault() default event bus} unless another one is
+ * given).
+ * </p>
+ *
+ * <p>
+ * If the manager is {@link #SimplePluginManager(boolean) instrumented}, every
+ * implementation of a public definition is wrapped in an instrumented proxy
+ * that records per-method call counts, errors and latencies (see
+ * {@link #getMetrics(Class)}). Otherwise, the implementations are handed out
+ * as they are.
+ * </p>
+ *
+ * <p>
+ * Implementations of definitions with {@link Cacheable cacheable} methods are
+ * wrapped in a caching proxy (see {@link ResultCache}). The cached results
+ * are invalidated when the implementation is revoked (which includes
+ * disabling its plugin).
+ * </p>
+ *
+ * <p>
+ * {@link #enableAll()} and {@link #disableAll()} process the plugins
+ * concurrently in dependency order (see
+ * {@link #enableAll(long, TimeUnit)}).
+ * </p>
+ *
+ * <p>
+ * Plugins can be reloaded without a gap in the implementations they provide
+ * using {@link #swap(Collection, Runnable)}.
+ * </p>
+ *
+ */
+public class SimplePluginManager implements PluginManager {
+    /**
+     * The logger.
+     *
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimplePluginManager.class);
+    /**
+     * The default time budget of a single plugin when enabling or disabling
+     * all plugins in seconds.
+     *
+     */
+    private static final long DEFAULT_LIFECYCLE_TIMEOUT = 30;
+
+    /**
+     * The bindings of the definitions.
+     *
+     */
+    private final ClassValue<Binding> bindings = new ClassValue<Binding>() {
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.ClassValue#computeValue(java.lang.Class)
+         */
+        @Override
+        protected Binding computeValue(final Class<?> type) {
+            return new Binding(type);
+        }
+    };
+    /**
+     * The registrations of all plugins that were added or that defined
+     * implementations.
+     *
+     */
+    private final Map<Plugin, Registration> registrations = new ConcurrentHashMap<>();
+    /**
+     * The added plugins (the key is created by {@link #key(String)}).
+     *
+     */
+    private final Map<String, Plugin> plugins = new ConcurrentHashMap<>();
+    /**
+     * Whether to instrument the implementations.
+     *
+     */
+    private final boolean instrumented;
+    /**
+     * The metrics of the instrumented definitions. They are kept if an
+     * implementation is revoked and redefined.
+     *
+     */
+    private final Map<Class<?>, ProxyMetrics> metrics = new ConcurrentHashMap<>();
+    /**
+     * The result caches of the definitions with cacheable methods. They are
+     * kept if an implementation is revoked and redefined (the cached results
+     * are not).
+     *
+     */
+    private final Map<Class<?>, ResultCache> resultCaches = new ConcurrentHashMap<>();
+    /**
+     * The maximum number of threads used for enabling and disabling all
+     * plugins.
+     *
+     */
+    private final int parallelism;
+    /**
+     * The time budget of a single plugin when enabling or disabling all
+     * plugins in nanoseconds (see {@link #enableAll()}).
+     *
+     */
+    private volatile long lifecycleTimeout = TimeUnit.SECONDS.toNanos(SimplePluginManager.DEFAULT_LIFECYCLE_TIMEOUT);
+    /**
+     * The plugins whose implementations are retained when they are revoked
+     * (see {@link #swap(Collection, Runnable)}). Its lock also guards
+     * {@link #retained}.
+     *
+     */
+    private final Set<Plugin> swapping = new HashSet<>();
+    /**
+     * The bindings whose implementations were retained during a swap. Guarded
+     * by the lock of {@link #swapping}.
+     *
+     */
+    private final Set<Binding> retained = new HashSet<>();
+    /**
+     * The event bus to register the listeners of the plugins on.
+     *
+     */
+    private final EventBus eventBus;
+
+    /**
+     * Constructor of SimplePluginManager. The implementations are not
+     * instrumented.
+     *
+     */
+    public SimplePluginManager() {
+        this(false);
+    }
+
+    /**
+     * Constructor of SimplePluginManager. Uses as many threads for enabling and
+     * disabling all plugins as processors are available.
+     *
+     * @param instrumented
+     *            {@link #instrumented}.
+     */
+    public SimplePluginManager(final boolean instrumented) {
+        this(instrumented, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor of SimplePluginManager.
+     *
+     * @param instrumented
+     *            {@link #instrumented}.
+     * @param parallelism
+     *            {@link #parallelism}. Must be positive.
+     */
+    public SimplePluginManager(final boolean instrumented, final int parallelism) {
+        this(instrumented, parallelism, EventBus.getDefault());
+    }
+
+    /**
+     * Constructor of SimplePluginManager.
+     *
+     * @param instrumented
+     *            {@link #instrumented}.
+     * @param parallelism
+     *            {@link #parallelism}. Must be positive.
+     * @param eventBus
+     *            {@link #eventBus}.
+     */
+    public SimplePluginManager(final boolean instrumented, final int parallelism, final EventBus eventBus) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive!");
+        }
+        if (eventBus == null) {
+            throw new IllegalArgumentException("EventBus must not be null!");
+        }
+
+        this.instrumented = instrumented;
+        this.parallelism = parallelism;
+        this.eventBus = eventBus;
+    }
+
+    /**
+     * Adds the given plugin to this manager.
+     *
+     * @param plugin
+     *            The plugin to add. The {@link Plugin#getPluginMeta() plugin
+     *            meta} must be initialized.
+     * @throws IllegalStateException
+     *             If a plugin with the same name and type was added already.
+     */
+    public void addPlugin(final Plugin plugin) {
+        if (plugin == null) {
+            throw new IllegalArgumentException("Plugin must not be null!");
+        }
+        final PluginMeta meta = plugin.getPluginMeta();
+        if (meta == null) {
+            throw new IllegalArgumentException("Plugin meta must be initialized!");
+        }
+
+        final String key = SimplePluginManager.key(meta.getName(), meta.getPluginType());
+        final Plugin previous = this.plugins.putIfAbsent(key, plugin);
+        if (previous != null && previous != plugin) {
+            throw new IllegalStateException(
+                    "Plugin <" + meta.getName() + "> of type " + meta.getPluginType() + " was already added!");
+        }
+        this.getRegistration(plugin);
+    }
+
+    /**
+     * Removes the given plugin from this manager. This revokes all of its
+     * implementations and drops the metrics and result caches of the
+     * definitions loaded by the class loader of the plugin (so the class
+     * loader can be garbage collected once the plugin is unloaded).
+     *
+     * @param plugin
+     *            The plugin to remove.
+     */
+    public void removePlugin(final Plugin plugin) {
+        if (plugin == null) {
+            throw new IllegalArgumentException("Plugin must not be null!");
+        }
+
+        this.revokeImplementations(plugin);
+        this.eventBus.unregisterAll(plugin);
+        final PluginMeta meta = plugin.getPluginMeta();
+        if (meta != null) {
+            this.plugins.remove(SimplePluginManager.key(meta.getName(), meta.getPluginType()), plugin);
+        }
+        this.registrations.remove(plugin);
+
+        final ClassLoader classLoader = plugin.getClass().getClassLoader();
+        if (classLoader != SimplePluginManager.class.getClassLoader()) {
+            this.metrics.keySet().removeIf(definition -> definition.getClassLoader() == classLoader);
+            this.resultCaches.keySet().removeIf(definition -> definition.getClassLoader() == classLoader);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.dmken.oss.yapf.PluginManager#disable(com.dmken.oss.yapf.Plugin)
+     */
+    @Override
+    public void disable(final Plugin plugin) {
+        if (plugin == null) {
+            throw new IllegalArgumentException("Plugin must not be null!");
+        }
+
+        synchronized (this.getRegistration(plugin)) {
+            if (!plugin.isEnabled()) {
+                return;
+            }
+
+            // The plugin is disabled even if onDisable fails, like enable
+            // rolls back if onEnable fails.
+            try {
+                plugin.onDisable();
+            } finally {
+                this.revokeImplementations(plugin);
+                this.eventBus.unregisterAll(plugin);
+                plugin.setEnabled(false);
+            }
+        }
+
+        SimplePluginManager.LOGGER.debug("Disabled plugin <{}>.", plugin);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.dmken.oss.yapf.PluginManager#enable(com.dmken.oss.yapf.Plugin)
+     */
+    @Override
+    public void enable(final Plugin plugin) {
+        if (plugin == null) {
+            throw new IllegalArgumentException("Plugin must not be null!");
+        }
+
+        synchronized (this.getRegistration(plugin)) {
+            if (plugin.isEnabled()) {
+                return;
+            }
+
+            // The plugin is enabled while onEnable runs so the implementations it
+            // defines are resolvable. Roll back if enabling fails.
+            plugin.setEnabled(true);
+            try {
+                plugin.onEnable();
+                this.eventBus.registerAnnotated(plugin, plugin);
+            } catch (final Throwable cause) {
+                this.revokeImplementations(plugin);
+                this.eventBus.unregisterAll(plugin);
+                plugin.setEnabled(false);
+
+                throw cause;
+            }
+        }
+
+        SimplePluginManager.LOGGER.debug("Enabled plugin <{}>.", plugin);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.dmken.oss.yapf.PluginManager#defineImplementation(com.dmken.oss.yapf.Plugin,
+     *      java.lang.Class, java.lang.Object)
+     */
+    @Override
+    public <T> void defineImplementation(final Plugin implementingPlugin, final Class<T> definition, final T implementation)
+            throws ImplementationConflictException {
+        if (implementingPlugin == null) {
+            throw new IllegalArgumentException("ImplementingPlugin must not be null!");
+        }
+        if (definition == null || !definition.isInterface()) {
+            throw new IllegalArgumentException("Definition must be an interface!");
+        }
+        if (!definition.isInstance(implementation)) {
+            throw new IllegalArgumentException("Implementation must implement the definition!");
+        }
+
+        final Registration registration = this.getRegistration(implementingPlugin);
+        final Binding binding = this.bindings.get(definition);
+        synchronized (binding) {
+            final Implementation current = binding.current;
+            if (current != null && !current.retained) {
+                throw new ImplementationConflictException("An implementation of <" + definition.getName()
+                        + "> does already exist (defined by " + current.plugin + ")!");
+            }
+
+            final T cached = this.cache(definition, implementation);
+            binding.setCurrent(new Implementation(implementingPlugin, cached, this.instrument(definition, cached), false));
+            registration.definitions.add(definition);
+        }
+
+        SimplePluginManager.LOGGER.debug("Defined implementation of <{}> by {}.", definition.getName(), implementingPlugin);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.dmken.oss.yapf.PluginManager#get(java.lang.Class)
+     */
+    // Checked by defineImplementation(...).
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T get(final Class<T> definition) throws MissingImplementationException {
+        if (definition == null) {
+            throw new IllegalArgumentException("Definition must not be null!");
+        }
+
+        return (T) this.bindings.get(definition).getImplementation();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.dmken.oss.yapf.PluginManager#getHandle(java.lang.Class)
+     */
+    @Override
+    public <T> ServiceHandle<T> getHandle(final Class<T> definition) {
+        if (definition == null) {
+            throw new IllegalArgumentException("Definition must not be null!");
+        }
+
+        return new BindingHandle<>(definition, this.bindings.get(definition));
+    }
+
+    /**
+     * Gets a proxy of the given <code>definition</code>. The proxy forwards
+     * all invocations to the current implementation (see
+     * {@link ProxyFactory}). If there is no implementation or its plugin is
+     * disabled, the invocations throw a
+     * {@link MissingImplementationException}.
+     *
+     * <p>
+     * There is exactly one proxy per definition, so it may be injected once
+     * and kept forever.
+     * </p>
+     *
+     * @param <T>
+     *            The type of the definition interface.
+     * @param definition
+     *            The definition interface. Must be public.
+     * @return The proxy.
+     */
+    public <T> T getProxy(final Class<T> definition) {
+        if (definition == null) {
+            throw new IllegalArgumentException("Definition must not be null!");
+        }
+
+        final Binding binding = this.bindings.get(definition);
+        ForwardingProxy proxy = binding.proxy;
+        if (proxy == null) {
+            synchronized (binding) {
+                proxy = binding.proxy;
+                if (proxy == null) {
+                    proxy = ProxyFactory.newForwardingProxy(definition);
+                    Binding.retarget(proxy, binding.current);
+                    binding.proxy = proxy;
+                }
+            }
+        }
+        return definition.cast(proxy);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.dmken.oss.yapf.PluginManager#revokeImplementation(java.lang.Class)
+     */
+    @Override
+    public <T> void revokeImplementation(final Class<T> definition) {
+        if (definition == null) {
+            throw new IllegalArgumentException("Definition must not be null!");
+        }
+
+        final Binding binding = this.bindings.get(definition);
+        synchronized (binding) {
+            final Implementation current = binding.current;
+            if (current == null) {
+                return;
+            }
+
+            final Registration registration = this.registrations.get(current.plugin);
+            if (registration != null) {
+                registration.definitions.remove(definition);
+            }
+            this.revoke(binding, current);
+        }
+
+        SimplePluginManager.LOGGER.debug("Revoked implementation of <{}>.", definition.getName());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.dmken.oss.yapf.PluginManager#revokeImplementations(com.dmken.oss.yapf.Plugin)
+     */
+    @Override
+    public void revokeImplementations(final Plugin implementingPlugin) {
+        if (implementingPlugin == null) {
+            throw new IllegalArgumentException("ImplementingPlugin must not be null!");
+        }
+
+        final Registration registration = this.registrations.get(implementingPlugin);
+        if (registration == null) {
+            return;
+        }
+        for (final Class<?> definition : registration.definitions) {
+            final Binding binding = this.bindings.get(definition);
+            synchronized (binding) {
+                final Implementation current = binding.current;
+                if (current != null && current.plugin == implementingPlugin) {
+                    this.revoke(binding, current);
+                }
+                registration.definitions.remove(definition);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.dmken.oss.yapf.PluginManager#getPlugin(java.lang.String)
+     */
+    @Override
+    public Optional<Plugin> getPlugin(final String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Name must not be null!");
+        }
+
+        final PluginType type = PluginType.parsePluginName(name);
+        return Optional.ofNullable(this.plugins.get(SimplePluginManager.key(type.extractPluginName(name), type)));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.dmken.oss.yapf.PluginManager#getPlugins()
+     */
+    @Override
+    public Collection<Plugin> getPlugins() {
+        return Collections.unmodifiableCollection(this.plugins.values());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Uses {@link #enableAll(long, TimeUnit)} with the
+     * {@link #setLifecycleTimeout(long, TimeUnit) lifecycle timeout}.
+     * </p>
+     *
+     * @see com.dmken.oss.yapf.PluginManager#enableAll()
+     */
+    @Override
+    public void enableAll() {
+        this.enableAll(this.lifecycleTimeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Enables all plugins concurrently in dependency order: A plugin is
+     * enabled as soon as all plugins it depends on are enabled, so independent
+     * plugins are enabled concurrently. If a plugin fails to enable or
+     * exceeds its time budget, the plugins that require it are not enabled. A
+     * plugin that finishes enabling after its time budget is disabled again.
+     *
+     * @param timeout
+     *            The time budget of every plugin. If exceeded, the enabling
+     *            thread is interrupted and the plugin is reported as timed
+     *            out.
+     * @param unit
+     *            The unit of <code>timeout</code>.
+     * @return The report containing the duration per plugin and the errors.
+     * @throws IllegalStateException
+     *             If the dependencies of the plugins can not be resolved.
+     */
+    public LifecycleReport enableAll(final long timeout, final TimeUnit unit) {
+        return new PluginLifecycleExecutor(this.getPlugins(), "enable", this::enable, this::disable, false).run(this.parallelism,
+                timeout, 0, unit);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Uses {@link #disableAll(long, TimeUnit)} with the
+     * {@link #setLifecycleTimeout(long, TimeUnit) lifecycle timeout}.
+     * </p>
+     *
+     * @see com.dmken.oss.yapf.PluginManager#disableAll()
+     */
+    @Override
+    public void disableAll() {
+        this.disableAll(this.lifecycleTimeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Disables all plugins concurrently in reverse dependency order: A plugin
+     * is disabled as soon as all plugins depending on it are disabled (or
+     * failed to disable).
+     *
+     * @param timeout
+     *            The time budget of every plugin. If exceeded, the disabling
+     *            thread is interrupted and the plugin is reported as timed
+     *            out.
+     * @param unit
+     *            The unit of <code>timeout</code>.
+     * @return The report containing the duration per plugin and the errors.
+     * @throws IllegalStateException
+     *             If the dependencies of the plugins can not be resolved.
+     */
+    public LifecycleReport disableAll(final long timeout, final TimeUnit unit) {
+        return new PluginLifecycleExecutor(this.getPlugins(), "disable", this::disable, true).run(this.parallelism, timeout, 0,
+                unit);
+    }
+
+    /**
+     *
+     * @return {@link #eventBus}.
+     */
+    public EventBus getEventBus() {
+        return this.eventBus;
+    }
+
+    /**
+     *
+     * @return {@link #parallelism}.
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     *
+     * @param unit
+     *            The time unit to return the timeout in.
+     * @return {@link #lifecycleTimeout}.
+     */
+    public long getLifecycleTimeout(final TimeUnit unit) {
+        return unit.convert(this.lifecycleTimeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     *
+     * @param timeout
+     *            {@link #lifecycleTimeout}. Must be positive.
+     * @param unit
+     *            The unit of <code>timeout</code>.
+     */
+    public void setLifecycleTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive!");
+        }
+
+        this.lifecycleTimeout = unit.toNanos(timeout);
+    }
+
+    /**
+     * Runs the given action as an atomic swap of the implementations of the
+     * given plugins. This is used to reload plugins: While the action runs,
+     * revoking an implementation of one of the given plugins (e.g. by
+     * disabling or removing the plugin) retains it, so it is still returned
+     * (even though its plugin is disabled). Defining an implementation of the
+     * same definition replaces the retained one in place under the lock of the
+     * binding instead of throwing an {@link ImplementationConflictException}.
+     * Thus, callers never see a missing implementation while the plugins are
+     * reloaded.
+     *
+     * <p>
+     * Retained implementations that were not replaced when the action finishes
+     * (e.g. because the reloaded plugin failed to load) are revoked.
+     * </p>
+     *
+     * @param replaced
+     *            The plugins whose implementations are retained.
+     * @param action
+     *            The action replacing the plugins.
+     */
+    public void swap(final Collection<? extends Plugin> replaced, final Runnable action) {
+        if (replaced == null) {
+            throw new IllegalArgumentException("Replaced must not be null!");
+        }
+        if (action == null) {
+            throw new IllegalArgumentException("Action must not be null!");
+        }
+
+        synchronized (this.swapping) {
+            this.swapping.addAll(replaced);
+        }
+        try {
+            action.run();
+        } finally {
+            final List<Binding> retainedBindings;
+            synchronized (this.swapping) {
+                this.swapping.removeAll(replaced);
+                retainedBindings = new ArrayList<>(this.retained);
+                this.retained.clear();
+            }
+            for (final Binding binding : retainedBindings) {
+                synchronized (binding) {
+                    final Implementation current = binding.current;
+                    if (current != null && current.retained) {
+                        this.revoke(binding, current);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the metrics of the given definition.
+     *
+     * @param definition
+     *            The definition interface.
+     * @return The metrics of the definition. Empty if this manager is not
+     *         instrumented or no implementation of the definition was defined
+     *         yet.
+     */
+    public Optional<ProxyMetrics> getMetrics(final Class<?> definition) {
+        if (definition == null) {
+            throw new IllegalArgumentException("Definition must not be null!");
+        }
+
+        return Optional.ofNullable(this.metrics.get(definition));
+    }
+
+    /**
+     *
+     * @return The metrics of all instrumented definitions.
+     */
+    public Collection<ProxyMetrics> getMetrics() {
+        return Collections.unmodifiableCollection(this.metrics.values());
+    }
+
+    /**
+     * Gets the result cache of the given definition.
+     *
+     * @param definition
+     *            The definition interface.
+     * @return The result cache of the definition (e.g. for its statistics).
+     *         Empty if the definition has no cacheable methods or no
+     *         implementation of the definition was defined yet.
+     */
+    public Optional<ResultCache> getResultCache(final Class<?> definition) {
+        if (definition == null) {
+            throw new IllegalArgumentException("Definition must not be null!");
+        }
+
+        return Optional.ofNullable(this.resultCaches.get(definition));
+    }
+
+    /**
+     *
+     * @return {@link #instrumented}.
+     */
+    public boolean isInstrumented() {
+        return this.instrumented;
+    }
+
+    /**
+     * Revokes the given implementation of the given binding. If a
+     * {@link #swap(Collection, Runnable) swap} of the implementing plugin is
+     * in progress, the implementation is retained instead. Must only be
+     * invoked while holding the lock of the binding.
+     *
+     * @param binding
+     *            The binding.
+     * @param current
+     *            The current implementation of the binding.
+     */
+    private void revoke(final Binding binding, final Implementation current) {
+        synchronized (this.swapping) {
+            if (this.swapping.contains(current.plugin)) {
+                if (!current.retained) {
+                    binding.setCurrent(new Implementation(current.plugin, current.implementation, current.exposed, true));
+                }
+                this.retained.add(binding);
+                return;
+            }
+        }
+        binding.setCurrent(null);
+    }
+
+    /**
+     * Wraps the given implementation in a caching proxy if the definition has
+     * cacheable methods.
+     *
+     * @param <T>
+     *            The type of the definition interface.
+     * @param definition
+     *            The definition interface.
+     * @param implementation
+     *            The implementation.
+     * @return The caching proxy or the implementation itself.
+     */
+    private <T> T cache(final Class<T> definition, final T implementation) {
+        if (!ResultCache.isCacheable(definition)) {
+            return implementation;
+        }
+
+        final ResultCache resultCache = this.resultCaches.computeIfAbsent(definition, ResultCache::new);
+        return definition.cast(resultCache.wrap(implementation));
+    }
+
+    /**
+     * Creates the object to hand out for the given implementation.
+     *
+     * @param <T>
+     *            The type of the definition interface.
+     * @param definition
+     *            The definition interface.
+     * @param implementation
+     *            The implementation.
+     * @return An instrumented proxy of the implementation if this manager is
+     *         instrumented and the definition is public, the implementation
+     *         itself otherwise.
+     */
+    private <T> T instrument(final Class<T> definition, final T implementation) {
+        if (!this.instrumented || !Modifier.isPublic(definition.getModifiers())) {
+            return implementation;
+        }
+
+        final ProxyMetrics definitionMetrics = this.metrics.computeIfAbsent(definition, ProxyMetrics::new);
+        return ProxyFactory.newInstrumentedProxy(definition, implementation, definitionMetrics);
+    }
+
+    /**
+     * Gets the registration of the given plugin, creating it if necessary.
+     *
+     * @param plugin
+     *            The plugin.
+     * @return The registration.
+     */
+    private Registration getRegistration(final Plugin plugin) {
+        return this.registrations.computeIfAbsent(plugin, dummy -> new Registration());
+    }
+
+    /**
+     * Creates the key of the given plugin name and type for {@link #plugins}.
+     *
+     * @param name
+     *            The plugin name (without suffix).
+     * @param type
+     *            The plugin type.
+     * @return The key.
+     */
+    private static String key(final String name, final PluginType type) {
+        return name + '\0' + type.name();
+    }
+
+    /**
+     * The binding of a definition to its implementation.
+     *
+     */
+    private static final class Binding {
+        /**
+         * The definition.
+         *
+         */
+        private final Class<?> definition;
+        /**
+         * The current implementation. <code>null</code> if there is none. Only
+         * written while holding the lock of this binding.
+         *
+         */
+        private volatile Implementation current;
+        /**
+         * The proxy of {@link #definition}. <code>null</code> if it was not
+         * requested yet. Only written while holding the lock of this binding.
+         *
+         */
+        private volatile ForwardingProxy proxy;
+
+        /**
+         * Constructor of Binding.
+         *
+         * @param definition
+         *            {@link #definition}.
+         */
+        private Binding(final Class<?> definition) {
+            this.definition = definition;
+        }
+
+        /**
+         * Sets the current implementation, invalidates the cached results of
+         * the previous one and updates the target of the proxy. Must only be
+         * invoked while holding the lock of this binding.
+         *
+         * @param current
+         *            {@link #current}.
+         */
+        private void setCurrent(final Implementation current) {
+            final Implementation previous = this.current;
+            if (previous != null && (current == null || previous.implementation != current.implementation)) {
+                ResultCache.invalidate(previous.implementation);
+            }
+            this.current = current;
+            final ForwardingProxy proxy = this.proxy;
+            if (proxy != null) {
+                Binding.retarget(proxy, current);
+            }
+        }
+
+        /**
+         * Sets the target of the given proxy to the given implementation. Like
+         * {@link #getImplementation()}, the proxy fails while the plugin of the
+         * implementation is disabled (unless the implementation is retained).
+         *
+         * @param proxy
+         *            The proxy.
+         * @param implementation
+         *            The implementation. May be <code>null</code>.
+         */
+        private static void retarget(final ForwardingProxy proxy, final Implementation implementation) {
+            if (implementation == null) {
+                proxy.setTarget(null);
+            } else {
+                proxy.setTarget(implementation.exposed, implementation.retained ? null : implementation.plugin);
+            }
+        }
+
+        /**
+         * Gets the current implementation.
+         *
+         * @return The current implementation.
+         * @throws MissingImplementationException
+         *             If there is no implementation or its plugin is disabled
+         *             (and the implementation is not retained).
+         */
+        private Object getImplementation() throws MissingImplementationException {
+            Implementation implementation = this.current;
+            while (implementation != null && !implementation.retained && !implementation.plugin.isEnabled()) {
+                // The implementation is revoked before its plugin is disabled,
+                // so it may have been retained (or replaced) in the meantime.
+                final Implementation latest = this.current;
+                if (latest == implementation) {
+                    throw new MissingImplementationException("The implementation of <" + this.definition.getName()
+                            + "> is provided by the disabled plugin " + implementation.plugin + "!");
+                }
+                implementation = latest;
+            }
+            if (implementation == null) {
+                throw new MissingImplementationException("No implementation of <" + this.definition.getName() + "> found!");
+            }
+            return implementation.exposed;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "Binding[" + this.definition.getName() + "]";
+        }
+    }
+
+    /**
+     * An implementation and the plugin that defined it.
+     *
+     */
+    private static final class Implementation {
+        /**
+         * The plugin that defined {@link #implementation}.
+         *
+         */
+        private final Plugin plugin;
+        /**
+         * The implementation (wrapped in a caching proxy if the definition
+         * has cacheable methods).
+         *
+         */
+        private final Object implementation;
+        /**
+         * The object handed out for {@link #implementation}. This is either
+         * an instrumented proxy or the implementation itself.
+         *
+         */
+        private final Object exposed;
+        /**
+         * Whether the implementation was revoked during a
+         * {@link SimplePluginManager#swap(Collection, Runnable) swap} and is
+         * only retained until it is replaced.
+         *
+         */
+        private final boolean retained;
+
+        /**
+         * Constructor of Implementation.
+         *
+         * @param plugin
+         *            {@link #plugin}.
+         * @param implementation
+         *            {@link #implementation}.
+         * @param exposed
+         *            {@link #exposed}.
+         * @param retained
+         *            {@link #retained}.
+         */
+        private Implementation(final Plugin plugin, final Object implementation, final Object exposed,
+                final boolean retained) {
+            this.plugin = plugin;
+            this.implementation = implementation;
+            this.exposed = exposed;
+            this.retained = retained;
+        }
+    }
+
+    /**
+     * A {@link ServiceHandle} referencing the binding of its definition
+     * directly.
+     *
+     * @param <T>
+     *            The type of the definition interface.
+     */
+    private static final class BindingHandle<T> implements ServiceHandle<T> {
+        /**
+         * The definition.
+         *
+         */
+        private final Class<T> definition;
+        /**
+         * The binding of {@link #definition}.
+         *
+         */
+        private final Binding binding;
+
+        /**
+         * Constructor of BindingHandle.
+         *
+         * @param definition
+         *            {@link #definition}.
+         * @param binding
+         *            {@link #binding}.
+         */
+        private BindingHandle(final Class<T> definition, final Binding binding) {
+            this.definition = definition;
+            this.binding = binding;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see com.dmken.oss.yapf.ServiceHandle#getDefinition()
+         */
+        @Override
+        public Class<T> getDefinition() {
+            return this.definition;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see com.dmken.oss.yapf.ServiceHandle#get()
+         */
+        // Checked by defineImplementation(...).
+        @SuppressWarnings("unchecked")
+        @Override
+        public T get() throws MissingImplementationException {
+            return (T) this.binding.getImplementation();
+        }
+    }
+
+    /**
+     * The registration of a plugin. Its lock is held while the plugin is
+     * enabled or disabled.
+     *
+     */
+    private static final class Registration {
+        /**
+         * The definitions implemented by the plugin.
+         *
+         */
+        private final Set<Class<?>> definitions = ConcurrentHashMap.newKeySet();
+    }
+}
@@ -0,0 +1,391 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.meta;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.dmken.oss.yapf.PluginMeta;
+import com.dmken.oss.yapf.PluginType;
+import com.dmken.oss.yapf.meta.exception.MalformedPluginMetaException;
+import com.dmken.oss.yapf.meta.exception.UnresolvableDependencyException;
+
+/**
+ * The dependency graph of a set of plugins described by their
+ * {@link PluginMeta metas}.
+ *
+ * <p>
+ * Dependencies ({@link PluginMeta#getDependencies()} and
+ * {@link PluginMeta#getOptionalDependencies()}) are resolved as follows:
+ * </p>
+ * <ul>
+ * <li>A dependency with a {@link PluginType type} suffix (e.g.
+ * <code>foo-api</code>) refers to the plugin with that name and type.</li>
+ * <li>A dependency without a suffix (e.g. <code>foo</code>) refers to all
+ * plugins with that name (e.g. <code>foo</code>, <code>foo-api</code> and
+ * <code>foo-impl</code>).</li>
+ * <li>Every {@link PluginType#IMPLEMENTATION implementation} plugin optionally
+ * depends on the {@link PluginType#SPECIFICATION specification} plugin with
+ * the same name.</li>
+ * </ul>
+ *
+ * <p>
+ * Missing (required) dependencies and dependency cycles are detected when the
+ * graph is {@link #build(Collection) built}.
+ * </p>
+ *
+ */
+public class PluginDependencyGraph {
+    /**
+     * The plugin metas in the order they were given.
+     *
+     */
+    private final List<PluginMeta> pluginMetas;
+    /**
+     * The resolved dependencies (required and optional) per plugin.
+     *
+     */
+    private final Map<PluginMeta, List<PluginMeta>> dependencies;
+    /**
+     * The resolved required dependencies per plugin.
+     *
+     */
+    private final Map<PluginMeta, List<PluginMeta>> requiredDependencies;
+    /**
+     * The plugins depending (required or optional) on a plugin.
+     *
+     */
+    private final Map<PluginMeta, List<PluginMeta>> dependents;
+    /**
+     * The topologically sorted waves of plugins.
+     *
+     */
+    private final List<List<PluginMeta>> waves;
+
+    /**
+     * Constructor of PluginDependencyGraph.
+     *
+     * @param pluginMetas
+     *            {@link #pluginMetas}.
+     * @param dependencies
+     *            {@link #dependencies}.
+     * @param requiredDependencies
+     *            {@link #requiredDependencies}.
+     * @param dependents
+     *            {@link #dependents}.
+     * @param waves
+     *            {@link #waves}.
+     */
+    private PluginDependencyGraph(final List<PluginMeta> pluginMetas, final Map<PluginMeta, List<PluginMeta>> dependencies,
+            final Map<PluginMeta, List<PluginMeta>> requiredDependencies, final Map<PluginMeta, List<PluginMeta>> dependents,
+            final List<List<PluginMeta>> waves) {
+        this.pluginMetas = pluginMetas;
+        this.dependencies = dependencies;
+        this.requiredDependencies = requiredDependencies;
+        this.dependents = dependents;
+        this.waves = waves;
+    }
+
+    /**
+     * Builds the dependency graph of the given plugins.
+     *
+     * @param pluginMetas
+     *            The plugins to build the graph of. Must be
+     *            {@link PluginMeta#isValid(PluginMeta) valid}.
+     * @return The dependency graph.
+     * @throws UnresolvableDependencyException
+     *             If a required dependency is missing or the dependencies
+     *             contain a cycle.
+     * @throws MalformedPluginMetaException
+     *             If a plugin is contained twice.
+     */
+    public static PluginDependencyGraph build(final Collection<? extends PluginMeta> pluginMetas)
+            throws MalformedPluginMetaException {
+        if (pluginMetas == null) {
+            throw new IllegalArgumentException("PluginMetas must not be null!");
+        }
+
+        // Index the plugins by name and by name and type.
+        final List<PluginMeta> metas = new ArrayList<>(pluginMetas.size());
+        final Map<String, List<PluginMeta>> byName = new HashMap<>();
+        final Map<String, PluginMeta> byNameAndType = new HashMap<>();
+        for (final PluginMeta meta : pluginMetas) {
+            if (!PluginMeta.isValid(meta)) {
+                throw new IllegalArgumentException("Meta must be valid!");
+            }
+            if (byNameAndType.putIfAbsent(PluginDependencyGraph.key(meta.getName(), meta.getPluginType()), meta) != null) {
+                throw new MalformedPluginMetaException(PluginDependencyGraph.describe(meta), "Duplicate plugin!");
+            }
+            byName.computeIfAbsent(meta.getName(), dummy -> new ArrayList<>()).add(meta);
+            metas.add(meta);
+        }
+
+        // Resolve the dependencies.
+        final Map<PluginMeta, List<PluginMeta>> dependencies = new IdentityHashMap<>();
+        final Map<PluginMeta, List<PluginMeta>> requiredDependencies = new IdentityHashMap<>();
+        final Map<PluginMeta, List<PluginMeta>> dependents = new IdentityHashMap<>();
+        for (final PluginMeta meta : metas) {
+            final Set<PluginMeta> all = new LinkedHashSet<>();
+            final Set<PluginMeta> required = new LinkedHashSet<>();
+            for (final String dependency : meta.getDependencies()) {
+                final List<PluginMeta> resolved = PluginDependencyGraph.resolve(dependency, byName, byNameAndType);
+                if (resolved.isEmpty()) {
+                    throw new UnresolvableDependencyException(PluginDependencyGraph.describe(meta),
+                            "Missing dependency <" + dependency + ">!");
+                }
+                required.addAll(resolved);
+                all.addAll(resolved);
+            }
+            for (final String dependency : meta.getOptionalDependencies()) {
+                all.addAll(PluginDependencyGraph.resolve(dependency, byName, byNameAndType));
+            }
+            if (meta.getPluginType() == PluginType.IMPLEMENTATION) {
+                final PluginMeta specification = byNameAndType
+                        .get(PluginDependencyGraph.key(meta.getName(), PluginType.SPECIFICATION));
+                if (specification != null) {
+                    all.add(specification);
+                }
+            }
+            all.remove(meta);
+            required.remove(meta);
+
+            dependencies.put(meta, Collections.unmodifiableList(new ArrayList<>(all)));
+            requiredDependencies.put(meta, Collections.unmodifiableList(new ArrayList<>(required)));
+            dependents.put(meta, new ArrayList<>());
+        }
+        for (final PluginMeta meta : metas) {
+            for (final PluginMeta dependency : dependencies.get(meta)) {
+                dependents.get(dependency).add(meta);
+            }
+        }
+        for (final Map.Entry<PluginMeta, List<PluginMeta>> entry : dependents.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+
+        // Sort the plugins topologically into waves (Kahn's algorithm).
+        final List<List<PluginMeta>> waves = new ArrayList<>();
+        final Map<PluginMeta, Integer> inDegrees = new IdentityHashMap<>();
+        List<PluginMeta> wave = new ArrayList<>();
+        for (final PluginMeta meta : metas) {
+            final int inDegree = dependencies.get(meta).size();
+            inDegrees.put(meta, inDegree);
+            if (inDegree == 0) {
+                wave.add(meta);
+            }
+        }
+        int sorted = 0;
+        while (!wave.isEmpty()) {
+            waves.add(Collections.unmodifiableList(wave));
+            sorted += wave.size();
+
+            final List<PluginMeta> nextWave = new ArrayList<>();
+            for (final PluginMeta meta : wave) {
+                for (final PluginMeta dependent : dependents.get(meta)) {
+                    final int inDegree = inDegrees.get(dependent) - 1;
+                    inDegrees.put(dependent, inDegree);
+                    if (inDegree == 0) {
+                        nextWave.add(dependent);
+                    }
+                }
+            }
+            wave = nextWave;
+        }
+        if (sorted < metas.size()) {
+            final List<PluginMeta> cycle = PluginDependencyGraph.findCycle(metas, dependencies, inDegrees);
+            final StringBuilder message = new StringBuilder("Dependency cycle: ");
+            for (final PluginMeta meta : cycle) {
+                message.append(PluginDependencyGraph.describe(meta)).append(" -> ");
+            }
+            message.append(PluginDependencyGraph.describe(cycle.get(0))).append('!');
+            throw new UnresolvableDependencyException(PluginDependencyGraph.describe(cycle.get(0)), message.toString());
+        }
+
+        return new PluginDependencyGraph(Collections.unmodifiableList(metas), dependencies, requiredDependencies, dependents,
+                Collections.unmodifiableList(waves));
+    }
+
+    /**
+     * Describes the given plugin for messages (that is its name including the
+     * type suffix).
+     *
+     * @param meta
+     *            The plugin to describe.
+     * @return The description.
+     */
+    public static String describe(final PluginMeta meta) {
+        final String[] suffixes = meta.getPluginType().getSuffixes();
+        return suffixes.length == 0 ? meta.getName() : meta.getName() + suffixes[0];
+    }
+
+    /**
+     *
+     * @return All plugins in the order they were given.
+     */
+    public List<PluginMeta> getPluginMetas() {
+        return this.pluginMetas;
+    }
+
+    /**
+     * Gets the topologically sorted waves of plugins. All plugins of a wave
+     * only depend on plugins of previous waves, that is all plugins of a wave
+     * can be processed concurrently once the previous waves are done.
+     *
+     * @return The waves.
+     */
+    public List<List<PluginMeta>> getWaves() {
+        return this.waves;
+    }
+
+    /**
+     * Gets the resolved (required and optional) dependencies of the given
+     * plugin.
+     *
+     * @param meta
+     *            The plugin (must be contained in the graph).
+     * @return The dependencies.
+     */
+    public List<PluginMeta> getDependencies(final PluginMeta meta) {
+        return this.get(this.dependencies, meta);
+    }
+
+    /**
+     * Gets the resolved required dependencies of the given plugin.
+     *
+     * @param meta
+     *            The plugin (must be contained in the graph).
+     * @return The required dependencies.
+     */
+    public List<PluginMeta> getRequiredDependencies(final PluginMeta meta) {
+        return this.get(this.requiredDependencies, meta);
+    }
+
+    /**
+     * Gets the plugins that depend (required or optional) on the given
+     * plugin.
+     *
+     * @param meta
+     *            The plugin (must be contained in the graph).
+     * @return The dependents.
+     */
+    public List<PluginMeta> getDependents(final PluginMeta meta) {
+        return this.get(this.dependents, meta);
+    }
+
+    /**
+     * Gets the value for the given plugin from the given map.
+     *
+     * @param map
+     *            The map.
+     * @param meta
+     *            The plugin.
+     * @return The value.
+     */
+    private List<PluginMeta> get(final Map<PluginMeta, List<PluginMeta>> map, final PluginMeta meta) {
+        final List<PluginMeta> result = map.get(meta);
+        if (result == null) {
+            throw new IllegalArgumentException("Meta is not part of the graph!");
+        }
+        return result;
+    }
+
+    /**
+     * Resolves the given dependency.
+     *
+     * @param dependency
+     *            The dependency to resolve.
+     * @param byName
+     *            The plugins by name.
+     * @param byNameAndType
+     *            The plugins by {@link #key(String, PluginType)}.
+     * @return The resolved plugins (may be empty).
+     */
+    private static List<PluginMeta> resolve(final String dependency, final Map<String, List<PluginMeta>> byName,
+            final Map<String, PluginMeta> byNameAndType) {
+        final PluginType type = PluginType.parsePluginName(dependency);
+        final String name = type.extractPluginName(dependency);
+        if (type == PluginType.REGULAR) {
+            return byName.getOrDefault(name, Collections.emptyList());
+        }
+        final PluginMeta meta = byNameAndType.get(PluginDependencyGraph.key(name, type));
+        return meta == null ? Collections.emptyList() : Collections.singletonList(meta);
+    }
+
+    /**
+     * Creates the index key of the given plugin name and type.
+     *
+     * @param name
+     *            The plugin name (without suffix).
+     * @param type
+     *            The plugin type.
+     * @return The key.
+     */
+    private static String key(final String name, final PluginType type) {
+        return name + '\0' + type.name();
+    }
+
+    /**
+     * Finds a cycle in the plugins that could not be sorted topologically.
+     *
+     * @param metas
+     *            All plugins.
+     * @param dependencies
+     *            The dependencies per plugin.
+     * @param inDegrees
+     *            The remaining in-degrees after sorting. Plugins with a
+     *            positive in-degree are part of or depend on a cycle.
+     * @return The plugins forming the cycle (each depending on the next one
+     *         and the last one depending on the first one).
+     */
+    private static List<PluginMeta> findCycle(final List<PluginMeta> metas, final Map<PluginMeta, List<PluginMeta>> dependencies,
+            final Map<PluginMeta, Integer> inDegrees) {
+        // Every unsorted plugin has an unsorted dependency, so following them
+        // eventually runs into a cycle.
+        PluginMeta current = null;
+        for (final PluginMeta meta : metas) {
+            if (inDegrees.get(meta) > 0) {
+                current = meta;
+                break;
+            }
+        }
+        final Map<PluginMeta, Integer> visited = new LinkedHashMap<>();
+        final Deque<PluginMeta> path = new ArrayDeque<>();
+        while (!visited.containsKey(current)) {
+            visited.put(current, path.size());
+            path.addLast(current);
+            for (final PluginMeta dependency : dependencies.get(current)) {
+                if (inDegrees.get(dependency) > 0) {
+                    current = dependency;
+                    break;
+                }
+            }
+        }
+        return new ArrayList<>(path).subList(visited.get(current), path.size());
+    }
+}
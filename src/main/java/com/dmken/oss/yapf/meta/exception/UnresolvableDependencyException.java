@@ -0,0 +1,33 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.meta.exception;
+
+@SuppressWarnings("javadoc")
+public class UnresolvableDependencyException extends MalformedPluginMetaException {
+    private static final long serialVersionUID = -4316806297458069583L;
+
+    public UnresolvableDependencyException(final String pluginName, final String message, final Throwable cause) {
+        super(pluginName, message, cause);
+    }
+
+    public UnresolvableDependencyException(final String pluginName, final String message) {
+        super(pluginName, message);
+    }
+}
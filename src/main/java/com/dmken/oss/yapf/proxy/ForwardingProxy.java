@@ -0,0 +1,173 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.proxy;
+
+import com.dmken.oss.yapf.Plugin;
+import com.dmken.oss.yapf.exception.MissingImplementationException;
+
+/**
+ * The base class of all generated proxies (see {@link ProxyFactory}). A proxy
+ * implements a definition interface and forwards all invocations to its
+ * current {@link #getTarget() target}. The target may be swapped at any time.
+ * If the target is provided by a plugin, invocations fail while that plugin is
+ * disabled.
+ *
+ * <p>
+ * <b> NOTE: Do not extend this class manually! </b>
+ * </p>
+ *
+ */
+public abstract class ForwardingProxy {
+    /**
+     * The definition interface implemented by this proxy.
+     *
+     */
+    private final Class<?> definition;
+    /**
+     * The current target and the plugin providing it (both are swapped
+     * together). <code>null</code> if there is none.
+     *
+     */
+    private volatile Target target;
+
+    /**
+     * Constructor of ForwardingProxy.
+     *
+     * @param definition
+     *            {@link #definition}.
+     */
+    protected ForwardingProxy(final Class<?> definition) {
+        this.definition = definition;
+    }
+
+    /**
+     * Gets the current target. Invoked by the generated methods for every
+     * invocation.
+     *
+     * @return The current target.
+     * @throws MissingImplementationException
+     *             If there is no target or the plugin providing it is
+     *             disabled.
+     */
+    protected final Object target() throws MissingImplementationException {
+        Target current = this.target;
+        while (current != null && current.plugin != null && !current.plugin.isEnabled()) {
+            // The target is replaced before its plugin is disabled, so it may
+            // have been swapped in the meantime.
+            final Target latest = this.target;
+            if (latest == current) {
+                throw new MissingImplementationException("The implementation of <" + this.definition.getName()
+                        + "> is provided by the disabled plugin " + current.plugin + "!");
+            }
+            current = latest;
+        }
+        if (current == null) {
+            throw new MissingImplementationException("No implementation of <" + this.definition.getName() + "> available!");
+        }
+        return current.object;
+    }
+
+    /**
+     *
+     * @return {@link #definition}.
+     */
+    public final Class<?> getDefinition() {
+        return this.definition;
+    }
+
+    /**
+     *
+     * @return The current target. May be <code>null</code>.
+     */
+    public final Object getTarget() {
+        final Target current = this.target;
+        return current == null ? null : current.object;
+    }
+
+    /**
+     *
+     * @param target
+     *            The target. Must implement the {@link #definition}. May be
+     *            <code>null</code> to unset the target.
+     */
+    public final void setTarget(final Object target) {
+        this.setTarget(target, null);
+    }
+
+    /**
+     * Sets the target that is provided by the given plugin. Invocations throw
+     * a {@link MissingImplementationException} while the plugin is disabled.
+     *
+     * @param target
+     *            The target. Must implement the {@link #definition}. May be
+     *            <code>null</code> to unset the target.
+     * @param plugin
+     *            The plugin providing the target. May be <code>null</code> if
+     *            the target is available regardless of any plugin.
+     */
+    public final void setTarget(final Object target, final Plugin plugin) {
+        if (target != null && !this.definition.isInstance(target)) {
+            throw new IllegalArgumentException("Target must implement the definition!");
+        }
+
+        this.target = target == null ? null : new Target(target, plugin);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "Proxy[" + this.definition.getName() + " -> " + this.getTarget() + "]";
+    }
+
+    /**
+     * A target and the plugin providing it.
+     *
+     */
+    private static final class Target {
+        /**
+         * The target.
+         *
+         */
+        private final Object object;
+        /**
+         * The plugin providing {@link #object}. <code>null</code> if the
+         * target is available regardless of any plugin.
+         *
+         */
+        private final Plugin plugin;
+
+        /**
+         * Constructor of Target.
+         *
+         * @param object
+         *            {@link #object}.
+         * @param plugin
+         *            {@link #plugin}.
+         */
+        private Target(final Object object, final Plugin plugin) {
+            this.object = object;
+            this.plugin = plugin;
+        }
+    }
+}
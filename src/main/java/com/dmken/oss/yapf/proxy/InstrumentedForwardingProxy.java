@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.proxy;
+
+/**
+ * The base class of all generated instrumented proxies (see
+ * {@link ProxyFactory#newInstrumentedProxy(Class, Object, ProxyMetrics)}).
+ * Every invocation is recorded in the {@link #getMetrics() metrics} of the
+ * proxy.
+ *
+ * <p>
+ * <b> NOTE: Do not extend this class manually! </b>
+ * </p>
+ *
+ */
+public abstract class InstrumentedForwardingProxy extends ForwardingProxy {
+    /**
+     * The metrics to record the invocations in.
+     *
+     */
+    private final ProxyMetrics metrics;
+
+    /**
+     * Constructor of InstrumentedForwardingProxy.
+     *
+     * @param definition
+     *            The definition interface implemented by this proxy.
+     * @param metrics
+     *            {@link #metrics}.
+     */
+    protected InstrumentedForwardingProxy(final Class<?> definition, final ProxyMetrics metrics) {
+        super(definition);
+
+        this.metrics = metrics;
+    }
+
+    /**
+     * Records a successful invocation. Invoked by the generated methods.
+     *
+     * @param method
+     *            The index of the invoked method.
+     * @param start
+     *            The value of {@link System#nanoTime()} before the invocation.
+     */
+    protected final void record(final int method, final long start) {
+        this.metrics.record(method, System.nanoTime() - start, false);
+    }
+
+    /**
+     * Records a failed invocation. Invoked by the generated methods.
+     *
+     * @param method
+     *            The index of the invoked method.
+     * @param start
+     *            The value of {@link System#nanoTime()} before the invocation.
+     */
+    protected final void recordError(final int method, final long start) {
+        this.metrics.record(method, System.nanoTime() - start, true);
+    }
+
+    /**
+     *
+     * @return {@link #metrics}.
+     */
+    public final ProxyMetrics getMetrics() {
+        return this.metrics;
+    }
+}
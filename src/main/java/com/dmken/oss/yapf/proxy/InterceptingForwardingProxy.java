@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.proxy;
+
+import com.dmken.oss.yapf.exception.MissingImplementationException;
+
+/**
+ * The base class of all generated intercepting proxies (see
+ * {@link ProxyFactory#newInterceptingProxySupplier(Class, java.util.Collection)}).
+ * The intercepted methods are forwarded to the {@link #getInterceptor()
+ * interceptor}, all other methods are forwarded to the target directly.
+ *
+ * <p>
+ * <b> NOTE: Do not extend this class manually! </b>
+ * </p>
+ *
+ */
+public abstract class InterceptingForwardingProxy extends ForwardingProxy {
+    /**
+     * The object the intercepted methods are forwarded to. <code>null</code>
+     * if there is none.
+     *
+     */
+    private volatile Object interceptor;
+
+    /**
+     * Constructor of InterceptingForwardingProxy.
+     *
+     * @param definition
+     *            The definition interface implemented by this proxy.
+     */
+    protected InterceptingForwardingProxy(final Class<?> definition) {
+        super(definition);
+    }
+
+    /**
+     * Gets the current interceptor. Invoked by the generated methods for
+     * every invocation of an intercepted method.
+     *
+     * @return The current interceptor.
+     * @throws MissingImplementationException
+     *             If there is no interceptor.
+     */
+    protected final Object interceptor() throws MissingImplementationException {
+        final Object current = this.interceptor;
+        if (current == null) {
+            throw new MissingImplementationException("No interceptor of <" + this.getDefinition().getName() + "> available!");
+        }
+        return current;
+    }
+
+    /**
+     *
+     * @return {@link #interceptor}. May be <code>null</code>.
+     */
+    public final Object getInterceptor() {
+        return this.interceptor;
+    }
+
+    /**
+     *
+     * @param interceptor
+     *            {@link #interceptor}. Must implement the definition. May be
+     *            <code>null</code> to unset the interceptor.
+     */
+    public final void setInterceptor(final Object interceptor) {
+        if (interceptor != null && !this.getDefinition().isInstance(interceptor)) {
+            throw new IllegalArgumentException("Interceptor must implement the definition!");
+        }
+
+        this.interceptor = interceptor;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Uses the interceptor (e.g. a cache of the target) if there is one as it
+     * describes the proxy best.
+     * </p>
+     *
+     * @see com.dmken.oss.yapf.proxy.ForwardingProxy#toString()
+     */
+    @Override
+    public String toString() {
+        final Object current = this.interceptor;
+        return current == null ? super.toString() : current.toString();
+    }
+}
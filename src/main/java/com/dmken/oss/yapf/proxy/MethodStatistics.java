@@ -0,0 +1,235 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable snapshot of the invocation metrics of a single method (see
+ * {@link ProxyMetrics#snapshot()}).
+ *
+ */
+public final class MethodStatistics {
+    /**
+     * The name of the method.
+     *
+     */
+    private final String name;
+    /**
+     * The signature of the method (name and descriptor).
+     *
+     */
+    private final String signature;
+    /**
+     * The number of calls.
+     *
+     */
+    private final long calls;
+    /**
+     * The number of calls that threw an exception.
+     *
+     */
+    private final long errors;
+    /**
+     * The total duration of all calls in nanoseconds.
+     *
+     */
+    private final long totalNanos;
+    /**
+     * The maximum duration of a call in nanoseconds.
+     *
+     */
+    private final long maxNanos;
+    /**
+     * The latency histogram (see {@link ProxyMetrics#BUCKETS}).
+     *
+     */
+    private final long[] buckets;
+
+    /**
+     * Constructor of MethodStatistics.
+     *
+     * @param name
+     *            {@link #name}.
+     * @param signature
+     *            {@link #signature}.
+     * @param calls
+     *            {@link #calls}.
+     * @param errors
+     *            {@link #errors}.
+     * @param totalNanos
+     *            {@link #totalNanos}.
+     * @param maxNanos
+     *            {@link #maxNanos}.
+     * @param buckets
+     *            {@link #buckets}.
+     */
+    MethodStatistics(final String name, final String signature, final long calls, final long errors, final long totalNanos,
+            final long maxNanos, final long[] buckets) {
+        this.name = name;
+        this.signature = signature;
+        this.calls = calls;
+        this.errors = errors;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Merges this and the given statistics (e.g. of overloaded methods).
+     *
+     * @param other
+     *            The other statistics.
+     * @return The merged statistics. The signature is the one of this
+     *         statistics.
+     */
+    MethodStatistics merge(final MethodStatistics other) {
+        final long[] mergedBuckets = new long[this.buckets.length];
+        for (int i = 0; i < mergedBuckets.length; i++) {
+            mergedBuckets[i] = this.buckets[i] + other.buckets[i];
+        }
+        return new MethodStatistics(this.name, this.signature, this.calls + other.calls, this.errors + other.errors,
+                this.totalNanos + other.totalNanos, Math.max(this.maxNanos, other.maxNanos), mergedBuckets);
+    }
+
+    /**
+     *
+     * @return {@link #name}.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     *
+     * @return {@link #signature}.
+     */
+    public String getSignature() {
+        return this.signature;
+    }
+
+    /**
+     *
+     * @return {@link #calls}.
+     */
+    public long getCalls() {
+        return this.calls;
+    }
+
+    /**
+     *
+     * @return {@link #errors}.
+     */
+    public long getErrors() {
+        return this.errors;
+    }
+
+    /**
+     *
+     * @param unit
+     *            The time unit to return the time in.
+     * @return The total duration of all calls.
+     */
+    public long getTotalTime(final TimeUnit unit) {
+        return unit.convert(this.totalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     *
+     * @param unit
+     *            The time unit to return the time in.
+     * @return The maximum duration of a call.
+     */
+    public long getMaxTime(final TimeUnit unit) {
+        return unit.convert(this.maxNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     *
+     * @return The mean duration of a call in nanoseconds. <code>0</code> if
+     *         there were no calls.
+     */
+    public double getMeanNanos() {
+        return this.calls == 0 ? 0 : (double) this.totalNanos / this.calls;
+    }
+
+    /**
+     * Estimates the given percentile from the histogram. The result is the
+     * upper bound of the bucket containing the percentile, so it is at most
+     * twice the actual value.
+     *
+     * @param percentile
+     *            The percentile (between <code>0</code> and <code>1</code>,
+     *            e.g. <code>0.99</code>).
+     * @return The estimated duration in nanoseconds. <code>0</code> if there
+     *         were no calls.
+     */
+    public long getPercentileNanos(final double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1!");
+        }
+
+        final long total = this.getHistogramCount();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long count = 0;
+        for (int i = 0; i < this.buckets.length; i++) {
+            count += this.buckets[i];
+            if (count >= rank) {
+                return i == 0 ? 0 : Math.min(i == this.buckets.length - 1 ? Long.MAX_VALUE : (1L << i) - 1, this.maxNanos);
+            }
+        }
+        return this.maxNanos;
+    }
+
+    /**
+     *
+     * @return A copy of {@link #buckets}.
+     */
+    public long[] getBuckets() {
+        return this.buckets.clone();
+    }
+
+    /**
+     *
+     * @return The sum of all buckets.
+     */
+    private long getHistogramCount() {
+        long result = 0;
+        for (final long bucket : this.buckets) {
+            result += bucket;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return this.signature + "={calls=" + this.calls + ", errors=" + this.errors + ", mean="
+                + Math.round(this.getMeanNanos()) + "ns, p99=" + this.getPercentileNanos(0.99) + "ns, max=" + this.maxNanos
+                + "ns}";
+    }
+}
@@ -0,0 +1,954 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Generates the class files of {@link ForwardingProxy proxies}. The generated
+ * class extends {@link ForwardingProxy}, implements the definition interface
+ * and contains one method per interface method that forwards the invocation
+ * to the {@link ForwardingProxy#target() target} without boxing the
+ * arguments:
+ *
+ * <pre>
+ * public R method(A a, B b) {
+ *     return ((Definition) this.target()).method(a, b);
+ * }
+ * </pre>
+ *
+ * <p>
+ * Instrumented proxies extend {@link InstrumentedForwardingProxy} and record
+ * the latency of every invocation:
+ * </p>
+ *
+ * <pre>
+ * public R method(A a, B b) {
+ *     final long start = System.nanoTime();
+ *     try {
+ *         final R result = ((Definition) this.target()).method(a, b);
+ *         this.record(index, start);
+ *         return result;
+ *     } catch (final Throwable t) {
+ *         this.recordError(index, start);
+ *         throw t;
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>
+ * Intercepting proxies extend {@link InterceptingForwardingProxy} and forward
+ * the intercepted methods to the
+ * {@link InterceptingForwardingProxy#interceptor() interceptor} instead of the
+ * target (all other methods are forwarded as above):
+ * </p>
+ *
+ * <pre>
+ * public R method(A a, B b) {
+ *     return ((Definition) this.interceptor()).method(a, b);
+ * }
+ * </pre>
+ *
+ */
+final class ProxyClassGenerator {
+    /**
+     * The magic number of class files.
+     *
+     */
+    private static final int MAGIC = 0xCAFE_BABE;
+    /**
+     * The class file version (Java 8).
+     *
+     */
+    private static final int VERSION = 52;
+
+    // Access flags.
+    /**
+     * <code>ACC_PUBLIC</code>.
+     *
+     */
+    private static final int ACC_PUBLIC = 0x0001;
+    /**
+     * <code>ACC_FINAL</code>.
+     *
+     */
+    private static final int ACC_FINAL = 0x0010;
+    /**
+     * <code>ACC_SUPER</code>.
+     *
+     */
+    private static final int ACC_SUPER = 0x0020;
+    /**
+     * <code>ACC_SYNTHETIC</code>.
+     *
+     */
+    private static final int ACC_SYNTHETIC = 0x1000;
+
+    // Constant pool tags.
+    /**
+     * <code>CONSTANT_Utf8</code>.
+     *
+     */
+    private static final int CONSTANT_UTF8 = 1;
+    /**
+     * <code>CONSTANT_Class</code>.
+     *
+     */
+    private static final int CONSTANT_CLASS = 7;
+    /**
+     * <code>CONSTANT_Methodref</code>.
+     *
+     */
+    private static final int CONSTANT_METHODREF = 10;
+    /**
+     * <code>CONSTANT_InterfaceMethodref</code>.
+     *
+     */
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    /**
+     * <code>CONSTANT_NameAndType</code>.
+     *
+     */
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // Opcodes.
+    /**
+     * <code>aload_0</code>.
+     *
+     */
+    private static final int ALOAD_0 = 0x2A;
+    /**
+     * <code>aload_1</code>.
+     *
+     */
+    private static final int ALOAD_1 = 0x2B;
+    /**
+     * <code>sipush</code>.
+     *
+     */
+    private static final int SIPUSH = 0x11;
+    /**
+     * <code>lload</code>.
+     *
+     */
+    private static final int LLOAD = 0x16;
+    /**
+     * <code>lstore</code>.
+     *
+     */
+    private static final int LSTORE = 0x37;
+    /**
+     * <code>athrow</code>.
+     *
+     */
+    private static final int ATHROW = 0xBF;
+    /**
+     * <code>invokestatic</code>.
+     *
+     */
+    private static final int INVOKESTATIC = 0xB8;
+    /**
+     * <code>ldc_w</code>.
+     *
+     */
+    private static final int LDC_W = 0x13;
+    /**
+     * <code>iload</code>.
+     *
+     */
+    private static final int ILOAD = 0x15;
+    /**
+     * <code>ireturn</code>.
+     *
+     */
+    private static final int IRETURN = 0xAC;
+    /**
+     * <code>return</code>.
+     *
+     */
+    private static final int RETURN = 0xB1;
+    /**
+     * <code>invokevirtual</code>.
+     *
+     */
+    private static final int INVOKEVIRTUAL = 0xB6;
+    /**
+     * <code>invokespecial</code>.
+     *
+     */
+    private static final int INVOKESPECIAL = 0xB7;
+    /**
+     * <code>invokeinterface</code>.
+     *
+     */
+    private static final int INVOKEINTERFACE = 0xB9;
+    /**
+     * <code>checkcast</code>.
+     *
+     */
+    private static final int CHECKCAST = 0xC0;
+
+    // Verification types (StackMapTable).
+    /**
+     * <code>ITEM_Integer</code>.
+     *
+     */
+    private static final int ITEM_INTEGER = 1;
+    /**
+     * <code>ITEM_Float</code>.
+     *
+     */
+    private static final int ITEM_FLOAT = 2;
+    /**
+     * <code>ITEM_Double</code>.
+     *
+     */
+    private static final int ITEM_DOUBLE = 3;
+    /**
+     * <code>ITEM_Long</code>.
+     *
+     */
+    private static final int ITEM_LONG = 4;
+    /**
+     * <code>ITEM_Object</code>.
+     *
+     */
+    private static final int ITEM_OBJECT = 7;
+    /**
+     * <code>full_frame</code>.
+     *
+     */
+    private static final int FULL_FRAME = 255;
+
+    /**
+     * The internal name of {@link ForwardingProxy}.
+     *
+     */
+    private static final String SUPER_CLASS = ProxyClassGenerator.internalName(ForwardingProxy.class);
+    /**
+     * The internal name of {@link InstrumentedForwardingProxy}.
+     *
+     */
+    private static final String INSTRUMENTED_SUPER_CLASS = ProxyClassGenerator.internalName(InstrumentedForwardingProxy.class);
+    /**
+     * The internal name of {@link InterceptingForwardingProxy}.
+     *
+     */
+    private static final String INTERCEPTING_SUPER_CLASS = ProxyClassGenerator.internalName(InterceptingForwardingProxy.class);
+
+    /**
+     * Whether to generate an instrumented proxy.
+     *
+     */
+    private final boolean instrumented;
+    /**
+     * The names and descriptors of the intercepted methods (see
+     * {@link #getForwardedMethods(Class)}). <code>null</code> if the proxy
+     * is not intercepting.
+     *
+     */
+    private final Set<String> intercepted;
+    /**
+     * The constant pool index of the generated class.
+     *
+     */
+    private int thisClass;
+    /**
+     * The constant pool index of the super class.
+     *
+     */
+    private int superClass;
+    /**
+     * The constant pool index of the definition.
+     *
+     */
+    private int definitionClass;
+    /**
+     * The constant pool index of the name of the <code>Code</code>
+     * attribute.
+     *
+     */
+    private int codeName;
+
+    /**
+     * The constant pool entries (the key is the encoded entry, the value is
+     * the index).
+     *
+     */
+    private final Map<String, Integer> constantIndices = new HashMap<>();
+    /**
+     * The encoded constant pool.
+     *
+     */
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    /**
+     * The next free constant pool index.
+     *
+     */
+    private int nextConstantIndex = 1;
+
+    /**
+     * Constructor of ProxyClassGenerator.
+     *
+     * @param instrumented
+     *            {@link #instrumented}.
+     * @param intercepted
+     *            {@link #intercepted}.
+     */
+    private ProxyClassGenerator(final boolean instrumented, final Set<String> intercepted) {
+        this.instrumented = instrumented;
+        this.intercepted = intercepted;
+    }
+
+    /**
+     * Generates the class file of the proxy of the given definition.
+     *
+     * @param definition
+     *            The definition interface. Must be public.
+     * @param className
+     *            The binary name of the class to generate.
+     * @param instrumented
+     *            Whether to generate an instrumented proxy (see
+     *            {@link InstrumentedForwardingProxy}).
+     * @return The class file.
+     */
+    static byte[] generate(final Class<?> definition, final String className, final boolean instrumented) {
+        return new ProxyClassGenerator(instrumented, null).generate(definition, className);
+    }
+
+    /**
+     * Generates the class file of the intercepting proxy of the given
+     * definition.
+     *
+     * @param definition
+     *            The definition interface. Must be public.
+     * @param className
+     *            The binary name of the class to generate.
+     * @param intercepted
+     *            The names and descriptors of the methods to forward to the
+     *            interceptor (see {@link #getForwardedMethods(Class)}).
+     * @return The class file.
+     */
+    static byte[] generateIntercepting(final Class<?> definition, final String className, final Set<String> intercepted) {
+        return new ProxyClassGenerator(false, intercepted).generate(definition, className);
+    }
+
+    /**
+     * Generates the class file.
+     *
+     * @param definition
+     *            The definition interface.
+     * @param className
+     *            The binary name of the class to generate.
+     * @return The class file.
+     */
+    private byte[] generate(final Class<?> definition, final String className) {
+        try {
+            return this.generateClass(definition, className.replace('.', '/'));
+        } catch (final IOException cause) {
+            // Can not happen with a ByteArrayOutputStream.
+            throw new IllegalStateException("Failed to generate proxy class!", cause);
+        }
+    }
+
+    /**
+     * Gets the methods to generate forwarders for. These are all non-static
+     * methods of the interface (including inherited and default methods),
+     * unique by name and descriptor. The methods are sorted by name and
+     * descriptor so the index of a method is stable (see
+     * {@link ProxyMetrics}).
+     *
+     * @param definition
+     *            The definition interface.
+     * @return The methods (the key is the name and descriptor).
+     */
+    static Map<String, Method> getForwardedMethods(final Class<?> definition) {
+        final Map<String, Method> result = new TreeMap<>();
+        for (final Method method : definition.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers())) {
+                result.putIfAbsent(method.getName() + ProxyClassGenerator.descriptor(method), method);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates the class file.
+     *
+     * @param definition
+     *            The definition interface.
+     * @param internalName
+     *            The internal name of the class to generate.
+     * @return The class file.
+     * @throws IOException
+     *             Never.
+     */
+    private byte[] generateClass(final Class<?> definition, final String internalName) throws IOException {
+        this.thisClass = this.classConstant(internalName);
+        if (this.intercepted != null) {
+            this.superClass = this.classConstant(ProxyClassGenerator.INTERCEPTING_SUPER_CLASS);
+        } else {
+            this.superClass = this.classConstant(
+                    this.instrumented ? ProxyClassGenerator.INSTRUMENTED_SUPER_CLASS : ProxyClassGenerator.SUPER_CLASS);
+        }
+        this.definitionClass = this.classConstant(ProxyClassGenerator.internalName(definition));
+        this.codeName = this.utf8Constant("Code");
+
+        final List<byte[]> methods = new ArrayList<>();
+        methods.add(this.generateConstructor());
+        int index = 0;
+        for (final Map.Entry<String, Method> entry : ProxyClassGenerator.getForwardedMethods(definition).entrySet()) {
+            if (index > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Definition has too many methods!");
+            }
+            final Method method = entry.getValue();
+            if (this.instrumented) {
+                methods.add(this.generateInstrumentedForwarder(method, index));
+            } else {
+                methods.add(this.generateForwarder(method,
+                        this.intercepted != null && this.intercepted.contains(entry.getKey())));
+            }
+            index++;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ProxyClassGenerator.MAGIC);
+        out.writeShort(0);
+        out.writeShort(ProxyClassGenerator.VERSION);
+        out.writeShort(this.nextConstantIndex);
+        this.constantPool.writeTo(out);
+        out.writeShort(ProxyClassGenerator.ACC_PUBLIC | ProxyClassGenerator.ACC_FINAL | ProxyClassGenerator.ACC_SUPER
+                | ProxyClassGenerator.ACC_SYNTHETIC);
+        out.writeShort(this.thisClass);
+        out.writeShort(this.superClass);
+        // Interfaces.
+        out.writeShort(1);
+        out.writeShort(this.definitionClass);
+        // Fields.
+        out.writeShort(0);
+        // Methods.
+        out.writeShort(methods.size());
+        for (final byte[] method : methods) {
+            out.write(method);
+        }
+        // Attributes.
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Generates the constructor (passing the definition and, if instrumented,
+     * the metrics to the super constructor).
+     *
+     * @return The encoded method.
+     * @throws IOException
+     *             Never.
+     */
+    private byte[] generateConstructor() throws IOException {
+        final String descriptor = this.instrumented ? "(L" + ProxyClassGenerator.internalName(ProxyMetrics.class) + ";)V" : "()V";
+        final String superDescriptor = this.instrumented
+                ? "(Ljava/lang/Class;L" + ProxyClassGenerator.internalName(ProxyMetrics.class) + ";)V" : "(Ljava/lang/Class;)V";
+        final int superConstructor = this.memberConstant(ProxyClassGenerator.CONSTANT_METHODREF, this.superClass, "<init>",
+                superDescriptor);
+
+        final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(code);
+        out.writeByte(ProxyClassGenerator.ALOAD_0);
+        out.writeByte(ProxyClassGenerator.LDC_W);
+        out.writeShort(this.definitionClass);
+        if (this.instrumented) {
+            out.writeByte(ProxyClassGenerator.ALOAD_1);
+        }
+        out.writeByte(ProxyClassGenerator.INVOKESPECIAL);
+        out.writeShort(superConstructor);
+        out.writeByte(ProxyClassGenerator.RETURN);
+
+        final int maxStack = this.instrumented ? 3 : 2;
+        final int maxLocals = this.instrumented ? 2 : 1;
+        return this.method(ProxyClassGenerator.ACC_PUBLIC, "<init>", descriptor, maxStack, maxLocals, code.toByteArray(), null,
+                null);
+    }
+
+    /**
+     * Generates the forwarder of the given method.
+     *
+     * @param method
+     *            The method to forward.
+     * @param intercepted
+     *            Whether to forward the method to the interceptor instead of
+     *            the target.
+     * @return The encoded method.
+     * @throws IOException
+     *             Never.
+     */
+    private byte[] generateForwarder(final Method method, final boolean intercepted) throws IOException {
+        final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(code);
+        final int slots = this.writeInvocation(out, method, intercepted);
+        out.writeByte(ProxyClassGenerator.returnOpcode(method.getReturnType()));
+
+        final int maxStack = Math.max(slots, ProxyClassGenerator.slots(method.getReturnType()));
+        return this.method(ProxyClassGenerator.ACC_PUBLIC | ProxyClassGenerator.ACC_FINAL, method.getName(),
+                ProxyClassGenerator.descriptor(method), maxStack, slots, code.toByteArray(), null, null);
+    }
+
+    /**
+     * Generates the instrumented forwarder of the given method.
+     *
+     * @param method
+     *            The method to forward.
+     * @param index
+     *            The index of the method (see
+     *            {@link #getForwardedMethods(Class)}).
+     * @return The encoded method.
+     * @throws IOException
+     *             Never.
+     */
+    private byte[] generateInstrumentedForwarder(final Method method, final int index) throws IOException {
+        final int nanoTime = this.memberConstant(ProxyClassGenerator.CONSTANT_METHODREF, this.classConstant("java/lang/System"),
+                "nanoTime", "()J");
+        final int record = this.memberConstant(ProxyClassGenerator.CONSTANT_METHODREF, this.superClass, "record", "(IJ)V");
+        final int recordError = this.memberConstant(ProxyClassGenerator.CONSTANT_METHODREF, this.superClass, "recordError",
+                "(IJ)V");
+        final int throwable = this.classConstant("java/lang/Throwable");
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        final Class<?> returnType = method.getReturnType();
+        int startSlot = 1;
+        for (final Class<?> parameterType : parameterTypes) {
+            startSlot += ProxyClassGenerator.slots(parameterType);
+        }
+
+        final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(code);
+        // long start = System.nanoTime();
+        out.writeByte(ProxyClassGenerator.INVOKESTATIC);
+        out.writeShort(nanoTime);
+        ProxyClassGenerator.writeLocal(out, ProxyClassGenerator.LSTORE, startSlot);
+        // try { R result = target().method(...);
+        final int tryStart = out.size();
+        this.writeInvocation(out, method, false);
+        final int tryEnd = out.size();
+        // this.record(index, start); return result;
+        this.writeRecord(out, record, index, startSlot);
+        out.writeByte(ProxyClassGenerator.returnOpcode(returnType));
+        // } catch (Throwable t) { this.recordError(index, start); throw t; }
+        final int handler = out.size();
+        this.writeRecord(out, recordError, index, startSlot);
+        out.writeByte(ProxyClassGenerator.ATHROW);
+
+        final ByteArrayOutputStream exceptionTable = new ByteArrayOutputStream();
+        final DataOutputStream exceptionOut = new DataOutputStream(exceptionTable);
+        exceptionOut.writeShort(tryStart);
+        exceptionOut.writeShort(tryEnd);
+        exceptionOut.writeShort(handler);
+        exceptionOut.writeShort(throwable);
+
+        // Frame at the handler: all locals, the throwable on the stack.
+        final ByteArrayOutputStream stackMapTable = new ByteArrayOutputStream();
+        final DataOutputStream frameOut = new DataOutputStream(stackMapTable);
+        frameOut.writeByte(ProxyClassGenerator.FULL_FRAME);
+        frameOut.writeShort(handler);
+        frameOut.writeShort(1 + parameterTypes.length + 1);
+        frameOut.writeByte(ProxyClassGenerator.ITEM_OBJECT);
+        frameOut.writeShort(this.thisClass);
+        for (final Class<?> parameterType : parameterTypes) {
+            this.writeVerificationType(frameOut, parameterType);
+        }
+        frameOut.writeByte(ProxyClassGenerator.ITEM_LONG);
+        frameOut.writeShort(1);
+        frameOut.writeByte(ProxyClassGenerator.ITEM_OBJECT);
+        frameOut.writeShort(throwable);
+
+        // The record(...) invocation needs 4 slots on top of the result.
+        final int maxStack = Math.max(startSlot, ProxyClassGenerator.slots(returnType) + 4);
+        return this.method(ProxyClassGenerator.ACC_PUBLIC | ProxyClassGenerator.ACC_FINAL, method.getName(),
+                ProxyClassGenerator.descriptor(method), Math.max(maxStack, 5), startSlot + 2, code.toByteArray(),
+                exceptionTable.toByteArray(), stackMapTable.toByteArray());
+    }
+
+    /**
+     * Writes the invocation of the given method on the target or the
+     * interceptor (leaving the result on the stack).
+     *
+     * @param out
+     *            The output to write the code to.
+     * @param method
+     *            The method.
+     * @param intercepted
+     *            Whether to invoke the method on the interceptor instead of
+     *            the target.
+     * @return The number of local variable slots of the parameters (including
+     *         <code>this</code>).
+     * @throws IOException
+     *             Never.
+     */
+    private int writeInvocation(final DataOutputStream out, final Method method, final boolean intercepted)
+            throws IOException {
+        final int target = intercepted
+                ? this.memberConstant(ProxyClassGenerator.CONSTANT_METHODREF,
+                        this.classConstant(ProxyClassGenerator.INTERCEPTING_SUPER_CLASS), "interceptor", "()Ljava/lang/Object;")
+                : this.memberConstant(ProxyClassGenerator.CONSTANT_METHODREF,
+                        this.classConstant(ProxyClassGenerator.SUPER_CLASS), "target", "()Ljava/lang/Object;");
+        final int forwarded = this.memberConstant(ProxyClassGenerator.CONSTANT_INTERFACE_METHODREF, this.definitionClass,
+                method.getName(), ProxyClassGenerator.descriptor(method));
+
+        out.writeByte(ProxyClassGenerator.ALOAD_0);
+        out.writeByte(ProxyClassGenerator.INVOKEVIRTUAL);
+        out.writeShort(target);
+        out.writeByte(ProxyClassGenerator.CHECKCAST);
+        out.writeShort(this.definitionClass);
+        int slot = 1;
+        for (final Class<?> parameterType : method.getParameterTypes()) {
+            ProxyClassGenerator.writeLocal(out, ProxyClassGenerator.ILOAD + ProxyClassGenerator.typeOffset(parameterType), slot);
+            slot += ProxyClassGenerator.slots(parameterType);
+        }
+        out.writeByte(ProxyClassGenerator.INVOKEINTERFACE);
+        out.writeShort(forwarded);
+        out.writeByte(slot);
+        out.writeByte(0);
+        return slot;
+    }
+
+    /**
+     * Writes the invocation of <code>this.record(index, start)</code> (or
+     * <code>recordError(...)</code>).
+     *
+     * @param out
+     *            The output to write the code to.
+     * @param recordMethod
+     *            The constant pool index of the method.
+     * @param index
+     *            The index of the method.
+     * @param startSlot
+     *            The local variable slot of the start time.
+     * @throws IOException
+     *             Never.
+     */
+    private void writeRecord(final DataOutputStream out, final int recordMethod, final int index, final int startSlot)
+            throws IOException {
+        out.writeByte(ProxyClassGenerator.ALOAD_0);
+        out.writeByte(ProxyClassGenerator.SIPUSH);
+        out.writeShort(index);
+        ProxyClassGenerator.writeLocal(out, ProxyClassGenerator.LLOAD, startSlot);
+        out.writeByte(ProxyClassGenerator.INVOKEVIRTUAL);
+        out.writeShort(recordMethod);
+    }
+
+    /**
+     * Writes the verification type of the given parameter type.
+     *
+     * @param out
+     *            The output to write the verification type to.
+     * @param type
+     *            The parameter type.
+     * @throws IOException
+     *             Never.
+     */
+    private void writeVerificationType(final DataOutputStream out, final Class<?> type) throws IOException {
+        if (!type.isPrimitive()) {
+            out.writeByte(ProxyClassGenerator.ITEM_OBJECT);
+            out.writeShort(this.classConstant(ProxyClassGenerator.internalName(type)));
+        } else if (type == long.class) {
+            out.writeByte(ProxyClassGenerator.ITEM_LONG);
+        } else if (type == float.class) {
+            out.writeByte(ProxyClassGenerator.ITEM_FLOAT);
+        } else if (type == double.class) {
+            out.writeByte(ProxyClassGenerator.ITEM_DOUBLE);
+        } else {
+            out.writeByte(ProxyClassGenerator.ITEM_INTEGER);
+        }
+    }
+
+    /**
+     * Encodes a method with a code attribute.
+     *
+     * @param access
+     *            The access flags.
+     * @param name
+     *            The name of the method.
+     * @param descriptor
+     *            The descriptor of the method.
+     * @param maxStack
+     *            The maximum stack size.
+     * @param maxLocals
+     *            The number of local variable slots.
+     * @param code
+     *            The byte code.
+     * @param exceptionTable
+     *            The encoded exception table entries. May be <code>null</code>
+     *            if there are none.
+     * @param stackMapTable
+     *            The encoded stack map frames (one). May be <code>null</code>
+     *            if there are none.
+     * @return The encoded method.
+     * @throws IOException
+     *             Never.
+     */
+    private byte[] method(final int access, final String name, final String descriptor, final int maxStack, final int maxLocals,
+            final byte[] code, final byte[] exceptionTable, final byte[] stackMapTable) throws IOException {
+        final int exceptionTableLength = exceptionTable == null ? 0 : exceptionTable.length;
+        final int stackMapTableLength = stackMapTable == null ? 0 : 2 + 4 + 2 + stackMapTable.length;
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(access);
+        out.writeShort(this.utf8Constant(name));
+        out.writeShort(this.utf8Constant(descriptor));
+        // Attributes (Code only).
+        out.writeShort(1);
+        out.writeShort(this.codeName);
+        out.writeInt(2 + 2 + 4 + code.length + 2 + exceptionTableLength + 2 + stackMapTableLength);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        // Exception table (8 bytes per entry).
+        out.writeShort(exceptionTableLength / 8);
+        if (exceptionTable != null) {
+            out.write(exceptionTable);
+        }
+        // Attributes.
+        if (stackMapTable == null) {
+            out.writeShort(0);
+        } else {
+            out.writeShort(1);
+            out.writeShort(this.utf8Constant("StackMapTable"));
+            out.writeInt(2 + stackMapTable.length);
+            // Number of entries.
+            out.writeShort(1);
+            out.write(stackMapTable);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Adds (if necessary) a <code>CONSTANT_Utf8</code> entry.
+     *
+     * @param value
+     *            The value.
+     * @return The constant pool index.
+     * @throws IOException
+     *             Never.
+     */
+    private int utf8Constant(final String value) throws IOException {
+        final String key = ProxyClassGenerator.CONSTANT_UTF8 + ":" + value;
+        final Integer index = this.constantIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        final DataOutputStream out = new DataOutputStream(this.constantPool);
+        out.writeByte(ProxyClassGenerator.CONSTANT_UTF8);
+        // Writes modified UTF-8 as required by the class file format.
+        out.writeUTF(value);
+        out.flush();
+        return this.register(key);
+    }
+
+    /**
+     * Adds (if necessary) a <code>CONSTANT_Class</code> entry.
+     *
+     * @param internalName
+     *            The internal name of the class.
+     * @return The constant pool index.
+     * @throws IOException
+     *             Never.
+     */
+    private int classConstant(final String internalName) throws IOException {
+        final int name = this.utf8Constant(internalName);
+        return this.constant(ProxyClassGenerator.CONSTANT_CLASS, name);
+    }
+
+    /**
+     * Adds (if necessary) a <code>CONSTANT_Methodref</code> or
+     * <code>CONSTANT_InterfaceMethodref</code> entry.
+     *
+     * @param tag
+     *            The tag.
+     * @param owner
+     *            The constant pool index of the owner class.
+     * @param name
+     *            The name of the method.
+     * @param descriptor
+     *            The descriptor of the method.
+     * @return The constant pool index.
+     * @throws IOException
+     *             Never.
+     */
+    private int memberConstant(final int tag, final int owner, final String name, final String descriptor) throws IOException {
+        final int nameAndType = this.constant(ProxyClassGenerator.CONSTANT_NAME_AND_TYPE, this.utf8Constant(name),
+                this.utf8Constant(descriptor));
+        return this.constant(tag, owner, nameAndType);
+    }
+
+    /**
+     * Adds (if necessary) a constant pool entry consisting of references to
+     * other entries.
+     *
+     * @param tag
+     *            The tag.
+     * @param references
+     *            The constant pool indices of the referenced entries.
+     * @return The constant pool index.
+     * @throws IOException
+     *             Never.
+     */
+    private int constant(final int tag, final int... references) throws IOException {
+        final StringBuilder key = new StringBuilder().append(tag);
+        for (final int reference : references) {
+            key.append(':').append(reference);
+        }
+        final Integer index = this.constantIndices.get(key.toString());
+        if (index != null) {
+            return index;
+        }
+        final DataOutputStream out = new DataOutputStream(this.constantPool);
+        out.writeByte(tag);
+        for (final int reference : references) {
+            out.writeShort(reference);
+        }
+        out.flush();
+        return this.register(key.toString());
+    }
+
+    /**
+     * Registers the constant pool entry that was just written.
+     *
+     * @param key
+     *            The key of the entry.
+     * @return The constant pool index.
+     */
+    private int register(final String key) {
+        final int index = this.nextConstantIndex++;
+        if (index > 0xFFFF) {
+            throw new IllegalArgumentException("Definition has too many methods!");
+        }
+        this.constantIndices.put(key, index);
+        return index;
+    }
+
+    /**
+     * Writes a local variable instruction (<code>xload</code> or
+     * <code>xstore</code>).
+     *
+     * @param out
+     *            The output to write the instruction to.
+     * @param opcode
+     *            The opcode.
+     * @param slot
+     *            The local variable slot (less than 256 as methods can not
+     *            have more parameter slots).
+     * @throws IOException
+     *             Never.
+     */
+    private static void writeLocal(final DataOutputStream out, final int opcode, final int slot) throws IOException {
+        out.writeByte(opcode);
+        out.writeByte(slot);
+    }
+
+    /**
+     * Creates the internal name of the given class.
+     *
+     * @param clazz
+     *            The class.
+     * @return The internal name.
+     */
+    private static String internalName(final Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    /**
+     * Creates the descriptor of the given method.
+     *
+     * @param method
+     *            The method.
+     * @return The descriptor.
+     */
+    private static String descriptor(final Method method) {
+        return MethodType.methodType(method.getReturnType(), method.getParameterTypes()).toMethodDescriptorString();
+    }
+
+    /**
+     * Gets the number of local variable or stack slots of the given type.
+     *
+     * @param type
+     *            The type.
+     * @return The number of slots.
+     */
+    private static int slots(final Class<?> type) {
+        if (type == void.class) {
+            return 0;
+        }
+        return type == long.class || type == double.class ? 2 : 1;
+    }
+
+    /**
+     * Gets the offset of the typed variant of load and return instructions
+     * (the order is <code>int</code>, <code>long</code>, <code>float</code>,
+     * <code>double</code>, reference).
+     *
+     * @param type
+     *            The type.
+     * @return The offset.
+     */
+    private static int typeOffset(final Class<?> type) {
+        if (!type.isPrimitive()) {
+            return 4;
+        }
+        if (type == long.class) {
+            return 1;
+        }
+        if (type == float.class) {
+            return 2;
+        }
+        if (type == double.class) {
+            return 3;
+        }
+        // boolean, byte, char, short and int.
+        return 0;
+    }
+
+    /**
+     * Gets the return opcode for the given type.
+     *
+     * @param type
+     *            The return type.
+     * @return The opcode.
+     */
+    private static int returnOpcode(final Class<?> type) {
+        if (type == void.class) {
+            return ProxyClassGenerator.RETURN;
+        }
+        return ProxyClassGenerator.IRETURN + ProxyClassGenerator.typeOffset(type);
+    }
+}
@@ -0,0 +1,67 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.proxy;
+
+/**
+ * The class loader defining a generated proxy class. Its parent is the class
+ * loader of the definition interface (e.g. the class loader of a
+ * specification plugin), so the proxy is unloaded together with its
+ * definition. Classes of YAPF (e.g. {@link ForwardingProxy}) are resolved
+ * from the class loader of YAPF if the parent does not know them.
+ *
+ */
+final class ProxyClassLoader extends ClassLoader {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    /**
+     * Constructor of ProxyClassLoader.
+     *
+     * @param parent
+     *            The class loader of the definition interface.
+     */
+    ProxyClassLoader(final ClassLoader parent) {
+        super(parent);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.ClassLoader#findClass(java.lang.String)
+     */
+    @Override
+    protected Class<?> findClass(final String name) throws ClassNotFoundException {
+        return Class.forName(name, false, ProxyClassLoader.class.getClassLoader());
+    }
+
+    /**
+     * Defines the proxy class.
+     *
+     * @param name
+     *            The binary name of the class.
+     * @param classFile
+     *            The class file.
+     * @return The defined class.
+     */
+    Class<?> defineProxyClass(final String name, final byte[] classFile) {
+        return this.defineClass(name, classFile, 0, classFile.length, ProxyClassLoader.class.getProtectionDomain());
+    }
+}
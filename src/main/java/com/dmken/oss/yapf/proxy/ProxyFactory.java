@@ -0,0 +1,386 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.proxy;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates {@link ForwardingProxy proxies} of definition interfaces.
+ *
+ * <p>
+ * Unlike {@link java.lang.reflect.Proxy}, the proxy classes are generated per
+ * definition and forward every invocation directly to the target (no
+ * {@link java.lang.reflect.InvocationHandler}, no boxing of arguments). The
+ * proxy classes are cached per definition and are defined in a child of the
+ * class loader of the definition.
+ * </p>
+ *
+ * <p>
+ * {@link #newInstrumentedProxy(Class, Object, ProxyMetrics) Instrumented
+ * proxies} additionally record the latency of every invocation in a
+ * {@link ProxyMetrics}. They use separate proxy classes, so regular proxies do
+ * not pay for the instrumentation.
+ * </p>
+ *
+ * <p>
+ * {@link #newInterceptingProxySupplier(Class, Collection) Intercepting
+ * proxies} forward a few methods to an interceptor (e.g. a cache) and all
+ * other methods directly to the target.
+ * </p>
+ *
+ */
+public final class ProxyFactory {
+    /**
+     * The logger.
+     *
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyFactory.class);
+
+    /**
+     * The suffix of the names of the generated classes.
+     *
+     */
+    private static final String CLASS_NAME_SUFFIX = "$$YapfProxy";
+    /**
+     * The suffix of the names of the generated instrumented classes.
+     *
+     */
+    private static final String INSTRUMENTED_CLASS_NAME_SUFFIX = "$$YapfInstrumentedProxy";
+    /**
+     * The suffix of the names of the generated intercepting classes.
+     *
+     */
+    private static final String INTERCEPTING_CLASS_NAME_SUFFIX = "$$YapfInterceptingProxy";
+    /**
+     * The prefix of the names of generated classes whose definition is in a
+     * package that must not contain classes of other class loaders.
+     *
+     */
+    private static final String CLASS_NAME_PREFIX = "com.dmken.oss.yapf.proxy.generated.";
+    /**
+     * The type of the constructor handles.
+     *
+     */
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(ForwardingProxy.class);
+    /**
+     * The type of the constructor handles of instrumented proxies.
+     *
+     */
+    private static final MethodType INSTRUMENTED_CONSTRUCTOR_TYPE = MethodType.methodType(ForwardingProxy.class,
+            ProxyMetrics.class);
+    /**
+     * The type of the constructor handles of intercepting proxies.
+     *
+     */
+    private static final MethodType INTERCEPTING_CONSTRUCTOR_TYPE = MethodType.methodType(InterceptingForwardingProxy.class);
+
+    /**
+     * The cached proxy classes.
+     *
+     */
+    private static final ClassValue<ProxyClass> PROXY_CLASSES = new ClassValue<ProxyClass>() {
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.ClassValue#computeValue(java.lang.Class)
+         */
+        @Override
+        protected ProxyClass computeValue(final Class<?> type) {
+            return ProxyFactory.generate(type, false);
+        }
+    };
+    /**
+     * The cached instrumented proxy classes.
+     *
+     */
+    private static final ClassValue<ProxyClass> INSTRUMENTED_PROXY_CLASSES = new ClassValue<ProxyClass>() {
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.ClassValue#computeValue(java.lang.Class)
+         */
+        @Override
+        protected ProxyClass computeValue(final Class<?> type) {
+            return ProxyFactory.generate(type, true);
+        }
+    };
+
+    /**
+     * Constructor of ProxyFactory.
+     *
+     */
+    private ProxyFactory() {
+        // Nothing to do.
+    }
+
+    /**
+     * Creates a new proxy of the given definition.
+     *
+     * @param <T>
+     *            The type of the definition interface.
+     * @param definition
+     *            The definition interface. Must be public.
+     * @param target
+     *            The initial target. May be <code>null</code>.
+     * @return The proxy. It can be cast to {@link ForwardingProxy} to swap the
+     *         target.
+     */
+    public static <T> T newProxy(final Class<T> definition, final T target) {
+        final ForwardingProxy proxy = ProxyFactory.newForwardingProxy(definition);
+        proxy.setTarget(target);
+        return definition.cast(proxy);
+    }
+
+    /**
+     * Creates a new proxy of the given definition without a target.
+     *
+     * @param definition
+     *            The definition interface. Must be public.
+     * @return The proxy. It implements the definition.
+     */
+    public static ForwardingProxy newForwardingProxy(final Class<?> definition) {
+        final ProxyClass proxyClass = ProxyFactory.getGeneratedProxyClass(definition, false);
+        try {
+            return (ForwardingProxy) proxyClass.constructor.invokeExact();
+        } catch (final RuntimeException | Error ex) {
+            throw ex;
+        } catch (final Throwable cause) {
+            throw new IllegalStateException("Failed to create proxy!", cause);
+        }
+    }
+
+    /**
+     * Creates a new instrumented proxy of the given definition.
+     *
+     * @param <T>
+     *            The type of the definition interface.
+     * @param definition
+     *            The definition interface. Must be public.
+     * @param target
+     *            The initial target. May be <code>null</code>.
+     * @param metrics
+     *            The metrics to record the invocations in. Must be the metrics
+     *            of the definition.
+     * @return The proxy. It can be cast to {@link InstrumentedForwardingProxy}
+     *         to swap the target.
+     */
+    public static <T> T newInstrumentedProxy(final Class<T> definition, final T target, final ProxyMetrics metrics) {
+        if (metrics == null || metrics.getDefinition() != definition) {
+            throw new IllegalArgumentException("Metrics must be the metrics of the definition!");
+        }
+
+        final ProxyClass proxyClass = ProxyFactory.getGeneratedProxyClass(definition, true);
+        final ForwardingProxy proxy;
+        try {
+            proxy = (ForwardingProxy) proxyClass.constructor.invokeExact(metrics);
+        } catch (final RuntimeException | Error ex) {
+            throw ex;
+        } catch (final Throwable cause) {
+            throw new IllegalStateException("Failed to create proxy!", cause);
+        }
+        proxy.setTarget(target);
+        return definition.cast(proxy);
+    }
+
+    /**
+     * Generates an intercepting proxy class of the given definition. The
+     * intercepted methods are forwarded to the
+     * {@link InterceptingForwardingProxy#getInterceptor() interceptor}, all
+     * other methods are forwarded to the target directly.
+     *
+     * <p>
+     * Unlike the other proxy classes, intercepting proxy classes are not
+     * cached. The caller has to reuse the returned supplier.
+     * </p>
+     *
+     * @param definition
+     *            The definition interface. Must be public.
+     * @param intercepted
+     *            The methods of the definition to intercept.
+     * @return A supplier creating new proxies without a target or
+     *         interceptor. They implement the definition.
+     */
+    public static Supplier<InterceptingForwardingProxy> newInterceptingProxySupplier(final Class<?> definition,
+            final Collection<Method> intercepted) {
+        if (definition == null || !definition.isInterface() || !Modifier.isPublic(definition.getModifiers())) {
+            throw new IllegalArgumentException("Definition must be a public interface!");
+        }
+        if (intercepted == null) {
+            throw new IllegalArgumentException("Intercepted must not be null!");
+        }
+
+        final Map<String, Method> forwarded = ProxyClassGenerator.getForwardedMethods(definition);
+        final Set<String> keys = new HashSet<>();
+        for (final Map.Entry<String, Method> entry : forwarded.entrySet()) {
+            final Method method = entry.getValue();
+            for (final Method interceptedMethod : intercepted) {
+                if (interceptedMethod.getName().equals(method.getName())
+                        && Arrays.equals(interceptedMethod.getParameterTypes(), method.getParameterTypes())) {
+                    keys.add(entry.getKey());
+                }
+            }
+        }
+
+        final String className = ProxyFactory.className(definition, ProxyFactory.INTERCEPTING_CLASS_NAME_SUFFIX);
+        final byte[] classFile = ProxyClassGenerator.generateIntercepting(definition, className, keys);
+        final Class<? extends InterceptingForwardingProxy> proxyClass = new ProxyClassLoader(definition.getClassLoader())
+                .defineProxyClass(className, classFile).asSubclass(InterceptingForwardingProxy.class);
+
+        ProxyFactory.LOGGER.debug("Generated intercepting proxy class <{}> ({} bytes).", className, classFile.length);
+
+        final MethodHandle constructor;
+        try {
+            constructor = MethodHandles.publicLookup().findConstructor(proxyClass, MethodType.methodType(void.class))
+                    .asType(ProxyFactory.INTERCEPTING_CONSTRUCTOR_TYPE);
+        } catch (final NoSuchMethodException | IllegalAccessException cause) {
+            throw new IllegalStateException("Generated proxy class is invalid!", cause);
+        }
+        return () -> {
+            try {
+                return (InterceptingForwardingProxy) constructor.invokeExact();
+            } catch (final RuntimeException | Error ex) {
+                throw ex;
+            } catch (final Throwable cause) {
+                throw new IllegalStateException("Failed to create proxy!", cause);
+            }
+        };
+    }
+
+    /**
+     * Gets the generated proxy class of the given definition.
+     *
+     * @param definition
+     *            The definition interface. Must be public.
+     * @return The proxy class.
+     */
+    public static Class<? extends ForwardingProxy> getProxyClass(final Class<?> definition) {
+        return ProxyFactory.getGeneratedProxyClass(definition, false).proxyClass;
+    }
+
+    /**
+     * Gets the (cached) generated proxy class of the given definition.
+     *
+     * @param definition
+     *            The definition interface. Must be public.
+     * @param instrumented
+     *            Whether to get the instrumented proxy class.
+     * @return The proxy class.
+     */
+    private static ProxyClass getGeneratedProxyClass(final Class<?> definition, final boolean instrumented) {
+        if (definition == null || !definition.isInterface() || !Modifier.isPublic(definition.getModifiers())) {
+            throw new IllegalArgumentException("Definition must be a public interface!");
+        }
+
+        return (instrumented ? ProxyFactory.INSTRUMENTED_PROXY_CLASSES : ProxyFactory.PROXY_CLASSES).get(definition);
+    }
+
+    /**
+     * Generates and defines the proxy class of the given definition.
+     *
+     * @param definition
+     *            The definition interface.
+     * @param instrumented
+     *            Whether to generate an instrumented proxy class.
+     * @return The proxy class.
+     */
+    private static ProxyClass generate(final Class<?> definition, final boolean instrumented) {
+        final String className = ProxyFactory.className(definition,
+                instrumented ? ProxyFactory.INSTRUMENTED_CLASS_NAME_SUFFIX : ProxyFactory.CLASS_NAME_SUFFIX);
+        final byte[] classFile = ProxyClassGenerator.generate(definition, className, instrumented);
+        final Class<? extends ForwardingProxy> proxyClass = new ProxyClassLoader(definition.getClassLoader())
+                .defineProxyClass(className, classFile).asSubclass(ForwardingProxy.class);
+
+        ProxyFactory.LOGGER.debug("Generated proxy class <{}> ({} bytes).", className, classFile.length);
+
+        final MethodHandle constructor;
+        try {
+            constructor = instrumented
+                    ? MethodHandles.publicLookup()
+                            .findConstructor(proxyClass, MethodType.methodType(void.class, ProxyMetrics.class))
+                            .asType(ProxyFactory.INSTRUMENTED_CONSTRUCTOR_TYPE)
+                    : MethodHandles.publicLookup().findConstructor(proxyClass, MethodType.methodType(void.class))
+                            .asType(ProxyFactory.CONSTRUCTOR_TYPE);
+        } catch (final NoSuchMethodException | IllegalAccessException cause) {
+            throw new IllegalStateException("Generated proxy class is invalid!", cause);
+        }
+        return new ProxyClass(proxyClass, constructor);
+    }
+
+    /**
+     * Creates the name of the proxy class of the given definition.
+     *
+     * @param definition
+     *            The definition interface.
+     * @param suffix
+     *            The suffix of the kind of the proxy class.
+     * @return The binary class name.
+     */
+    private static String className(final Class<?> definition, final String suffix) {
+        final String name = definition.getName() + suffix;
+        // Classes in the java packages can only be defined by the bootstrap
+        // class loader.
+        return name.startsWith("java.") ? ProxyFactory.CLASS_NAME_PREFIX + name : name;
+    }
+
+    /**
+     * A generated proxy class and its constructor.
+     *
+     */
+    private static final class ProxyClass {
+        /**
+         * The proxy class.
+         *
+         */
+        private final Class<? extends ForwardingProxy> proxyClass;
+        /**
+         * The constructor of {@link #proxyClass} of type
+         * {@link ProxyFactory#CONSTRUCTOR_TYPE} (or
+         * {@link ProxyFactory#INSTRUMENTED_CONSTRUCTOR_TYPE}).
+         *
+         */
+        private final MethodHandle constructor;
+
+        /**
+         * Constructor of ProxyClass.
+         *
+         * @param proxyClass
+         *            {@link #proxyClass}.
+         * @param constructor
+         *            {@link #constructor}.
+         */
+        private ProxyClass(final Class<? extends ForwardingProxy> proxyClass, final MethodHandle constructor) {
+            this.proxyClass = proxyClass;
+            this.constructor = constructor;
+        }
+    }
+}
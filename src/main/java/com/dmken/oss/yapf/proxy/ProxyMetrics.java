@@ -0,0 +1,237 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.proxy;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-method invocation metrics of a definition interface: the number of
+ * calls, the number of errors and a latency histogram.
+ *
+ * <p>
+ * The histogram has one bucket per power of two nanoseconds. All counters are
+ * {@link LongAdder striped}, so concurrent recording does not contend on a
+ * single cache line and does not allocate (apart from the initial growth of
+ * the stripes).
+ * </p>
+ *
+ * <p>
+ * This is thread safe and may be shared by multiple proxies of the same
+ * definition.
+ * </p>
+ *
+ */
+public final class ProxyMetrics {
+    /**
+     * The number of histogram buckets. Bucket <code>i</code> contains the
+     * invocations that took between <code>2^(i - 1)</code> (inclusive) and
+     * <code>2^i</code> (exclusive) nanoseconds.
+     *
+     */
+    public static final int BUCKETS = 64;
+
+    /**
+     * The definition interface.
+     *
+     */
+    private final Class<?> definition;
+    /**
+     * The signatures of the methods (name and descriptor). The index is the
+     * method index used by the generated proxies.
+     *
+     */
+    private final String[] signatures;
+    /**
+     * The names of the methods. The index is the method index used by the
+     * generated proxies.
+     *
+     */
+    private final String[] names;
+    /**
+     * The recorders. The index is the method index used by the generated
+     * proxies.
+     *
+     */
+    private final Recorder[] recorders;
+
+    /**
+     * Constructor of ProxyMetrics.
+     *
+     * @param definition
+     *            {@link #definition}. Must be an interface.
+     */
+    public ProxyMetrics(final Class<?> definition) {
+        if (definition == null || !definition.isInterface()) {
+            throw new IllegalArgumentException("Definition must be an interface!");
+        }
+
+        this.definition = definition;
+        final Map<String, Method> forwardedMethods = ProxyClassGenerator.getForwardedMethods(definition);
+        this.signatures = new String[forwardedMethods.size()];
+        this.names = new String[forwardedMethods.size()];
+        this.recorders = new Recorder[forwardedMethods.size()];
+        int index = 0;
+        for (final Map.Entry<String, Method> entry : forwardedMethods.entrySet()) {
+            this.signatures[index] = entry.getKey();
+            this.names[index] = entry.getValue().getName();
+            this.recorders[index] = new Recorder();
+            index++;
+        }
+    }
+
+    /**
+     * Records an invocation.
+     *
+     * @param method
+     *            The index of the invoked method.
+     * @param duration
+     *            The duration of the invocation in nanoseconds.
+     * @param error
+     *            Whether the invocation threw an exception.
+     */
+    void record(final int method, final long duration, final boolean error) {
+        final Recorder recorder = this.recorders[method];
+        recorder.calls.increment();
+        if (error) {
+            recorder.errors.increment();
+        }
+        final long nanos = Math.max(duration, 0L);
+        recorder.totalNanos.add(nanos);
+        recorder.maxNanos.accumulate(nanos);
+        recorder.buckets[ProxyMetrics.bucket(nanos)].increment();
+    }
+
+    /**
+     * Creates a snapshot of the current metrics. The snapshot of a single
+     * method is not atomic (concurrent invocations may be partially
+     * contained).
+     *
+     * @return The statistics of all methods of the definition.
+     */
+    public List<MethodStatistics> snapshot() {
+        final List<MethodStatistics> result = new ArrayList<>(this.recorders.length);
+        for (int i = 0; i < this.recorders.length; i++) {
+            final Recorder recorder = this.recorders[i];
+            final long[] buckets = new long[ProxyMetrics.BUCKETS];
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                buckets[bucket] = recorder.buckets[bucket].sum();
+            }
+            result.add(new MethodStatistics(this.names[i], this.signatures[i], recorder.calls.sum(),
+                    recorder.errors.sum(), recorder.totalNanos.sum(), recorder.maxNanos.get(), buckets));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Gets a snapshot of the given method.
+     *
+     * @param name
+     *            The name of the method.
+     * @return The statistics of the method. If the method is overloaded, the
+     *         statistics of all overloads are summed up. <code>null</code> if
+     *         there is no such method.
+     */
+    public MethodStatistics snapshot(final String name) {
+        MethodStatistics result = null;
+        for (final MethodStatistics statistics : this.snapshot()) {
+            if (statistics.getName().equals(name)) {
+                result = result == null ? statistics : result.merge(statistics);
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @return {@link #definition}.
+     */
+    public Class<?> getDefinition() {
+        return this.definition;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ProxyMetrics[" + this.definition.getName() + ", " + this.snapshot() + "]";
+    }
+
+    /**
+     * Computes the histogram bucket of the given duration.
+     *
+     * @param nanos
+     *            The duration in nanoseconds. Must not be negative.
+     * @return The bucket index.
+     */
+    static int bucket(final long nanos) {
+        return ProxyMetrics.BUCKETS - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * The counters of a single method.
+     *
+     */
+    private static final class Recorder {
+        /**
+         * The number of calls.
+         *
+         */
+        private final LongAdder calls = new LongAdder();
+        /**
+         * The number of calls that threw an exception.
+         *
+         */
+        private final LongAdder errors = new LongAdder();
+        /**
+         * The total duration in nanoseconds.
+         *
+         */
+        private final LongAdder totalNanos = new LongAdder();
+        /**
+         * The maximum duration in nanoseconds.
+         *
+         */
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+        /**
+         * The histogram buckets (see {@link ProxyMetrics#BUCKETS}).
+         *
+         */
+        private final LongAdder[] buckets = new LongAdder[ProxyMetrics.BUCKETS];
+
+        /**
+         * Constructor of Recorder.
+         *
+         */
+        private Recorder() {
+            for (int i = 0; i < this.buckets.length; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+    }
+}
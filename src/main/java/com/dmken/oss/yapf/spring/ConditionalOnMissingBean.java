@@ -0,0 +1,53 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.spring;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.springframework.context.annotation.Conditional;
+
+/**
+ * Registers the annotated bean only if the application context does not
+ * contain a bean of the same type yet, so the application can replace the
+ * beans of the {@link YapfAutoConfiguration auto-configuration} by defining
+ * its own ones.
+ *
+ * <p>
+ * The beans of the application have to be registered before the
+ * auto-configuration (e.g. by importing it last).
+ * </p>
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Conditional(OnMissingBeanCondition.class)
+@interface ConditionalOnMissingBean {
+    /**
+     *
+     * @return The types of the beans that must be missing. Empty to use the
+     *         return type of the annotated bean method.
+     */
+    Class<?>[] value() default {};
+}
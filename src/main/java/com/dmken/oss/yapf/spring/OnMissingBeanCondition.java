@@ -0,0 +1,72 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.spring;
+
+import java.util.Map;
+
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.ConfigurationCondition;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+import org.springframework.core.type.MethodMetadata;
+import org.springframework.util.ClassUtils;
+
+/**
+ * The condition of {@link ConditionalOnMissingBean}.
+ *
+ */
+final class OnMissingBeanCondition implements ConfigurationCondition {
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.springframework.context.annotation.ConfigurationCondition#getConfigurationPhase()
+     */
+    @Override
+    public ConfigurationPhase getConfigurationPhase() {
+        return ConfigurationPhase.REGISTER_BEAN;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.springframework.context.annotation.Condition#matches(org.springframework.context.annotation.ConditionContext,
+     *      org.springframework.core.type.AnnotatedTypeMetadata)
+     */
+    @Override
+    public boolean matches(final ConditionContext context, final AnnotatedTypeMetadata metadata) {
+        final Map<String, Object> attributes = metadata.getAnnotationAttributes(ConditionalOnMissingBean.class.getName(), true);
+        String[] types = (String[]) attributes.get("value");
+        // The default value is missing if the metadata was read from the class
+        // file (e.g. while scanning for components).
+        if (types == null || types.length == 0) {
+            if (!(metadata instanceof MethodMetadata)) {
+                throw new IllegalStateException("@ConditionalOnMissingBean without types must annotate a bean method!");
+            }
+            types = new String[] { ((MethodMetadata) metadata).getReturnTypeName() };
+        }
+
+        for (final String type : types) {
+            final Class<?> clazz = ClassUtils.resolveClassName(type, context.getClassLoader());
+            if (context.getBeanFactory().getBeanNamesForType(clazz, true, false).length > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
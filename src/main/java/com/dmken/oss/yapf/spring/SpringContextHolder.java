@@ -26,7 +26,7 @@ import com.dmken.oss.yapf.util.Environment;
 
 /**
  * Holds {@link ApplicationContext Spring's application context} and populates
- * it to YAPF for firing application events.
+ * it to YAPF.
  * 
  * <p>
  * <b> NOTE: Do not access this class without checking for a valid Spring
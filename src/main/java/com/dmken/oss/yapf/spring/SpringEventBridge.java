@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.spring;
+
+import org.springframework.context.ApplicationEventPublisher;
+
+import com.dmken.oss.yapf.event.Event;
+import com.dmken.oss.yapf.event.EventBus;
+import com.dmken.oss.yapf.event.EventListener;
+
+/**
+ * Publishes all events fired on an {@link EventBus} as Spring application
+ * events. The bridge registers itself on creation and unregisters itself when
+ * it is closed (e.g. when the application context is closed).
+ *
+ * <p>
+ * The bridge is registered as a propagating listener (see
+ * {@link EventBus#registerPropagating(Class, EventListener)}): As when the
+ * events were published to Spring directly, an exception thrown by an
+ * application listener is propagated to the code firing the event (and aborts
+ * it) as long as the event is dispatched synchronously.
+ * </p>
+ *
+ */
+public class SpringEventBridge implements EventListener<Event>, AutoCloseable {
+    /**
+     * The event bus to bridge.
+     *
+     */
+    private final EventBus eventBus;
+    /**
+     * The application event publisher.
+     *
+     */
+    private final ApplicationEventPublisher applicationEventPublisher;
+
+    /**
+     * Constructor of SpringEventBridge.
+     *
+     * @param eventBus
+     *            {@link #eventBus}.
+     * @param applicationEventPublisher
+     *            {@link #applicationEventPublisher}.
+     */
+    public SpringEventBridge(final EventBus eventBus, final ApplicationEventPublisher applicationEventPublisher) {
+        if (eventBus == null) {
+            throw new IllegalArgumentException("EventBus must not be null!");
+        }
+        if (applicationEventPublisher == null) {
+            throw new IllegalArgumentException("ApplicationEventPublisher must not be null!");
+        }
+
+        this.eventBus = eventBus;
+        this.applicationEventPublisher = applicationEventPublisher;
+
+        eventBus.registerPropagating(Event.class, this);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.dmken.oss.yapf.event.EventListener#onEvent(com.dmken.oss.yapf.event.Event)
+     */
+    @Override
+    public void onEvent(final Event event) {
+        this.applicationEventPublisher.publishEvent(event);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close() {
+        this.eventBus.unregister(this);
+    }
+}
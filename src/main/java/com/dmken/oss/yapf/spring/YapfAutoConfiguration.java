@@ -24,6 +24,10 @@ import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.dmken.oss.yapf.PluginManager;
+import com.dmken.oss.yapf.event.EventBus;
+import com.dmken.oss.yapf.loader.PluginLoader;
+import com.dmken.oss.yapf.manager.SimplePluginManager;
 import com.dmken.oss.yapf.util.Environment;
 
 /**
@@ -31,8 +35,17 @@ import com.dmken.oss.yapf.util.Environment;
  * 
  * <p>
  * This creates all beans for plugin loading and plugin management, populates
- * the {@link SpringContextHolder} as a bean and prepares YAPF to work seamless
- * with Spring.
+ * the {@link SpringContextHolder} as a bean, publishes the YAPF events as
+ * application events (see {@link SpringEventBridge}) and prepares YAPF to work
+ * seamless with Spring.
+ * </p>
+ *
+ * <p>
+ * The plugin loader, the plugin manager and the bridge share the
+ * {@link EventBus} bean (the {@link EventBus#getDefault() default event bus}
+ * unless the application defines its own). The event bus, the plugin loader
+ * and the plugin manager are only created if the application does not define
+ * beans of these types.
  * </p>
  *
  * <p>
@@ -43,9 +56,32 @@ import com.dmken.oss.yapf.util.Environment;
 @SuppressWarnings("javadoc")
 @Configuration
 public class YapfAutoConfiguration {
+    @Bean
+    @ConditionalOnMissingBean
+    public EventBus yapfEventBus() {
+        return EventBus.getDefault();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public PluginLoader pluginLoader(final EventBus eventBus) {
+        return new PluginLoader(Runtime.getRuntime().availableProcessors(), eventBus);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(PluginManager.class)
+    public SimplePluginManager pluginManager(final EventBus eventBus) {
+        return new SimplePluginManager(false, Runtime.getRuntime().availableProcessors(), eventBus);
+    }
+
     @Bean
     public SpringContextHolder springContextHolder(final ApplicationContext applicationContext,
             final ApplicationEventPublisher applicationEventPublisher) {
         return new SpringContextHolder(applicationContext, applicationEventPublisher);
     }
+
+    @Bean
+    public SpringEventBridge springEventBridge(final EventBus eventBus, final ApplicationEventPublisher applicationEventPublisher) {
+        return new SpringEventBridge(eventBus, applicationEventPublisher);
+    }
 }
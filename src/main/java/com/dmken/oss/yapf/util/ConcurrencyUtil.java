@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility class for working with threads and executors.
+ *
+ */
+public final class ConcurrencyUtil {
+    /**
+     * Constructor of ConcurrencyUtil.
+     *
+     */
+    private ConcurrencyUtil() {
+        // Nothing to do.
+    }
+
+    /**
+     * Creates a new bounded executor using daemon threads named after the
+     * given name (e.g. <code>yapf-loader-1</code>). Daemon threads are used so
+     * that an executor that is not shut down does not prevent the JVM from
+     * exiting.
+     *
+     * @param name
+     *            The base name of the threads.
+     * @param threads
+     *            The maximum number of threads. Must be positive.
+     * @return The new executor. Has to be shut down by the caller.
+     */
+    public static ExecutorService newExecutor(final String name, final int threads) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Name must not be null or empty!");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be positive!");
+        }
+
+        return Executors.newFixedThreadPool(threads, ConcurrencyUtil.newThreadFactory(name));
+    }
+
+    /**
+     * Creates a new unbounded executor using daemon threads named after the
+     * given name (see {@link #newExecutor(String, int)}). Every task gets a
+     * thread immediately, so the caller has to limit the number of concurrent
+     * tasks. This is useful if tasks may hold on to their thread after being
+     * given up (e.g. if they ignore interrupts), as they can not starve the
+     * other tasks.
+     *
+     * @param name
+     *            The base name of the threads.
+     * @return The new executor. Has to be shut down by the caller.
+     */
+    public static ExecutorService newUnboundedExecutor(final String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Name must not be null or empty!");
+        }
+
+        return Executors.newCachedThreadPool(ConcurrencyUtil.newThreadFactory(name));
+    }
+
+    /**
+     * Creates a thread factory for daemon threads named after the given name.
+     *
+     * @param name
+     *            The base name of the threads.
+     * @return The thread factory.
+     */
+    private static ThreadFactory newThreadFactory(final String name) {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -19,23 +19,14 @@
  */
 package com.dmken.oss.yapf.util;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.dmken.oss.yapf.event.Event;
-import com.dmken.oss.yapf.spring.SpringContextHolder;
+import com.dmken.oss.yapf.event.EventBus;
 
 /**
  * Provides multiple methods for working with events.
  *
  */
 public final class EventUtil {
-    /**
-     * The logger.
-     * 
-     */
-    private static final Logger LOGGER = LoggerFactory.getLogger(EventUtil.class);
-
     /**
      * Constructor of EventUtil.
      *
@@ -45,36 +36,15 @@ public final class EventUtil {
     }
 
     /**
-     * Fires the given events.
-     * 
-     * <ol>
-     * <li>If Spring is on the classpath, it fires the event as an application
-     * event in Spring.</li>
-     * <li>Otherwise it does nothing.</li>
-     * </ol>
+     * Fires the given event on the {@link EventBus#getDefault() default event
+     * bus}. In a Spring environment, the event is also published as an
+     * application event (see
+     * {@link com.dmken.oss.yapf.spring.SpringEventBridge}).
      *
      * @param event
      *            The event to fire.
      */
     public static void fire(final Event event) {
-        if (Environment.isSpring()) {
-            EventUtil.fireSpring(event);
-        }
-    }
-
-    /**
-     * Fires the given event as an application event.
-     * 
-     * <p>
-     * <b> NOTE: Make sure Spring exists before invoking! </b>
-     * </p>
-     *
-     * @param event
-     *            The event to fire.
-     */
-    private static void fireSpring(final Event event) {
-        EventUtil.LOGGER.debug("Firing YAPF application event {}.", event.getName());
-
-        SpringContextHolder.getInstance().getApplicationEventPublisher().publishEvent(event);
+        EventBus.getDefault().fire(event);
     }
 }
@@ -22,8 +22,6 @@ package com.dmken.oss.yapf.util;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.jar.JarFile;
-import java.util.zip.ZipException;
 
 /**
  * Utility class for working with files.
@@ -39,7 +37,9 @@ public final class FileUtil {
     }
 
     /**
-     * Checks whether the given file is a valid JAR file.
+     * Checks whether the given file is a valid JAR file. This only checks the
+     * ZIP structure and does not open the file as a
+     * {@link java.util.jar.JarFile} (see {@link JarManifestReader}).
      *
      * @param file
      *            The file to check
@@ -53,10 +53,6 @@ public final class FileUtil {
             return false;
         }
 
-        try (final JarFile jar = new JarFile(file.toFile())) {
-            return true;
-        } catch (final ZipException ex) {
-            return false;
-        }
+        return JarManifestReader.isZipFile(file);
     }
 }
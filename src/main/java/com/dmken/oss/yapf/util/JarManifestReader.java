@@ -0,0 +1,495 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A lightweight reader for the {@link Manifest} of JAR files.
+ *
+ * <p>
+ * Opposed to {@link JarFile}, this does not parse the whole central directory
+ * into entries and does not set up inflaters for the whole file. Instead it
+ * locates the end of central directory record, searches the central directory
+ * for the manifest entry through a small buffer and inflates only that entry.
+ * </p>
+ *
+ * <p>
+ * The file is read with positional reads rather than being memory-mapped, as
+ * a mapping is only released by the garbage collector and keeps the file
+ * locked on Windows until then (which prevents replacing plugin JARs).
+ * </p>
+ *
+ * <p>
+ * ZIP64 archives are not read directly but delegated to {@link JarFile}.
+ * </p>
+ *
+ */
+public final class JarManifestReader {
+    /**
+     * The name of the manifest entry.
+     *
+     */
+    private static final byte[] MANIFEST_NAME = JarFile.MANIFEST_NAME.getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The signature of the end of central directory record.
+     *
+     */
+    private static final int EOCD_SIGNATURE = 0x0605_4b50;
+    /**
+     * The (minimal) size of the end of central directory record.
+     *
+     */
+    private static final int EOCD_SIZE = 22;
+    /**
+     * The maximal length of the ZIP file comment.
+     *
+     */
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    /**
+     * The signature of a central directory file header.
+     *
+     */
+    private static final int CEN_SIGNATURE = 0x0201_4b50;
+    /**
+     * The size of the fixed part of a central directory file header.
+     *
+     */
+    private static final int CEN_SIZE = 46;
+    /**
+     * The signature of a local file header.
+     *
+     */
+    private static final int LOC_SIGNATURE = 0x0403_4b50;
+    /**
+     * The size of the fixed part of a local file header.
+     *
+     */
+    private static final int LOC_SIZE = 30;
+
+    /**
+     * The compression method for stored (uncompressed) entries.
+     *
+     */
+    private static final int METHOD_STORED = 0;
+    /**
+     * The compression method for deflated entries.
+     *
+     */
+    private static final int METHOD_DEFLATED = 8;
+
+    /**
+     * Values of the end of central directory record marking a ZIP64 archive.
+     *
+     */
+    private static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+    /**
+     * Values of the end of central directory record marking a ZIP64 archive.
+     *
+     */
+    private static final long ZIP64_MAGIC_INT = 0xFFFF_FFFFL;
+
+    /**
+     * The maximal (compressed and uncompressed) size of the manifest. Larger
+     * sizes only occur in corrupt or hostile files.
+     *
+     */
+    private static final int MAX_MANIFEST_SIZE = 4 * 1024 * 1024;
+    /**
+     * The size of the buffer the central directory is read through.
+     *
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Constructor of JarManifestReader.
+     *
+     */
+    private JarManifestReader() {
+        // Nothing to do.
+    }
+
+    /**
+     * Checks whether the given file is a ZIP file (that is whether it contains
+     * a valid end of central directory record).
+     *
+     * @param file
+     *            The file to check.
+     * @return Whether the given file is a ZIP file.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    public static boolean isZipFile(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return JarManifestReader.findEndOfCentralDirectory(channel) >= 0;
+        }
+    }
+
+    /**
+     * Reads the manifest of the given JAR file.
+     *
+     * @param file
+     *            The JAR file to read the manifest of.
+     * @return The manifest or an empty {@link Optional} if the JAR file does
+     *         not contain a manifest.
+     * @throws ZipException
+     *             If the file is not a (supported) ZIP file or the manifest is
+     *             larger than 4 MiB.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    public static Optional<Manifest> readManifest(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return JarManifestReader.readManifestFallback(file);
+            }
+
+            final long eocd = JarManifestReader.findEndOfCentralDirectory(channel);
+            if (eocd < 0) {
+                throw new ZipException("Missing end of central directory record!");
+            }
+            final ByteBuffer record = JarManifestReader.read(channel, eocd, JarManifestReader.EOCD_SIZE);
+            final int entries = Short.toUnsignedInt(record.getShort(10));
+            final long centralDirectorySize = Integer.toUnsignedLong(record.getInt(12));
+            final long centralDirectoryOffset = Integer.toUnsignedLong(record.getInt(16));
+            if (entries == JarManifestReader.ZIP64_MAGIC_SHORT || centralDirectorySize == JarManifestReader.ZIP64_MAGIC_INT
+                    || centralDirectoryOffset == JarManifestReader.ZIP64_MAGIC_INT) {
+                return JarManifestReader.readManifestFallback(file);
+            }
+
+            final Window window = new Window(channel, eocd);
+            long position = centralDirectoryOffset;
+            for (int i = 0; i < entries; i++) {
+                if (position + JarManifestReader.CEN_SIZE > eocd) {
+                    throw new ZipException("Invalid central directory file header!");
+                }
+                final ByteBuffer buffer = window.buffer;
+                final int header = window.ensure(position, JarManifestReader.CEN_SIZE);
+                if (buffer.getInt(header) != JarManifestReader.CEN_SIGNATURE) {
+                    throw new ZipException("Invalid central directory file header!");
+                }
+                final int nameLength = Short.toUnsignedInt(buffer.getShort(header + 28));
+                final int extraLength = Short.toUnsignedInt(buffer.getShort(header + 30));
+                final int commentLength = Short.toUnsignedInt(buffer.getShort(header + 32));
+                if (position + JarManifestReader.CEN_SIZE + nameLength > eocd) {
+                    throw new ZipException("Invalid central directory file header!");
+                }
+                if (nameLength == JarManifestReader.MANIFEST_NAME.length) {
+                    final int start = window.ensure(position, JarManifestReader.CEN_SIZE + nameLength);
+                    if (JarManifestReader.nameEquals(buffer, start + JarManifestReader.CEN_SIZE, nameLength)) {
+                        final int method = Short.toUnsignedInt(buffer.getShort(start + 10));
+                        final long compressedSize = Integer.toUnsignedLong(buffer.getInt(start + 20));
+                        final long size = Integer.toUnsignedLong(buffer.getInt(start + 24));
+                        final long localHeaderOffset = Integer.toUnsignedLong(buffer.getInt(start + 42));
+                        return Optional.of(new Manifest(new ByteArrayInputStream(
+                                JarManifestReader.readEntry(channel, localHeaderOffset, method, compressedSize, size, eocd))));
+                    }
+                }
+                position += JarManifestReader.CEN_SIZE + nameLength + extraLength + commentLength;
+            }
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Reads the given number of bytes starting at the given position of the
+     * given channel.
+     *
+     * @param channel
+     *            The channel to read from.
+     * @param position
+     *            The position to start reading at.
+     * @param length
+     *            The number of bytes to read.
+     * @return The read bytes (in little endian order).
+     * @throws ZipException
+     *             If the channel ends before the given number of bytes was
+     *             read.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    private static ByteBuffer read(final FileChannel channel, final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        JarManifestReader.readFully(channel, buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Fills the remaining space of the given buffer with the bytes starting
+     * at the given position of the given channel.
+     *
+     * @param channel
+     *            The channel to read from.
+     * @param buffer
+     *            The buffer to read into.
+     * @param position
+     *            The position to start reading at.
+     * @throws ZipException
+     *             If the channel ends before the buffer was filled.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        final int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - start) < 0) {
+                throw new ZipException("Unexpected end of file!");
+            }
+        }
+    }
+
+    /**
+     * Finds the end of central directory record by searching backwards from
+     * the end of the file (the record is followed by a comment of up to
+     * 64KiB).
+     *
+     * @param channel
+     *            The channel of the file to search.
+     * @return The position of the record or <code>-1</code> if the file does
+     *         not contain a valid record.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    private static long findEndOfCentralDirectory(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final int limit = (int) Math.min(size, JarManifestReader.EOCD_SIZE + JarManifestReader.MAX_COMMENT_LENGTH);
+        final long offset = size - limit;
+        final ByteBuffer buffer = JarManifestReader.read(channel, offset, limit);
+        for (int position = limit - JarManifestReader.EOCD_SIZE; position >= 0; position--) {
+            if (buffer.getInt(position) == JarManifestReader.EOCD_SIGNATURE
+                    && position + JarManifestReader.EOCD_SIZE + Short.toUnsignedInt(buffer.getShort(position + 20)) == limit) {
+                final long centralDirectorySize = Integer.toUnsignedLong(buffer.getInt(position + 12));
+                final long centralDirectoryOffset = Integer.toUnsignedLong(buffer.getInt(position + 16));
+                if (centralDirectoryOffset == JarManifestReader.ZIP64_MAGIC_INT
+                        || centralDirectoryOffset + centralDirectorySize <= offset + position) {
+                    return offset + position;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the name at the given position equals the manifest name
+     * (ignoring the case of ASCII characters like {@link JarFile} does).
+     *
+     * @param buffer
+     *            The buffer.
+     * @param position
+     *            The position of the name.
+     * @param length
+     *            The length of the name.
+     * @return Whether the name is the manifest name.
+     */
+    private static boolean nameEquals(final ByteBuffer buffer, final int position, final int length) {
+        if (length != JarManifestReader.MANIFEST_NAME.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final byte expected = JarManifestReader.MANIFEST_NAME[i];
+            final byte actual = buffer.get(position + i);
+            if (expected != actual && expected != Character.toUpperCase((char) actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads and inflates (if necessary) the entry whose local file header is
+     * at the given position.
+     *
+     * @param channel
+     *            The channel to read from.
+     * @param localHeaderOffset
+     *            The position of the local file header.
+     * @param method
+     *            The compression method (from the central directory).
+     * @param compressedSize
+     *            The compressed size (from the central directory).
+     * @param size
+     *            The uncompressed size (from the central directory).
+     * @param limit
+     *            The position where the data section ends (that is the end of
+     *            central directory record).
+     * @return The (uncompressed) content of the entry.
+     * @throws ZipException
+     *             If the entry is invalid, too large or uses an unsupported
+     *             compression method.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    private static byte[] readEntry(final FileChannel channel, final long localHeaderOffset, final int method,
+            final long compressedSize, final long size, final long limit) throws IOException {
+        // All offsets and sizes are unsigned values from the (possibly
+        // corrupt) file, so they are validated before being used.
+        if (localHeaderOffset + JarManifestReader.LOC_SIZE > limit) {
+            throw new ZipException("Invalid local file header offset!");
+        }
+        final ByteBuffer localHeader = JarManifestReader.read(channel, localHeaderOffset, JarManifestReader.LOC_SIZE);
+        if (localHeader.getInt(0) != JarManifestReader.LOC_SIGNATURE) {
+            throw new ZipException("Invalid local file header!");
+        }
+        final int nameLength = Short.toUnsignedInt(localHeader.getShort(26));
+        final int extraLength = Short.toUnsignedInt(localHeader.getShort(28));
+        final long dataOffset = localHeaderOffset + JarManifestReader.LOC_SIZE + nameLength + extraLength;
+        if (dataOffset > limit || compressedSize > limit - dataOffset) {
+            throw new ZipException("Invalid entry data offset or size!");
+        }
+        if (compressedSize > JarManifestReader.MAX_MANIFEST_SIZE || size > JarManifestReader.MAX_MANIFEST_SIZE) {
+            throw new ZipException("Manifest exceeds the maximal size of " + JarManifestReader.MAX_MANIFEST_SIZE + " bytes!");
+        }
+        if (method == JarManifestReader.METHOD_STORED && size != compressedSize) {
+            throw new ZipException("Invalid entry size!");
+        }
+
+        final byte[] compressed = JarManifestReader.read(channel, dataOffset, (int) compressedSize).array();
+        switch (method) {
+            case METHOD_STORED:
+                return compressed;
+            case METHOD_DEFLATED:
+                final byte[] result = new byte[(int) size];
+                final Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(compressed);
+                    int length = 0;
+                    while (length < result.length && !inflater.finished()) {
+                        final int inflated = inflater.inflate(result, length, result.length - length);
+                        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            break;
+                        }
+                        length += inflated;
+                    }
+                    if (length != result.length) {
+                        throw new ZipException("Invalid entry size!");
+                    }
+                } catch (final DataFormatException cause) {
+                    final ZipException ex = new ZipException("Invalid deflated data!");
+                    ex.initCause(cause);
+                    throw ex;
+                } finally {
+                    inflater.end();
+                }
+                return result;
+            default:
+                throw new ZipException("Unsupported compression method " + method + "!");
+        }
+    }
+
+    /**
+     * Reads the manifest using {@link JarFile} (used for archives that are not
+     * supported directly).
+     *
+     * @param file
+     *            The JAR file to read the manifest of.
+     * @return The manifest or an empty {@link Optional} if the JAR file does
+     *         not contain a manifest.
+     * @throws IOException
+     *             If any I/O error occurs.
+     */
+    private static Optional<Manifest> readManifestFallback(final Path file) throws IOException {
+        try (final JarFile jar = new JarFile(file.toFile())) {
+            return Optional.ofNullable(jar.getManifest());
+        }
+    }
+
+    /**
+     * A window of the central directory that is read through a fixed buffer,
+     * so the central directory is neither mapped nor read as a whole.
+     *
+     */
+    private static final class Window {
+        /**
+         * The channel to read from.
+         *
+         */
+        private final FileChannel channel;
+        /**
+         * The position where the central directory ends (that is the end of
+         * central directory record).
+         *
+         */
+        private final long limit;
+        /**
+         * The buffer holding the current window.
+         *
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocate(JarManifestReader.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        /**
+         * The position of the first byte of {@link #buffer} in the file.
+         *
+         */
+        private long offset;
+
+        /**
+         * Constructor of Window.
+         *
+         * @param channel
+         *            {@link #channel}.
+         * @param limit
+         *            {@link #limit}.
+         */
+        private Window(final FileChannel channel, final long limit) {
+            this.channel = channel;
+            this.limit = limit;
+            this.buffer.limit(0);
+        }
+
+        /**
+         * Makes sure that the given range of the file is contained in
+         * {@link #buffer}, reading it if necessary.
+         *
+         * @param position
+         *            The position of the range. Together with the length, it
+         *            must not exceed {@link #limit}.
+         * @param length
+         *            The length of the range. Must not exceed the capacity of
+         *            the buffer.
+         * @return The index of the given position in {@link #buffer}.
+         * @throws IOException
+         *             If any I/O error occurs.
+         */
+        private int ensure(final long position, final int length) throws IOException {
+            if (position < this.offset || position + length > this.offset + this.buffer.limit()) {
+                this.buffer.clear();
+                this.buffer.limit((int) Math.min(this.buffer.capacity(), this.limit - position));
+                JarManifestReader.readFully(this.channel, this.buffer, position);
+                this.buffer.flip();
+                this.offset = position;
+            }
+            return (int) (position - this.offset);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.cache;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dmken.oss.yapf.proxy.InterceptingForwardingProxy;
+
+@SuppressWarnings("javadoc")
+public class ResultCacheTest {
+    private ResultCache resultCache;
+    private CatalogImpl implementation;
+    private Catalog catalog;
+
+    @Before
+    public void setUp() {
+        this.resultCache = new ResultCache(Catalog.class);
+        this.implementation = new CatalogImpl();
+        this.catalog = (Catalog) this.resultCache.wrap(this.implementation);
+    }
+
+    @Test
+    public void testCaching() {
+        Assert.assertEquals("a:1", this.catalog.lookup("a", 1));
+        Assert.assertEquals("a:1", this.catalog.lookup("a", 1));
+        Assert.assertEquals("a:2", this.catalog.lookup("a", 2));
+        Assert.assertEquals(2, this.implementation.invocations.get());
+
+        final CacheStatistics statistics = this.resultCache.getStatistics("lookup");
+        Assert.assertEquals(1, statistics.getHits());
+        Assert.assertEquals(2, statistics.getMisses());
+        Assert.assertEquals(0, statistics.getEvictions());
+        Assert.assertEquals(1.0 / 3, statistics.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void testDeepArguments() {
+        Assert.assertEquals(3, this.catalog.sum(new int[] { 1, 2 }));
+        Assert.assertEquals(3, this.catalog.sum(new int[] { 1, 2 }));
+
+        Assert.assertEquals(1, this.implementation.invocations.get());
+    }
+
+    @Test
+    public void testNullResult() {
+        Assert.assertNull(this.catalog.lookup(null, 0));
+        Assert.assertNull(this.catalog.lookup(null, 0));
+
+        Assert.assertEquals(1, this.implementation.invocations.get());
+    }
+
+    @Test
+    public void testExceptionsNotCached() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                this.catalog.lookup("a", -1);
+
+                Assert.fail();
+            } catch (final IllegalArgumentException dummy) {
+                // Expected.
+            }
+        }
+
+        Assert.assertEquals(2, this.implementation.invocations.get());
+    }
+
+    @Test
+    public void testEviction() {
+        this.catalog.lookup("a", 1);
+        this.catalog.lookup("b", 1);
+        this.catalog.lookup("a", 1);
+        // Evicts b (least recently used).
+        this.catalog.lookup("c", 1);
+        this.catalog.lookup("a", 1);
+        this.catalog.lookup("b", 1);
+
+        Assert.assertEquals(4, this.implementation.invocations.get());
+        Assert.assertEquals(2, this.resultCache.getStatistics("lookup").getEvictions());
+    }
+
+    @Test
+    public void testExpiration() throws InterruptedException {
+        this.catalog.version();
+        this.catalog.version();
+        Assert.assertEquals(1, this.implementation.invocations.get());
+
+        Thread.sleep(150);
+        this.catalog.version();
+
+        Assert.assertEquals(2, this.implementation.invocations.get());
+        Assert.assertEquals(1, this.resultCache.getStatistics("version").getEvictions());
+    }
+
+    @Test
+    public void testInvalidate() {
+        this.catalog.lookup("a", 1);
+
+        ResultCache.invalidate(this.catalog);
+        ResultCache.invalidate(this.implementation);
+        this.catalog.lookup("a", 1);
+
+        Assert.assertEquals(2, this.implementation.invocations.get());
+    }
+
+    @Test
+    public void testUncachedMethods() {
+        this.catalog.uncached();
+        this.catalog.uncached();
+
+        Assert.assertEquals(2, this.implementation.invocations.get());
+        Assert.assertNull(this.resultCache.getStatistics("uncached"));
+        Assert.assertEquals(3, this.resultCache.getStatistics().size());
+        Assert.assertTrue(this.catalog.equals(this.catalog));
+        Assert.assertFalse(this.catalog.equals(this.implementation));
+        Assert.assertTrue(this.catalog.toString().startsWith("Cached["));
+    }
+
+    @Test
+    public void testUncachedMethodsInvokedDirectly() {
+        this.catalog.uncached();
+
+        // Checks the frames between the implementation and this test.
+        for (final StackTraceElement element : this.implementation.uncachedTrace) {
+            if (element.getClassName().equals(ResultCacheTest.class.getName())) {
+                break;
+            }
+            Assert.assertNotEquals(Method.class.getName(), element.getClassName());
+            // Classes of java.lang.reflect.Proxy are named $ProxyN.
+            Assert.assertFalse(element.getClassName(), element.getClassName().contains("$Proxy"));
+        }
+        Assert.assertTrue(this.catalog instanceof InterceptingForwardingProxy);
+        Assert.assertSame(this.implementation, ((InterceptingForwardingProxy) this.catalog).getTarget());
+    }
+
+    @Test
+    public void testIsCacheable() {
+        Assert.assertTrue(ResultCache.isCacheable(Catalog.class));
+        Assert.assertFalse(ResultCache.isCacheable(Runnable.class));
+        Assert.assertFalse(ResultCache.isCacheable(CatalogImpl.class));
+        Assert.assertFalse(ResultCache.isCacheable(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrapInvalidImplementation() {
+        this.resultCache.wrap("test");
+    }
+
+    public interface Catalog {
+        @Cacheable(maximumSize = 2)
+        String lookup(String name, int version);
+
+        @Cacheable
+        int sum(int[] values);
+
+        @Cacheable(expireAfterWrite = 100, unit = TimeUnit.MILLISECONDS)
+        long version();
+
+        void uncached();
+    }
+
+    public static class CatalogImpl implements Catalog {
+        private final AtomicInteger invocations = new AtomicInteger();
+        private volatile StackTraceElement[] uncachedTrace;
+
+        @Override
+        public String lookup(final String name, final int version) {
+            this.invocations.incrementAndGet();
+            if (version < 0) {
+                throw new IllegalArgumentException("Negative version!");
+            }
+            return name == null ? null : name + ":" + version;
+        }
+
+        @Override
+        public int sum(final int[] values) {
+            this.invocations.incrementAndGet();
+            int result = 0;
+            for (final int value : values) {
+                result += value;
+            }
+            return result;
+        }
+
+        @Override
+        public long version() {
+            return this.invocations.incrementAndGet();
+        }
+
+        @Override
+        public void uncached() {
+            this.invocations.incrementAndGet();
+            this.uncachedTrace = new Throwable().getStackTrace();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.PluginMeta;
+import com.dmken.oss.yapf.PluginType;
+import com.dmken.oss.yapf.Version;
+import com.dmken.oss.yapf.meta.SimplePluginMeta;
+import com.dmken.oss.yapf.meta.UnmodifiablePluginMeta;
+
+@SuppressWarnings("javadoc")
+public class AbstractCancelableEventTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractCancelableEventTest.class);
+
+    @Test
+    public void testCancel() {
+        final PrePluginLoadEvent event = new PrePluginLoadEvent(null);
+        Assert.assertFalse(event.isCancelled());
+        Assert.assertEquals(Collections.emptyList(), event.getCancelMessages());
+
+        event.cancel("first");
+        event.cancel("second");
+
+        Assert.assertTrue(event.isCancelled());
+        Assert.assertEquals(Arrays.asList("first", "second"), event.getCancelMessages());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCancelMessagesUnmodifiable() {
+        final PrePluginLoadEvent event = new PrePluginLoadEvent(null);
+        event.cancel("first");
+
+        event.getCancelMessages().add("second");
+    }
+
+    @Test
+    public void testReset() {
+        final PrePluginLoadEvent event = new PrePluginLoadEvent(null);
+        event.cancel("first");
+
+        event.reset();
+
+        Assert.assertFalse(event.isCancelled());
+        Assert.assertEquals(Collections.emptyList(), event.getCancelMessages());
+        event.cancel("second");
+        Assert.assertEquals(Collections.singletonList("second"), event.getCancelMessages());
+    }
+
+    @Test
+    public void testPluginMeta() throws Exception {
+        final SimplePluginMeta meta = AbstractCancelableEventTest.createMeta();
+        final UnmodifiablePluginMeta unmodifiable = new UnmodifiablePluginMeta(meta);
+
+        final PrePluginLoadEvent event = new PrePluginLoadEvent(meta);
+
+        Assert.assertTrue(event.getPluginMeta() instanceof UnmodifiablePluginMeta);
+        Assert.assertSame(event.getPluginMeta(), event.getPluginMeta());
+        Assert.assertEquals("test", event.getPluginMeta().getName());
+        Assert.assertSame(unmodifiable, new PrePluginLoadEvent(unmodifiable).getPluginMeta());
+    }
+
+    @Test
+    public void testAllocation() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        final PluginMeta meta = new UnmodifiablePluginMeta(AbstractCancelableEventTest.createMeta());
+        final EventBus eventBus = new EventBus();
+        final int[] received = new int[1];
+        eventBus.register(PrePluginLoadEvent.class, event -> received[0] += event.getPluginMeta().getName().length());
+        eventBus.register(LegacyPrePluginLoadEvent.class,
+                event -> received[0] += event.getPluginMeta().getName().length());
+        final PrePluginLoadEvent pooled = new PrePluginLoadEvent(meta);
+
+        final long legacy = AbstractCancelableEventTest.measure(threadBean, eventBus,
+                () -> new LegacyPrePluginLoadEvent(meta));
+        final long current = AbstractCancelableEventTest.measure(threadBean, eventBus, () -> new PrePluginLoadEvent(meta));
+        final long reused = AbstractCancelableEventTest.measure(threadBean, eventBus, () -> {
+            pooled.reset();
+            return pooled;
+        });
+
+        AbstractCancelableEventTest.LOGGER.info(
+                "Allocated bytes per cancelable event: legacy {}, lazy {}, reused {}.", legacy, current, reused);
+        Assert.assertTrue(received[0] > 0);
+        Assert.assertTrue(current < legacy);
+        Assert.assertTrue(reused < 8);
+    }
+
+    private static long measure(final com.sun.management.ThreadMXBean threadBean, final EventBus eventBus,
+            final Supplier<? extends Cancelable> eventSupplier) {
+        final int iterations = 100_000;
+        final long threadId = Thread.currentThread().getId();
+        long allocated = 0;
+        // The first round warms up.
+        for (int round = 0; round < 2; round++) {
+            final long before = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                final Cancelable event = eventSupplier.get();
+                eventBus.fire((Event) event);
+                if (event.isCancelled()) {
+                    throw new IllegalStateException("Event must not be cancelled!");
+                }
+            }
+            allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+        }
+        return allocated / iterations;
+    }
+
+    private static SimplePluginMeta createMeta() throws Exception {
+        final SimplePluginMeta meta = new SimplePluginMeta();
+        meta.setLocation(new URL("file:/test.jar"));
+        meta.setName("test");
+        meta.setDisplayName("test");
+        meta.setVersion(new Version(1, 0, 0));
+        meta.setMain("test.Main");
+        meta.setPluginType(PluginType.REGULAR);
+        meta.setDependencies(new String[0]);
+        meta.setOptionalDependencies(new String[0]);
+        meta.setAuthors(new String[0]);
+        return meta;
+    }
+
+    /**
+     * Mimics the previous implementation (eager list, wrapper per call).
+     *
+     */
+    private static final class LegacyPrePluginLoadEvent extends AbstractEvent implements Cancelable {
+        private final List<String> cancelMessages = new LinkedList<>();
+        private final PluginMeta pluginMeta;
+
+        private LegacyPrePluginLoadEvent(final PluginMeta pluginMeta) {
+            this.pluginMeta = pluginMeta;
+        }
+
+        public PluginMeta getPluginMeta() {
+            return new UnmodifiablePluginMeta(this.pluginMeta);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return !this.cancelMessages.isEmpty();
+        }
+
+        @Override
+        public List<String> getCancelMessages() {
+            return Collections.unmodifiableList(this.cancelMessages);
+        }
+
+        @Override
+        public void cancel(final String message) {
+            this.cancelMessages.add(message);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class AsyncEventDispatcherTest {
+    private EventBus eventBus;
+    private AsyncEventDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        this.eventBus = new EventBus();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.dispatcher != null) {
+            this.dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testOrder() throws Exception {
+        this.dispatcher = new AsyncEventDispatcher(16, 2, OverflowPolicy.BLOCK);
+        this.eventBus.setAsyncDispatcher(this.dispatcher);
+        final List<List<Event>> received = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final List<Event> events = Collections.synchronizedList(new ArrayList<>());
+            received.add(events);
+            this.eventBus.register(PostPluginLoadEvent.class, events::add);
+        }
+
+        final List<Event> fired = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final Event event = new PostPluginLoadEvent(null);
+            fired.add(event);
+            this.eventBus.fire(event);
+        }
+        this.dispatcher.close();
+
+        for (final List<Event> events : received) {
+            Assert.assertEquals(fired, events);
+        }
+        Assert.assertEquals(0, this.dispatcher.getQueueDepth());
+        Assert.assertEquals(0, this.dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void testCancelableIsSynchronous() throws Exception {
+        this.dispatcher = new AsyncEventDispatcher(16, 1, OverflowPolicy.BLOCK);
+        this.eventBus.setAsyncDispatcher(this.dispatcher);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        this.eventBus.register(PrePluginLoadEvent.class, event -> {
+            thread.set(Thread.currentThread());
+            event.cancel("Cancelled.");
+        });
+
+        final PrePluginLoadEvent event = new PrePluginLoadEvent(null);
+        this.eventBus.fire(event);
+
+        Assert.assertSame(Thread.currentThread(), thread.get());
+        Assert.assertTrue(event.isCancelled());
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        this.dispatcher = new AsyncEventDispatcher(2, 1, OverflowPolicy.DROP);
+        this.eventBus.setAsyncDispatcher(this.dispatcher);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger received = new AtomicInteger();
+        this.eventBus.register(PostPluginLoadEvent.class, event -> {
+            started.countDown();
+            AsyncEventDispatcherTest.await(release);
+            received.incrementAndGet();
+        });
+
+        this.eventBus.fire(new PostPluginLoadEvent(null));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            this.eventBus.fire(new PostPluginLoadEvent(null));
+        }
+
+        Assert.assertEquals(2, this.dispatcher.getQueueDepth());
+        Assert.assertEquals(4, this.dispatcher.getDroppedCount());
+        release.countDown();
+        this.dispatcher.close();
+        Assert.assertEquals(2, received.get());
+    }
+
+    @Test
+    public void testBlockFromListener() throws Exception {
+        this.dispatcher = new AsyncEventDispatcher(2, 2, OverflowPolicy.BLOCK);
+        this.eventBus.setAsyncDispatcher(this.dispatcher);
+        final List<Event> fired = Collections.synchronizedList(new ArrayList<>());
+        final List<List<Event>> received = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final List<Event> events = Collections.synchronizedList(new ArrayList<>());
+            received.add(events);
+            this.eventBus.register(PostPluginLoadEvent.class, event -> {
+                events.add(event);
+                if (events.size() == 1 && received.get(0) == events) {
+                    for (int j = 0; j < 10; j++) {
+                        final Event nested = new PostPluginLoadEvent(null);
+                        fired.add(nested);
+                        this.eventBus.fire(nested);
+                    }
+                }
+            });
+        }
+
+        final Event event = new PostPluginLoadEvent(null);
+        fired.add(event);
+        this.eventBus.fire(event);
+        while (fired.size() < 11) {
+            Thread.sleep(1);
+        }
+        this.dispatcher.close();
+
+        for (final List<Event> events : received) {
+            Assert.assertEquals(fired, events);
+        }
+        Assert.assertEquals(0, this.dispatcher.getQueueDepth());
+        Assert.assertEquals(0, this.dispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void testListenerError() throws Exception {
+        this.dispatcher = new AsyncEventDispatcher(4, 1, OverflowPolicy.BLOCK);
+        this.eventBus.setAsyncDispatcher(this.dispatcher);
+        final AtomicInteger received = new AtomicInteger();
+        this.eventBus.register(PostPluginLoadEvent.class, event -> {
+            if (received.incrementAndGet() == 1) {
+                throw new AssertionError("Failure.");
+            }
+        });
+
+        for (int i = 0; i < 3; i++) {
+            this.eventBus.fire(new PostPluginLoadEvent(null));
+        }
+        this.dispatcher.close();
+
+        Assert.assertEquals(3, received.get());
+    }
+
+    @Test
+    public void testSlotCleared() throws Exception {
+        this.dispatcher = new AsyncEventDispatcher(4, 2, OverflowPolicy.BLOCK);
+        this.eventBus.setAsyncDispatcher(this.dispatcher);
+        final AtomicInteger received = new AtomicInteger();
+        this.eventBus.register(PostPluginLoadEvent.class, event -> received.incrementAndGet());
+        this.eventBus.register(PostPluginLoadEvent.class, event -> received.incrementAndGet());
+
+        final WeakReference<Event> reference = this.fireWeakly();
+        while (this.dispatcher.getQueueDepth() > 0) {
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(2, received.get());
+        Assert.assertNull(reference.get());
+    }
+
+    @Test
+    public void testIdleConsumerParks() throws Exception {
+        this.dispatcher = new AsyncEventDispatcher(4, 1, OverflowPolicy.BLOCK);
+        final Thread consumer = Thread.getAllStackTraces().keySet().stream() //
+                .filter(thread -> "yapf-event-1".equals(thread.getName())) //
+                .findAny() //
+                .orElseThrow(IllegalStateException::new);
+
+        for (int i = 0; i < 1000 && consumer.getState() != Thread.State.WAITING; i++) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(Thread.State.WAITING, consumer.getState());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        this.dispatcher = new AsyncEventDispatcher(2, 1, OverflowPolicy.BLOCK);
+        this.eventBus.setAsyncDispatcher(this.dispatcher);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger received = new AtomicInteger();
+        this.eventBus.register(PostPluginLoadEvent.class, event -> {
+            AsyncEventDispatcherTest.await(release);
+            received.incrementAndGet();
+        });
+
+        final Thread publisher = new Thread(() -> {
+            for (int i = 0; i < 5; i++) {
+                this.eventBus.fire(new PostPluginLoadEvent(null));
+            }
+        });
+        publisher.start();
+        publisher.join(200);
+
+        Assert.assertTrue(publisher.isAlive());
+        Assert.assertEquals(2, this.dispatcher.getQueueDepth());
+        release.countDown();
+        publisher.join();
+        this.dispatcher.close();
+        Assert.assertEquals(5, received.get());
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        this.dispatcher = new AsyncEventDispatcher(4, 1, OverflowPolicy.BLOCK);
+        this.eventBus.setAsyncDispatcher(this.dispatcher);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        this.eventBus.register(PostPluginLoadEvent.class, event -> thread.set(Thread.currentThread()));
+        this.dispatcher.close();
+
+        this.eventBus.fire(new PostPluginLoadEvent(null));
+
+        Assert.assertTrue(this.dispatcher.isClosed());
+        Assert.assertSame(Thread.currentThread(), thread.get());
+    }
+
+    private WeakReference<Event> fireWeakly() {
+        final Event event = new PostPluginLoadEvent(null);
+        this.eventBus.fire(event);
+        return new WeakReference<>(event);
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
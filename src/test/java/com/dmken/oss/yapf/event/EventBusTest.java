@@ -0,0 +1,208 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.BasePlugin;
+import com.dmken.oss.yapf.PluginType;
+import com.dmken.oss.yapf.Version;
+import com.dmken.oss.yapf.manager.SimplePluginManager;
+import com.dmken.oss.yapf.meta.SimplePluginMeta;
+
+@SuppressWarnings("javadoc")
+public class EventBusTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventBusTest.class);
+
+    private EventBus eventBus;
+
+    @Before
+    public void setUp() throws Exception {
+        this.eventBus = new EventBus();
+    }
+
+    @Test
+    public void testFire() {
+        final List<String> received = new ArrayList<>();
+        this.eventBus.register(PostPluginLoadEvent.class, event -> received.add("post"));
+        this.eventBus.register(Event.class, event -> received.add("any:" + event.getName()));
+        this.eventBus.register(PrePluginLoadEvent.class, event -> received.add("pre"));
+
+        this.eventBus.fire(new PostPluginLoadEvent(null));
+        this.eventBus.fire(new PrePluginLoadEvent(null));
+
+        Assert.assertEquals(Arrays.asList("post", "any:PostPluginLoadEvent", "any:PrePluginLoadEvent", "pre"), received);
+    }
+
+    @Test
+    public void testRegisterAfterFire() {
+        final AtomicInteger first = new AtomicInteger();
+        final AtomicInteger second = new AtomicInteger();
+        final EventListener<Event> firstListener = event -> first.incrementAndGet();
+        this.eventBus.register(Event.class, firstListener);
+        this.eventBus.fire(new PostPluginLoadEvent(null));
+
+        this.eventBus.register(PostPluginLoadEvent.class, event -> second.incrementAndGet());
+        this.eventBus.fire(new PostPluginLoadEvent(null));
+        Assert.assertTrue(this.eventBus.unregister(firstListener));
+        Assert.assertFalse(this.eventBus.unregister(firstListener));
+        this.eventBus.fire(new PostPluginLoadEvent(null));
+
+        Assert.assertEquals(2, first.get());
+        Assert.assertEquals(2, second.get());
+        Assert.assertEquals(1, this.eventBus.getListenerCount());
+    }
+
+    @Test
+    public void testUnregisteredListenerCollected() throws Exception {
+        final AtomicInteger received = new AtomicInteger();
+        final WeakReference<EventListener<Event>> reference = this.registerWeakly(received);
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(1, received.get());
+        // The dispatch table of the event class does not retain the listener.
+        Assert.assertNull(reference.get());
+    }
+
+    private WeakReference<EventListener<Event>> registerWeakly(final AtomicInteger received) {
+        final EventListener<Event> listener = event -> received.incrementAndGet();
+        this.eventBus.register(Event.class, listener);
+        this.eventBus.fire(new PostPluginLoadEvent(null));
+        this.eventBus.unregister(listener);
+        return new WeakReference<>(listener);
+    }
+
+    @Test
+    public void testListenerFailure() {
+        final AtomicInteger received = new AtomicInteger();
+        this.eventBus.register(Event.class, event -> {
+            throw new IllegalStateException("Expected.");
+        });
+        this.eventBus.register(Event.class, event -> received.incrementAndGet());
+
+        this.eventBus.fire(new PostPluginLoadEvent(null));
+
+        Assert.assertEquals(1, received.get());
+    }
+
+    @Test
+    public void testPropagatingListenerFailure() {
+        final AtomicInteger received = new AtomicInteger();
+        this.eventBus.registerPropagating(Event.class, event -> {
+            throw new IllegalStateException("First.");
+        });
+        this.eventBus.register(Event.class, event -> received.incrementAndGet());
+        this.eventBus.registerPropagating(Event.class, event -> {
+            throw new IllegalArgumentException("Second.");
+        });
+
+        try {
+            this.eventBus.fire(new PostPluginLoadEvent(null));
+
+            Assert.fail();
+        } catch (final IllegalStateException ex) {
+            Assert.assertEquals("First.", ex.getMessage());
+            Assert.assertEquals(1, ex.getSuppressed().length);
+            Assert.assertTrue(ex.getSuppressed()[0] instanceof IllegalArgumentException);
+        }
+        // All listeners received the event nevertheless.
+        Assert.assertEquals(1, received.get());
+    }
+
+    @Test
+    public void testUnregisterOnDisable() throws Exception {
+        final SimplePluginManager pluginManager = new SimplePluginManager();
+        final BasePlugin plugin = new BasePlugin();
+        final SimplePluginMeta meta = new SimplePluginMeta();
+        meta.setLocation(new URL("file:/test.jar"));
+        meta.setName("test");
+        meta.setDisplayName("test");
+        meta.setVersion(new Version(1, 0, 0));
+        meta.setMain("test.Main");
+        meta.setPluginType(PluginType.REGULAR);
+        meta.setDependencies(new String[0]);
+        meta.setOptionalDependencies(new String[0]);
+        meta.setAuthors(new String[0]);
+        plugin.setPluginMeta(meta);
+        pluginManager.addPlugin(plugin);
+        pluginManager.enable(plugin);
+        final AtomicInteger received = new AtomicInteger();
+        final int listeners = EventBus.getDefault().getListenerCount();
+        EventBus.getDefault().register(plugin, PostPluginLoadEvent.class, event -> received.incrementAndGet());
+
+        EventBus.getDefault().fire(new PostPluginLoadEvent(plugin));
+        pluginManager.disable(plugin);
+        EventBus.getDefault().fire(new PostPluginLoadEvent(plugin));
+
+        Assert.assertEquals(1, received.get());
+        Assert.assertEquals(listeners, EventBus.getDefault().getListenerCount());
+        Assert.assertEquals(0, EventBus.getDefault().unregisterAll(plugin));
+    }
+
+    @Test
+    public void testFireAllocation() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        final int listenerCount = 1_000;
+        final int iterations = 10_000;
+        final long[] received = new long[1];
+        for (int i = 0; i < listenerCount; i++) {
+            this.eventBus.register(PrePluginLoadEvent.class, event -> received[0]++);
+        }
+        final PrePluginLoadEvent event = new PrePluginLoadEvent(null);
+        // Warm up (this also computes the dispatch table).
+        for (int i = 0; i < iterations; i++) {
+            this.eventBus.fire(event);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            this.eventBus.fire(event);
+        }
+        final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        EventBusTest.LOGGER.info("Firing an event to {} listeners allocated {} bytes per event.", listenerCount,
+                allocated / iterations);
+        Assert.assertEquals(2L * iterations * listenerCount, received[0]);
+        // Not a single allocation per listener.
+        Assert.assertTrue(allocated / iterations < listenerCount);
+        Assert.assertEquals(Collections.emptyList(), event.getCancelMessages());
+    }
+}
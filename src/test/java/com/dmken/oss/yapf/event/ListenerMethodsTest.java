@@ -0,0 +1,227 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.event;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.BasePlugin;
+import com.dmken.oss.yapf.PluginType;
+import com.dmken.oss.yapf.Version;
+import com.dmken.oss.yapf.manager.SimplePluginManager;
+import com.dmken.oss.yapf.meta.SimplePluginMeta;
+
+@SuppressWarnings("javadoc")
+public class ListenerMethodsTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListenerMethodsTest.class);
+
+    private EventBus eventBus;
+
+    @Before
+    public void setUp() throws Exception {
+        this.eventBus = new EventBus();
+    }
+
+    @Test
+    public void testOf() {
+        final ListenerMethods listenerMethods = ListenerMethods.of(SubListeners.class);
+
+        Assert.assertTrue(listenerMethods.isValid());
+        Assert.assertNull(listenerMethods.getError());
+        Assert.assertEquals(3, listenerMethods.getCount());
+        Assert.assertSame(listenerMethods, ListenerMethods.of(SubListeners.class));
+        Assert.assertEquals(0, ListenerMethods.of(Object.class).getCount());
+    }
+
+    @Test
+    public void testInvalid() {
+        final ListenerMethods staticMethods = ListenerMethods.of(StaticListener.class);
+        final ListenerMethods wrongParameters = ListenerMethods.of(WrongParameterListener.class);
+
+        Assert.assertFalse(staticMethods.isValid());
+        Assert.assertTrue(staticMethods.getError().contains("must not be static"));
+        Assert.assertFalse(wrongParameters.isValid());
+        Assert.assertTrue(wrongParameters.getError().contains("exactly one parameter"));
+        try {
+            this.eventBus.registerAnnotated(null, new WrongParameterListener());
+
+            Assert.fail();
+        } catch (final IllegalArgumentException dummy) {
+            // Expected.
+        }
+        Assert.assertEquals(0, this.eventBus.getListenerCount());
+    }
+
+    @Test
+    public void testRegisterAnnotated() {
+        final SubListeners listeners = new SubListeners();
+
+        Assert.assertEquals(3, this.eventBus.registerAnnotated(null, listeners));
+        this.eventBus.fire(new PostPluginLoadEvent(null));
+        this.eventBus.fire(new PrePluginLoadEvent(null));
+
+        Assert.assertEquals(Arrays.asList("any", "sub:post", "any", "pre"), listeners.received);
+        Assert.assertEquals(3, this.eventBus.unregisterAnnotated(listeners));
+        Assert.assertEquals(0, this.eventBus.unregisterAnnotated(listeners));
+        Assert.assertEquals(0, this.eventBus.getListenerCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testListenerFailure() {
+        final ListenerMethods.ListenerMethod method = ListenerMethods.of(FailingListener.class).getMethods()[0];
+
+        method.bind(new FailingListener()).onEvent(new PostPluginLoadEvent(null));
+    }
+
+    @Test
+    public void testEnable() throws Exception {
+        final SimplePluginManager pluginManager = new SimplePluginManager();
+        final ListeningPlugin plugin = new ListeningPlugin();
+        final SimplePluginMeta meta = new SimplePluginMeta();
+        meta.setLocation(new URL("file:/test.jar"));
+        meta.setName("test");
+        meta.setDisplayName("test");
+        meta.setVersion(new Version(1, 0, 0));
+        meta.setMain(ListeningPlugin.class.getName());
+        meta.setPluginType(PluginType.REGULAR);
+        meta.setDependencies(new String[0]);
+        meta.setOptionalDependencies(new String[0]);
+        meta.setAuthors(new String[0]);
+        plugin.setPluginMeta(meta);
+        pluginManager.addPlugin(plugin);
+
+        pluginManager.enable(plugin);
+        EventBus.getDefault().fire(new PostPluginLoadEvent(plugin));
+        pluginManager.disable(plugin);
+        EventBus.getDefault().fire(new PostPluginLoadEvent(plugin));
+
+        Assert.assertEquals(1, plugin.received);
+        Assert.assertEquals(0, EventBus.getDefault().unregisterAnnotated(plugin));
+    }
+
+    @Test
+    public void testDispatchLatency() {
+        final int iterations = 2_000_000;
+        final long[] direct = new long[1];
+        final EventBus directBus = new EventBus();
+        directBus.register(PostPluginLoadEvent.class, event -> direct[0]++);
+        final CountingListener annotated = new CountingListener();
+        this.eventBus.registerAnnotated(null, annotated);
+        final Event event = new PostPluginLoadEvent(null);
+
+        long directNanos = 0;
+        long annotatedNanos = 0;
+        // The first round warms up.
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                directBus.fire(event);
+            }
+            directNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                this.eventBus.fire(event);
+            }
+            annotatedNanos = System.nanoTime() - start;
+        }
+
+        ListenerMethodsTest.LOGGER.info("Dispatch latency per event: lambda listener {} ns, annotated listener {} ns.",
+                (double) directNanos / iterations, (double) annotatedNanos / iterations);
+        Assert.assertEquals(2L * iterations, direct[0]);
+        Assert.assertEquals(2L * iterations, annotated.received);
+    }
+
+    public static class BaseListeners {
+        protected final List<String> received = new ArrayList<>();
+
+        @Listen
+        void onPost(final PostPluginLoadEvent event) {
+            this.received.add("base:post");
+        }
+
+        @Listen
+        private void onPre(final PrePluginLoadEvent event) {
+            this.received.add("pre");
+        }
+    }
+
+    public static class SubListeners extends BaseListeners {
+        @Override
+        @Listen
+        void onPost(final PostPluginLoadEvent event) {
+            this.received.add("sub:post");
+        }
+
+        @Listen
+        public String onAny(final Event event) {
+            this.received.add("any");
+            return "ignored";
+        }
+    }
+
+    public static class StaticListener {
+        @Listen
+        static void on(final Event event) {
+            // Nothing to do.
+        }
+    }
+
+    public static class WrongParameterListener {
+        @Listen
+        void on(final String event) {
+            // Nothing to do.
+        }
+    }
+
+    public static class FailingListener {
+        @Listen
+        void on(final Event event) {
+            throw new IllegalStateException("Expected.");
+        }
+    }
+
+    public static class CountingListener {
+        private long received;
+
+        @Listen
+        void on(final PostPluginLoadEvent event) {
+            this.received++;
+        }
+    }
+
+    public static class ListeningPlugin extends BasePlugin {
+        private int received;
+
+        @Listen
+        void on(final PostPluginLoadEvent event) {
+            if (event.getPlugin() == this) {
+                this.received++;
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dmken.oss.yapf.PluginType;
+import com.dmken.oss.yapf.Version;
+import com.dmken.oss.yapf.util.ArrayUtil;
+import com.dmken.oss.yapf.util.ConcurrencyUtil;
+
+@SuppressWarnings("javadoc")
+public class DelegatingPluginClassLoaderTest {
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private DelegatingPluginClassLoader delegatingClassLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        this.delegatingClassLoader = new DelegatingPluginClassLoader(DelegatingPluginClassLoaderTest.class.getClassLoader());
+    }
+
+    @Test
+    public void testPackageIndex() throws Exception {
+        final PluginClassLoader classLoader = new PluginClassLoader(this.createJarFile(ArrayUtil.class).toUri().toURL(),
+                this.delegatingClassLoader);
+
+        Assert.assertEquals(Collections.singleton("com.dmken.oss.yapf.util"), classLoader.getPackageNames());
+
+        this.delegatingClassLoader.addClassLoader("test", classLoader);
+
+        final Class<?> clazz = this.delegatingClassLoader.findClass(ArrayUtil.class.getName());
+        Assert.assertSame(classLoader, clazz.getClassLoader());
+        Assert.assertNotSame(ArrayUtil.class, clazz);
+        this.assertClassNotFound("com.dmken.oss.yapf.DoesNotExist");
+
+        this.delegatingClassLoader.removeClassLoader("test");
+
+        this.assertClassNotFound(ArrayUtil.class.getName());
+    }
+
+    @Test
+    public void testSplitPackage() throws Exception {
+        final PluginClassLoader classLoaderA = new PluginClassLoader(this.createJarFile(ArrayUtil.class).toUri().toURL(),
+                this.delegatingClassLoader);
+        final PluginClassLoader classLoaderB = new PluginClassLoader(this.createJarFile(ArrayUtil.class).toUri().toURL(),
+                this.delegatingClassLoader);
+
+        this.delegatingClassLoader.addClassLoader("a", classLoaderA);
+        this.delegatingClassLoader.addClassLoader("b", classLoaderB);
+        this.delegatingClassLoader.removeClassLoader("a");
+
+        Assert.assertSame(classLoaderB, this.delegatingClassLoader.findClass(ArrayUtil.class.getName()).getClassLoader());
+    }
+
+    @Test
+    public void testNegativeLookupCache() throws Exception {
+        final NegativeLookupCache cache = this.delegatingClassLoader.getNegativeLookupCache();
+        final String name = ArrayUtil.class.getName();
+
+        Assert.assertNull(this.delegatingClassLoader.findSharedClass(name));
+        Assert.assertNull(this.delegatingClassLoader.findSharedClass(name));
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.size());
+
+        // Adding a class loader must invalidate the cache.
+        final PluginClassLoader classLoader = new PluginClassLoader(this.createJarFile(ArrayUtil.class).toUri().toURL(),
+                this.delegatingClassLoader);
+        this.delegatingClassLoader.addClassLoader("test", classLoader);
+
+        Assert.assertEquals(0, cache.size());
+        Assert.assertSame(classLoader, this.delegatingClassLoader.findSharedClass(name).getClassLoader());
+        Assert.assertSame(classLoader, classLoader.loadClass(name).getClassLoader());
+    }
+
+    @Test
+    public void testConcurrentClassLoading() throws Exception {
+        final int threads = 64;
+        final int iterations = 200;
+        final List<Class<?>> classes = Arrays.asList(ArrayUtil.class, ConcurrencyUtil.class, Version.class);
+
+        // Do not delegate to the application class loader that contains the
+        // original classes.
+        final DelegatingPluginClassLoader delegatingClassLoader = new DelegatingPluginClassLoader(null);
+        final PluginClassLoader specClassLoader = new PluginClassLoader(
+                this.createJarFile(classes.toArray(new Class<?>[classes.size()])).toUri().toURL(), delegatingClassLoader);
+        final PluginClassLoader implClassLoader = new PluginClassLoader(this.createJarFile(PluginType.class).toUri().toURL(),
+                delegatingClassLoader);
+        implClassLoader.setDependencyClassLoaders(Collections.singletonList(specClassLoader));
+        delegatingClassLoader.addClassLoader("test", specClassLoader);
+        final ClassLoader[] classLoaders = { specClassLoader, implClassLoader, delegatingClassLoader };
+
+        final Map<String, Set<Class<?>>> loaded = new ConcurrentHashMap<>();
+        final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = ConcurrencyUtil.newExecutor("stress", threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final int thread = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < iterations; j++) {
+                        final String name = classes.get((thread + j) % classes.size()).getName();
+                        try {
+                            final Class<?> clazz = classLoaders[(thread + j) % classLoaders.length].loadClass(name);
+                            loaded.computeIfAbsent(name, key -> ConcurrentHashMap.newKeySet()).add(clazz);
+                        } catch (final ClassNotFoundException | LinkageError ex) {
+                            errors.add(ex);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertEquals(classes.size(), loaded.size());
+        for (final Class<?> clazz : classes) {
+            final Set<Class<?>> instances = loaded.get(clazz.getName());
+            Assert.assertEquals(1, instances.size());
+            final Class<?> instance = instances.iterator().next();
+            Assert.assertSame(specClassLoader, instance.getClassLoader());
+            Assert.assertSame(instance, specClassLoader.findClass(clazz.getName(), false).get());
+            Assert.assertSame(instance, implClassLoader.findClass(clazz.getName(), true).get());
+        }
+    }
+
+    private void assertClassNotFound(final String name) {
+        try {
+            this.delegatingClassLoader.findClass(name);
+
+            Assert.fail();
+        } catch (final ClassNotFoundException dummy) {
+            // Expected.
+        }
+    }
+
+    private Path createJarFile(final Class<?>... classes) throws IOException {
+        return DelegatingPluginClassLoaderTest.createJarFile(this.dir.newFile().toPath(), classes);
+    }
+
+    static Path createJarFile(final Path jarFile, final Class<?>... classes) throws IOException {
+        try (final JarOutputStream stream = new JarOutputStream(Files.newOutputStream(jarFile))) {
+            for (final Class<?> clazz : classes) {
+                final String entryName = clazz.getName().replace('.', '/') + ".class";
+                try (final InputStream in = clazz.getResourceAsStream("/" + entryName)) {
+                    stream.putNextEntry(new JarEntry(entryName));
+                    final byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        stream.write(buffer, 0, read);
+                    }
+                    stream.closeEntry();
+                }
+            }
+        }
+        return jarFile;
+    }
+}
@@ -0,0 +1,66 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class NegativeLookupCacheTest {
+    @Test
+    public void testEviction() {
+        final NegativeLookupCache cache = new NegativeLookupCache(2);
+
+        cache.addMissing("a", cache.getGeneration());
+        cache.addMissing("b", cache.getGeneration());
+        cache.addMissing("c", cache.getGeneration());
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertFalse(cache.isMissing("a"));
+        Assert.assertTrue(cache.isMissing("b"));
+        Assert.assertTrue(cache.isMissing("c"));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidate() {
+        final NegativeLookupCache cache = new NegativeLookupCache(2);
+        final long generation = cache.getGeneration();
+
+        cache.addMissing("a", generation);
+        cache.invalidate();
+
+        Assert.assertFalse(cache.isMissing("a"));
+        Assert.assertEquals(1, cache.getInvalidations());
+
+        // Lookups started before the invalidation must not populate the cache.
+        cache.addMissing("b", generation);
+
+        Assert.assertFalse(cache.isMissing("b"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaximumSize() {
+        new NegativeLookupCache(0);
+    }
+}
@@ -0,0 +1,321 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.FormattingTuple;
+
+import com.dmken.oss.yapf.PluginType;
+import com.dmken.oss.yapf.Version;
+import com.dmken.oss.yapf.util.ArrayUtil;
+import com.dmken.oss.yapf.util.ConcurrencyUtil;
+import com.dmken.oss.yapf.util.Environment;
+import com.dmken.oss.yapf.util.FileUtil;
+import com.dmken.oss.yapf.util.JarManifestReader;
+
+@SuppressWarnings("javadoc")
+public class PluginClassLoaderTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginClassLoaderTest.class);
+
+    private static final Class<?>[] IMAGE_CLASSES = { ArrayUtil.class, ConcurrencyUtil.class, Environment.class, FileUtil.class,
+            JarManifestReader.class, PluginType.class, Version.class, ResolutionStage.class, ResolutionStatistics.class,
+            NegativeLookupCache.class, ScanResult.class, LoadResult.class };
+    private static final List<ResolutionStage> CHILD_FIRST_CHAIN = Arrays.asList(ResolutionStage.CACHE, ResolutionStage.LOCAL,
+            ResolutionStage.DEPENDENCIES, ResolutionStage.PLATFORM);
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private DelegatingPluginClassLoader delegatingClassLoader;
+    private PluginClassLoader specClassLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        this.delegatingClassLoader = new DelegatingPluginClassLoader(PluginClassLoaderTest.class.getClassLoader());
+        this.specClassLoader = new PluginClassLoader(
+                DelegatingPluginClassLoaderTest.createJarFile(this.dir.newFile().toPath(), ArrayUtil.class).toUri().toURL(),
+                this.delegatingClassLoader);
+        this.delegatingClassLoader.addClassLoader("test", this.specClassLoader);
+    }
+
+    @Test
+    public void testPlatformClassWins() throws Exception {
+        final ResolutionStatistics statistics = new ResolutionStatistics();
+        final PluginClassLoader classLoader = this.createClassLoader(ResolutionStage.DEFAULT_CHAIN, statistics, ArrayUtil.class,
+                FormattingTuple.class);
+
+        Assert.assertSame(ArrayUtil.class, classLoader.loadClass(ArrayUtil.class.getName()));
+        Assert.assertSame(FormattingTuple.class, classLoader.loadClass(FormattingTuple.class.getName()));
+        Assert.assertEquals(2, statistics.getHits(ResolutionStage.PLATFORM));
+        Assert.assertEquals(0, statistics.getLookups(ResolutionStage.LOCAL));
+    }
+
+    @Test
+    public void testLocalClassWins() throws Exception {
+        final ResolutionStatistics statistics = new ResolutionStatistics();
+        final PluginClassLoader classLoader = this.createClassLoader(PluginClassLoaderTest.CHILD_FIRST_CHAIN, statistics,
+                ArrayUtil.class);
+
+        final Class<?> clazz = classLoader.loadClass(ArrayUtil.class.getName());
+
+        Assert.assertSame(classLoader, clazz.getClassLoader());
+        Assert.assertEquals(1, statistics.getHits(ResolutionStage.LOCAL));
+        Assert.assertEquals(0, statistics.getLookups(ResolutionStage.GLOBAL));
+
+        Assert.assertSame(clazz, classLoader.loadClass(ArrayUtil.class.getName()));
+        Assert.assertEquals(1, statistics.getHits(ResolutionStage.CACHE));
+        Assert.assertEquals(1, statistics.getLookups(ResolutionStage.LOCAL));
+    }
+
+    @Test
+    public void testResolutionChain() throws Exception {
+        final ResolutionStatistics statistics = new ResolutionStatistics();
+        final PluginClassLoader classLoader = this.createClassLoader(Arrays.asList(ResolutionStage.values()), statistics,
+                PluginType.class);
+
+        Assert.assertSame(this.specClassLoader, classLoader.loadClass(ArrayUtil.class.getName()).getClassLoader());
+        Assert.assertEquals(1, statistics.getHits(ResolutionStage.GLOBAL));
+        Assert.assertSame(String.class, classLoader.loadClass(String.class.getName()));
+        Assert.assertEquals(1, statistics.getHits(ResolutionStage.PLATFORM));
+        Assert.assertEquals(1, statistics.getLookups(ResolutionStage.CACHE));
+        Assert.assertEquals(0, statistics.getHits(ResolutionStage.CACHE));
+
+        try {
+            classLoader.loadClass("com.dmken.oss.yapf.util.DoesNotExist");
+
+            Assert.fail();
+        } catch (final ClassNotFoundException dummy) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        final ResolutionStatistics statistics = new ResolutionStatistics();
+        final PluginClassLoader classLoader = this.createClassLoader(PluginClassLoaderTest.CHILD_FIRST_CHAIN, statistics,
+                PluginType.class);
+
+        // Without GLOBAL, the class is taken from the platform.
+        Assert.assertSame(ArrayUtil.class, classLoader.findClass(ArrayUtil.class.getName(), true).get());
+
+        final PluginClassLoader dependentClassLoader = this.createClassLoader(PluginClassLoaderTest.CHILD_FIRST_CHAIN, statistics,
+                PluginType.class);
+        dependentClassLoader.setDependencyClassLoaders(Collections.singletonList(this.specClassLoader));
+
+        Assert.assertSame(this.specClassLoader, dependentClassLoader.loadClass(ArrayUtil.class.getName()).getClassLoader());
+        Assert.assertEquals(1, statistics.getHits(ResolutionStage.DEPENDENCIES));
+        Assert.assertEquals(0, statistics.getLookups(ResolutionStage.GLOBAL));
+    }
+
+    @Test
+    public void testEvictClasses() throws Exception {
+        final ResolutionStatistics statistics = new ResolutionStatistics();
+        final PluginClassLoader classLoader = this.createClassLoader(PluginClassLoaderTest.CHILD_FIRST_CHAIN, statistics,
+                PluginType.class);
+        classLoader.setDependencyClassLoaders(Collections.singletonList(this.specClassLoader));
+        classLoader.loadClass(ArrayUtil.class.getName());
+        classLoader.loadClass(PluginType.class.getName());
+
+        Assert.assertEquals(1, classLoader.evictClasses(this.specClassLoader));
+        Assert.assertEquals(0, classLoader.evictClasses(this.specClassLoader));
+
+        // The local class is still cached, the evicted one is resolved again.
+        classLoader.loadClass(PluginType.class.getName());
+        Assert.assertEquals(1, statistics.getHits(ResolutionStage.CACHE));
+        Assert.assertSame(this.specClassLoader, classLoader.loadClass(ArrayUtil.class.getName()).getClassLoader());
+        Assert.assertEquals(2, statistics.getHits(ResolutionStage.DEPENDENCIES));
+    }
+
+    @Test
+    public void testNegativeLookupCache() throws Exception {
+        final ResolutionStatistics statistics = new ResolutionStatistics();
+        final List<ResolutionStage> chain = Arrays.asList(ResolutionStage.CACHE, ResolutionStage.LOCAL,
+                ResolutionStage.DEPENDENCIES, ResolutionStage.GLOBAL);
+        final PluginClassLoader classLoader = this.createClassLoader(chain, statistics, PluginType.class);
+        final String name = FormattingTuple.class.getName();
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertFalse(classLoader.findClass(name, true).isPresent());
+        }
+        Assert.assertEquals(1, statistics.getLookups(ResolutionStage.LOCAL));
+        Assert.assertEquals(1, statistics.getLookups(ResolutionStage.GLOBAL));
+        Assert.assertEquals(2, classLoader.getNegativeLookupCache().getHits());
+
+        // Adding a specification invalidates the cache.
+        final PluginClassLoader sharedClassLoader = this.createClassLoader(ResolutionStage.DEFAULT_CHAIN,
+                new ResolutionStatistics(), FormattingTuple.class);
+        this.delegatingClassLoader.addClassLoader("shared", sharedClassLoader);
+        Assert.assertSame(sharedClassLoader, classLoader.findClass(name, true).get().getClassLoader());
+
+        // Setting the dependencies invalidates the cache.
+        final PluginClassLoader dependentClassLoader = this.createClassLoader(
+                Arrays.asList(ResolutionStage.CACHE, ResolutionStage.LOCAL, ResolutionStage.DEPENDENCIES), statistics,
+                PluginType.class);
+        Assert.assertFalse(dependentClassLoader.findClass(name, true).isPresent());
+        dependentClassLoader.setDependencyClassLoaders(Collections.singletonList(sharedClassLoader));
+        Assert.assertSame(sharedClassLoader, dependentClassLoader.findClass(name, true).get().getClassLoader());
+    }
+
+    @Test
+    public void testJarImage() throws Exception {
+        final Path jarFile = DelegatingPluginClassLoaderTest.createJarFile(this.dir.newFile().toPath(),
+                PluginClassLoaderTest.IMAGE_CLASSES);
+
+        for (final boolean direct : new boolean[] { false, true }) {
+            final JarImage image = JarImage.read(jarFile, direct);
+
+            Assert.assertEquals(direct, image.isDirect());
+            Assert.assertEquals(PluginClassLoaderTest.IMAGE_CLASSES.length, image.getClassCount());
+            Assert.assertEquals(new HashSet<>(Arrays.asList("com.dmken.oss.yapf", "com.dmken.oss.yapf.util",
+                    "com.dmken.oss.yapf.loader")), image.getPackageNames());
+            Assert.assertNull(image.getClassBytes("com.dmken.oss.yapf.util.DoesNotExist"));
+            final ByteBuffer bytes = image.getClassBytes(ArrayUtil.class.getName());
+            final byte[] actual = new byte[bytes.remaining()];
+            bytes.get(actual);
+            Assert.assertArrayEquals(PluginClassLoaderTest.readClass(ArrayUtil.class), actual);
+
+            final PluginClassLoader classLoader = new PluginClassLoader(jarFile.toUri().toURL(), this.delegatingClassLoader,
+                    PluginClassLoaderTest.CHILD_FIRST_CHAIN, new ResolutionStatistics(), image);
+            final Class<?> clazz = classLoader.loadClass(ArrayUtil.class.getName());
+
+            Assert.assertSame(classLoader, clazz.getClassLoader());
+            Assert.assertNotSame(ArrayUtil.class, clazz);
+            Assert.assertEquals(jarFile.toUri().toURL(), clazz.getProtectionDomain().getCodeSource().getLocation());
+            Assert.assertSame(image.getPackageNames(), classLoader.getPackageNames());
+            Assert.assertFalse(classLoader.findClass("com.dmken.oss.yapf.util.DoesNotExist", false).isPresent());
+
+            classLoader.close();
+
+            Assert.assertNull(classLoader.getImage());
+        }
+    }
+
+    @Test
+    public void testJarImage_signed() throws Exception {
+        final Path jarFile = this.dir.newFile().toPath();
+        try (final JarOutputStream stream = new JarOutputStream(Files.newOutputStream(jarFile))) {
+            stream.putNextEntry(new JarEntry("META-INF/TEST.SF"));
+            stream.write("Signature-Version: 1.0\r\n".getBytes(StandardCharsets.UTF_8));
+            stream.closeEntry();
+            stream.putNextEntry(new JarEntry("com/dmken/oss/yapf/util/ArrayUtil.class"));
+            stream.write(PluginClassLoaderTest.readClass(ArrayUtil.class));
+            stream.closeEntry();
+        }
+
+        // Signed JARs have no image as their classes have to be verified.
+        Assert.assertNull(JarImage.read(jarFile, false));
+        Assert.assertNull(JarImage.read(jarFile, true));
+    }
+
+    @Test
+    public void testJarImageLatency() throws Exception {
+        final Path jarFile = DelegatingPluginClassLoaderTest.createJarFile(this.dir.newFile().toPath(),
+                PluginClassLoaderTest.IMAGE_CLASSES);
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final int classLoaders = 200;
+
+        final ExecutorService executor = ConcurrencyUtil.newExecutor("image", threads);
+        try {
+            for (final JarImageMode mode : JarImageMode.values()) {
+                // Warm up.
+                this.loadClasses(executor, jarFile, mode, classLoaders);
+            }
+            final StringBuilder message = new StringBuilder();
+            for (final JarImageMode mode : JarImageMode.values()) {
+                final long start = System.nanoTime();
+                this.loadClasses(executor, jarFile, mode, classLoaders);
+                message.append(mode).append(": ").append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).append(" ms ");
+            }
+
+            PluginClassLoaderTest.LOGGER.info("{} threads loaded the classes of {} class loaders: {}", threads, classLoaders,
+                    message);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateStages() throws Exception {
+        this.createClassLoader(Arrays.asList(ResolutionStage.LOCAL, ResolutionStage.LOCAL), new ResolutionStatistics(),
+                PluginType.class);
+    }
+
+    private void loadClasses(final ExecutorService executor, final Path jarFile, final JarImageMode mode,
+            final int classLoaders) throws Exception {
+        final URL url = jarFile.toUri().toURL();
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < classLoaders; i++) {
+            futures.add(executor.submit(() -> {
+                final JarImage image = mode == JarImageMode.NONE ? null : JarImage.read(jarFile, mode == JarImageMode.DIRECT);
+                try (final PluginClassLoader classLoader = new PluginClassLoader(url, this.delegatingClassLoader,
+                        ResolutionStage.DEFAULT_CHAIN, new ResolutionStatistics(), image)) {
+                    for (final Class<?> clazz : PluginClassLoaderTest.IMAGE_CLASSES) {
+                        Assert.assertTrue(classLoader.findClass(clazz.getName(), false).isPresent());
+                    }
+                }
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private static byte[] readClass(final Class<?> clazz) throws Exception {
+        try (final InputStream in = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class")) {
+            final byte[] buffer = new byte[64 * 1024];
+            int size = 0;
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer, size, buffer.length - size)) {
+                size += read;
+            }
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private PluginClassLoader createClassLoader(final List<ResolutionStage> resolutionChain,
+            final ResolutionStatistics statistics, final Class<?>... classes) throws Exception {
+        return new PluginClassLoader(
+                DelegatingPluginClassLoaderTest.createJarFile(this.dir.newFile().toPath(), classes).toUri().toURL(),
+                this.delegatingClassLoader, resolutionChain, statistics);
+    }
+}
@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.BasePlugin;
+import com.dmken.oss.yapf.Plugin;
+import com.dmken.oss.yapf.meta.exception.MalformedPluginMetaException;
+
+@SuppressWarnings("javadoc")
+public class PluginFactoryTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginFactoryTest.class);
+
+    @Test
+    public void testNewInstance() throws Exception {
+        final PluginFactory factory = PluginFactory.of(ValidPlugin.class);
+
+        Assert.assertTrue(factory.isValid());
+        Assert.assertSame(factory, PluginFactory.of(ValidPlugin.class));
+        Assert.assertSame(ValidPlugin.class, factory.getPluginClass());
+
+        final Plugin plugin = factory.newInstance("test");
+        Assert.assertSame(ValidPlugin.class, plugin.getClass());
+        Assert.assertNotSame(plugin, factory.newInstance("test"));
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        this.assertInvalid(String.class, "Main class is not a subclass of Plugin!");
+        this.assertInvalid(AbstractPlugin.class, "Main class must be a regular class (not an interface or abstract)!");
+        this.assertInvalid(NoDefaultConstructorPlugin.class, "Main class does not have a default constructor!");
+    }
+
+    @Test
+    public void testThrowingConstructor() throws Exception {
+        final PluginFactory factory = PluginFactory.of(ThrowingPlugin.class);
+
+        Assert.assertTrue(factory.isValid());
+        try {
+            factory.newInstance("test");
+
+            Assert.fail();
+        } catch (final MalformedPluginMetaException ex) {
+            Assert.assertEquals("<test>: Constructor of main class threw an exception!", ex.getMessage());
+            Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testPerformance() throws Exception {
+        final int iterations = 200_000;
+        final PluginFactory factory = PluginFactory.of(ValidPlugin.class);
+        for (int i = 0; i < iterations; i++) {
+            factory.newInstance("test");
+            this.newInstanceReflectively(ValidPlugin.class);
+        }
+
+        final long factoryStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            PluginFactory.of(ValidPlugin.class).newInstance("test");
+        }
+        final long factoryTime = System.nanoTime() - factoryStart;
+        final long reflectionStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            this.newInstanceReflectively(ValidPlugin.class);
+        }
+        final long reflectionTime = System.nanoTime() - reflectionStart;
+
+        PluginFactoryTest.LOGGER.info("Creating {} plugin instances: PluginFactory took {} ms, reflection took {} ms.", iterations,
+                TimeUnit.NANOSECONDS.toMillis(factoryTime), TimeUnit.NANOSECONDS.toMillis(reflectionTime));
+    }
+
+    private void assertInvalid(final Class<?> clazz, final String message) {
+        final PluginFactory factory = PluginFactory.of(clazz);
+
+        Assert.assertFalse(factory.isValid());
+        try {
+            factory.newInstance("test");
+
+            Assert.fail();
+        } catch (final MalformedPluginMetaException ex) {
+            Assert.assertEquals("<test>: " + message, ex.getMessage());
+        }
+    }
+
+    /**
+     * The reflective path as used by the plugin loader before.
+     *
+     */
+    private Plugin newInstanceReflectively(final Class<? extends Plugin> clazz) throws Exception {
+        final Constructor<? extends Plugin> ctor = clazz.getConstructor();
+        if (!ctor.isAccessible()) {
+            ctor.setAccessible(true);
+        }
+        return ctor.newInstance();
+    }
+
+    public static class ValidPlugin extends BasePlugin {
+        // Nothing to do.
+    }
+
+    public abstract static class AbstractPlugin extends BasePlugin {
+        // Nothing to do.
+    }
+
+    public static class NoDefaultConstructorPlugin extends BasePlugin {
+        public NoDefaultConstructorPlugin(final String dummy) {
+            // Nothing to do.
+        }
+    }
+
+    public static class ThrowingPlugin extends BasePlugin {
+        public ThrowingPlugin() {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -28,7 +28,10 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
@@ -45,15 +48,27 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.dmken.oss.yapf.Plugin;
 import com.dmken.oss.yapf.PluginMeta;
 import com.dmken.oss.yapf.PluginType;
 import com.dmken.oss.yapf.Version;
+import com.dmken.oss.yapf.event.Event;
+import com.dmken.oss.yapf.event.EventBus;
+import com.dmken.oss.yapf.event.EventListener;
+import com.dmken.oss.yapf.event.PostPluginLoadEvent;
+import com.dmken.oss.yapf.event.PostPluginsLoadEvent;
+import com.dmken.oss.yapf.event.PrePluginLoadEvent;
+import com.dmken.oss.yapf.event.PrePluginsLoadEvent;
 import com.dmken.oss.yapf.meta.exception.MalformedPluginMetaException;
+import com.dmken.oss.yapf.meta.exception.UnresolvableDependencyException;
 
 @SuppressWarnings("javadoc")
 public class PluginLoaderTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PluginLoaderTest.class);
+
     @Rule
     public TemporaryFolder dir = new TemporaryFolder();
 
@@ -128,6 +143,157 @@ public class PluginLoaderTest {
         Assert.assertTrue((boolean) plugin.getClass().getMethod("isTestSuccessful").invoke(plugin));
     }
 
+    @Test
+    public void testPluginLoading_jarImage() throws Exception {
+        final PluginMeta meta = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.EmptyTestPlugin");
+        } , "EmptyTestPlugin"));
+        this.pluginLoader.setJarImageMode(JarImageMode.DIRECT);
+
+        final Plugin plugin = this.pluginLoader.loadPlugin(meta);
+
+        final PluginClassLoader classLoader = (PluginClassLoader) plugin.getClass().getClassLoader();
+        Assert.assertTrue(classLoader.getImage().isDirect());
+        Assert.assertEquals(1, classLoader.getImage().getClassCount());
+        Assert.assertTrue((boolean) plugin.getClass().getMethod("isTestSuccessful").invoke(plugin));
+    }
+
+    @Test
+    public void testReleaseClassLoader() throws Exception {
+        final PluginMeta meta = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test-spec");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.SimpleSpecPlugin");
+        } , "SimpleSpecPlugin"));
+        final Plugin plugin = this.pluginLoader.loadPlugin(meta);
+        final ClassLoader classLoader = plugin.getClass().getClassLoader();
+
+        Assert.assertTrue(this.pluginLoader.releaseClassLoader(meta));
+        Assert.assertFalse(this.pluginLoader.releaseClassLoader(meta));
+        // The class loader is closed and no longer shared.
+        Assert.assertNull(classLoader.getResource("test/SimpleSpecPlugin.class"));
+        try {
+            classLoader.getParent().loadClass("test.SimpleSpecPlugin");
+
+            Assert.fail();
+        } catch (final ClassNotFoundException dummy) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testUnloadPlugin_reloaded() throws Exception {
+        final PluginMeta meta = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test-spec");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.SimpleSpecPlugin");
+        } , "SimpleSpecPlugin"));
+        final Plugin oldPlugin = this.pluginLoader.loadPlugin(meta);
+        final Plugin newPlugin = this.pluginLoader.loadPlugin(meta);
+        final ClassLoader oldClassLoader = oldPlugin.getClass().getClassLoader();
+        final ClassLoader newClassLoader = newPlugin.getClass().getClassLoader();
+
+        Assert.assertTrue(this.pluginLoader.unloadPlugin(oldPlugin));
+        Assert.assertFalse(this.pluginLoader.unloadPlugin(oldPlugin));
+        Assert.assertNull(oldClassLoader.getResource("test/SimpleSpecPlugin.class"));
+        // The class loader of the new plugin is still registered and shared.
+        Assert.assertNotNull(newClassLoader.getResource("test/SimpleSpecPlugin.class"));
+        Assert.assertSame(newClassLoader, newClassLoader.getParent().loadClass("test.SimpleSpecPlugin").getClassLoader());
+
+        Assert.assertTrue(this.pluginLoader.releaseClassLoader(meta));
+        Assert.assertNull(newClassLoader.getResource("test/SimpleSpecPlugin.class"));
+    }
+
+    @Test
+    public void testPluginLoading_failedOnLoad() throws Exception {
+        final PluginMeta meta = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test-spec");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.FailingSpecPlugin");
+        } , "FailingSpecPlugin"));
+
+        try {
+            this.pluginLoader.loadPlugin(meta);
+
+            Assert.fail();
+        } catch (final IllegalStateException dummy) {
+            // Expected.
+        }
+
+        final ClassLoader classLoader = (ClassLoader) System.getProperties().remove("test.FailingSpecPlugin.classLoader");
+        Assert.assertFalse(this.pluginLoader.releaseClassLoader(meta));
+        // The class loader is closed and no longer shared.
+        Assert.assertNull(classLoader.getResource("test/FailingSpecPlugin.class"));
+        try {
+            classLoader.getParent().loadClass("test.FailingSpecPlugin");
+
+            Assert.fail();
+        } catch (final ClassNotFoundException dummy) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testUnloadPlugin() throws Exception {
+        final PluginMeta meta = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.EmptyTestPlugin");
+        } , "EmptyTestPlugin"));
+        Plugin plugin = this.pluginLoader.loadPlugin(meta);
+
+        Assert.assertTrue(this.pluginLoader.unloadPlugin(plugin));
+        Assert.assertFalse(this.pluginLoader.unloadPlugin(plugin));
+        Assert.assertEquals(Collections.singletonList("test"), this.pluginLoader.getLeakDetector().getPending());
+        plugin = null;
+
+        Assert.assertEquals(Collections.emptyList(), this.pluginLoader.checkForLeaks(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Collections.emptyList(), this.pluginLoader.getLeakDetector().getPending());
+    }
+
+    @Test
+    public void testUnloadPlugin_failedOnUnload() throws Exception {
+        final PluginMeta meta = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test-spec");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.FailingUnloadPlugin");
+        } , "FailingUnloadPlugin"));
+        final Plugin plugin = this.pluginLoader.loadPlugin(meta);
+        final ClassLoader classLoader = plugin.getClass().getClassLoader();
+
+        try {
+            this.pluginLoader.unloadPlugin(plugin);
+
+            Assert.fail();
+        } catch (final IllegalStateException dummy) {
+            // Expected.
+        }
+
+        // The class loader is released, closed and tracked nevertheless.
+        Assert.assertFalse(this.pluginLoader.releaseClassLoader(meta));
+        Assert.assertNull(classLoader.getResource("test/FailingUnloadPlugin.class"));
+        this.assertClassNotFound(classLoader.getParent(), "test.FailingUnloadPlugin");
+        Assert.assertEquals(Collections.singletonList("test-api"), this.pluginLoader.getLeakDetector().getPending());
+    }
+
+    @Test
+    public void testUnloadPlugin_leak() throws Exception {
+        final PluginMeta meta = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.EmptyTestPlugin");
+        } , "EmptyTestPlugin"));
+        final Plugin plugin = this.pluginLoader.loadPlugin(meta);
+
+        this.pluginLoader.unloadPlugin(plugin);
+
+        // The plugin (and therefore its class loader) is still referenced.
+        Assert.assertEquals(Collections.singletonList("test"), this.pluginLoader.checkForLeaks(200, TimeUnit.MILLISECONDS));
+        Assert.assertNotNull(plugin.getPluginMeta());
+    }
+
     @Test
     public void testClassLoadingSeparation() throws Exception {
         final String classNameSpec = "SimpleSpecPlugin";
@@ -143,6 +309,7 @@ public class PluginLoaderTest {
             attributes.putValue("name", "test");
             attributes.putValue("version", "1.0.0");
             attributes.putValue("main", "test." + classNameRegular);
+            attributes.putValue("dependencies", "test-spec");
         } , classNameRegular);
         final Path jarFileImpl = this.createJarFile(attributes -> {
             attributes.putValue("name", "test-impl");
@@ -156,8 +323,8 @@ public class PluginLoaderTest {
 
         this.assertPluginMeta(metaSpec, "test", new Version(1, 0, 0), "test." + classNameSpec, null, null, null, null,
                 PluginType.SPECIFICATION);
-        this.assertPluginMeta(metaRegular, "test", new Version(1, 0, 0), "test." + classNameRegular, null, null, null, null,
-                PluginType.REGULAR);
+        this.assertPluginMeta(metaRegular, "test", new Version(1, 0, 0), "test." + classNameRegular, null,
+                new String[] { "test-spec" }, null, null, PluginType.REGULAR);
         this.assertPluginMeta(metaImpl, "test", new Version(1, 0, 0), "test." + classNameImpl, null, null, null, null,
                 PluginType.IMPLEMENTATION);
 
@@ -168,20 +335,313 @@ public class PluginLoaderTest {
         Assert.assertEquals(0xCAFE_BABE, pluginSpec.getClass().getMethod("testSpec").invoke(pluginSpec));
         Assert.assertEquals(42, pluginRegular.getClass().getMethod("testRegular").invoke(pluginRegular));
         Assert.assertEquals(0xDEAD_BEEF, pluginImpl.getClass().getMethod("testImpl").invoke(pluginImpl));
+
+        // Plugins without dependencies must not see the specification.
+        final Plugin pluginOther = this.pluginLoader.loadPlugin(this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "other");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.EmptyTestPlugin");
+        } , "EmptyTestPlugin")));
+        Assert.assertSame(pluginSpec.getClass(), pluginImpl.getClass().getClassLoader().loadClass("test." + classNameSpec));
+        try {
+            pluginOther.getClass().getClassLoader().loadClass("test." + classNameSpec);
+
+            Assert.fail();
+        } catch (final ClassNotFoundException dummy) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testClassLoadingSeparation_global() throws Exception {
+        final Plugin pluginSpec = this.pluginLoader.loadPlugin(this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test-spec");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.SimpleSpecPlugin");
+        } , "SimpleSpecPlugin")));
+        final NegativeLookupCache cache = this.pluginLoader.getNegativeLookupCache();
+
+        // The default chain never consults the package index or the shared
+        // cache.
+        final ClassLoader defaultClassLoader = this.loadEmptyPlugin("default").getClass().getClassLoader();
+        this.assertClassNotFound(defaultClassLoader, "test.SimpleSpecPlugin");
+        this.assertClassNotFound(defaultClassLoader, "test.DoesNotExist");
+        Assert.assertEquals(0, cache.getHits() + cache.getMisses());
+        Assert.assertEquals(0, this.pluginLoader.getResolutionStatistics().getLookups(ResolutionStage.GLOBAL));
+
+        // GLOBAL opts in to seeing every specification.
+        this.pluginLoader.setResolutionChain(Arrays.asList(ResolutionStage.CACHE, ResolutionStage.PLATFORM, ResolutionStage.LOCAL,
+                ResolutionStage.DEPENDENCIES, ResolutionStage.GLOBAL));
+        final ClassLoader globalClassLoader = this.loadEmptyPlugin("global").getClass().getClassLoader();
+        Assert.assertSame(pluginSpec.getClass(), globalClassLoader.loadClass("test.SimpleSpecPlugin"));
+        Assert.assertEquals(1, this.pluginLoader.getResolutionStatistics().getHits(ResolutionStage.GLOBAL));
+
+        final long misses = cache.getMisses();
+        this.assertClassNotFound(globalClassLoader, "test.DoesNotExist");
+        Assert.assertEquals(misses + 1, cache.getMisses());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLoadPlugins() throws Exception {
+        final PluginMeta metaSpec = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test-spec");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.SimpleSpecPlugin");
+        } , "SimpleSpecPlugin"));
+        final PluginMeta metaRegular = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.SimpleRegularPlugin");
+            attributes.putValue("dependencies", "test-spec");
+        } , "SimpleRegularPlugin"));
+        final PluginMeta metaImpl = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test-impl");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.SimpleImplPlugin");
+        } , "SimpleImplPlugin"));
+
+        final LoadResult result = this.pluginLoader.loadPlugins(Arrays.asList(metaRegular, metaImpl, metaSpec));
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(3, result.getPlugins().size());
+        Assert.assertEquals("test.SimpleSpecPlugin", result.getPlugins().get(0).getClass().getName());
+        for (final Plugin plugin : result.getPlugins()) {
+            if (plugin.getClass().getName().equals("test.SimpleRegularPlugin")) {
+                Assert.assertEquals(42, plugin.getClass().getMethod("testRegular").invoke(plugin));
+            }
+        }
+    }
+
+    @Test
+    public void testLoadPlugins_failedDependency() throws Exception {
+        final PluginMeta metaSpec = this.parsePluginMeta(attributes -> {
+            attributes.putValue("name", "test-spec");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "java.lang.String");
+        });
+        final PluginMeta metaRegular = this.parsePluginMeta(attributes -> {
+            attributes.putValue("name", "test");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "this.does.not.Exist");
+            attributes.putValue("dependencies", "test-spec");
+        });
+
+        final LoadResult result = this.pluginLoader.loadPlugins(Arrays.asList(metaRegular, metaSpec));
+
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertTrue(result.getPlugins().isEmpty());
+        Assert.assertEquals(MalformedPluginMetaException.class, result.getErrors().get(metaSpec).getClass());
+        Assert.assertEquals(UnresolvableDependencyException.class, result.getErrors().get(metaRegular).getClass());
+    }
+
+    @Test
+    public void testLoadPlugins_bulkEvents() throws Exception {
+        final PluginMeta metaSpec = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test-spec");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.SimpleSpecPlugin");
+        } , "SimpleSpecPlugin"));
+        final PluginMeta metaRegular = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.SimpleRegularPlugin");
+            attributes.putValue("dependencies", "test-spec");
+        } , "SimpleRegularPlugin"));
+        final PluginMeta metaImpl = this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test-impl");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.SimpleImplPlugin");
+        } , "SimpleImplPlugin"));
+        final AtomicInteger singleEvents = new AtomicInteger();
+        final List<PrePluginsLoadEvent> preEvents = new ArrayList<>();
+        final List<PostPluginsLoadEvent> postEvents = new ArrayList<>();
+        final EventListener<Event> singleListener = event -> singleEvents.incrementAndGet();
+        final EventListener<PrePluginsLoadEvent> preListener = event -> {
+            preEvents.add(event);
+            for (final PluginMeta meta : event.getPluginMetas()) {
+                if (meta.getPluginType() == PluginType.SPECIFICATION) {
+                    event.cancel(meta, "Not wanted.");
+                }
+            }
+        };
+        final EventListener<PostPluginsLoadEvent> postListener = postEvents::add;
+        EventBus.getDefault().register(PrePluginLoadEvent.class, singleListener);
+        EventBus.getDefault().register(PostPluginLoadEvent.class, singleListener);
+        EventBus.getDefault().register(PrePluginsLoadEvent.class, preListener);
+        EventBus.getDefault().register(PostPluginsLoadEvent.class, postListener);
+        final LoadResult result;
+        try {
+            this.pluginLoader.setBulkEvents(true);
+
+            result = this.pluginLoader.loadPlugins(Arrays.asList(metaRegular, metaImpl, metaSpec));
+        } finally {
+            EventBus.getDefault().unregister(singleListener);
+            EventBus.getDefault().unregister(preListener);
+            EventBus.getDefault().unregister(postListener);
+        }
+
+        Assert.assertEquals(0, singleEvents.get());
+        Assert.assertEquals(1, preEvents.size());
+        Assert.assertEquals(3, preEvents.get(0).getPluginMetas().size());
+        Assert.assertEquals(Collections.singletonList("Not wanted."), preEvents.get(0).getCancelMessages(metaSpec));
+        Assert.assertEquals(1, postEvents.size());
+        Assert.assertEquals(result.getPlugins(), postEvents.get(0).getPlugins());
+        Assert.assertEquals(result.getErrors(), postEvents.get(0).getErrors());
+        Assert.assertEquals(1, result.getPlugins().size());
+        Assert.assertEquals("test.SimpleImplPlugin", result.getPlugins().get(0).getClass().getName());
+        Assert.assertEquals(MalformedPluginMetaException.class, result.getErrors().get(metaSpec).getClass());
+        Assert.assertEquals(UnresolvableDependencyException.class, result.getErrors().get(metaRegular).getClass());
+    }
+
+    @Test
+    public void testEventBus() throws Exception {
+        final EventBus eventBus = new EventBus();
+        final PluginLoader pluginLoader = new PluginLoader(1, eventBus);
+        final PluginMeta meta = pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", "test");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.EmptyTestPlugin");
+        } , "EmptyTestPlugin"));
+        final AtomicInteger events = new AtomicInteger();
+        final AtomicInteger defaultEvents = new AtomicInteger();
+        final EventListener<Event> defaultListener = event -> defaultEvents.incrementAndGet();
+        eventBus.register(PostPluginLoadEvent.class, event -> events.incrementAndGet());
+        EventBus.getDefault().register(PostPluginLoadEvent.class, defaultListener);
+        try {
+            pluginLoader.loadPlugin(meta);
+        } finally {
+            EventBus.getDefault().unregister(defaultListener);
+        }
+
+        Assert.assertSame(eventBus, pluginLoader.getEventBus());
+        Assert.assertEquals(1, events.get());
+        Assert.assertEquals(0, defaultEvents.get());
+
+        // A propagating listener (e.g. the Spring bridge) aborts the loading.
+        eventBus.registerPropagating(PrePluginLoadEvent.class, event -> {
+            throw new IllegalStateException("Rejected!");
+        });
+        try {
+            pluginLoader.loadPlugin(meta);
+
+            Assert.fail();
+        } catch (final IllegalStateException dummy) {
+            // Expected.
+        }
+        Assert.assertEquals(1, events.get());
+    }
+
+    @Test(expected = UnresolvableDependencyException.class)
+    public void testLoadPlugins_cycle() throws Exception {
+        final PluginMeta metaA = this.parsePluginMeta(attributes -> {
+            attributes.putValue("name", "a");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "this.is.not.relevant");
+            attributes.putValue("dependencies", "b");
+        });
+        final PluginMeta metaB = this.parsePluginMeta(attributes -> {
+            attributes.putValue("name", "b");
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "this.is.not.relevant");
+            attributes.putValue("dependencies", "a");
+        });
+
+        this.pluginLoader.loadPlugins(Arrays.asList(metaA, metaB));
+    }
+
+    @Test
+    public void testScanDirectory() throws Exception {
+        final int pluginCount = 300;
+        final Path pluginDir = this.createPluginDirectory(pluginCount);
+        this.createManifestJarFile(pluginDir.resolve("malformed.jar"), attributes -> attributes.putValue("name", "malformed"));
+        Files.write(pluginDir.resolve("broken.jar"), new byte[] { 0x01, 0x02, 0x03 });
+        Files.write(pluginDir.resolve("readme.txt"), new byte[] { 0x01, 0x02, 0x03 });
+
+        final ScanResult result = this.pluginLoader.scanDirectory(pluginDir);
+
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertEquals(pluginCount, result.getPluginMetas().size());
+        Assert.assertEquals(2, result.getErrors().size());
+        Assert.assertTrue(result.getErrors().get(pluginDir.resolve("malformed.jar")) instanceof MalformedPluginMetaException);
+        Assert.assertTrue(result.getErrors().get(pluginDir.resolve("broken.jar")) instanceof IllegalArgumentException);
+        for (int i = 0; i < pluginCount; i++) {
+            this.assertPluginMeta(result.getPluginMetas().get(i), String.format("test-%04d", i), new Version(1, 0, i),
+                    "test.Main" + i, null, null, null, null, PluginType.REGULAR);
+        }
+    }
+
+    @Test
+    public void testScanDirectory_scaling() throws Exception {
+        final int pluginCount = 500;
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final Path pluginDir = this.createPluginDirectory(pluginCount);
+
+        // Warm up.
+        new PluginLoader(processors).scanDirectory(pluginDir);
+
+        final long sequentialStart = System.nanoTime();
+        final ScanResult sequentialResult = new PluginLoader(1).scanDirectory(pluginDir);
+        final long sequentialTime = System.nanoTime() - sequentialStart;
+        final long parallelStart = System.nanoTime();
+        final ScanResult parallelResult = new PluginLoader(processors).scanDirectory(pluginDir);
+        final long parallelTime = System.nanoTime() - parallelStart;
+
+        PluginLoaderTest.LOGGER.info("Scanned {} plugins: 1 thread took {} ms, {} threads took {} ms.", pluginCount,
+                TimeUnit.NANOSECONDS.toMillis(sequentialTime), processors, TimeUnit.NANOSECONDS.toMillis(parallelTime));
+
+        Assert.assertEquals(pluginCount, sequentialResult.getPluginMetas().size());
+        Assert.assertEquals(sequentialResult.getPluginMetas(), parallelResult.getPluginMetas());
+    }
+
+    private Path createPluginDirectory(final int pluginCount) throws IOException {
+        final Path pluginDir = this.dir.newFolder().toPath();
+        for (int i = 0; i < pluginCount; i++) {
+            final int index = i;
+            final String name = String.format("test-%04d", index);
+            this.createManifestJarFile(pluginDir.resolve(name + ".jar"), attributes -> {
+                attributes.putValue("name", name);
+                attributes.putValue("version", "1.0." + index);
+                attributes.putValue("main", "test.Main" + index);
+            });
+        }
+        return pluginDir;
+    }
+
+    private Plugin loadEmptyPlugin(final String name) throws Exception {
+        return this.pluginLoader.loadPlugin(this.pluginLoader.extractPluginMeta(this.createJarFile(attributes -> {
+            attributes.putValue("name", name);
+            attributes.putValue("version", "1.0.0");
+            attributes.putValue("main", "test.EmptyTestPlugin");
+        } , "EmptyTestPlugin")));
+    }
+
+    private void assertClassNotFound(final ClassLoader classLoader, final String name) {
+        try {
+            classLoader.loadClass(name);
+
+            Assert.fail();
+        } catch (final ClassNotFoundException dummy) {
+            // Expected.
+        }
     }
 
     private PluginMeta parsePluginMeta(final Consumer<Attributes> attributeSetter)
             throws IOException, MalformedPluginMetaException {
         final Path file = this.dir.newFile().toPath();
 
+        this.createManifestJarFile(file, attributeSetter);
+
+        return this.pluginLoader.extractPluginMeta(file);
+    }
+
+    private void createManifestJarFile(final Path file, final Consumer<Attributes> attributeSetter) throws IOException {
         final Attributes attributes = new Attributes();
         attributeSetter.accept(attributes);
         final Manifest manifest = new Manifest();
         manifest.getEntries().put("yapf", attributes);
         final JarOutputStream stream = new JarOutputStream(Files.newOutputStream(file), manifest);
         stream.close();
-
-        return this.pluginLoader.extractPluginMeta(file);
     }
 
     private void assertPluginMeta(final PluginMeta meta, final String expectedName, final Version expectedVersion,
@@ -160,6 +160,7 @@ public class PluginLoaderTestSpring {
             attributes.putValue("name", "test");
             attributes.putValue("version", "1.0.0");
             attributes.putValue("main", "test." + classNameRegular);
+            attributes.putValue("dependencies", "test-spec");
         } , classNameRegular);
         final Path jarFileImpl = this.createJarFile(attributes -> {
             attributes.putValue("name", "test-impl");
@@ -173,8 +174,8 @@ public class PluginLoaderTestSpring {
 
         this.assertPluginMeta(metaSpec, "test", new Version(1, 0, 0), "test." + classNameSpec, null, null, null, null,
                 PluginType.SPECIFICATION);
-        this.assertPluginMeta(metaRegular, "test", new Version(1, 0, 0), "test." + classNameRegular, null, null, null, null,
-                PluginType.REGULAR);
+        this.assertPluginMeta(metaRegular, "test", new Version(1, 0, 0), "test." + classNameRegular, null,
+                new String[] { "test-spec" }, null, null, PluginType.REGULAR);
         this.assertPluginMeta(metaImpl, "test", new Version(1, 0, 0), "test." + classNameImpl, null, null, null, null,
                 PluginType.IMPLEMENTATION);
 
@@ -0,0 +1,231 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.loader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dmken.oss.yapf.PluginMeta;
+
+@SuppressWarnings("javadoc")
+public class PluginMetaCatalogTest {
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private PluginLoader pluginLoader;
+    private Path pluginDir;
+    private Path catalogFile;
+
+    @Before
+    public void setUp() throws Exception {
+        this.pluginLoader = new PluginLoader();
+        this.pluginDir = this.dir.newFolder().toPath();
+        this.catalogFile = this.dir.getRoot().toPath().resolve("catalog.bin");
+
+        for (int i = 0; i < 10; i++) {
+            final int index = i;
+            this.createManifestJarFile(this.pluginDir.resolve("test-" + index + ".jar"), attributes -> {
+                attributes.putValue("name", "test-" + index + "-api");
+                attributes.putValue("version", "1.2." + index);
+                attributes.putValue("main", "test.Main" + index);
+                attributes.putValue("display-name", "Test " + index);
+                attributes.putValue("dependencies", "dep1, dep2");
+                attributes.putValue("optional-dependencies", "opdep1");
+                if (index % 2 == 0) {
+                    attributes.putValue("authors", "Fabian Damken");
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final PluginMetaCatalog catalog = this.loadCatalog(false);
+        final ScanResult expected = this.pluginLoader.scanDirectory(this.pluginDir, catalog);
+
+        Assert.assertTrue(Files.isRegularFile(this.catalogFile));
+        Assert.assertEquals(10, catalog.size());
+
+        final PluginMetaCatalog loadedCatalog = this.loadCatalog(false);
+        Assert.assertEquals(10, loadedCatalog.size());
+        for (final PluginMeta expectedMeta : expected.getPluginMetas()) {
+            final Path file = Paths.get(expectedMeta.getLocation().toURI());
+            final PluginMeta meta = loadedCatalog.get(file).orElseThrow(AssertionError::new);
+
+            Assert.assertEquals(expectedMeta, meta);
+            Assert.assertEquals(expectedMeta.getLocation(), meta.getLocation());
+            Assert.assertEquals(expectedMeta.getDisplayName(), meta.getDisplayName());
+            Assert.assertEquals(expectedMeta.getMain(), meta.getMain());
+            Assert.assertArrayEquals(expectedMeta.getDependencies(), meta.getDependencies());
+            Assert.assertArrayEquals(expectedMeta.getOptionalDependencies(), meta.getOptionalDependencies());
+            Assert.assertEquals(expectedMeta.getAuthors().isPresent(), meta.getAuthors().isPresent());
+            if (expectedMeta.getAuthors().isPresent()) {
+                Assert.assertArrayEquals(expectedMeta.getAuthors().get(), meta.getAuthors().get());
+            }
+        }
+    }
+
+    @Test
+    public void testUnchangedFilesAreNotOpened() throws Exception {
+        this.pluginLoader.scanDirectory(this.pluginDir, this.loadCatalog(false));
+
+        // Replace the content without changing size and modification time.
+        // If the file was opened, the scan would fail.
+        final Path file = this.pluginDir.resolve("test-3.jar");
+        this.scramble(file);
+
+        final ScanResult result = this.pluginLoader.scanDirectory(this.pluginDir, this.loadCatalog(false));
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(10, result.getPluginMetas().size());
+    }
+
+    @Test
+    public void testChangedFilesAreExtracted() throws Exception {
+        this.pluginLoader.scanDirectory(this.pluginDir, this.loadCatalog(true));
+
+        final Path file = this.pluginDir.resolve("test-3.jar");
+        this.scramble(file);
+
+        final PluginMetaCatalog catalog = this.loadCatalog(true);
+        final ScanResult result = this.pluginLoader.scanDirectory(this.pluginDir, catalog);
+
+        Assert.assertEquals(9, result.getPluginMetas().size());
+        Assert.assertTrue(result.getErrors().containsKey(file));
+        Assert.assertEquals(9, catalog.size());
+    }
+
+    @Test
+    public void testReplacedDuringExtraction() throws Exception {
+        final PluginMetaCatalog catalog = this.loadCatalog(false);
+        final Path file = this.pluginDir.resolve("test-3.jar");
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final PluginMeta meta = this.pluginLoader.extractPluginMeta(file);
+
+        this.createManifestJarFile(file, replaced -> {
+            replaced.putValue("name", "replaced-with-a-longer-name");
+            replaced.putValue("version", "2.0.0");
+            replaced.putValue("main", "test.Replaced");
+        });
+        Files.setLastModifiedTime(file, FileTime.fromMillis(attributes.lastModifiedTime().toMillis() + 10_000));
+        catalog.put(file, attributes, meta);
+
+        Assert.assertEquals(0, catalog.size());
+        Assert.assertFalse(catalog.get(file).isPresent());
+    }
+
+    @Test
+    public void testStaleEntriesAreDropped() throws Exception {
+        this.pluginLoader.scanDirectory(this.pluginDir, this.loadCatalog(false));
+
+        Files.delete(this.pluginDir.resolve("test-3.jar"));
+        Files.delete(this.pluginDir.resolve("test-4.jar"));
+        this.pluginLoader.scanDirectory(this.pluginDir, this.loadCatalog(false));
+
+        Assert.assertEquals(8, this.loadCatalog(false).size());
+    }
+
+    @Test
+    public void testCorruptCatalog() throws Exception {
+        final byte[] garbage = new byte[128];
+        new Random(42).nextBytes(garbage);
+        Files.write(this.catalogFile, garbage);
+
+        final PluginMetaCatalog catalog = this.loadCatalog(false);
+        Assert.assertEquals(0, catalog.size());
+
+        final ScanResult result = this.pluginLoader.scanDirectory(this.pluginDir, catalog);
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(10, result.getPluginMetas().size());
+        Assert.assertEquals(10, this.loadCatalog(false).size());
+    }
+
+    @Test
+    public void testCorruptStringCount() throws Exception {
+        this.pluginLoader.scanDirectory(this.pluginDir, this.loadCatalog(false));
+
+        // Skip the header and the first entry up to its dependency count.
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(this.catalogFile));
+        buffer.position(12);
+        this.skipUtf(buffer);
+        buffer.position(buffer.position() + 24);
+        this.skipUtf(buffer);
+        this.skipUtf(buffer);
+        buffer.position(buffer.position() + 12);
+        this.skipUtf(buffer);
+        buffer.position(buffer.position() + 1);
+        Assert.assertEquals(2, buffer.getInt(buffer.position()));
+        buffer.putInt(Integer.MAX_VALUE);
+        Files.write(this.catalogFile, buffer.array());
+
+        final PluginMetaCatalog catalog = this.loadCatalog(false);
+        Assert.assertEquals(0, catalog.size());
+
+        final ScanResult result = this.pluginLoader.scanDirectory(this.pluginDir, catalog);
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(10, result.getPluginMetas().size());
+    }
+
+    private void skipUtf(final ByteBuffer buffer) {
+        final int length = buffer.getShort() & 0xFFFF;
+        buffer.position(buffer.position() + length);
+    }
+
+    private PluginMetaCatalog loadCatalog(final boolean verifyContent) {
+        final PluginMetaCatalog catalog = new PluginMetaCatalog(this.catalogFile, verifyContent);
+        catalog.load();
+        return catalog;
+    }
+
+    private void scramble(final Path file) throws IOException {
+        final FileTime lastModified = Files.getLastModifiedTime(file);
+        final byte[] garbage = new byte[(int) Files.size(file)];
+        new Random(42).nextBytes(garbage);
+        Files.write(file, garbage);
+        Files.setLastModifiedTime(file, lastModified);
+    }
+
+    private void createManifestJarFile(final Path file, final Consumer<Attributes> attributeSetter) throws IOException {
+        final Attributes attributes = new Attributes();
+        attributeSetter.accept(attributes);
+        final Manifest manifest = new Manifest();
+        manifest.getEntries().put("yapf", attributes);
+        final JarOutputStream stream = new JarOutputStream(Files.newOutputStream(file), manifest);
+        stream.close();
+    }
+}
@@ -0,0 +1,243 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.manager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dmken.oss.yapf.BasePlugin;
+import com.dmken.oss.yapf.Plugin;
+import com.dmken.oss.yapf.exception.MissingImplementationException;
+import com.dmken.oss.yapf.loader.PluginLoader;
+
+@SuppressWarnings("javadoc")
+public class PluginDirectoryWatcherTest {
+    private static final String CLASS_FILE = WatchedPlugin.class.getName().replace('.', '/') + ".class";
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    private Path pluginDir;
+    private SimplePluginManager pluginManager;
+    private PluginDirectoryWatcher watcher;
+
+    @Before
+    public void setUp() throws Exception {
+        this.pluginDir = this.dir.newFolder().toPath().toAbsolutePath().normalize();
+        this.pluginManager = new SimplePluginManager();
+        this.watcher = new PluginDirectoryWatcher(new PluginLoader(), this.pluginManager, this.pluginDir, 100,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.watcher.close();
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        this.writePlugin("provider", "1.0.0");
+        this.writePlugin("consumer", "1.0.0", "provider");
+        this.writePlugin("other", "1.0.0");
+        this.watcher.start();
+
+        Assert.assertEquals(3, this.pluginManager.getPlugins().size());
+        Assert.assertEquals("1.0.0", this.getVersion());
+        final Plugin consumer = this.getPlugin("consumer");
+        final Plugin other = this.getPlugin("other");
+        Assert.assertTrue(consumer.isEnabled());
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger missing = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        final Thread reader = new Thread(() -> {
+            while (!stop.get()) {
+                try {
+                    final Supplier<?> supplier = this.getSupplier();
+                    // A closed class loader can not load resources (or classes)
+                    // anymore, so the current implementation must not have one.
+                    final URLClassLoader classLoader = (URLClassLoader) supplier.getClass().getClassLoader();
+                    if (classLoader.findResource(PluginDirectoryWatcherTest.CLASS_FILE) == null
+                            && this.getSupplier() == supplier) {
+                        closed.incrementAndGet();
+                    }
+                } catch (final MissingImplementationException dummy) {
+                    missing.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        try {
+            this.writePlugin("provider", "2.0.0");
+
+            this.await(() -> "2.0.0".equals(this.getVersion()));
+            this.await(() -> this.getPlugin("consumer") != null && this.getPlugin("consumer") != consumer);
+        } finally {
+            stop.set(true);
+            reader.join();
+        }
+
+        Assert.assertEquals(0, missing.get());
+        Assert.assertEquals(0, closed.get());
+        Assert.assertFalse(consumer.isEnabled());
+        Assert.assertTrue(this.getPlugin("consumer").isEnabled());
+        Assert.assertSame(other, this.getPlugin("other"));
+        Assert.assertEquals(3, this.pluginManager.getPlugins().size());
+    }
+
+    @Test
+    public void testReload_failedOnUnload() throws Exception {
+        this.writePlugin("brittle", "1.0.0");
+        this.watcher.start();
+        final Plugin oldPlugin = this.getPlugin("brittle");
+
+        this.writePlugin("brittle", "2.0.0");
+
+        this.await(() -> this.getPlugin("brittle") != null && this.getPlugin("brittle") != oldPlugin);
+        final Plugin newPlugin = this.getPlugin("brittle");
+        // Only the class loader of the old plugin is released.
+        this.await(() -> ((URLClassLoader) oldPlugin.getClass().getClassLoader())
+                .findResource(PluginDirectoryWatcherTest.CLASS_FILE) == null);
+        Assert.assertNotNull(((URLClassLoader) newPlugin.getClass().getClassLoader())
+                .findResource(PluginDirectoryWatcherTest.CLASS_FILE));
+        Assert.assertTrue(newPlugin.isEnabled());
+        Assert.assertEquals(1, this.pluginManager.getPlugins().size());
+    }
+
+    @Test
+    public void testAddRemove() throws Exception {
+        this.writePlugin("provider", "1.0.0");
+        this.watcher.start();
+        Assert.assertEquals(1, this.pluginManager.getPlugins().size());
+
+        this.writePlugin("consumer", "1.0.0", "provider");
+
+        this.await(() -> this.getPlugin("consumer") != null);
+        Assert.assertTrue(this.getPlugin("consumer").isEnabled());
+
+        // Rejected as the consumer requires the provider.
+        Files.delete(this.pluginDir.resolve("provider.jar"));
+        Thread.sleep(500);
+        Assert.assertNotNull(this.getPlugin("provider"));
+        Assert.assertEquals("1.0.0", this.getVersion());
+
+        // Retried with the next change.
+        Files.delete(this.pluginDir.resolve("consumer.jar"));
+
+        this.await(() -> this.pluginManager.getPlugins().isEmpty());
+        Assert.assertTrue(this.watcher.getPlugins().isEmpty());
+        try {
+            this.getVersion();
+
+            Assert.fail();
+        } catch (final MissingImplementationException dummy) {
+            // Expected.
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private String getVersion() {
+        return ((Supplier<String>) this.getSupplier()).get();
+    }
+
+    private Supplier<?> getSupplier() {
+        return this.pluginManager.get(Supplier.class);
+    }
+
+    private Plugin getPlugin(final String name) {
+        return this.watcher.getPlugins().get(this.pluginDir.resolve(name + ".jar"));
+    }
+
+    private void await(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                Assert.fail("Condition not met in time!");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private void writePlugin(final String name, final String version, final String... dependencies) throws IOException {
+        final Attributes attributes = new Attributes();
+        attributes.putValue("name", name);
+        attributes.putValue("version", version);
+        attributes.putValue("main", WatchedPlugin.class.getName());
+        if (dependencies.length > 0) {
+            attributes.putValue("dependencies", String.join(",", dependencies));
+        }
+        final Manifest manifest = new Manifest();
+        manifest.getEntries().put("yapf", attributes);
+
+        // Write the JAR next to the plugin and move it atomically.
+        final String classFile = PluginDirectoryWatcherTest.CLASS_FILE;
+        final Path tempFile = this.pluginDir.resolve(name + ".jar.tmp");
+        try (final JarOutputStream stream = new JarOutputStream(Files.newOutputStream(tempFile), manifest);
+                final InputStream classStream = WatchedPlugin.class.getResourceAsStream("/" + classFile)) {
+            stream.putNextEntry(new JarEntry(classFile));
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = classStream.read(buffer)) >= 0) {
+                stream.write(buffer, 0, read);
+            }
+            stream.closeEntry();
+        }
+        Files.move(tempFile, this.pluginDir.resolve(name + ".jar"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static class WatchedPlugin extends BasePlugin {
+        @Override
+        public void onEnable() {
+            if ("provider".equals(this.getPluginMeta().getName())) {
+                final String version = this.getPluginMeta().getVersion().toString();
+                final Supplier<String> supplier = () -> version;
+                this.getPluginManager().defineImplementation(this, Supplier.class, supplier);
+            }
+        }
+
+        @Override
+        public void onUnload() {
+            if ("brittle".equals(this.getPluginMeta().getName())) {
+                throw new IllegalStateException("Expected.");
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dmken.oss.yapf.exception.MissingImplementationException;
+import com.dmken.oss.yapf.manager.SimplePluginManagerTest.TestPlugin;
+
+@SuppressWarnings("javadoc")
+public class ShutdownCoordinatorTest {
+    private final CountDownLatch hang = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        this.hang.countDown();
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        final SimplePluginManager pluginManager = new SimplePluginManager(false, 4);
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final TestPlugin base = SimplePluginManagerTest.plugin("base");
+        final TestPlugin middle = SimplePluginManagerTest.plugin("middle", "base");
+        final TestPlugin top = SimplePluginManagerTest.plugin("top", "middle");
+        for (final TestPlugin plugin : new TestPlugin[] { base, middle, top }) {
+            pluginManager.addPlugin(plugin);
+            pluginManager.enable(plugin);
+            plugin.hook = () -> order.add(plugin.getPluginMeta().getName());
+        }
+
+        final LifecycleReport report = new ShutdownCoordinator(pluginManager, null).shutdown(10, TimeUnit.SECONDS);
+
+        Assert.assertTrue(report.isSuccess());
+        Assert.assertEquals(Arrays.asList("top", "middle", "base"), order);
+        for (final TestPlugin plugin : new TestPlugin[] { base, middle, top }) {
+            Assert.assertFalse(plugin.isEnabled());
+            Assert.assertEquals(1, plugin.unloadCount);
+        }
+        Assert.assertTrue(pluginManager.getPlugins().isEmpty());
+    }
+
+    @Test
+    public void testShutdownDeadline() throws Exception {
+        final SimplePluginManager pluginManager = new SimplePluginManager(false, 4);
+        final TestPlugin base = SimplePluginManagerTest.plugin("base");
+        final TestPlugin hanging = SimplePluginManagerTest.plugin("hanging", "base");
+        final TestPlugin other = SimplePluginManagerTest.plugin("other");
+        for (final TestPlugin plugin : new TestPlugin[] { base, hanging, other }) {
+            pluginManager.addPlugin(plugin);
+            pluginManager.enable(plugin);
+        }
+        pluginManager.defineImplementation(hanging, Runnable.class, () -> {
+            // Nothing to do.
+        });
+        // Ignores interrupts to simulate a plugin that does not react.
+        hanging.hook = () -> {
+            while (this.hang.getCount() > 0) {
+                try {
+                    this.hang.await();
+                } catch (final InterruptedException dummy) {
+                    // Ignore.
+                }
+            }
+        };
+
+        final long start = System.nanoTime();
+        final LifecycleReport report = new ShutdownCoordinator(pluginManager, null).shutdown(300, TimeUnit.MILLISECONDS);
+        final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertTrue("Shutdown took " + duration + " ms.", duration < 5_000);
+        Assert.assertEquals(2, report.getTimedOut().size());
+        Assert.assertTrue(report.getTimedOut().contains(hanging));
+        // The dependency of the hanging plugin could not start before the
+        // deadline.
+        Assert.assertTrue(report.getTimedOut().contains(base));
+        Assert.assertEquals(1, other.unloadCount);
+        Assert.assertFalse(hanging.isEnabled());
+        Assert.assertFalse(base.isEnabled());
+        Assert.assertTrue(pluginManager.getPlugins().isEmpty());
+        try {
+            pluginManager.get(Runnable.class);
+
+            Assert.fail();
+        } catch (final MissingImplementationException dummy) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,607 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.manager;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.BasePlugin;
+import com.dmken.oss.yapf.PluginType;
+import com.dmken.oss.yapf.ServiceHandle;
+import com.dmken.oss.yapf.Version;
+import com.dmken.oss.yapf.cache.CacheStatistics;
+import com.dmken.oss.yapf.cache.Cacheable;
+import com.dmken.oss.yapf.event.PostPluginLoadEvent;
+import com.dmken.oss.yapf.exception.ImplementationConflictException;
+import com.dmken.oss.yapf.exception.MissingImplementationException;
+import com.dmken.oss.yapf.meta.SimplePluginMeta;
+import com.dmken.oss.yapf.meta.exception.UnresolvableDependencyException;
+import com.dmken.oss.yapf.util.ConcurrencyUtil;
+
+@SuppressWarnings("javadoc")
+public class SimplePluginManagerTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimplePluginManagerTest.class);
+
+    private SimplePluginManager pluginManager;
+    private TestPlugin spec;
+    private TestPlugin impl;
+
+    @Before
+    public void setUp() throws Exception {
+        this.pluginManager = new SimplePluginManager();
+        this.spec = SimplePluginManagerTest.plugin("test-api");
+        this.impl = SimplePluginManagerTest.plugin("test-impl");
+        this.pluginManager.addPlugin(this.spec);
+        this.pluginManager.addPlugin(this.impl);
+        this.pluginManager.enable(this.spec);
+        this.pluginManager.enable(this.impl);
+    }
+
+    @Test
+    public void testGetPlugin() {
+        Assert.assertSame(this.spec, this.pluginManager.getPlugin("test-api").get());
+        Assert.assertSame(this.spec, this.pluginManager.getPlugin("test-spec").get());
+        Assert.assertSame(this.impl, this.pluginManager.getPlugin("test-implementation").get());
+        Assert.assertFalse(this.pluginManager.getPlugin("test").isPresent());
+        Assert.assertEquals(2, this.pluginManager.getPlugins().size());
+    }
+
+    @Test
+    public void testDefineImplementation() {
+        final Runnable implementation = () -> {
+            // Nothing to do.
+        };
+
+        this.pluginManager.defineImplementation(this.impl, Runnable.class, implementation);
+
+        Assert.assertSame(implementation, this.pluginManager.get(Runnable.class));
+        try {
+            this.pluginManager.defineImplementation(this.spec, Runnable.class, () -> {
+                // Nothing to do.
+            });
+
+            Assert.fail();
+        } catch (final ImplementationConflictException dummy) {
+            // Expected.
+        }
+
+        this.pluginManager.revokeImplementation(Runnable.class);
+
+        this.assertMissing(Runnable.class);
+        this.pluginManager.defineImplementation(this.spec, Runnable.class, implementation);
+        Assert.assertSame(implementation, this.pluginManager.get(Runnable.class));
+    }
+
+    @Test
+    public void testRevokeImplementations() {
+        this.pluginManager.defineImplementation(this.impl, Runnable.class, () -> {
+            // Nothing to do.
+        });
+        this.pluginManager.defineImplementation(this.impl, Comparable.class, dummy -> 0);
+        this.pluginManager.defineImplementation(this.spec, AutoCloseable.class, () -> {
+            // Nothing to do.
+        });
+
+        this.pluginManager.revokeImplementations(this.impl);
+
+        this.assertMissing(Runnable.class);
+        this.assertMissing(Comparable.class);
+        Assert.assertNotNull(this.pluginManager.get(AutoCloseable.class));
+    }
+
+    @Test
+    public void testSwap() throws Exception {
+        final Runnable oldImplementation = () -> {
+            // Nothing to do.
+        };
+        final Runnable newImplementation = () -> {
+            // Nothing to do.
+        };
+        final Runnable proxy = this.pluginManager.getProxy(Runnable.class);
+        this.pluginManager.defineImplementation(this.impl, Runnable.class, oldImplementation);
+        this.pluginManager.defineImplementation(this.impl, Comparable.class, dummy -> 0);
+        final TestPlugin reloaded = SimplePluginManagerTest.plugin("test-impl");
+
+        this.pluginManager.swap(Collections.singletonList(this.impl), () -> {
+            this.pluginManager.disable(this.impl);
+            this.pluginManager.removePlugin(this.impl);
+
+            // The implementations are retained although the plugin is gone.
+            Assert.assertSame(oldImplementation, this.pluginManager.get(Runnable.class));
+            Assert.assertNotNull(this.pluginManager.get(Comparable.class));
+            proxy.run();
+
+            this.pluginManager.addPlugin(reloaded);
+            this.pluginManager.enable(reloaded);
+            this.pluginManager.defineImplementation(reloaded, Runnable.class, newImplementation);
+            Assert.assertSame(newImplementation, this.pluginManager.get(Runnable.class));
+        });
+
+        Assert.assertSame(newImplementation, this.pluginManager.get(Runnable.class));
+        // Not redefined, so it is revoked after the swap.
+        this.assertMissing(Comparable.class);
+        this.pluginManager.revokeImplementations(reloaded);
+        this.assertMissing(Runnable.class);
+    }
+
+    @Test
+    public void testEnableDisable() {
+        this.pluginManager.enable(this.impl);
+
+        Assert.assertTrue(this.impl.isEnabled());
+        Assert.assertEquals(1, this.impl.enableCount);
+
+        this.pluginManager.defineImplementation(this.impl, Runnable.class, () -> {
+            // Nothing to do.
+        });
+        this.pluginManager.disable(this.impl);
+
+        Assert.assertFalse(this.impl.isEnabled());
+        Assert.assertEquals(1, this.impl.disableCount);
+        this.assertMissing(Runnable.class);
+    }
+
+    @Test
+    public void testHandle() {
+        final ServiceHandle<Runnable> handle = this.pluginManager.getHandle(Runnable.class);
+        final Runnable implementation = () -> {
+            // Nothing to do.
+        };
+
+        Assert.assertSame(Runnable.class, handle.getDefinition());
+        Assert.assertFalse(handle.getIfAvailable().isPresent());
+
+        this.pluginManager.defineImplementation(this.impl, Runnable.class, implementation);
+
+        Assert.assertSame(implementation, handle.get());
+
+        // Implementations of disabled plugins must never be returned.
+        this.impl.setEnabled(false);
+
+        Assert.assertFalse(handle.getIfAvailable().isPresent());
+        this.assertMissing(Runnable.class);
+
+        this.impl.setEnabled(true);
+        this.pluginManager.revokeImplementation(Runnable.class);
+
+        Assert.assertFalse(handle.getIfAvailable().isPresent());
+    }
+
+    @Test
+    public void testProxy() {
+        final Runnable proxy = this.pluginManager.getProxy(Runnable.class);
+        final int[] counter = { 0 };
+
+        Assert.assertSame(proxy, this.pluginManager.getProxy(Runnable.class));
+
+        this.pluginManager.defineImplementation(this.impl, Runnable.class, () -> counter[0]++);
+        proxy.run();
+
+        // Like handles, the proxy must never reach a disabled plugin.
+        this.impl.setEnabled(false);
+        this.assertProxyMissing(proxy);
+        this.impl.setEnabled(true);
+        proxy.run();
+
+        this.pluginManager.disable(this.impl);
+
+        Assert.assertEquals(2, counter[0]);
+        this.assertProxyMissing(proxy);
+    }
+
+    private void assertProxyMissing(final Runnable proxy) {
+        try {
+            proxy.run();
+
+            Assert.fail();
+        } catch (final MissingImplementationException dummy) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testInstrumented() {
+        final SimplePluginManager instrumented = new SimplePluginManager(true);
+        instrumented.addPlugin(this.impl);
+        final int[] counter = { 0 };
+        final Runnable implementation = () -> counter[0]++;
+
+        instrumented.defineImplementation(this.impl, Runnable.class, implementation);
+        instrumented.get(Runnable.class).run();
+        instrumented.getHandle(Runnable.class).get().run();
+        instrumented.getProxy(Runnable.class).run();
+        instrumented.revokeImplementation(Runnable.class);
+        instrumented.defineImplementation(this.impl, Runnable.class, implementation);
+        instrumented.get(Runnable.class).run();
+
+        Assert.assertEquals(4, counter[0]);
+        Assert.assertNotSame(implementation, instrumented.get(Runnable.class));
+        Assert.assertTrue(instrumented.isInstrumented());
+        Assert.assertEquals(1, instrumented.getMetrics().size());
+        // The metrics survive redefinitions.
+        Assert.assertEquals(4, instrumented.getMetrics(Runnable.class).get().snapshot("run").getCalls());
+        Assert.assertFalse(instrumented.getMetrics(Comparable.class).isPresent());
+
+        // Not instrumented by default.
+        this.pluginManager.defineImplementation(this.impl, Runnable.class, implementation);
+        Assert.assertSame(implementation, this.pluginManager.get(Runnable.class));
+        Assert.assertFalse(this.pluginManager.getMetrics(Runnable.class).isPresent());
+    }
+
+    @Test
+    public void testResultCache() {
+        final int[] counter = { 0 };
+        final Counter implementation = () -> ++counter[0];
+        this.pluginManager.defineImplementation(this.impl, Counter.class, implementation);
+        final Counter counterProxy = this.pluginManager.getProxy(Counter.class);
+
+        Assert.assertEquals(1, this.pluginManager.get(Counter.class).next());
+        Assert.assertEquals(1, this.pluginManager.get(Counter.class).next());
+        Assert.assertEquals(1, counterProxy.next());
+
+        // Revoking invalidates the cached results.
+        this.pluginManager.revokeImplementation(Counter.class);
+        this.pluginManager.defineImplementation(this.impl, Counter.class, implementation);
+        Assert.assertEquals(2, counterProxy.next());
+
+        // Disabling the plugin revokes (and invalidates) its implementations.
+        this.pluginManager.disable(this.impl);
+        this.pluginManager.enable(this.impl);
+        this.pluginManager.defineImplementation(this.impl, Counter.class, implementation);
+        Assert.assertEquals(3, counterProxy.next());
+
+        final CacheStatistics statistics = this.pluginManager.getResultCache(Counter.class).get().getStatistics("next");
+        Assert.assertEquals(2, statistics.getHits());
+        Assert.assertEquals(3, statistics.getMisses());
+        Assert.assertFalse(this.pluginManager.getResultCache(Runnable.class).isPresent());
+    }
+
+    @Test
+    public void testEnableAllOrder() throws Exception {
+        final SimplePluginManager manager = new SimplePluginManager(false, 4);
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final List<TestPlugin> plugins = Arrays.asList(SimplePluginManagerTest.plugin("c", "b"),
+                SimplePluginManagerTest.plugin("b", "a"), SimplePluginManagerTest.plugin("a"),
+                SimplePluginManagerTest.plugin("other"));
+        for (final TestPlugin plugin : plugins) {
+            plugin.hook = () -> order
+                    .add(plugin.getPluginMeta().getName() + (plugin.enableCount > plugin.disableCount ? "+" : "-"));
+            manager.addPlugin(plugin);
+        }
+
+        final LifecycleReport enableReport = manager.enableAll(10, TimeUnit.SECONDS);
+
+        Assert.assertTrue(enableReport.isSuccess());
+        Assert.assertEquals(4, enableReport.getDurations(TimeUnit.NANOSECONDS).size());
+        Assert.assertTrue(order.indexOf("a+") < order.indexOf("b+"));
+        Assert.assertTrue(order.indexOf("b+") < order.indexOf("c+"));
+        for (final TestPlugin plugin : plugins) {
+            Assert.assertTrue(plugin.isEnabled());
+            Assert.assertTrue(enableReport.getDuration(plugin, TimeUnit.NANOSECONDS) >= 0);
+        }
+
+        final LifecycleReport disableReport = manager.disableAll(10, TimeUnit.SECONDS);
+
+        Assert.assertTrue(disableReport.isSuccess());
+        Assert.assertTrue(order.indexOf("c-") < order.indexOf("b-"));
+        Assert.assertTrue(order.indexOf("b-") < order.indexOf("a-"));
+        for (final TestPlugin plugin : plugins) {
+            Assert.assertFalse(plugin.isEnabled());
+        }
+    }
+
+    @Test
+    public void testEnableAllConcurrently() throws Exception {
+        final SimplePluginManager manager = new SimplePluginManager(false, 2);
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        for (final String name : new String[] { "first", "second" }) {
+            final TestPlugin plugin = SimplePluginManagerTest.plugin(name);
+            // Only succeeds if both plugins are enabled at the same time.
+            plugin.hook = () -> {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (final Exception cause) {
+                    throw new IllegalStateException(cause);
+                }
+            };
+            manager.addPlugin(plugin);
+        }
+
+        final LifecycleReport report = manager.enableAll(10, TimeUnit.SECONDS);
+
+        Assert.assertTrue(report.getErrors().toString(), report.isSuccess());
+    }
+
+    @Test
+    public void testEnableAllFailures() throws Exception {
+        final SimplePluginManager manager = new SimplePluginManager(false, 4);
+        final TestPlugin slow = SimplePluginManagerTest.plugin("slow");
+        final TestPlugin failing = SimplePluginManagerTest.plugin("failing");
+        final TestPlugin slowDependent = SimplePluginManagerTest.plugin("slowdependent", "slow");
+        final TestPlugin failingDependent = SimplePluginManagerTest.plugin("failingdependent", "failing");
+        final TestPlugin independent = SimplePluginManagerTest.plugin("independent");
+        final CountDownLatch latch = new CountDownLatch(1);
+        slow.hook = () -> {
+            try {
+                latch.await();
+            } catch (final InterruptedException dummy) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        failing.hook = () -> {
+            throw new IllegalStateException("Failed!");
+        };
+        for (final TestPlugin plugin : Arrays.asList(slow, failing, slowDependent, failingDependent, independent)) {
+            manager.addPlugin(plugin);
+        }
+
+        final LifecycleReport report = manager.enableAll(200, TimeUnit.MILLISECONDS);
+        latch.countDown();
+
+        Assert.assertEquals(Collections.singletonList(slow), report.getTimedOut());
+        Assert.assertTrue(report.getErrors().get(slow) instanceof TimeoutException);
+        Assert.assertTrue(report.getErrors().get(failing) instanceof IllegalStateException);
+        Assert.assertTrue(report.getErrors().get(slowDependent) instanceof UnresolvableDependencyException);
+        Assert.assertTrue(report.getErrors().get(failingDependent) instanceof UnresolvableDependencyException);
+        Assert.assertEquals(4, report.getErrors().size());
+        Assert.assertEquals(-1, report.getDuration(slowDependent, TimeUnit.NANOSECONDS));
+        Assert.assertTrue(report.getDuration(slow, TimeUnit.MILLISECONDS) >= 200);
+        Assert.assertTrue(independent.isEnabled());
+        Assert.assertFalse(failing.isEnabled());
+        Assert.assertFalse(slowDependent.isEnabled());
+        Assert.assertFalse(failingDependent.isEnabled());
+
+        // The slow plugin finishes after its time budget and is disabled again.
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (slow.disableCount == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, slow.disableCount);
+        Assert.assertFalse(slow.isEnabled());
+    }
+
+    @Test
+    public void testEnableAllStubbornPlugin() throws Exception {
+        final SimplePluginManager manager = new SimplePluginManager(false, 1);
+        final TestPlugin stubborn = SimplePluginManagerTest.plugin("stubborn");
+        final CountDownLatch latch = new CountDownLatch(1);
+        // Ignores interrupts, so it keeps its thread after timing out.
+        stubborn.hook = () -> {
+            while (latch.getCount() > 0) {
+                try {
+                    latch.await();
+                } catch (final InterruptedException dummy) {
+                    // Ignored.
+                }
+            }
+        };
+        manager.addPlugin(stubborn);
+        final List<TestPlugin> independents = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final TestPlugin independent = SimplePluginManagerTest.plugin("independent" + (char) ('a' + i));
+            independents.add(independent);
+            manager.addPlugin(independent);
+        }
+
+        final FutureTask<LifecycleReport> enableAll = new FutureTask<>(() -> manager.enableAll(200, TimeUnit.MILLISECONDS));
+        new Thread(enableAll, "enableAll").start();
+        final LifecycleReport report;
+        try {
+            report = enableAll.get(5, TimeUnit.SECONDS);
+        } finally {
+            latch.countDown();
+        }
+
+        Assert.assertEquals(Collections.singletonList(stubborn), report.getTimedOut());
+        Assert.assertEquals(1, report.getErrors().size());
+        for (final TestPlugin independent : independents) {
+            Assert.assertTrue(independent.isEnabled());
+        }
+    }
+
+    @Test
+    public void testEnableFailure() throws Exception {
+        final TestPlugin failing = SimplePluginManagerTest.plugin("failing");
+        failing.hook = () -> {
+            this.pluginManager.defineImplementation(failing, Runnable.class, () -> {
+                // Nothing to do.
+            });
+
+            throw new IllegalStateException("Failed!");
+        };
+        this.pluginManager.addPlugin(failing);
+
+        try {
+            this.pluginManager.enable(failing);
+
+            Assert.fail();
+        } catch (final IllegalStateException dummy) {
+            // Expected.
+        }
+
+        Assert.assertFalse(failing.isEnabled());
+        this.assertMissing(Runnable.class);
+
+        // Enabling can be retried.
+        failing.hook = null;
+        this.pluginManager.enable(failing);
+
+        Assert.assertTrue(failing.isEnabled());
+        Assert.assertEquals(2, failing.enableCount);
+    }
+
+    @Test
+    public void testDisableFailure() throws Exception {
+        this.pluginManager.defineImplementation(this.impl, Runnable.class, () -> {
+            // Nothing to do.
+        });
+        this.pluginManager.getEventBus().register(this.impl, PostPluginLoadEvent.class, event -> {
+            // Nothing to do.
+        });
+        final int listenerCount = this.pluginManager.getEventBus().getListenerCount();
+        this.impl.hook = () -> {
+            throw new IllegalStateException("Failed!");
+        };
+
+        try {
+            this.pluginManager.disable(this.impl);
+
+            Assert.fail();
+        } catch (final IllegalStateException dummy) {
+            // Expected.
+        }
+
+        Assert.assertFalse(this.impl.isEnabled());
+        this.assertMissing(Runnable.class);
+        Assert.assertEquals(listenerCount - 1, this.pluginManager.getEventBus().getListenerCount());
+    }
+
+    @Test
+    public void testGetThroughput() throws Exception {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final int iterations = 5_000_000;
+        final Runnable implementation = () -> {
+            // Nothing to do.
+        };
+        this.pluginManager.defineImplementation(this.impl, Runnable.class, implementation);
+
+        final ExecutorService executor = ConcurrencyUtil.newExecutor("get", threads);
+        try {
+            final ServiceHandle<Runnable> handle = this.pluginManager.getHandle(Runnable.class);
+            // Warm up.
+            this.runGets(executor, threads, iterations, implementation, () -> this.pluginManager.get(Runnable.class));
+            this.runGets(executor, threads, iterations, implementation, handle::get);
+
+            final long getStart = System.nanoTime();
+            this.runGets(executor, threads, iterations, implementation, () -> this.pluginManager.get(Runnable.class));
+            final long getTime = System.nanoTime() - getStart;
+            final long handleStart = System.nanoTime();
+            this.runGets(executor, threads, iterations, implementation, handle::get);
+            final long handleTime = System.nanoTime() - handleStart;
+
+            SimplePluginManagerTest.LOGGER.info("{} threads performed {} calls each: get(...) took {} ms, the handle took {} ms.",
+                    threads, iterations, TimeUnit.NANOSECONDS.toMillis(getTime), TimeUnit.NANOSECONDS.toMillis(handleTime));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runGets(final ExecutorService executor, final int threads, final int iterations, final Runnable expected,
+            final Supplier<Runnable> getter) throws Exception {
+        final List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                int found = 0;
+                for (int j = 0; j < iterations; j++) {
+                    if (getter.get() == expected) {
+                        found++;
+                    }
+                }
+                return found;
+            }));
+        }
+        for (final Future<Integer> future : futures) {
+            Assert.assertEquals(iterations, (int) future.get());
+        }
+    }
+
+    private void assertMissing(final Class<?> definition) {
+        try {
+            this.pluginManager.get(definition);
+
+            Assert.fail();
+        } catch (final MissingImplementationException dummy) {
+            // Expected.
+        }
+    }
+
+    static TestPlugin plugin(final String rawName, final String... dependencies) throws Exception {
+        final PluginType pluginType = PluginType.parsePluginName(rawName);
+        final String name = pluginType.extractPluginName(rawName);
+
+        final SimplePluginMeta meta = new SimplePluginMeta();
+        meta.setLocation(new URL("file:/" + rawName + ".jar"));
+        meta.setName(name);
+        meta.setDisplayName(name);
+        meta.setVersion(new Version(1, 0, 0));
+        meta.setMain("test.Main");
+        meta.setPluginType(pluginType);
+        meta.setDependencies(dependencies);
+        meta.setOptionalDependencies(new String[0]);
+        meta.setAuthors(new String[0]);
+
+        final TestPlugin plugin = new TestPlugin();
+        plugin.setPluginMeta(meta);
+        return plugin;
+    }
+
+    public interface Counter {
+        @Cacheable
+        int next();
+    }
+
+    public static class TestPlugin extends BasePlugin {
+        private int enableCount;
+        private volatile int disableCount;
+        volatile int unloadCount;
+        volatile Runnable hook;
+
+        @Override
+        public void onEnable() {
+            this.enableCount++;
+            this.runHook();
+        }
+
+        @Override
+        public void onDisable() {
+            this.disableCount++;
+            this.runHook();
+        }
+
+        @Override
+        public void onUnload() {
+            this.unloadCount++;
+        }
+
+        private void runHook() {
+            final Runnable currentHook = this.hook;
+            if (currentHook != null) {
+                currentHook.run();
+            }
+        }
+    }
+}
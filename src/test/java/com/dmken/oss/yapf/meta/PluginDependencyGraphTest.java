@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.meta;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.dmken.oss.yapf.PluginMeta;
+import com.dmken.oss.yapf.PluginType;
+import com.dmken.oss.yapf.Version;
+import com.dmken.oss.yapf.meta.exception.MalformedPluginMetaException;
+import com.dmken.oss.yapf.meta.exception.UnresolvableDependencyException;
+
+@SuppressWarnings("javadoc")
+public class PluginDependencyGraphTest {
+    @Test
+    public void testWaves() throws Exception {
+        final PluginMeta api = PluginDependencyGraphTest.meta("foo-api");
+        final PluginMeta impl = PluginDependencyGraphTest.meta("foo-impl");
+        final PluginMeta a = PluginDependencyGraphTest.meta("a", "foo-api");
+        final PluginMeta b = PluginDependencyGraphTest.meta("b", "a");
+        final PluginMeta c = PluginDependencyGraphTest.meta("c");
+
+        final PluginDependencyGraph graph = PluginDependencyGraph.build(Arrays.asList(b, a, impl, c, api));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(c, api), Arrays.asList(a, impl), Arrays.asList(b)), graph.getWaves());
+        Assert.assertEquals(Arrays.asList(api), graph.getDependencies(impl));
+        Assert.assertEquals(Collections.emptyList(), graph.getRequiredDependencies(impl));
+        Assert.assertEquals(Arrays.asList(a, impl), graph.getDependents(api));
+    }
+
+    @Test
+    public void testDependencyWithoutSuffix() throws Exception {
+        final PluginMeta api = PluginDependencyGraphTest.meta("foo-api");
+        final PluginMeta impl = PluginDependencyGraphTest.meta("foo-impl");
+        final PluginMeta a = PluginDependencyGraphTest.meta("a", "foo");
+
+        final PluginDependencyGraph graph = PluginDependencyGraph.build(Arrays.asList(a, impl, api));
+
+        Assert.assertEquals(Arrays.asList(impl, api), graph.getRequiredDependencies(a));
+        Assert.assertEquals(3, graph.getWaves().size());
+    }
+
+    @Test
+    public void testOptionalDependencies() throws Exception {
+        final PluginMeta a = PluginDependencyGraphTest.meta("a");
+        final SimplePluginMeta b = PluginDependencyGraphTest.meta("b");
+        b.setOptionalDependencies(new String[] { "a", "missing" });
+
+        final PluginDependencyGraph graph = PluginDependencyGraph.build(Arrays.asList(b, a));
+
+        Assert.assertEquals(Arrays.asList(Arrays.asList(a), Arrays.asList(b)), graph.getWaves());
+        Assert.assertEquals(Arrays.asList(a), graph.getDependencies(b));
+        Assert.assertEquals(Collections.emptyList(), graph.getRequiredDependencies(b));
+    }
+
+    @Test
+    public void testMissingDependency() throws Exception {
+        try {
+            PluginDependencyGraph.build(Arrays.asList(PluginDependencyGraphTest.meta("a", "missing")));
+
+            Assert.fail();
+        } catch (final UnresolvableDependencyException ex) {
+            Assert.assertTrue(ex.getMessage().contains("missing"));
+        }
+    }
+
+    @Test
+    public void testCycle() throws Exception {
+        final List<PluginMeta> metas = Arrays.asList(PluginDependencyGraphTest.meta("a", "b"),
+                PluginDependencyGraphTest.meta("b", "c-api"), PluginDependencyGraphTest.meta("c-api", "a"),
+                PluginDependencyGraphTest.meta("d", "a"));
+
+        try {
+            PluginDependencyGraph.build(metas);
+
+            Assert.fail();
+        } catch (final UnresolvableDependencyException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().endsWith("Dependency cycle: a -> b -> c-api -> a!"));
+        }
+    }
+
+    @Test(expected = MalformedPluginMetaException.class)
+    public void testDuplicate() throws Exception {
+        PluginDependencyGraph.build(Arrays.asList(PluginDependencyGraphTest.meta("a"), PluginDependencyGraphTest.meta("a")));
+    }
+
+    private static SimplePluginMeta meta(final String rawName, final String... dependencies) throws Exception {
+        final PluginType pluginType = PluginType.parsePluginName(rawName);
+        final String name = pluginType.extractPluginName(rawName);
+
+        final SimplePluginMeta meta = new SimplePluginMeta();
+        meta.setLocation(new URL("file:/" + rawName + ".jar"));
+        meta.setName(name);
+        meta.setDisplayName(name);
+        meta.setVersion(new Version(1, 0, 0));
+        meta.setMain("test.Main");
+        meta.setPluginType(pluginType);
+        meta.setDependencies(dependencies);
+        meta.setOptionalDependencies(new String[0]);
+        meta.setAuthors(null);
+        return meta;
+    }
+}
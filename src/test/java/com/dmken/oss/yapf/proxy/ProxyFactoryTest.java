@@ -0,0 +1,355 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.proxy;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.dmken.oss.yapf.exception.MissingImplementationException;
+
+@SuppressWarnings("javadoc")
+public class ProxyFactoryTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyFactoryTest.class);
+
+    @Test
+    public void testForwarding() {
+        final Primitives proxy = ProxyFactory.newProxy(Primitives.class, new PrimitivesImpl(1));
+
+        Assert.assertTrue(proxy.not(false));
+        Assert.assertEquals((byte) 3, proxy.addBytes((byte) 1, (byte) 2));
+        Assert.assertEquals('b', proxy.next('a'));
+        Assert.assertEquals((short) -5, proxy.negate((short) 5));
+        Assert.assertEquals(42L, proxy.mix(1, 40L, 1.0F));
+        Assert.assertEquals(5.0, proxy.scale(2.5, 2), 0.0);
+        Assert.assertEquals("a-b", proxy.join("a", "b"));
+        Assert.assertEquals(1, proxy.id());
+        Assert.assertEquals(2, proxy.twice());
+        proxy.nothing();
+    }
+
+    @Test
+    public void testSwapTarget() {
+        final Primitives proxy = ProxyFactory.newProxy(Primitives.class, null);
+
+        try {
+            proxy.id();
+
+            Assert.fail();
+        } catch (final MissingImplementationException dummy) {
+            // Expected.
+        }
+
+        final ForwardingProxy forwardingProxy = (ForwardingProxy) proxy;
+        forwardingProxy.setTarget(new PrimitivesImpl(1));
+        Assert.assertEquals(1, proxy.id());
+        forwardingProxy.setTarget(new PrimitivesImpl(2));
+        Assert.assertEquals(2, proxy.id());
+        Assert.assertSame(Primitives.class, forwardingProxy.getDefinition());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTarget() {
+        ProxyFactory.newForwardingProxy(Primitives.class).setTarget("test");
+    }
+
+    @Test
+    public void testCache() {
+        final Class<? extends ForwardingProxy> proxyClass = ProxyFactory.getProxyClass(Primitives.class);
+
+        Assert.assertSame(proxyClass, ProxyFactory.getProxyClass(Primitives.class));
+        Assert.assertSame(proxyClass, ProxyFactory.newForwardingProxy(Primitives.class).getClass());
+        Assert.assertTrue(Primitives.class.isAssignableFrom(proxyClass));
+        Assert.assertSame(Primitives.class.getClassLoader(), proxyClass.getClassLoader().getParent());
+    }
+
+    @Test
+    public void testPlatformDefinition() {
+        final int[] counter = { 0 };
+        final Runnable proxy = ProxyFactory.newProxy(Runnable.class, () -> counter[0]++);
+
+        proxy.run();
+
+        Assert.assertEquals(1, counter[0]);
+        Assert.assertTrue(proxy.getClass().getName().startsWith("com.dmken.oss.yapf.proxy.generated."));
+    }
+
+    @Test
+    public void testInterceptingForwarding() throws NoSuchMethodException {
+        final InterceptingForwardingProxy interceptingProxy = ProxyFactory
+                .newInterceptingProxySupplier(Primitives.class,
+                        Arrays.asList(Primitives.class.getMethod("join", String.class, String.class),
+                                Identified.class.getMethod("id")))
+                .get();
+        final Primitives proxy = (Primitives) interceptingProxy;
+        interceptingProxy.setTarget(new PrimitivesImpl(1));
+
+        Assert.assertEquals(2, proxy.twice());
+        try {
+            proxy.id();
+
+            Assert.fail();
+        } catch (final MissingImplementationException dummy) {
+            // Expected.
+        }
+
+        interceptingProxy.setInterceptor(new PrimitivesImpl(5));
+        Assert.assertEquals(5, proxy.id());
+        Assert.assertEquals("a-b", proxy.join("a", "b"));
+        Assert.assertEquals(2, proxy.twice());
+        Assert.assertEquals(42L, proxy.mix(1, 40L, 1.0F));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInterceptor() {
+        ProxyFactory.newInterceptingProxySupplier(Primitives.class, Collections.emptyList()).get().setInterceptor("test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoInterface() {
+        ProxyFactory.newForwardingProxy(String.class);
+    }
+
+    @Test
+    public void testInstrumentedForwarding() {
+        final ProxyMetrics metrics = new ProxyMetrics(Primitives.class);
+        final Primitives proxy = ProxyFactory.newInstrumentedProxy(Primitives.class, new PrimitivesImpl(1), metrics);
+
+        Assert.assertTrue(proxy.not(false));
+        Assert.assertEquals((byte) 3, proxy.addBytes((byte) 1, (byte) 2));
+        Assert.assertEquals(42L, proxy.mix(1, 40L, 1.0F));
+        Assert.assertEquals(42L, proxy.mix(1, 40L, 1.0F));
+        Assert.assertEquals(5.0, proxy.scale(2.5, 2), 0.0);
+        Assert.assertEquals("a-b", proxy.join("a", "b"));
+        Assert.assertEquals(2, proxy.twice());
+        proxy.nothing();
+
+        Assert.assertTrue(proxy instanceof InstrumentedForwardingProxy);
+        Assert.assertSame(metrics, ((InstrumentedForwardingProxy) proxy).getMetrics());
+        Assert.assertNotSame(ProxyFactory.getProxyClass(Primitives.class), proxy.getClass());
+        Assert.assertEquals(10, metrics.snapshot().size());
+        final MethodStatistics mix = metrics.snapshot("mix");
+        Assert.assertEquals(2, mix.getCalls());
+        Assert.assertEquals(0, mix.getErrors());
+        Assert.assertEquals(2, LongStream.of(mix.getBuckets()).sum());
+        Assert.assertEquals(1, metrics.snapshot("nothing").getCalls());
+        // Default methods are forwarded as well (and invoke id() on the target).
+        Assert.assertEquals(1, metrics.snapshot("twice").getCalls());
+        Assert.assertEquals(0, metrics.snapshot("id").getCalls());
+        Assert.assertNull(metrics.snapshot("unknown"));
+    }
+
+    @Test
+    public void testInstrumentedErrors() {
+        final ProxyMetrics metrics = new ProxyMetrics(Failing.class);
+        final Failing proxy = ProxyFactory.newInstrumentedProxy(Failing.class, (a, b, c) -> {
+            if (a < 0) {
+                throw new IllegalStateException("Negative!");
+            }
+            return (int) (a + b.length);
+        }, metrics);
+
+        Assert.assertEquals(3, proxy.fail(1, new double[2], null));
+        try {
+            proxy.fail(-1, new double[0], "test");
+
+            Assert.fail();
+        } catch (final IllegalStateException ex) {
+            Assert.assertEquals("Negative!", ex.getMessage());
+        }
+
+        final MethodStatistics statistics = metrics.snapshot("fail");
+        Assert.assertEquals(2, statistics.getCalls());
+        Assert.assertEquals(1, statistics.getErrors());
+        Assert.assertTrue(statistics.getPercentileNanos(1.0) <= statistics.getMaxTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testInstrumentedMissingTarget() {
+        final ProxyMetrics metrics = new ProxyMetrics(Primitives.class);
+        final Primitives proxy = ProxyFactory.newInstrumentedProxy(Primitives.class, null, metrics);
+
+        try {
+            proxy.id();
+
+            Assert.fail();
+        } catch (final MissingImplementationException dummy) {
+            // Expected.
+        }
+
+        Assert.assertEquals(1, metrics.snapshot("id").getErrors());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInstrumentedWrongMetrics() {
+        ProxyFactory.newInstrumentedProxy(Primitives.class, null, new ProxyMetrics(Failing.class));
+    }
+
+    @Test
+    public void testHistogram() {
+        Assert.assertEquals(0, ProxyMetrics.bucket(0));
+        Assert.assertEquals(1, ProxyMetrics.bucket(1));
+        Assert.assertEquals(2, ProxyMetrics.bucket(2));
+        Assert.assertEquals(2, ProxyMetrics.bucket(3));
+        Assert.assertEquals(11, ProxyMetrics.bucket(1024));
+        Assert.assertEquals(63, ProxyMetrics.bucket(Long.MAX_VALUE));
+
+        final ProxyMetrics metrics = new ProxyMetrics(Identified.class);
+        for (int i = 0; i < 99; i++) {
+            metrics.record(0, 100, false);
+        }
+        metrics.record(0, 5000, true);
+        final MethodStatistics statistics = metrics.snapshot("id");
+        Assert.assertEquals(100, statistics.getCalls());
+        Assert.assertEquals(1, statistics.getErrors());
+        Assert.assertEquals(5000, statistics.getMaxTime(TimeUnit.NANOSECONDS));
+        Assert.assertEquals(149.0, statistics.getMeanNanos(), 0.0);
+        Assert.assertEquals(127, statistics.getPercentileNanos(0.5));
+        Assert.assertEquals(127, statistics.getPercentileNanos(0.99));
+        Assert.assertEquals(5000, statistics.getPercentileNanos(1.0));
+    }
+
+    @Test
+    public void testPerformance() {
+        final int iterations = 2_000_000;
+        final Primitives target = new PrimitivesImpl(1);
+        final Primitives generated = ProxyFactory.newProxy(Primitives.class, target);
+        final Primitives instrumented = ProxyFactory.newInstrumentedProxy(Primitives.class, target,
+                new ProxyMetrics(Primitives.class));
+        final Primitives reflective = (Primitives) Proxy.newProxyInstance(Primitives.class.getClassLoader(),
+                new Class<?>[] { Primitives.class }, (proxy, method, args) -> method.invoke(target, args));
+
+        long result = ProxyFactoryTest.run(generated, iterations) + ProxyFactoryTest.run(instrumented, iterations)
+                + ProxyFactoryTest.run(reflective, iterations);
+        final long generatedStart = System.nanoTime();
+        result += ProxyFactoryTest.run(generated, iterations);
+        final long generatedTime = System.nanoTime() - generatedStart;
+        final long instrumentedStart = System.nanoTime();
+        result += ProxyFactoryTest.run(instrumented, iterations);
+        final long instrumentedTime = System.nanoTime() - instrumentedStart;
+        final long reflectiveStart = System.nanoTime();
+        result += ProxyFactoryTest.run(reflective, iterations);
+        final long reflectiveTime = System.nanoTime() - reflectiveStart;
+
+        ProxyFactoryTest.LOGGER.info(
+                "Invoking {} primitive methods: generated proxy took {} ms, instrumented proxy took {} ms,"
+                        + " java.lang.reflect.Proxy took {} ms ({}).",
+                iterations, TimeUnit.NANOSECONDS.toMillis(generatedTime), TimeUnit.NANOSECONDS.toMillis(instrumentedTime),
+                TimeUnit.NANOSECONDS.toMillis(reflectiveTime), result);
+    }
+
+    private static long run(final Primitives primitives, final int iterations) {
+        long result = 0;
+        for (int i = 0; i < iterations; i++) {
+            result += primitives.mix(i, result, 1.0F);
+        }
+        return result;
+    }
+
+    public interface Failing {
+        int fail(long a, double[] b, Object c);
+    }
+
+    public interface Identified {
+        int id();
+    }
+
+    public interface Primitives extends Identified {
+        boolean not(boolean value);
+
+        byte addBytes(byte a, byte b);
+
+        char next(char value);
+
+        short negate(short value);
+
+        long mix(int a, long b, float c);
+
+        double scale(double value, int factor);
+
+        String join(String a, String b);
+
+        void nothing();
+
+        default int twice() {
+            return 2 * this.id();
+        }
+    }
+
+    public static class PrimitivesImpl implements Primitives {
+        private final int id;
+
+        public PrimitivesImpl(final int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int id() {
+            return this.id;
+        }
+
+        @Override
+        public boolean not(final boolean value) {
+            return !value;
+        }
+
+        @Override
+        public byte addBytes(final byte a, final byte b) {
+            return (byte) (a + b);
+        }
+
+        @Override
+        public char next(final char value) {
+            return (char) (value + 1);
+        }
+
+        @Override
+        public short negate(final short value) {
+            return (short) -value;
+        }
+
+        @Override
+        public long mix(final int a, final long b, final float c) {
+            return (long) (a + b + c);
+        }
+
+        @Override
+        public double scale(final double value, final int factor) {
+            return value * factor;
+        }
+
+        @Override
+        public String join(final String a, final String b) {
+            return a + "-" + b;
+        }
+
+        @Override
+        public void nothing() {
+            // Nothing to do.
+        }
+    }
+}
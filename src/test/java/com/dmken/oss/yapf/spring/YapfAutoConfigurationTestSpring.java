@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.spring;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.dmken.oss.yapf.event.EventBus;
+import com.dmken.oss.yapf.event.PrePluginLoadEvent;
+import com.dmken.oss.yapf.loader.PluginLoader;
+import com.dmken.oss.yapf.manager.SimplePluginManager;
+
+@SuppressWarnings("javadoc")
+@RunWith(SpringRunner.class)
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+@ContextConfiguration(classes = { YapfAutoConfigurationTestSpring.CustomEventBusConfiguration.class,
+        MethodInvocationCountingApplicationEventListener.class, YapfAutoConfiguration.class })
+public class YapfAutoConfigurationTestSpring {
+    @Autowired
+    private EventBus eventBus;
+    @Autowired
+    private PluginLoader pluginLoader;
+    @Autowired
+    private SimplePluginManager pluginManager;
+    @Autowired
+    private MethodInvocationCountingApplicationEventListener listener;
+
+    @Test
+    public void testCustomEventBus() {
+        Assert.assertNotSame(EventBus.getDefault(), this.eventBus);
+        Assert.assertSame(this.eventBus, this.pluginLoader.getEventBus());
+        Assert.assertSame(this.eventBus, this.pluginManager.getEventBus());
+    }
+
+    @Test
+    public void testBridge() {
+        EventBus.getDefault().fire(new PrePluginLoadEvent(null));
+        Assert.assertEquals(0, this.listener.getOnPrePluginLoadEventInvocations());
+
+        this.eventBus.fire(new PrePluginLoadEvent(null));
+        Assert.assertEquals(1, this.listener.getOnPrePluginLoadEventInvocations());
+    }
+
+    // Not annotated with @Configuration, so YapfTestConfiguration does not
+    // pick it up.
+    public static class CustomEventBusConfiguration {
+        @Bean
+        public EventBus customEventBus() {
+            return new EventBus();
+        }
+    }
+}
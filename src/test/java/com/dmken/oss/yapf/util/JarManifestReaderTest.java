@@ -0,0 +1,229 @@
+/*-
+ * #%L
+ * Yet Another Plugin Framework
+ * %%
+ * Copyright (C) 2017 Fabian Damken
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.dmken.oss.yapf.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@SuppressWarnings("javadoc")
+public class JarManifestReaderTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JarManifestReaderTest.class);
+
+    @Rule
+    public TemporaryFolder dir = new TemporaryFolder();
+
+    @Test
+    public void testDeflatedManifest() throws Exception {
+        final Path file = this.createJarFile(ZipEntry.DEFLATED, 0, true, null);
+
+        this.assertManifest(file);
+    }
+
+    @Test
+    public void testStoredManifest() throws Exception {
+        final Path file = this.createJarFile(ZipEntry.STORED, 0, true, null);
+
+        this.assertManifest(file);
+    }
+
+    @Test
+    public void testManyEntries() throws Exception {
+        final Path file = this.createJarFile(ZipEntry.DEFLATED, 10_000, true, "A comment.");
+
+        this.assertManifest(file);
+
+        // Compare with the JarFile-based approach (validation and manifest
+        // extraction).
+        final int iterations = 200;
+        for (int i = 0; i < iterations; i++) {
+            JarManifestReader.readManifest(file);
+            this.readManifestUsingJarFile(file);
+        }
+        final long readerStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            JarManifestReader.readManifest(file);
+        }
+        final long readerTime = System.nanoTime() - readerStart;
+        final long jarFileStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            this.readManifestUsingJarFile(file);
+        }
+        final long jarFileTime = System.nanoTime() - jarFileStart;
+
+        JarManifestReaderTest.LOGGER.info("Reading the manifest of a JAR with 10000 entries {} times: "
+                + "JarManifestReader took {} ms, JarFile took {} ms.", iterations, TimeUnit.NANOSECONDS.toMillis(readerTime),
+                TimeUnit.NANOSECONDS.toMillis(jarFileTime));
+    }
+
+    @Test
+    public void testMissingManifest() throws Exception {
+        final Path file = this.createJarFile(ZipEntry.DEFLATED, 10, false, null);
+
+        Assert.assertTrue(JarManifestReader.isZipFile(file));
+        Assert.assertFalse(JarManifestReader.readManifest(file).isPresent());
+    }
+
+    @Test
+    public void testNoZipFile() throws Exception {
+        final Path file = this.dir.newFile().toPath();
+        Files.write(file, "This is not a ZIP file.".getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertFalse(JarManifestReader.isZipFile(file));
+        try {
+            JarManifestReader.readManifest(file);
+
+            Assert.fail();
+        } catch (final ZipException dummy) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        final Path file = this.dir.newFile().toPath();
+
+        Assert.assertFalse(JarManifestReader.isZipFile(file));
+    }
+
+    @Test
+    public void testCorruptLocalHeaderOffset() throws Exception {
+        final Path file = this.createJarFile(ZipEntry.DEFLATED, 0, true, null);
+        this.patchCentralDirectory(file, 42, 0xFFFF_FF00);
+
+        this.assertZipException(file);
+    }
+
+    @Test
+    public void testCorruptCompressedSize() throws Exception {
+        final Path file = this.createJarFile(ZipEntry.STORED, 0, true, null);
+        this.patchCentralDirectory(file, 20, 0x7FFF_FFFF);
+
+        this.assertZipException(file);
+    }
+
+    @Test
+    public void testCorruptSize() throws Exception {
+        final Path file = this.createJarFile(ZipEntry.DEFLATED, 0, true, null);
+        this.patchCentralDirectory(file, 24, 0x7FFF_FF00);
+
+        this.assertZipException(file);
+    }
+
+    private void assertZipException(final Path file) throws IOException {
+        try {
+            JarManifestReader.readManifest(file);
+
+            Assert.fail();
+        } catch (final ZipException dummy) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Overwrites a field of the first central directory file header.
+     *
+     */
+    private void patchCentralDirectory(final Path file, final int fieldOffset, final int value) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        final int centralDirectoryOffset = buffer.getInt(buffer.limit() - 22 + 16);
+        buffer.putInt(centralDirectoryOffset + fieldOffset, value);
+        Files.write(file, buffer.array());
+    }
+
+    private void assertManifest(final Path file) throws IOException {
+        final Optional<Manifest> manifest = JarManifestReader.readManifest(file);
+
+        Assert.assertTrue(JarManifestReader.isZipFile(file));
+        Assert.assertTrue(manifest.isPresent());
+        Assert.assertEquals(this.readManifestUsingJarFile(file), manifest.get());
+        Assert.assertEquals("test-api", manifest.get().getAttributes("yapf").getValue("name"));
+    }
+
+    private Manifest readManifestUsingJarFile(final Path file) throws IOException {
+        try (final JarFile jar = new JarFile(file.toFile())) {
+            return jar.getManifest();
+        }
+    }
+
+    private Path createJarFile(final int method, final int otherEntries, final boolean withManifest, final String comment)
+            throws IOException {
+        final Path file = this.dir.newFile().toPath();
+
+        final Attributes attributes = new Attributes();
+        attributes.putValue("name", "test-api");
+        attributes.putValue("version", "1.0.0");
+        attributes.putValue("main", "test.Main");
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getEntries().put("yapf", attributes);
+
+        try (final OutputStream out = Files.newOutputStream(file); final ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < otherEntries; i++) {
+                zip.putNextEntry(new ZipEntry("test/Class" + i + ".class"));
+                zip.write(new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, (byte) i });
+                zip.closeEntry();
+            }
+            if (withManifest) {
+                final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                manifest.write(content);
+                final byte[] bytes = content.toByteArray();
+
+                final ZipEntry entry = new ZipEntry(JarFile.MANIFEST_NAME);
+                entry.setMethod(method);
+                if (method == ZipEntry.STORED) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    entry.setSize(bytes.length);
+                    entry.setCompressedSize(bytes.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zip.putNextEntry(entry);
+                zip.write(bytes);
+                zip.closeEntry();
+            }
+            if (comment != null) {
+                zip.setComment(comment);
+            }
+        }
+        return file;
+    }
+}
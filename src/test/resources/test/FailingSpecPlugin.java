@@ -0,0 +1,13 @@
+package test;
+
+import com.dmken.oss.yapf.BasePlugin;
+
+public class FailingSpecPlugin extends BasePlugin {
+    @Override
+    public void onLoad() {
+        // Expose the class loader to the test.
+        System.getProperties().put("test.FailingSpecPlugin.classLoader", this.getClass().getClassLoader());
+
+        throw new IllegalStateException("Expected.");
+    }
+}
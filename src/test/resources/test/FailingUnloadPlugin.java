@@ -0,0 +1,10 @@
+package test;
+
+import com.dmken.oss.yapf.BasePlugin;
+
+public class FailingUnloadPlugin extends BasePlugin {
+    @Override
+    public void onUnload() {
+        throw new IllegalStateException("Expected.");
+    }
+}